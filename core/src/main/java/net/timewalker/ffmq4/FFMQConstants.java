@@ -29,7 +29,7 @@ public interface FFMQConstants
     public static final int DEFAULT_SERVER_PORT = 10002;
     
     // Transport protocol version
-    public static final int TRANSPORT_PROTOCOL_VERSION = 9;
+    public static final int TRANSPORT_PROTOCOL_VERSION = 11;
     
     // JNDI related constants
     public static final String JNDI_CONTEXT_FACTORY = FFMQInitialContextFactory.class.getName();
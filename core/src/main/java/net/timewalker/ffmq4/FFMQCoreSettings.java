@@ -35,6 +35,8 @@ public final class FFMQCoreSettings
     public static final String JMX_AGENT_RMI_LISTEN_ADDR   = "management.jmx.agent.rmi.listenAddr";
     public static final String DEPLOY_QUEUES_ON_STARTUP    = "management.deployOnStartup.queues";
     public static final String DEPLOY_TOPICS_ON_STARTUP    = "management.deployOnStartup.topics";
+    public static final String DEPLOY_ON_STARTUP_THREADS   = "management.deployOnStartup.threads";
+    public static final String DEPLOY_LAZY_STORES          = "management.deployOnStartup.lazyStores";
     
     // Security related
     public static final String SECURITY_ENABLED    = "security.enabled";
@@ -53,6 +55,17 @@ public final class FFMQCoreSettings
 	public static final String ASYNC_TASK_MANAGER_DISKIO_THREAD_POOL_MINSIZE   = "asyncTaskManager.diskIO.threadPool.minSize";
 	public static final String ASYNC_TASK_MANAGER_DISKIO_THREAD_POOL_MAXIDLE   = "asyncTaskManager.diskIO.threadPool.maxIdle";
 	public static final String ASYNC_TASK_MANAGER_DISKIO_THREAD_POOL_MAXSIZE   = "asyncTaskManager.diskIO.threadPool.maxSize";
+	public static final String ASYNC_TASK_MANAGER_NOTIFICATION_EXECUTOR = "asyncTaskManager.notification.executor";
+	public static final String ASYNC_TASK_MANAGER_DELIVERY_EXECUTOR     = "asyncTaskManager.delivery.executor";
+	public static final String ASYNC_TASK_MANAGER_DISKIO_EXECUTOR       = "asyncTaskManager.diskIO.executor";
+	
+	// Shared journal
+	public static final String STORAGE_SHARED_JOURNAL_ENABLED           = "storage.sharedJournal.enabled";
+	public static final String STORAGE_SHARED_JOURNAL_DATA_DIR          = "storage.sharedJournal.dataFolder";
+	public static final String STORAGE_SHARED_JOURNAL_MAX_FILE_SIZE     = "storage.sharedJournal.maxFileSize";
+	public static final String STORAGE_SHARED_JOURNAL_OUTPUT_BUFFER     = "storage.sharedJournal.outputBufferSize";
+	public static final String STORAGE_SHARED_JOURNAL_SYNC_METHOD       = "storage.sharedJournal.syncMethod";
+	public static final String STORAGE_SHARED_JOURNAL_PREALLOCATE_FILES = "storage.sharedJournal.preAllocateFiles";
 	
 	// Watchdog
 	public static final String WATCHDOG_CONSUMER_INACTIVITY_TIMEOUT     = "watchdog.consumer.inactivityTimeout";
@@ -73,6 +86,8 @@ public final class FFMQCoreSettings
 	public static final String TRANSPORT_TCP_SOCKET_SEND_BUFFER_SIZE    = "transport.tcp.socket.sendBufferSize";
 	public static final String TRANSPORT_TCP_SOCKET_RECV_BUFFER_SIZE    = "transport.tcp.socket.recvBufferSize";
 	public static final String TRANSPORT_TCP_PACKET_MAX_SIZE            = "transport.tcp.packet.maxSize";
+	public static final String TRANSPORT_TCP_NIO_SELECTOR_THREADS       = "transport.tcp.nio.selectorThreads";
+	public static final String TRANSPORT_TCP_VIRTUAL_THREADS            = "transport.tcp.virtualThreads";
 	// SSL
 	public static final String TRANSPORT_TCP_SSL_ENABLED                = "transport.tcp.ssl.enabled";
     public static final String TRANSPORT_TCP_SSL_PROTOCOL               = "transport.tcp.ssl.protocol";
@@ -30,6 +30,7 @@ import net.timewalker.ffmq4.FFMQCoreSettings;
 import net.timewalker.ffmq4.transport.PacketTransportException;
 import net.timewalker.ffmq4.transport.tcp.nio.NIOTcpMultiplexer;
 import net.timewalker.ffmq4.utils.Settings;
+import net.timewalker.ffmq4.utils.async.AsyncTaskExecutorType;
 import net.timewalker.ffmq4.utils.async.AsyncTaskManager;
 
 /**
@@ -110,7 +111,9 @@ public final class ClientEnvironment
     		int threadPoolMinSize = getSettings().getIntProperty(FFMQCoreSettings.ASYNC_TASK_MANAGER_DELIVERY_THREAD_POOL_MINSIZE,0);
     		int threadPoolMaxIdle = getSettings().getIntProperty(FFMQCoreSettings.ASYNC_TASK_MANAGER_DELIVERY_THREAD_POOL_MAXIDLE,5);
     		int threadPoolMaxSize = getSettings().getIntProperty(FFMQCoreSettings.ASYNC_TASK_MANAGER_DELIVERY_THREAD_POOL_MAXSIZE,10);
+    		int executorType = getSettings().getIntProperty(FFMQCoreSettings.ASYNC_TASK_MANAGER_DELIVERY_EXECUTOR,AsyncTaskExecutorType.THREAD_POOL);
 			asyncTaskManager = new AsyncTaskManager("AsyncTaskManager-client-delivery",
+													executorType,
 													threadPoolMinSize,
 													threadPoolMaxIdle,
 													threadPoolMaxSize);
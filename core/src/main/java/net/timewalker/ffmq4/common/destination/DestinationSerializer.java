@@ -68,6 +68,16 @@ public final class DestinationSerializer
     	}
     }
     
+    /**
+     * Skip a serialized destination in the given stream
+     */
+    public static void skip( RawDataBuffer in )
+    {
+        int type = in.readByte();
+        if (type != NO_DESTINATION)
+        	in.skipUTF();
+    }
+    
     /**
      * Unserialize a destination from the given stream
      */
@@ -61,12 +61,15 @@ public abstract class AbstractMessage implements Message
     // Serialization related
     private int unserializationLevel;
     private RawDataBuffer rawMessage;
+    private int rawHeadersOffset; // Offset of level 2 headers in the raw message
+    private RawHeaderIndex rawHeaderIndex; // Built on demand, to read level 2 headers without deserializing them
     
     // Volatile properties
     private boolean propertiesAreReadOnly;
     protected boolean bodyIsReadOnly; 
     private transient WeakReference<AbstractSession> sessionRef; // Weak link to the parent session
     private transient boolean internalCopy = false;
+    private transient long deliveryTag = -1; // Delivery tag assigned by the server session (remotely consumed messages only)
     
     /**
      * Constructor
@@ -113,7 +116,11 @@ public abstract class AbstractMessage implements Message
         // Copy raw message cache if any
         clone.unserializationLevel = this.unserializationLevel; 
         if (this.rawMessage != null)
+        {
         	clone.rawMessage = this.rawMessage.copy();
+        	clone.rawHeadersOffset = this.rawHeadersOffset;
+        	clone.rawHeaderIndex = this.rawHeaderIndex;
+        }
     }
     
     /**
@@ -222,9 +229,10 @@ public abstract class AbstractMessage implements Message
      * @see javax.jms.Message#getJMSCorrelationID()
      */
     @Override
-	public final String getJMSCorrelationID()
+	public final synchronized String getJMSCorrelationID()
     {
-    	assertDeserializationLevel(MessageSerializationLevel.ALL_HEADERS);
+    	if (isReadingRawHeaders())
+    		return getRawHeaderIndex().getCorrelationID(rawMessage);
         return correlId;
     }
 
@@ -305,9 +313,10 @@ public abstract class AbstractMessage implements Message
      * @see javax.jms.Message#getJMSTimestamp()
      */
     @Override
-	public final long getJMSTimestamp()
+	public final synchronized long getJMSTimestamp()
     {
-    	assertDeserializationLevel(MessageSerializationLevel.ALL_HEADERS);
+    	if (isReadingRawHeaders())
+    		return getRawHeaderIndex().getTimestamp();
         return timestamp;
     }
 
@@ -315,9 +324,10 @@ public abstract class AbstractMessage implements Message
      * @see javax.jms.Message#getJMSType()
      */
     @Override
-	public final String getJMSType()
+	public final synchronized String getJMSType()
     {
-    	assertDeserializationLevel(MessageSerializationLevel.ALL_HEADERS);
+    	if (isReadingRawHeaders())
+    		return getRawHeaderIndex().getType(rawMessage);
         return type;
     }
 
@@ -589,9 +599,10 @@ public abstract class AbstractMessage implements Message
         propertyMap.put(name, value);
     }
     
-    private Object getProperty(String name)
+    private synchronized Object getProperty(String name)
     {
-    	assertDeserializationLevel(MessageSerializationLevel.ALL_HEADERS);
+    	if (isReadingRawHeaders())
+    		return getRawHeaderIndex().getProperty(rawMessage, name);
     	return propertyMap != null ? propertyMap.get(name) : null;
     }
     
@@ -644,6 +655,23 @@ public abstract class AbstractMessage implements Message
 		this.internalCopy = copy;
 	}
 
+	/**
+	 * Get the delivery tag assigned by the server session to this message
+	 * @return the delivery tag or -1 if the message was not received from a remote session
+	 */
+	public final long getDeliveryTag()
+	{
+		return deliveryTag;
+	}
+	
+	/**
+	 * Set the delivery tag assigned by the server session to this message
+	 */
+	public final void setDeliveryTag(long deliveryTag)
+	{
+		this.deliveryTag = deliveryTag;
+	}
+	
 	/**
      * Get the type value for this message
      */
@@ -705,6 +733,7 @@ public abstract class AbstractMessage implements Message
     	if ((lvl1Flags & (1 << 6)) != 0) expiration = rawMessage.readLong();
     	if ((lvl1Flags & (1 << 7)) != 0) id = rawMessage.readUTF();
     	destination = DestinationSerializer.unserializeFrom(rawMessage);
+    	rawHeadersOffset = rawMessage.pos();
     }
     
     public final synchronized void ensureDeserializationLevel( int targetLevel )
@@ -725,6 +754,7 @@ public abstract class AbstractMessage implements Message
     			if ((lvl2Flags & (1 << 4)) != 0) propertyMap = readMapFrom(rawMessage);
     			
     			unserializationLevel = MessageSerializationLevel.ALL_HEADERS;
+    			rawHeaderIndex = null;
     		}
     		else
 			if (unserializationLevel == MessageSerializationLevel.ALL_HEADERS)
@@ -737,6 +767,23 @@ public abstract class AbstractMessage implements Message
     	}
     }
     
+    /**
+     * Test if level 2 headers have to be read from the raw message.
+     * Headers and properties used by message selectors are then read from the raw
+     * message as needed, leaving the message at its current deserialization level.
+     */
+    private boolean isReadingRawHeaders()
+    {
+    	return rawMessage != null && unserializationLevel < MessageSerializationLevel.ALL_HEADERS;
+    }
+    
+    private RawHeaderIndex getRawHeaderIndex()
+    {
+    	if (rawHeaderIndex == null)
+    		rawHeaderIndex = new RawHeaderIndex(rawMessage, rawHeadersOffset);
+    	return rawHeaderIndex;
+    }
+    
     protected final synchronized void assertDeserializationLevel( int targetLevel )
     {
     	if (rawMessage == null)
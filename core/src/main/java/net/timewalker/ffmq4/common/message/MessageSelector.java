@@ -25,6 +25,8 @@ import javax.jms.Message;
 
 import net.timewalker.ffmq4.common.message.selector.MessageSelectorParser;
 import net.timewalker.ffmq4.common.message.selector.SelectorIndexKey;
+import net.timewalker.ffmq4.common.message.selector.compiler.MessageSelectorCompiler;
+import net.timewalker.ffmq4.common.message.selector.compiler.SelectorEvaluator;
 import net.timewalker.ffmq4.common.message.selector.expression.Identifier;
 import net.timewalker.ffmq4.common.message.selector.expression.SelectorNode;
 import net.timewalker.ffmq4.common.message.selector.expression.literal.Literal;
@@ -42,12 +44,17 @@ public final class MessageSelector
     // Parsed selector node tree
     private SelectorNode selectorTree;
     
+    // Compiled form of the selector tree
+    private SelectorEvaluator evaluator;
+    
     /**
      * Constructor
      */
     public MessageSelector( String selectorString ) throws JMSException
     {
         this.selectorTree = new MessageSelectorParser(selectorString).parse();
+        if (selectorTree != null)
+        	this.evaluator = MessageSelectorCompiler.compile(selectorTree);
     }
 
     /**
@@ -55,8 +62,7 @@ public final class MessageSelector
      */
     public boolean matches( Message message ) throws JMSException
     {
-        Boolean result = selectorTree != null ? selectorTree.evaluateBoolean(message) : null;
-        return result != null && result.booleanValue();
+        return evaluator != null && evaluator.matches(message);
     }
     
     public List<SelectorIndexKey> getIndexableKeys()
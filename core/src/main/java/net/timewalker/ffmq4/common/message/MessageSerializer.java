@@ -43,6 +43,20 @@ public final class MessageSerializer
         return buffer.toByteArray();
     }
     
+    /**
+     * Serialize a message for immediate consumption.
+     * The returned array may be shared with the message raw buffer (no copy),
+     * so it must be neither modified nor retained by the caller.
+     */
+    public static byte[] serializeTransient( AbstractMessage message , int typicalSize )
+    {
+        RawDataBuffer rawMsg = message.getRawMessage();
+        if (rawMsg != null)
+            return rawMsg.toSharedByteArray();
+
+        return serialize(message, typicalSize);
+    }
+    
     /**
      * Unserialize a message
      */
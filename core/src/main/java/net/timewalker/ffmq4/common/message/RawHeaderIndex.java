@@ -0,0 +1,140 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.common.message;
+
+import net.timewalker.ffmq4.common.destination.DestinationSerializer;
+import net.timewalker.ffmq4.utils.RawDataBuffer;
+
+/**
+ * <p>
+ *  Offset index of the level 2 headers and properties of a raw message.
+ *  It lets message selectors read individual headers and properties directly from the
+ *  serialized form, without deserializing all headers and the whole property map.
+ * </p>
+ * <p>The index only holds offsets, so it may be shared by copies of the same raw message.</p>
+ */
+final class RawHeaderIndex
+{
+	// Attributes
+	private int correlIdOffset = -1;
+	private long timestamp;
+	private int typeOffset = -1;
+	private int[] propertyOffsets;
+	
+	/**
+	 * Constructor
+	 * @param rawMessage the raw message
+	 * @param offset offset of the level 2 headers in the raw message
+	 */
+	public RawHeaderIndex( RawDataBuffer rawMessage , int offset )
+	{
+		int savedPos = rawMessage.pos();
+		try
+		{
+			rawMessage.setPos(offset);
+			byte lvl2Flags = rawMessage.readByte();
+			if ((lvl2Flags & (1 << 0)) != 0)
+			{
+				correlIdOffset = rawMessage.pos();
+				rawMessage.skipUTF();
+			}
+			if ((lvl2Flags & (1 << 1)) != 0)
+				DestinationSerializer.skip(rawMessage);
+			if ((lvl2Flags & (1 << 2)) != 0)
+				timestamp = rawMessage.readLong();
+			if ((lvl2Flags & (1 << 3)) != 0)
+			{
+				typeOffset = rawMessage.pos();
+				rawMessage.skipUTF();
+			}
+			if ((lvl2Flags & (1 << 4)) != 0)
+			{
+				int propertyCount = rawMessage.readInt();
+				propertyOffsets = new int[propertyCount];
+				for (int n = 0 ; n < propertyCount ; n++)
+				{
+					propertyOffsets[n] = rawMessage.pos();
+					rawMessage.skipUTF();
+					rawMessage.skipGeneric();
+				}
+			}
+		}
+		finally
+		{
+			rawMessage.setPos(savedPos);
+		}
+	}
+	
+	public String getCorrelationID( RawDataBuffer rawMessage )
+	{
+		return readUTFAt(rawMessage, correlIdOffset);
+	}
+	
+	public long getTimestamp()
+	{
+		return timestamp;
+	}
+	
+	public String getType( RawDataBuffer rawMessage )
+	{
+		return readUTFAt(rawMessage, typeOffset);
+	}
+	
+	private String readUTFAt( RawDataBuffer rawMessage , int offset )
+	{
+		if (offset == -1)
+			return null;
+		
+		int savedPos = rawMessage.pos();
+		try
+		{
+			rawMessage.setPos(offset);
+			return rawMessage.readUTF();
+		}
+		finally
+		{
+			rawMessage.setPos(savedPos);
+		}
+	}
+	
+	/**
+	 * Read a property value from the raw message
+	 * @return the property value or null if the property does not exist
+	 */
+	public Object getProperty( RawDataBuffer rawMessage , String name )
+	{
+		if (propertyOffsets == null)
+			return null;
+		
+		int savedPos = rawMessage.pos();
+		try
+		{
+			for (int n = 0 ; n < propertyOffsets.length ; n++)
+			{
+				rawMessage.setPos(propertyOffsets[n]);
+				if (rawMessage.readUTFEquals(name))
+					return rawMessage.readGeneric();
+			}
+			return null;
+		}
+		finally
+		{
+			rawMessage.setPos(savedPos);
+		}
+	}
+}
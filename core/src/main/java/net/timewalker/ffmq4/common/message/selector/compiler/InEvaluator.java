@@ -0,0 +1,87 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.common.message.selector.compiler;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import net.timewalker.ffmq4.FFMQException;
+import net.timewalker.ffmq4.common.message.selector.expression.Identifier;
+
+/**
+ * <p>IN test of an identifier against a constant list of strings.
+ * Large lists are looked up through a hash set.</p>
+ */
+final class InEvaluator extends SelectorEvaluator
+{
+	private static final int HASH_LOOKUP_THRESHOLD = 8;
+	
+	// Attributes
+	private Identifier identifier;
+	private String[] values;
+	private Set<String> valueSet;
+	private boolean negated;
+	
+	/**
+	 * Constructor
+	 */
+	public InEvaluator( Identifier identifier , String[] values , boolean negated )
+	{
+		super(values.length > HASH_LOOKUP_THRESHOLD ? 3 : 2+values.length/4);
+		this.identifier = identifier;
+		this.values = values;
+		if (values.length > HASH_LOOKUP_THRESHOLD)
+			this.valueSet = new HashSet<>(Arrays.asList(values));
+		this.negated = negated;
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.common.message.selector.compiler.SelectorEvaluator#evaluate(javax.jms.Message)
+	 */
+	@Override
+	public int evaluate( Message message ) throws JMSException
+	{
+		Object value = identifier.evaluate(message);
+		if (value == null)
+			return UNKNOWN; // [JMS Spec]
+		if (!(value instanceof String))
+			throw new FFMQException("Expected a string but got : "+value.toString(),"INVALID_SELECTOR_EXPRESSION");
+		
+		boolean found;
+		if (valueSet != null)
+			found = valueSet.contains(value);
+		else
+		{
+			found = false;
+			for (int n = 0 ; n < values.length ; n++)
+			{
+				if (value.equals(values[n]))
+				{
+					found = true;
+					break;
+				}
+			}
+		}
+		
+		return found != negated ? TRUE : FALSE;
+	}
+}
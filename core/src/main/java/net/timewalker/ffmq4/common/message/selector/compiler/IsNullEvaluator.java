@@ -0,0 +1,53 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.common.message.selector.compiler;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import net.timewalker.ffmq4.common.message.selector.expression.Identifier;
+
+/**
+ * IsNullEvaluator
+ */
+final class IsNullEvaluator extends SelectorEvaluator
+{
+	// Attributes
+	private Identifier identifier;
+	private boolean negated;
+	
+	/**
+	 * Constructor
+	 */
+	public IsNullEvaluator( Identifier identifier , boolean negated )
+	{
+		super(1);
+		this.identifier = identifier;
+		this.negated = negated;
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.common.message.selector.compiler.SelectorEvaluator#evaluate(javax.jms.Message)
+	 */
+	@Override
+	public int evaluate( Message message ) throws JMSException
+	{
+		boolean isNull = identifier.evaluate(message) == null;
+		return isNull != negated ? TRUE : FALSE;
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.common.message.selector.compiler;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import net.timewalker.ffmq4.FFMQException;
+import net.timewalker.ffmq4.common.message.selector.expression.Identifier;
+import net.timewalker.ffmq4.common.message.selector.expression.utils.LikePattern;
+
+/**
+ * <p>LIKE test of an identifier against a precompiled pattern</p>
+ */
+final class LikeEvaluator extends SelectorEvaluator
+{
+	// Attributes
+	private Identifier identifier;
+	private LikePattern pattern;
+	private boolean negated;
+	
+	/**
+	 * Constructor
+	 */
+	public LikeEvaluator( Identifier identifier , LikePattern pattern , boolean negated )
+	{
+		super(pattern.isSimple() ? 3 : 5);
+		this.identifier = identifier;
+		this.pattern = pattern;
+		this.negated = negated;
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.common.message.selector.compiler.SelectorEvaluator#evaluate(javax.jms.Message)
+	 */
+	@Override
+	public int evaluate( Message message ) throws JMSException
+	{
+		Object value = identifier.evaluate(message);
+		if (value == null)
+			return UNKNOWN;
+		if (!(value instanceof String))
+			throw new FFMQException("Expected a string but got : "+value.toString(),"INVALID_SELECTOR_EXPRESSION");
+		
+		return pattern.matches((String)value) != negated ? TRUE : FALSE;
+	}
+}
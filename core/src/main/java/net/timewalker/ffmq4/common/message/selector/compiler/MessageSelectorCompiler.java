@@ -0,0 +1,388 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.common.message.selector.compiler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.jms.JMSException;
+
+import net.timewalker.ffmq4.common.message.selector.expression.Identifier;
+import net.timewalker.ffmq4.common.message.selector.expression.SelectorNode;
+import net.timewalker.ffmq4.common.message.selector.expression.literal.Literal;
+import net.timewalker.ffmq4.common.message.selector.expression.literal.StringLiteralList;
+import net.timewalker.ffmq4.common.message.selector.expression.operator.AbstractBinaryOperator;
+import net.timewalker.ffmq4.common.message.selector.expression.operator.AbstractUnaryOperator;
+import net.timewalker.ffmq4.common.message.selector.expression.operator.AndOperator;
+import net.timewalker.ffmq4.common.message.selector.expression.operator.BetweenOperator;
+import net.timewalker.ffmq4.common.message.selector.expression.operator.EqualsOperator;
+import net.timewalker.ffmq4.common.message.selector.expression.operator.GreaterThanOperator;
+import net.timewalker.ffmq4.common.message.selector.expression.operator.GreaterThanOrEqualsOperator;
+import net.timewalker.ffmq4.common.message.selector.expression.operator.InOperator;
+import net.timewalker.ffmq4.common.message.selector.expression.operator.IsNotNullOperator;
+import net.timewalker.ffmq4.common.message.selector.expression.operator.IsNullOperator;
+import net.timewalker.ffmq4.common.message.selector.expression.operator.LessThanOperator;
+import net.timewalker.ffmq4.common.message.selector.expression.operator.LessThanOrEqualsOperator;
+import net.timewalker.ffmq4.common.message.selector.expression.operator.LikeOperator;
+import net.timewalker.ffmq4.common.message.selector.expression.operator.NotBetweenOperator;
+import net.timewalker.ffmq4.common.message.selector.expression.operator.NotEqualsOperator;
+import net.timewalker.ffmq4.common.message.selector.expression.operator.NotInOperator;
+import net.timewalker.ffmq4.common.message.selector.expression.operator.NotLikeOperator;
+import net.timewalker.ffmq4.common.message.selector.expression.operator.NotOperator;
+import net.timewalker.ffmq4.common.message.selector.expression.operator.OrOperator;
+import net.timewalker.ffmq4.common.message.selector.expression.utils.ArithmeticUtils;
+import net.timewalker.ffmq4.common.message.selector.expression.utils.LikePattern;
+
+/**
+ * <p>
+ *  Compiles a parsed message selector node tree into a {@link SelectorEvaluator}.
+ * </p>
+ * <p>
+ *  The compiler :
+ *  <ul>
+ *   <li>folds sub-expressions that do not depend on the message into constants</li>
+ *   <li>replaces comparisons, IN, LIKE, BETWEEN and IS NULL constructs between an identifier and
+ *       constant values by specialized evaluators working on primitive values</li>
+ *   <li>precompiles LIKE patterns</li>
+ *   <li>flattens nested AND/OR operators and evaluates their cheapest operands first</li>
+ *  </ul>
+ *  Constructs that have no specialized evaluator are interpreted using the node tree.
+ * </p>
+ * <p>
+ *  Results are identical to the node tree interpretation, except that a type error in an operand
+ *  of an AND/OR operator may not be reported if another operand alone determines the result.
+ * </p>
+ */
+public final class MessageSelectorCompiler
+{
+	private static final Comparator<SelectorEvaluator> COST_COMPARATOR = new Comparator<SelectorEvaluator>() {
+		@Override
+		public int compare( SelectorEvaluator e1 , SelectorEvaluator e2 )
+		{
+			return Integer.compare(e1.getCost(), e2.getCost());
+		}
+	};
+	
+	/**
+	 * Compile the given selector node tree
+	 */
+	public static SelectorEvaluator compile( SelectorNode node )
+	{
+		return compileCondition(node);
+	}
+	
+	private static SelectorEvaluator compileCondition( SelectorNode node )
+	{
+		// Constant folding
+		if (isConstant(node))
+		{
+			try
+			{
+				return new ConstantEvaluator(SelectorEvaluator.toResult(node.evaluateBoolean(null)));
+			}
+			catch (JMSException e)
+			{
+				// Not a valid condition, let the interpreter report the error on evaluation
+				return new InterpretedEvaluator(node);
+			}
+		}
+		
+		if (node instanceof AndOperator)
+			return compileAnd((AndOperator)node);
+		if (node instanceof OrOperator)
+			return compileOr((OrOperator)node);
+		if (node instanceof NotOperator)
+		{
+			SelectorEvaluator operand = compileCondition(((NotOperator)node).operand());
+			if (operand instanceof ConstantEvaluator)
+				return new ConstantEvaluator(SelectorEvaluator.negate(((ConstantEvaluator)operand).getValue()));
+			return new NotEvaluator(operand);
+		}
+		if (node instanceof Identifier)
+			return new BooleanPropertyEvaluator((Identifier)node);
+		if (node instanceof IsNullOperator)
+			return new IsNullEvaluator((Identifier)((IsNullOperator)node).operand(), node instanceof IsNotNullOperator);
+		if (node instanceof EqualsOperator)
+			return compileEquals((EqualsOperator)node, node instanceof NotEqualsOperator);
+		if (node instanceof LessThanOperator)
+			return compileNumericComparison((AbstractBinaryOperator)node, NumericComparisonEvaluator.LESS_THAN);
+		if (node instanceof LessThanOrEqualsOperator)
+			return compileNumericComparison((AbstractBinaryOperator)node, NumericComparisonEvaluator.LESS_THAN_OR_EQUALS);
+		if (node instanceof GreaterThanOperator)
+			return compileNumericComparison((AbstractBinaryOperator)node, NumericComparisonEvaluator.GREATER_THAN);
+		if (node instanceof GreaterThanOrEqualsOperator)
+			return compileNumericComparison((AbstractBinaryOperator)node, NumericComparisonEvaluator.GREATER_THAN_OR_EQUALS);
+		if (node instanceof BetweenOperator)
+			return compileBetween((BetweenOperator)node, node instanceof NotBetweenOperator);
+		if (node instanceof InOperator)
+			return compileIn((InOperator)node, node instanceof NotInOperator);
+		if (node instanceof LikeOperator)
+			return compileLike((LikeOperator)node, node instanceof NotLikeOperator);
+		
+		return new InterpretedEvaluator(node);
+	}
+	
+	private static SelectorEvaluator compileAnd( AndOperator node )
+	{
+		List<SelectorEvaluator> operands = new ArrayList<>();
+		collectAndOperands(node, operands);
+		
+		int cost = 0;
+		for (int i = operands.size()-1; i >= 0; i--)
+		{
+			SelectorEvaluator operand = operands.get(i);
+			if (operand instanceof ConstantEvaluator)
+			{
+				int value = ((ConstantEvaluator)operand).getValue();
+				if (value == SelectorEvaluator.FALSE)
+					return operand;
+				if (value == SelectorEvaluator.TRUE)
+				{
+					operands.remove(i);
+					continue;
+				}
+			}
+			cost += operand.getCost();
+		}
+		
+		if (operands.isEmpty())
+			return new ConstantEvaluator(SelectorEvaluator.TRUE);
+		if (operands.size() == 1)
+			return operands.get(0);
+		
+		Collections.sort(operands, COST_COMPARATOR);
+		return new AndEvaluator(operands.toArray(new SelectorEvaluator[operands.size()]), cost);
+	}
+	
+	private static void collectAndOperands( SelectorNode node , List<SelectorEvaluator> operands )
+	{
+		if (node instanceof AndOperator)
+		{
+			AndOperator and = (AndOperator)node;
+			collectAndOperands(and.leftOperand(), operands);
+			collectAndOperands(and.rightOperand(), operands);
+		}
+		else
+			operands.add(compileCondition(node));
+	}
+	
+	private static SelectorEvaluator compileOr( OrOperator node )
+	{
+		List<SelectorEvaluator> operands = new ArrayList<>();
+		collectOrOperands(node, operands);
+		
+		int cost = 0;
+		for (int i = operands.size()-1; i >= 0; i--)
+		{
+			SelectorEvaluator operand = operands.get(i);
+			if (operand instanceof ConstantEvaluator)
+			{
+				int value = ((ConstantEvaluator)operand).getValue();
+				if (value == SelectorEvaluator.TRUE)
+					return operand;
+				if (value == SelectorEvaluator.FALSE)
+				{
+					operands.remove(i);
+					continue;
+				}
+			}
+			cost += operand.getCost();
+		}
+		
+		if (operands.isEmpty())
+			return new ConstantEvaluator(SelectorEvaluator.FALSE);
+		if (operands.size() == 1)
+			return operands.get(0);
+		
+		Collections.sort(operands, COST_COMPARATOR);
+		return new OrEvaluator(operands.toArray(new SelectorEvaluator[operands.size()]), cost);
+	}
+	
+	private static void collectOrOperands( SelectorNode node , List<SelectorEvaluator> operands )
+	{
+		if (node instanceof OrOperator)
+		{
+			OrOperator or = (OrOperator)node;
+			collectOrOperands(or.leftOperand(), operands);
+			collectOrOperands(or.rightOperand(), operands);
+		}
+		else
+			operands.add(compileCondition(node));
+	}
+	
+	private static SelectorEvaluator compileEquals( EqualsOperator node , boolean negated )
+	{
+		Identifier identifier;
+		SelectorNode constantNode;
+		if (node.leftOperand() instanceof Identifier && isConstant(node.rightOperand()))
+		{
+			identifier = (Identifier)node.leftOperand();
+			constantNode = node.rightOperand();
+		}
+		else
+		if (node.rightOperand() instanceof Identifier && isConstant(node.leftOperand()))
+		{
+			identifier = (Identifier)node.rightOperand();
+			constantNode = node.leftOperand();
+		}
+		else
+			return new InterpretedEvaluator(node);
+		
+		Object constant;
+		try
+		{
+			constant = constantNode.evaluate(null);
+		}
+		catch (JMSException e)
+		{
+			return new InterpretedEvaluator(node);
+		}
+		if (constant == null)
+			return new ConstantEvaluator(SelectorEvaluator.UNKNOWN);
+		if (constant instanceof Number)
+			constant = ArithmeticUtils.normalize((Number)constant);
+		else
+		if (!(constant instanceof String) && !(constant instanceof Boolean))
+			return new InterpretedEvaluator(node);
+		
+		return new EqualsEvaluator(identifier, constant, negated);
+	}
+	
+	private static SelectorEvaluator compileNumericComparison( AbstractBinaryOperator node , int operator )
+	{
+		Identifier identifier;
+		SelectorNode constantNode;
+		if (node.leftOperand() instanceof Identifier && isConstant(node.rightOperand()))
+		{
+			identifier = (Identifier)node.leftOperand();
+			constantNode = node.rightOperand();
+		}
+		else
+		if (node.rightOperand() instanceof Identifier && isConstant(node.leftOperand()))
+		{
+			identifier = (Identifier)node.rightOperand();
+			constantNode = node.leftOperand();
+			operator = NumericComparisonEvaluator.reverse(operator);
+		}
+		else
+			return new InterpretedEvaluator(node);
+		
+		Object constant;
+		try
+		{
+			constant = constantNode.evaluate(null);
+		}
+		catch (JMSException e)
+		{
+			return new InterpretedEvaluator(node);
+		}
+		if (constant == null)
+			return new ConstantEvaluator(SelectorEvaluator.UNKNOWN);
+		if (!(constant instanceof Number))
+			return new InterpretedEvaluator(node);
+		
+		return new NumericComparisonEvaluator(identifier, operator, ArithmeticUtils.normalize((Number)constant));
+	}
+	
+	private static SelectorEvaluator compileBetween( BetweenOperator node , boolean negated )
+	{
+		if (!(node.leftOperand() instanceof Identifier) ||
+			!isConstant(node.lowerBoundOperand()) ||
+			!isConstant(node.upperBoundOperand()))
+			return new InterpretedEvaluator(node);
+		
+		Object lowerBound;
+		Object upperBound;
+		try
+		{
+			lowerBound = node.lowerBoundOperand().evaluate(null);
+			upperBound = node.upperBoundOperand().evaluate(null);
+		}
+		catch (JMSException e)
+		{
+			return new InterpretedEvaluator(node);
+		}
+		if (!(lowerBound instanceof Number) || !(upperBound instanceof Number))
+			return new InterpretedEvaluator(node);
+		
+		return new BetweenEvaluator((Identifier)node.leftOperand(),
+				                    ArithmeticUtils.normalize((Number)lowerBound),
+				                    ArithmeticUtils.normalize((Number)upperBound),
+				                    negated);
+	}
+	
+	private static SelectorEvaluator compileIn( InOperator node , boolean negated )
+	{
+		if (!(node.rightOperand() instanceof StringLiteralList))
+			return new InterpretedEvaluator(node);
+		
+		String[] values;
+		try
+		{
+			values = (String[])node.rightOperand().evaluate(null);
+		}
+		catch (JMSException e)
+		{
+			return new InterpretedEvaluator(node);
+		}
+		
+		return new InEvaluator((Identifier)node.leftOperand(), values, negated);
+	}
+	
+	private static SelectorEvaluator compileLike( LikeOperator node , boolean negated )
+	{
+		SelectorNode patternNode = node.rightOperand();
+		SelectorNode escapeNode = node.escapeOperand();
+		if (!(patternNode instanceof Literal) || (escapeNode != null && !(escapeNode instanceof Literal)))
+			return new InterpretedEvaluator(node);
+		
+		Object pattern = ((Literal)patternNode).getValue();
+		Object escape = escapeNode != null ? ((Literal)escapeNode).getValue() : null;
+		if (!(pattern instanceof String) || (escape != null && !(escape instanceof String)))
+			return new InterpretedEvaluator(node);
+		
+		return new LikeEvaluator((Identifier)node.leftOperand(), new LikePattern((String)pattern, (String)escape), negated);
+	}
+	
+	/**
+	 * Test if the given node value does not depend on the message
+	 */
+	private static boolean isConstant( SelectorNode node )
+	{
+		if (node instanceof Literal || node instanceof StringLiteralList)
+			return true;
+		if (node instanceof AbstractBinaryOperator)
+		{
+			AbstractBinaryOperator op = (AbstractBinaryOperator)node;
+			return isConstant(op.leftOperand()) && isConstant(op.rightOperand());
+		}
+		if (node instanceof AbstractUnaryOperator)
+			return isConstant(((AbstractUnaryOperator)node).operand());
+		if (node instanceof BetweenOperator)
+		{
+			BetweenOperator op = (BetweenOperator)node;
+			return isConstant(op.leftOperand()) &&
+			       isConstant(op.lowerBoundOperand()) &&
+			       isConstant(op.upperBoundOperand());
+		}
+		
+		return false;
+	}
+}
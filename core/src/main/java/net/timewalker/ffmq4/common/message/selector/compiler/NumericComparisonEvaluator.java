@@ -0,0 +1,95 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.common.message.selector.compiler;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import net.timewalker.ffmq4.common.message.selector.expression.Identifier;
+
+/**
+ * <p>Ordering comparison between an identifier and a numeric constant</p>
+ */
+final class NumericComparisonEvaluator extends SelectorEvaluator
+{
+	public static final int LESS_THAN              = 0;
+	public static final int LESS_THAN_OR_EQUALS    = 1;
+	public static final int GREATER_THAN           = 2;
+	public static final int GREATER_THAN_OR_EQUALS = 3;
+	
+	// Attributes
+	private Identifier identifier;
+	private int operator;
+	private Number constant;
+	private boolean integerConstant;
+	
+	/**
+	 * Constructor
+	 */
+	public NumericComparisonEvaluator( Identifier identifier , int operator , Number constant )
+	{
+		super(2);
+		this.identifier = identifier;
+		this.operator = operator;
+		this.constant = constant;
+		this.integerConstant = NumericUtils.isIntegerValue(constant);
+	}
+	
+	/**
+	 * Get the operator to use when operands are swapped
+	 */
+	public static int reverse( int operator )
+	{
+		switch (operator)
+		{
+			case LESS_THAN              : return GREATER_THAN;
+			case LESS_THAN_OR_EQUALS    : return GREATER_THAN_OR_EQUALS;
+			case GREATER_THAN           : return LESS_THAN;
+			case GREATER_THAN_OR_EQUALS : return LESS_THAN_OR_EQUALS;
+			default:
+				throw new IllegalArgumentException("Invalid operator : "+operator);
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.common.message.selector.compiler.SelectorEvaluator#evaluate(javax.jms.Message)
+	 */
+	@Override
+	public int evaluate( Message message ) throws JMSException
+	{
+		Object value = identifier.evaluate(message);
+		if (value == null)
+			return UNKNOWN;
+		if (!(value instanceof Number))
+			return FALSE; // [JMS Spec]
+		
+		int comparison = NumericUtils.compare((Number)value, constant, integerConstant);
+		boolean result;
+		switch (operator)
+		{
+			case LESS_THAN              : result = comparison == -1; break;
+			case LESS_THAN_OR_EQUALS    : result = comparison == -1 || comparison == 0; break;
+			case GREATER_THAN           : result = comparison == 1; break;
+			case GREATER_THAN_OR_EQUALS : result = comparison == 1 || comparison == 0; break;
+			default:
+				throw new IllegalStateException("Invalid operator : "+operator);
+		}
+		
+		return result ? TRUE : FALSE;
+	}
+}
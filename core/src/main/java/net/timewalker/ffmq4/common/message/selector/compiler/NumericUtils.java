@@ -0,0 +1,61 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.common.message.selector.compiler;
+
+/**
+ * <p>Primitive numeric helpers for compiled comparisons.</p>
+ */
+final class NumericUtils
+{
+	/**
+	 * Test if the given value is an integer number (byte, short, int or long)
+	 */
+	public static boolean isIntegerValue( Object value )
+	{
+		Class<?> type = value.getClass();
+		return type == Integer.class ||
+		       type == Long.class ||
+		       type == Short.class ||
+		       type == Byte.class;
+	}
+	
+	/**
+	 * Compare a numeric value to a constant using the selector arithmetic rules :
+	 * integers are compared as longs, anything else as doubles.
+	 * @return a negative value, zero or a positive value as the value is less than, equal to or greater than the constant
+	 */
+	public static int compare( Number value , Number constant , boolean integerConstant )
+	{
+		if (integerConstant && isIntegerValue(value))
+		{
+			long v = value.longValue();
+			long c = constant.longValue();
+			return v < c ? -1 : (v == c ? 0 : 1);
+		}
+		
+		double v = value.doubleValue();
+		double c = constant.doubleValue();
+		if (v < c)
+			return -1;
+		if (v == c)
+			return 0;
+		if (v > c)
+			return 1;
+		return 2; // NaN : not equal and not ordered
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.common.message.selector.compiler;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * <p>N-ary OR condition. Operands are expected to be sorted by increasing cost,
+ * evaluation stops at the first TRUE operand.
+ * An operand evaluation error is only reported if no other operand is TRUE.</p>
+ */
+final class OrEvaluator extends SelectorEvaluator
+{
+	// Attributes
+	private SelectorEvaluator[] operands;
+	
+	/**
+	 * Constructor
+	 */
+	public OrEvaluator( SelectorEvaluator[] operands , int cost )
+	{
+		super(cost);
+		this.operands = operands;
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.common.message.selector.compiler.SelectorEvaluator#evaluate(javax.jms.Message)
+	 */
+	@Override
+	public int evaluate( Message message ) throws JMSException
+	{
+		int result = FALSE;
+		JMSException error = null;
+		for (int i = 0; i < operands.length; i++)
+		{
+			int value;
+			try
+			{
+				value = operands[i].evaluate(message);
+			}
+			catch (JMSException e)
+			{
+				// Operands may have been reordered : only report the error if no other operand decides the result
+				if (error == null)
+					error = e;
+				continue;
+			}
+			if (value == TRUE)
+				return TRUE;
+			if (value == UNKNOWN)
+				result = UNKNOWN;
+		}
+		if (error != null)
+			throw error;
+		return result;
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.common.message.selector.compiler;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * <p>Base class for a compiled message selector condition.</p>
+ * <p>Conditions are evaluated using the JMS three-valued logic, results are returned
+ * as primitive constants ({@link #TRUE}, {@link #FALSE} or {@link #UNKNOWN}) to avoid boxing.</p>
+ */
+public abstract class SelectorEvaluator
+{
+	public static final int FALSE   = 0;
+	public static final int TRUE    = 1;
+	public static final int UNKNOWN = 2;
+	
+	// Attributes
+	private int cost;
+	
+	/**
+	 * Constructor
+	 * @param cost relative evaluation cost, used to order operands of conditional operators
+	 */
+	protected SelectorEvaluator( int cost )
+	{
+		this.cost = cost;
+	}
+	
+	/**
+	 * Evaluate the condition against the given message
+	 * @return {@link #TRUE}, {@link #FALSE} or {@link #UNKNOWN}
+	 */
+	public abstract int evaluate( Message message ) throws JMSException;
+	
+	/**
+	 * Test if the given message matches this condition
+	 */
+	public final boolean matches( Message message ) throws JMSException
+	{
+		return evaluate(message) == TRUE;
+	}
+	
+	/**
+	 * @return the relative evaluation cost of this condition
+	 */
+	public final int getCost()
+	{
+		return cost;
+	}
+	
+	/**
+	 * Convert a boolean value to a condition result
+	 */
+	protected static final int toResult( Boolean value )
+	{
+		if (value == null)
+			return UNKNOWN;
+		return value.booleanValue() ? TRUE : FALSE;
+	}
+	
+	/**
+	 * Negate a condition result
+	 */
+	protected static final int negate( int result )
+	{
+		switch (result)
+		{
+			case TRUE  : return FALSE;
+			case FALSE : return TRUE;
+			default :
+				return UNKNOWN;
+		}
+	}
+}
@@ -27,8 +27,18 @@ import javax.jms.Message;
  */
 public final class Identifier extends SelectorNode implements AtomicOperand, ConditionalExpression, ArithmeticExpression
 {
+    // Standard headers
+    private static final int PROPERTY           = 0;
+    private static final int JMS_CORRELATION_ID = 1;
+    private static final int JMS_MESSAGE_ID     = 2;
+    private static final int JMS_TYPE           = 3;
+    private static final int JMS_DELIVERY_MODE  = 4;
+    private static final int JMS_PRIORITY       = 5;
+    private static final int JMS_TIMESTAMP      = 6;
+    
     // Attributes
     private String name;
+    private int header;
     
     /**
      * Constructor
@@ -37,6 +47,25 @@ public final class Identifier extends SelectorNode implements AtomicOperand, Con
     {
         super();
         this.name = name;
+        this.header = resolveHeader(name);
+    }
+    
+    private static int resolveHeader( String name )
+    {
+        if (name.equals("JMSCorrelationID"))
+            return JMS_CORRELATION_ID;
+        if (name.equals("JMSMessageID"))
+            return JMS_MESSAGE_ID;
+        if (name.equals("JMSType"))
+            return JMS_TYPE;
+        if (name.equals("JMSDeliveryMode"))
+            return JMS_DELIVERY_MODE;
+        if (name.equals("JMSPriority"))
+            return JMS_PRIORITY;
+        if (name.equals("JMSTimestamp"))
+            return JMS_TIMESTAMP;
+        
+        return PROPERTY;
     }
     
     /**
@@ -54,21 +83,17 @@ public final class Identifier extends SelectorNode implements AtomicOperand, Con
     @Override
 	public Object evaluate( Message message ) throws JMSException
     {
-        // Standard headers
-        if (name.equals("JMSCorrelationID"))
-            return message.getJMSCorrelationID();
-        if (name.equals("JMSMessageID"))
-            return message.getJMSMessageID();
-        if (name.equals("JMSType"))
-            return message.getJMSType();
-        if (name.equals("JMSDeliveryMode"))
-            return message.getJMSDeliveryMode() == DeliveryMode.PERSISTENT ? "PERSISTENT" : "NON_PERSISTENT";
-        if (name.equals("JMSPriority"))
-            return Integer.valueOf(message.getJMSPriority());
-        if (name.equals("JMSTimestamp"))
-            return Long.valueOf(message.getJMSTimestamp());
-                
-        return message.getObjectProperty(name);
+        switch (header)
+        {
+            case JMS_CORRELATION_ID : return message.getJMSCorrelationID();
+            case JMS_MESSAGE_ID :     return message.getJMSMessageID();
+            case JMS_TYPE :           return message.getJMSType();
+            case JMS_DELIVERY_MODE :  return message.getJMSDeliveryMode() == DeliveryMode.PERSISTENT ? "PERSISTENT" : "NON_PERSISTENT";
+            case JMS_PRIORITY :       return Integer.valueOf(message.getJMSPriority());
+            case JMS_TIMESTAMP :      return Long.valueOf(message.getJMSTimestamp());
+            default :
+                return message.getObjectProperty(name);
+        }
     }
 
     /* (non-Javadoc)
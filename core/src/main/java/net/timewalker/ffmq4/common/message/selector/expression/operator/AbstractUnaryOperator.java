@@ -35,4 +35,9 @@ public abstract class AbstractUnaryOperator extends SelectorNode
         super();
         this.operand = operand;
     }
+    
+    public final SelectorNode operand()
+    {
+    	return operand;
+    }
 }
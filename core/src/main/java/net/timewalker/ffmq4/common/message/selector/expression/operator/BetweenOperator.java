@@ -55,6 +55,21 @@ public class BetweenOperator extends SelectorNode implements ConditionalExpressi
         	throw new InvalidSelectorException("upper bound of BETWEEN operator must be an arithmetic expression");
     }
 
+    public final SelectorNode leftOperand()
+    {
+    	return leftOperand;
+    }
+    
+    public final SelectorNode lowerBoundOperand()
+    {
+    	return lowerBoundOperand;
+    }
+    
+    public final SelectorNode upperBoundOperand()
+    {
+    	return upperBoundOperand;
+    }
+    
     /*
      * (non-Javadoc)
      * @see net.timewalker.ffmq4.common.message.selector.expression.SelectorNode#evaluate(javax.jms.Message)
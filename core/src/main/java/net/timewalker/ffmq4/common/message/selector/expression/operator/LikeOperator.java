@@ -45,6 +45,11 @@ public class LikeOperator extends AbstractBinaryOperator implements ConditionalE
     		throw new InvalidSelectorException("left operand of LIKE operator must be an identifier");
     }
 
+    public final SelectorNode escapeOperand()
+    {
+    	return escapeOperand;
+    }
+    
     /*
      * (non-Javadoc)
      * @see net.timewalker.ffmq4.common.message.selector.expression.SelectorNode#evaluate(javax.jms.Message)
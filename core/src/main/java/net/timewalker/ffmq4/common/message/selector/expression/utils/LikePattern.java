@@ -0,0 +1,188 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.common.message.selector.expression.utils;
+
+/**
+ * <p>Precompiled form of a LIKE operator pattern.</p>
+ * <p>The pattern is parsed once and escape sequences are resolved at construction time.
+ * Patterns with no wildcard, or made of a single literal part anchored on one or both ends
+ * ('foo%', '%foo', '%foo%') are matched with a plain string comparison, other patterns
+ * go through a backtracking matcher on the precompiled pattern.</p>
+ */
+public final class LikePattern
+{
+	private static final int ANY_CHAR = -1;     // '_'
+	private static final int ANY_SEQUENCE = -2; // '%'
+	
+	// Match strategies
+	private static final int MATCH_EQUALS      = 0;
+	private static final int MATCH_STARTS_WITH = 1;
+	private static final int MATCH_ENDS_WITH   = 2;
+	private static final int MATCH_CONTAINS    = 3;
+	private static final int MATCH_ANY         = 4;
+	private static final int MATCH_GENERIC     = 5;
+	
+	// Attributes
+	private int[] pattern;
+	private int strategy;
+	private String literal;
+	
+	/**
+	 * Constructor
+	 */
+	public LikePattern( String pattern , String escapeChar )
+	{
+		this.pattern = compile(pattern, escapeChar);
+		this.strategy = chooseStrategy();
+	}
+	
+	private static int[] compile( String pattern , String escapeChar )
+	{
+		int escape = escapeChar != null && escapeChar.length() > 0 ? escapeChar.charAt(0) : -1;
+		int len = pattern.length();
+		int[] compiled = new int[len];
+		int count = 0;
+		for (int i = 0; i < len; i++)
+		{
+			char c = pattern.charAt(i);
+			if (c == escape)
+			{
+				if (i+1 < len)
+					compiled[count++] = pattern.charAt(++i);
+				// A trailing escape character is ignored
+			}
+			else
+			if (c == '%')
+			{
+				// Consecutive '%' are equivalent to a single one
+				if (count == 0 || compiled[count-1] != ANY_SEQUENCE)
+					compiled[count++] = ANY_SEQUENCE;
+			}
+			else
+			if (c == '_')
+				compiled[count++] = ANY_CHAR;
+			else
+				compiled[count++] = c;
+		}
+		
+		if (count == len)
+			return compiled;
+		
+		int[] result = new int[count];
+		System.arraycopy(compiled, 0, result, 0, count);
+		return result;
+	}
+	
+	private int chooseStrategy()
+	{
+		int len = pattern.length;
+		boolean leadingAny = len > 0 && pattern[0] == ANY_SEQUENCE;
+		boolean trailingAny = len > 1 && pattern[len-1] == ANY_SEQUENCE;
+		int start = leadingAny ? 1 : 0;
+		int end = trailingAny ? len-1 : len;
+		
+		// Check that the remaining part is a plain literal
+		StringBuilder sb = new StringBuilder(end-start);
+		for (int i = start; i < end; i++)
+		{
+			if (pattern[i] < 0)
+				return MATCH_GENERIC;
+			sb.append((char)pattern[i]);
+		}
+		literal = sb.toString();
+		
+		if (leadingAny && literal.length() == 0)
+			return MATCH_ANY;
+		if (leadingAny && trailingAny)
+			return MATCH_CONTAINS;
+		if (leadingAny)
+			return MATCH_ENDS_WITH;
+		if (trailingAny)
+			return MATCH_STARTS_WITH;
+		return MATCH_EQUALS;
+	}
+	
+	/**
+	 * Test if this pattern can be matched without backtracking
+	 */
+	public boolean isSimple()
+	{
+		return strategy != MATCH_GENERIC;
+	}
+	
+	/**
+	 * Test if the given text matches this pattern
+	 */
+	public boolean matches( String text )
+	{
+		switch (strategy)
+		{
+			case MATCH_EQUALS      : return text.equals(literal);
+			case MATCH_STARTS_WITH : return text.startsWith(literal);
+			case MATCH_ENDS_WITH   : return text.endsWith(literal);
+			case MATCH_CONTAINS    : return text.indexOf(literal) != -1;
+			case MATCH_ANY         : return true;
+			default :
+				return matchesGeneric(text);
+		}
+	}
+	
+	private boolean matchesGeneric( String text )
+	{
+		int textLen = text.length();
+		int patternLen = pattern.length;
+		int textPos = 0;
+		int patternPos = 0;
+		
+		// Position of the last '%' seen and of the text position it was matched against
+		int backtrackPatternPos = -1;
+		int backtrackTextPos = -1;
+		
+		while (textPos < textLen)
+		{
+			if (patternPos < patternLen)
+			{
+				int p = pattern[patternPos];
+				if (p == ANY_SEQUENCE)
+				{
+					backtrackPatternPos = ++patternPos;
+					backtrackTextPos = textPos;
+					continue;
+				}
+				if (p == ANY_CHAR || p == text.charAt(textPos))
+				{
+					patternPos++;
+					textPos++;
+					continue;
+				}
+			}
+			
+			// Mismatch : let the last '%' absorb one more character
+			if (backtrackPatternPos == -1)
+				return false;
+			patternPos = backtrackPatternPos;
+			textPos = ++backtrackTextPos;
+		}
+		
+		// Remaining pattern elements may only be '%'
+		while (patternPos < patternLen && pattern[patternPos] == ANY_SEQUENCE)
+			patternPos++;
+		
+		return patternPos == patternLen;
+	}
+}
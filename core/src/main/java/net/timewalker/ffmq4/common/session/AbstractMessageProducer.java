@@ -17,6 +17,9 @@
  */
 package net.timewalker.ffmq4.common.session;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.jms.DeliveryMode;
 import javax.jms.Destination;
 import javax.jms.JMSException;
@@ -24,6 +27,7 @@ import javax.jms.Message;
 import javax.jms.MessageProducer;
 
 import net.timewalker.ffmq4.FFMQException;
+import net.timewalker.ffmq4.common.message.AbstractMessage;
 import net.timewalker.ffmq4.common.message.MessageTools;
 import net.timewalker.ffmq4.utils.id.IntegerID;
 import net.timewalker.ffmq4.utils.id.UUIDProvider;
@@ -258,6 +262,31 @@ public abstract class AbstractMessageProducer extends AbstractMessageHandler imp
     	sendToDestination(destination,true,message,deliveryMode,priority,timeToLive);
     }
     
+    /**
+     * Send a batch of messages to the producer destination, using the producer default delivery mode, priority and time to live.
+     * The batch is shipped and stored as a whole, so a remote producer only pays a single round trip for it.
+     * In non-transacted mode, the batch is atomic : if one message cannot be stored, none of them is.
+     */
+    public final void sendBatch(List<? extends Message> messages) throws JMSException
+    {
+    	if (this.destination == null)
+    		throw new UnsupportedOperationException("Destination was not set at creation time");
+    	
+    	List<AbstractMessage> batch = new ArrayList<>(messages.size());
+    	for (int i = 0; i < messages.size(); i++)
+		{
+    		Message message = messages.get(i);
+    		
+    		// Setup message fields
+        	setupMessage(destination,message,defaultDeliveryMode,defaultPriority,defaultTimeToLive);
+        	
+        	// Handle foreign message implementations
+        	batch.add(MessageTools.normalize(message));
+		}
+    	
+    	sendBatchToDestination(destination,batch);
+    }
+    
     protected final void setupMessage( Destination destinationRef , Message message , int deliveryMode , int priority , long timeToLive) throws JMSException
     {
         long now = System.currentTimeMillis();
@@ -272,4 +301,6 @@ public abstract class AbstractMessageProducer extends AbstractMessageHandler imp
     }
     
     protected abstract void sendToDestination(Destination destination, boolean destinationOverride, Message srcMessage, int deliveryMode, int priority, long timeToLive) throws JMSException;
+    
+    protected abstract void sendBatchToDestination(Destination destination, List<AbstractMessage> messages) throws JMSException;
 }
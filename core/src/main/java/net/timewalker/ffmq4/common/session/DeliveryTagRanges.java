@@ -0,0 +1,190 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.common.session;
+
+import net.timewalker.ffmq4.utils.RawDataBuffer;
+
+/**
+ * DeliveryTagRanges
+ * <p>Ordered list of message delivery tags, stored as ranges of consecutive values.<br>
+ * Delivery tags are assigned by the server in increasing order for each session, so messages
+ * consumed in order collapse to a single range no matter how many there are.</p>
+ * <p>Not thread-safe.</p>
+ */
+public final class DeliveryTagRanges
+{
+	// Runtime
+	private long[] ranges; // (first,last) pairs, inclusive
+	private int rangeCount;
+	private int size;
+	
+	/**
+	 * Constructor
+	 */
+	public DeliveryTagRanges()
+	{
+		this.ranges = new long[8];
+	}
+	
+	/**
+	 * Copy constructor
+	 */
+	private DeliveryTagRanges( DeliveryTagRanges other )
+	{
+		this.ranges = new long[Math.max(2,other.rangeCount*2)];
+		System.arraycopy(other.ranges, 0, this.ranges, 0, other.rangeCount*2);
+		this.rangeCount = other.rangeCount;
+		this.size = other.size;
+	}
+	
+	/**
+	 * Append a delivery tag
+	 */
+	public void add( long deliveryTag )
+	{
+		if (rangeCount > 0 && ranges[rangeCount*2-1] == deliveryTag-1)
+			ranges[rangeCount*2-1] = deliveryTag; // Extend the last range
+		else
+			addRange(deliveryTag, deliveryTag);
+		size++;
+	}
+	
+	private void addRange( long first , long last )
+	{
+		if (rangeCount*2 == ranges.length)
+		{
+			long[] newRanges = new long[ranges.length*2];
+			System.arraycopy(ranges, 0, newRanges, 0, ranges.length);
+			ranges = newRanges;
+		}
+		ranges[rangeCount*2] = first;
+		ranges[rangeCount*2+1] = last;
+		rangeCount++;
+	}
+	
+	/**
+	 * Get the number of delivery tags in this list
+	 */
+	public int size()
+	{
+		return size;
+	}
+	
+	/**
+	 * Test if this list is empty
+	 */
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+	
+	/**
+	 * Get the number of ranges in this list
+	 */
+	public int getRangeCount()
+	{
+		return rangeCount;
+	}
+	
+	/**
+	 * Get the first delivery tag of the given range
+	 */
+	public long getRangeFirst( int index )
+	{
+		return ranges[index*2];
+	}
+	
+	/**
+	 * Get the last delivery tag (inclusive) of the given range
+	 */
+	public long getRangeLast( int index )
+	{
+		return ranges[index*2+1];
+	}
+	
+	/**
+	 * Remove all delivery tags from this list
+	 */
+	public void clear()
+	{
+		rangeCount = 0;
+		size = 0;
+	}
+	
+	/**
+	 * Create a copy of this list
+	 */
+	public DeliveryTagRanges copy()
+	{
+		return new DeliveryTagRanges(this);
+	}
+	
+	/**
+	 * Serialize this list to the given buffer
+	 */
+	public void serializeTo( RawDataBuffer out )
+	{
+		out.writeInt(rangeCount);
+		for (int i = 0; i < rangeCount; i++)
+		{
+			out.writeLong(ranges[i*2]);
+			out.writeInt((int)(ranges[i*2+1]-ranges[i*2]));
+		}
+	}
+	
+	/**
+	 * Unserialize a list from the given buffer
+	 */
+	public static DeliveryTagRanges unserializeFrom( RawDataBuffer in )
+	{
+		DeliveryTagRanges tags = new DeliveryTagRanges();
+		int count = in.readInt();
+		for (int i = 0; i < count; i++)
+		{
+			long first = in.readLong();
+			int extent = in.readInt();
+			tags.addRange(first, first+extent);
+			tags.size += extent+1;
+		}
+		return tags;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append('[');
+		for (int i = 0; i < rangeCount; i++)
+		{
+			if (i > 0)
+				sb.append(',');
+			sb.append(ranges[i*2]);
+			if (ranges[i*2+1] != ranges[i*2])
+			{
+				sb.append('-');
+				sb.append(ranges[i*2+1]);
+			}
+		}
+		sb.append(']');
+		return sb.toString();
+	}
+}
@@ -22,6 +22,11 @@ import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.jms.Connection;
 import javax.jms.InvalidDestinationException;
@@ -50,10 +55,13 @@ import net.timewalker.ffmq4.security.SecurityConnectorProvider;
 import net.timewalker.ffmq4.security.SecurityContext;
 import net.timewalker.ffmq4.storage.data.DataStoreException;
 import net.timewalker.ffmq4.storage.data.impl.BlockBasedDataStoreTools;
+import net.timewalker.ffmq4.storage.data.impl.LogStructuredDataStore;
+import net.timewalker.ffmq4.storage.data.impl.journal.SharedJournal;
 import net.timewalker.ffmq4.utils.ErrorTools;
 import net.timewalker.ffmq4.utils.Settings;
 import net.timewalker.ffmq4.utils.StringTools;
 import net.timewalker.ffmq4.utils.async.AsyncTaskManager;
+import net.timewalker.ffmq4.utils.timer.TimingWheel;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -71,6 +79,9 @@ public final class FFMQEngine implements FFMQEngineMBean
 {
     private static final Log log = LogFactory.getLog(FFMQEngine.class);
     
+    // Resolution of message expirations and delayed redeliveries (ms)
+    private static final long TIMING_WHEEL_TICK_DURATION = 50;
+    
     private static Map<String,FFMQEngine> deployedEngines = new Hashtable<>();
     
     /**
@@ -103,6 +114,20 @@ public final class FFMQEngine implements FFMQEngineMBean
     private AsyncTaskManager deliveryAsyncTaskManager;
     private AsyncTaskManager diskIOAsyncTaskManager;
     
+    // Storage
+    private SharedJournal sharedJournal;
+    
+    // Scheduler for message expirations and delayed redeliveries
+    private TimingWheel timingWheel;
+    
+    // Startup phases timings (ms)
+    private long definitionsLoadTime;
+    private long journalRecoveryTime;
+    private long temporaryDestinationsCleanupTime;
+    private long queuesDeployTime;
+    private long topicsDeployTime;
+    private long totalDeployTime;
+    
     /**
      * Constructor
      * @throws FFMQException on configuration error
@@ -186,13 +211,17 @@ public final class FFMQEngine implements FFMQEngineMBean
                     throw new FFMQException("Local engine is already deployed.","ENGINE_ALREADY_DEPLOYED");
                 
                 log.info("Deploying local engine '"+name+"'");
+                long deployStart = System.currentTimeMillis();
+                long phaseStart = deployStart;
                 this.destinationDefinitionProvider.loadExistingDefinitions();
                 this.destinationTemplateProvider.loadExistingTemplates();
                 this.templateMappingProvider.loadMappings();
+                this.definitionsLoadTime = System.currentTimeMillis()-phaseStart;
                 
                 // AsyncTaskManager - Notification
                	this.notificationAsyncTaskManager = 
                		new AsyncTaskManager("AsyncTaskManager-notification-"+name,
+               				             setup.getNotificationAsyncTaskManagerExecutor(),
                				             setup.getNotificationAsyncTaskManagerThreadPoolMinSize(),
                				             setup.getNotificationAsyncTaskManagerThreadPoolMaxIdle(),
                				             setup.getNotificationAsyncTaskManagerThreadPoolMaxSize());
@@ -200,6 +229,7 @@ public final class FFMQEngine implements FFMQEngineMBean
                 // AsyncTaskManager - Delivery
                	this.deliveryAsyncTaskManager = 
                		new AsyncTaskManager("AsyncTaskManager-delivery-"+name,
+               				             setup.getDeliveryAsyncTaskManagerExecutor(),
                				             setup.getDeliveryAsyncTaskManagerThreadPoolMinSize(),
                				             setup.getDeliveryAsyncTaskManagerThreadPoolMaxIdle(),
                				             setup.getDeliveryAsyncTaskManagerThreadPoolMaxSize());
@@ -207,22 +237,67 @@ public final class FFMQEngine implements FFMQEngineMBean
                 // AsyncTaskManager - Disk I/O
                	this.diskIOAsyncTaskManager = 
                		new AsyncTaskManager("AsyncTaskManager-diskIO-"+name,
+               				             setup.getDiskIOAsyncTaskManagerExecutor(),
                				             setup.getDiskIOAsyncTaskManagerThreadPoolMinSize(),
                				             setup.getDiskIOAsyncTaskManagerThreadPoolMaxIdle(),
                				             setup.getDiskIOAsyncTaskManagerThreadPoolMaxSize());
+               	
+               	// Timing wheel
+               	this.timingWheel = new TimingWheel("TimingWheel-"+name, TIMING_WHEEL_TICK_DURATION);
+               	timingWheel.start();
+               	
+               	// Bounded pool used to recover and open stores concurrently
+               	int startupThreads = setup.getDeployOnStartupThreads();
+               	ExecutorService startupExecutor = startupThreads > 1 ? Executors.newFixedThreadPool(startupThreads) : null;
+               	try
+               	{
+                   	// Shared journal
+                   	phaseStart = System.currentTimeMillis();
+                   	if (setup.isSharedJournalEnabled())
+                   	{
+                   		this.sharedJournal =
+                   			new SharedJournal(setup.getSharedJournalDataDir(),
+                   					          setup.getSharedJournalMaxFileSize(),
+                   					          setup.getSharedJournalOutputBuffer(),
+                   					          setup.getSharedJournalSyncMethod(),
+                   					          setup.isSharedJournalPreAllocateFiles(),
+                   					          diskIOAsyncTaskManager);
+               		
+                   		// Replay remaining transactions before any store is opened
+                   		sharedJournal.recover(startupExecutor);
+                   	}
+                   	this.journalRecoveryTime = System.currentTimeMillis()-phaseStart;
     
-                // Delete old temporary destinations
-                deleteTemporaryDestinations();
+                    // Delete old temporary destinations
+                   	phaseStart = System.currentTimeMillis();
+                    deleteTemporaryDestinations();
+                    this.temporaryDestinationsCleanupTime = System.currentTimeMillis()-phaseStart;
     
-                // Deploy existing destinations
-                if (setup.doDeployQueuesOnStartup())
-                    deployExistingQueues();
-                if (setup.doDeployTopicsOnStartup())
-                    deployExistingTopics();
+                    // Deploy existing destinations
+                    phaseStart = System.currentTimeMillis();
+                    if (setup.doDeployQueuesOnStartup())
+                        deployExistingQueues(startupExecutor);
+                    this.queuesDeployTime = System.currentTimeMillis()-phaseStart;
+                    phaseStart = System.currentTimeMillis();
+                    if (setup.doDeployTopicsOnStartup())
+                        deployExistingTopics();
+                    this.topicsDeployTime = System.currentTimeMillis()-phaseStart;
+               	}
+               	finally
+               	{
+               		if (startupExecutor != null)
+               			startupExecutor.shutdown();
+               	}
                 
                 deployedEngines.put(name, this);
                 deployed = true;
-                log.info("Engine deployed (vm://"+name+")");
+                this.totalDeployTime = System.currentTimeMillis()-deployStart;
+                log.info("Engine deployed (vm://"+name+") in "+totalDeployTime+"ms "+
+                         "[definitions="+definitionsLoadTime+"ms,"+
+                         "journalRecovery="+journalRecoveryTime+"ms,"+
+                         "temporaryCleanup="+temporaryDestinationsCleanupTime+"ms,"+
+                         "queues="+queuesDeployTime+"ms,"+
+                         "topics="+topicsDeployTime+"ms]");
             }
             
             if (listener != null)
@@ -277,20 +352,76 @@ public final class FFMQEngine implements FFMQEngineMBean
         }
     }
     
-    private void deployExistingQueues()
+    private void deployExistingQueues( ExecutorService executor )
     {
         log.info("Deploying existing queues");
         String[] queueNames = destinationDefinitionProvider.getAllQueueNames();
+        if (executor == null)
+        {
+	        for (int i = 0 ; i < queueNames.length ; i++)
+	        {
+	            try
+	            {
+	                getLocalQueue(queueNames[i]);
+	            }
+	            catch (JMSException e)
+	            {
+	            	ErrorTools.log(e, log);
+	            }
+	        }
+	        return;
+        }
+        
+        // Open queue stores concurrently
+        List<Future<LocalQueue>> openedQueues = new ArrayList<>(queueNames.length);
         for (int i = 0 ; i < queueNames.length ; i++)
         {
-            try
-            {
-                getLocalQueue(queueNames[i]);
-            }
-            catch (JMSException e)
-            {
-            	ErrorTools.log(e, log);
-            }
+        	final QueueDefinition queueDef;
+        	try
+        	{
+        		queueDef = destinationDefinitionProvider.getQueueDefinition(queueNames[i]);
+        	}
+        	catch (JMSException e)
+        	{
+        		ErrorTools.log(e, log);
+        		continue;
+        	}
+        	if (queueDef == null)
+        		continue;
+        	
+        	openedQueues.add(executor.submit(new Callable<LocalQueue>() {
+        		@Override
+        		public LocalQueue call() throws JMSException
+        		{
+        			return new LocalQueue(FFMQEngine.this,queueDef);
+        		}
+        	}));
+        }
+        
+        // Then deploy them in definition order
+        for (int i = 0 ; i < openedQueues.size() ; i++)
+        {
+        	try
+        	{
+        		LocalQueue queue = openedQueues.get(i).get();
+        		synchronized (queueMap)
+				{
+        			deployQueue(queue);
+				}
+        	}
+        	catch (ExecutionException e)
+        	{
+        		if (e.getCause() instanceof JMSException)
+        			ErrorTools.log((JMSException)e.getCause(), log);
+        		else
+        			log.error("Cannot deploy queue",e.getCause());
+        	}
+        	catch (InterruptedException e)
+        	{
+        		log.error("Interrupted while deploying existing queues");
+        		Thread.currentThread().interrupt();
+        		return;
+        	}
         }
     }
     
@@ -387,6 +518,27 @@ public final class FFMQEngine implements FFMQEngineMBean
                 }
             }
 
+            // Stop timing wheel
+            if (timingWheel != null)
+            {
+            	timingWheel.pleaseStop();
+            	timingWheel = null;
+            }
+            
+            // Close shared journal
+            if (sharedJournal != null)
+            {
+            	try
+            	{
+            		sharedJournal.close();
+            	}
+            	catch (JMSException e)
+            	{
+            		ErrorTools.log(e, log);
+            	}
+            	sharedJournal = null;
+            }
+
             // Stop async task manager - disk I/O
             if (diskIOAsyncTaskManager != null)
             {
@@ -496,11 +648,15 @@ public final class FFMQEngine implements FFMQEngineMBean
                 log.debug("Creating local store for queue : "+queueDef.getName());
                 try
                 {
-                    BlockBasedDataStoreTools.create(queueDef.getName(), 
-                                                    queueDef.getDataFolder(), 
-                                                    queueDef.getInitialBlockCount(), 
-                                                    queueDef.getBlockSize(),
-                                                    !queueDef.isTemporary());
+                	if (queueDef.isLogStructured())
+                		LogStructuredDataStore.create(queueDef.getName(), 
+                		                              queueDef.getDataFolder());
+                	else
+                		BlockBasedDataStoreTools.create(queueDef.getName(), 
+                		                                queueDef.getDataFolder(), 
+                		                                queueDef.getInitialBlockCount(), 
+                		                                queueDef.getBlockSize(),
+                		                                !queueDef.isTemporary());
                 }
                 catch (DataStoreException e)
                 {
@@ -577,9 +733,19 @@ public final class FFMQEngine implements FFMQEngineMBean
                 destinationDefinitionProvider.removeQueueDefinition(queueDef);
                 
                 if (queueDef.hasPersistentStore())
-	                BlockBasedDataStoreTools.delete(queueDef.getName(), 
-	                                                queueDef.getDataFolder(),
-	                                                force);
+                {
+	            	if (queueDef.isLogStructured())
+	            		LogStructuredDataStore.delete(queueDef.getName(), 
+	            		                              queueDef.getDataFolder());
+	            	else
+	            		BlockBasedDataStoreTools.delete(queueDef.getName(), 
+	            		                                queueDef.getDataFolder(),
+	            		                                force);
+	                
+	                // Release the shared log entries still referenced by the queue
+	                if (queueDef.getSharedLogTopic() != null && localTopicExists(queueDef.getSharedLogTopic()))
+	                	getLocalTopic(queueDef.getSharedLogTopic()).getMessageLog().detach(queueDef.getName());
+                }
             }
         }
     }
@@ -849,6 +1015,26 @@ public final class FFMQEngine implements FFMQEngineMBean
 		return diskIOAsyncTaskManager;
 	}
 	
+	/**
+     * Get the engine-wide timing wheel
+	 * @return the engine-wide timing wheel
+	 */
+	public TimingWheel getTimingWheel() throws JMSException
+	{
+		if (timingWheel == null)
+            throw new FFMQException("Engine is stopped.","ENGINE_STOPPED");
+		return timingWheel;
+	}
+	
+	/**
+     * Get the engine-wide shared journal
+	 * @return the engine-wide shared journal, or null if disabled
+	 */
+	public SharedJournal getSharedJournal()
+	{
+		return sharedJournal;
+	}
+	
 	/**
 	 * @return the destinationDefinitionProvider
 	 */
@@ -882,4 +1068,64 @@ public final class FFMQEngine implements FFMQEngineMBean
 			}
 		}
 	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see net.timewalker.ffmq4.local.FFMQEngineMBean#getDefinitionsLoadTime()
+	 */
+	@Override
+	public long getDefinitionsLoadTime()
+	{
+		return definitionsLoadTime;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see net.timewalker.ffmq4.local.FFMQEngineMBean#getJournalRecoveryTime()
+	 */
+	@Override
+	public long getJournalRecoveryTime()
+	{
+		return journalRecoveryTime;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see net.timewalker.ffmq4.local.FFMQEngineMBean#getTemporaryDestinationsCleanupTime()
+	 */
+	@Override
+	public long getTemporaryDestinationsCleanupTime()
+	{
+		return temporaryDestinationsCleanupTime;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see net.timewalker.ffmq4.local.FFMQEngineMBean#getQueuesDeployTime()
+	 */
+	@Override
+	public long getQueuesDeployTime()
+	{
+		return queuesDeployTime;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see net.timewalker.ffmq4.local.FFMQEngineMBean#getTopicsDeployTime()
+	 */
+	@Override
+	public long getTopicsDeployTime()
+	{
+		return topicsDeployTime;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see net.timewalker.ffmq4.local.FFMQEngineMBean#getTotalDeployTime()
+	 */
+	@Override
+	public long getTotalDeployTime()
+	{
+		return totalDeployTime;
+	}
 }
@@ -44,4 +44,34 @@ public interface FFMQEngineMBean
      * Reset all engine statistics (queues and topics stats)
      */
     public void resetAllStatistics();
+    
+    /**
+     * Get the time spent loading destination definitions, templates and mappings on last deployment (ms)
+     */
+    public long getDefinitionsLoadTime();
+    
+    /**
+     * Get the time spent replaying the shared journal on last deployment (ms)
+     */
+    public long getJournalRecoveryTime();
+    
+    /**
+     * Get the time spent deleting old temporary destinations on last deployment (ms)
+     */
+    public long getTemporaryDestinationsCleanupTime();
+    
+    /**
+     * Get the time spent opening existing queues on last deployment (ms)
+     */
+    public long getQueuesDeployTime();
+    
+    /**
+     * Get the time spent opening existing topics on last deployment (ms)
+     */
+    public long getTopicsDeployTime();
+    
+    /**
+     * Get the total duration of the last deployment (ms)
+     */
+    public long getTotalDeployTime();
 }
@@ -33,6 +33,10 @@ public final class TransactionItem
 	private int deliveryMode;
 	private LocalQueue destination;
 	
+	// Runtime
+	long deliveryTag; // Assigned by TransactionSet
+	TransactionItem nextWithSameId; // Used by TransactionSet to chain items sharing the same message ID
+	
 	/**
 	 * Constructor
 	 */
@@ -64,6 +68,14 @@ public final class TransactionItem
 		this.handle = handle;
 	}
 	
+	/**
+	 * Get the delivery tag assigned to this item by its transaction set
+	 */
+	public long getDeliveryTag()
+	{
+		return deliveryTag;
+	}
+	
 	public String getMessageId()
 	{
 		return messageId;
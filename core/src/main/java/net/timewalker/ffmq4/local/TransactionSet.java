@@ -19,13 +19,17 @@
 package net.timewalker.ffmq4.local;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.jms.Session;
 
 import net.timewalker.ffmq4.FFMQException;
+import net.timewalker.ffmq4.common.session.DeliveryTagRanges;
 import net.timewalker.ffmq4.local.destination.LocalQueue;
 
 /**
@@ -35,10 +39,30 @@ import net.timewalker.ffmq4.local.destination.LocalQueue;
  * May be fully or partially cleared on commit/rollback operations.
  * Thread-safe implementation.
  * </p>
+ * <p>
+ * Each item is given a delivery tag, increasing for each item added to the set. Items are indexed
+ * by delivery tag (a window of slots starting at the oldest pending tag, so a lookup is a direct index)
+ * and counted per queue, so that partial clears and updated queues lookups are linear in the number
+ * of delivered messages rather than in the product of delivered and pending messages.
+ * Items are also indexed by message ID, to resolve the delivery tag of a message handed to a consumer.
+ * Long-lived items (eg. prefetched messages that are never consumed) are moved out of the slots window
+ * when it becomes sparse, so that they do not pin its head and make it grow without bounds.<br>
+ * The same message ID may appear several times (eg. a message delivered to several topic subscriptions
+ * of the same session), such duplicates are chained behind the first item using that ID.
+ * </p>
  */
 public final class TransactionSet
 {
-	private LinkedList<TransactionItem> items = new LinkedList<>();
+	private LinkedHashMap<String,TransactionItem> items = new LinkedHashMap<>();
+	private LinkedHashMap<LocalQueue,int[]> queueItemCounts = new LinkedHashMap<>();
+	private int size;
+	
+	// Delivery tags index
+	private long nextDeliveryTag = 1;
+	private TransactionItem[] tagSlots = new TransactionItem[16];
+	private int tagSlotsHead;          // Slot of the oldest pending tag
+	private int tagSlotsTail;          // Slot of the next tag to be assigned
+	private LinkedHashMap<Long,TransactionItem> evictedItems = new LinkedHashMap<>(); // Items moved out of the window, in delivery order
     
     /**
      * Constructor
@@ -51,24 +75,156 @@ public final class TransactionSet
     /**
      * Add an handle to the list
      * @param handle
+     * @return the delivery tag assigned to the new item
      */
-    public synchronized void add( int handle , String messageID , int deliveryMode , LocalQueue destination )
+    public synchronized long add( int handle , String messageID , int deliveryMode , LocalQueue destination )
     {
     	// Create a new transaction item
     	TransactionItem item = new TransactionItem(handle,
     	                                           messageID,
     	                                           deliveryMode,
     	                                           destination);
-    	items.add(item);
+    	addItem(item);
+    	return item.getDeliveryTag();
     }
     
     /**
      * Add an handle to the list
      * @param item the transaction item
+     * @return the delivery tag assigned to the item
+     */
+    public synchronized long add( TransactionItem item )
+    {
+    	addItem(item);
+    	return item.getDeliveryTag();
+    }
+    
+    private void addItem( TransactionItem item )
+    {
+    	item.nextWithSameId = null;
+    	TransactionItem first = items.get(item.getMessageId());
+    	if (first == null)
+    		items.put(item.getMessageId(), item);
+    	else
+    	{
+    		// Append to duplicates chain
+    		TransactionItem last = first;
+    		while (last.nextWithSameId != null)
+    			last = last.nextWithSameId;
+    		last.nextWithSameId = item;
+    	}
+    	
+    	int[] count = queueItemCounts.get(item.getDestination());
+    	if (count == null)
+    		queueItemCounts.put(item.getDestination(), new int[] { 1 });
+    	else
+    		count[0]++;
+    	size++;
+    	
+    	// Assign a delivery tag
+    	if (tagSlotsTail == tagSlots.length)
+    	{
+    		// Move the oldest items out of the window while less than half of its slots are used
+    		int windowSize = size - 1 - evictedItems.size();
+    		while (windowSize*2 < tagSlotsTail - tagSlotsHead)
+    		{
+    			TransactionItem oldest = tagSlots[tagSlotsHead];
+    			evictedItems.put(Long.valueOf(oldest.getDeliveryTag()), oldest);
+    			tagSlots[tagSlotsHead] = null;
+    			windowSize--;
+    			while (tagSlotsHead < tagSlotsTail && tagSlots[tagSlotsHead] == null)
+    				tagSlotsHead++;
+    		}
+    		
+    		// Compact the slots window, grow it if more than half full
+    		int used = tagSlotsTail - tagSlotsHead;
+    		TransactionItem[] newSlots = used*2 > tagSlots.length ? new TransactionItem[tagSlots.length*2] : tagSlots;
+    		System.arraycopy(tagSlots, tagSlotsHead, newSlots, 0, used);
+    		if (newSlots == tagSlots)
+    			Arrays.fill(tagSlots, used, tagSlotsTail, null);
+    		tagSlots = newSlots;
+    		tagSlotsHead = 0;
+    		tagSlotsTail = used;
+    	}
+    	item.deliveryTag = nextDeliveryTag++;
+    	tagSlots[tagSlotsTail++] = item;
+    }
+    
+    private int tagSlot( long deliveryTag )
+    {
+    	long offset = deliveryTag - (nextDeliveryTag - (tagSlotsTail - tagSlotsHead));
+    	if (offset < 0 || deliveryTag >= nextDeliveryTag)
+    		return -1;
+    	return tagSlotsHead + (int)offset;
+    }
+    
+    private TransactionItem lookupByTag( long deliveryTag )
+    {
+    	int slot = tagSlot(deliveryTag);
+    	if (slot != -1)
+    		return tagSlots[slot];
+    	return evictedItems.isEmpty() ? null : evictedItems.get(Long.valueOf(deliveryTag));
+    }
+    
+    private void removeFromTagIndex( TransactionItem item )
+    {
+    	int slot = tagSlot(item.getDeliveryTag());
+    	if (slot == -1)
+    	{
+    		evictedItems.remove(Long.valueOf(item.getDeliveryTag()));
+    		return;
+    	}
+    	tagSlots[slot] = null;
+    	while (tagSlotsHead < tagSlotsTail && tagSlots[tagSlotsHead] == null)
+    		tagSlotsHead++;
+    }
+    
+    private void removeFromIdIndex( TransactionItem item )
+    {
+    	TransactionItem first = items.get(item.getMessageId());
+    	if (first == item)
+    	{
+    		if (item.nextWithSameId != null)
+    			items.put(item.getMessageId(), item.nextWithSameId);
+    		else
+    			items.remove(item.getMessageId());
+    	}
+    	else
+    	{
+    		TransactionItem previous = first;
+    		while (previous.nextWithSameId != item)
+    			previous = previous.nextWithSameId;
+    		previous.nextWithSameId = item.nextWithSameId;
+    	}
+    	item.nextWithSameId = null;
+    }
+    
+    private void itemRemoved( TransactionItem item )
+    {
+    	int[] count = queueItemCounts.get(item.getDestination());
+    	if (--count[0] == 0)
+    		queueItemCounts.remove(item.getDestination());
+    	size--;
+    }
+    
+    /**
+     * Get the delivery tag of a pending message
+     * @param messageID the message ID
+     * @param destination the queue the message was obtained from
+     * @return the delivery tag or -1 if the message is not part of this set
      */
-    public synchronized void add( TransactionItem item )
+    public synchronized long getDeliveryTag( String messageID , LocalQueue destination )
     {
-    	items.add(item);
+    	// Newest items come last in duplicates chains
+    	long deliveryTag = -1;
+    	TransactionItem item = items.get(messageID);
+    	while (item != null)
+    	{
+    		if (item.getDestination() == destination)
+    			deliveryTag = item.getDeliveryTag();
+    		item = item.nextWithSameId;
+    	}
+    	return deliveryTag;
     }
     
     /**
@@ -77,13 +233,30 @@ public final class TransactionSet
      */
     public synchronized void removeUpdatesForQueue( String queueName )
     {
-    	Iterator<TransactionItem> entries = items.iterator();
-    	while (entries.hasNext())
-		{
-    		TransactionItem item = entries.next();
+    	Iterator<TransactionItem> evicted = evictedItems.values().iterator();
+    	while (evicted.hasNext())
+    	{
+    		TransactionItem item = evicted.next();
     		if (item.getDestination().getName().equals(queueName))
-    		    entries.remove();
-		}
+    		{
+    			removeFromIdIndex(item);
+    			evicted.remove();
+    			itemRemoved(item);
+    		}
+    	}
+    	
+    	for (int slot = tagSlotsHead; slot < tagSlotsTail; slot++)
+    	{
+    		TransactionItem item = tagSlots[slot];
+    		if (item != null && item.getDestination().getName().equals(queueName))
+    		{
+    			removeFromIdIndex(item);
+    			tagSlots[slot] = null;
+    			itemRemoved(item);
+    		}
+    	}
+    	while (tagSlotsHead < tagSlotsTail && tagSlots[tagSlotsHead] == null)
+    		tagSlotsHead++;
     }
     
     /**
@@ -92,36 +265,32 @@ public final class TransactionSet
      */
     public synchronized int size()
     {
-    	return items.size();
+    	return size;
     }
     
     /**
-     * Clear items by IDs from the transaction set and return a snapshot of the items
+     * Clear items by delivery tags from the transaction set and return a snapshot of the items
+     * (in reverse delivery order)
      */
-    public synchronized TransactionItem[] clear( List<String> deliveredMessageIDs ) throws FFMQException
+    public synchronized TransactionItem[] clear( DeliveryTagRanges deliveryTags ) throws FFMQException
     {
-    	int len = deliveredMessageIDs.size();
-    	TransactionItem[] itemsSnapshot = new TransactionItem[len];
-    	for(int n=0;n<len;n++)
+    	TransactionItem[] itemsSnapshot = new TransactionItem[deliveryTags.size()];
+    	int n = 0;
+    	for (int i = deliveryTags.getRangeCount()-1; i >= 0; i--)
     	{
-    		String deliveredMessageID = deliveredMessageIDs.get(len-n-1);
-    		
-    		boolean found = false;
-    		Iterator<TransactionItem> entries = items.iterator();
-        	while (entries.hasNext())
+    		long first = deliveryTags.getRangeFirst(i);
+    		for (long deliveryTag = deliveryTags.getRangeLast(i); deliveryTag >= first; deliveryTag--)
     		{
-        		TransactionItem item = entries.next();
-        		if (item.getMessageId().equals(deliveredMessageID))
-        		{
-        			found = true;
-        			itemsSnapshot[n] = item; // Store in snapshot
-        			entries.remove();
-        			break;
-        		}
+    			TransactionItem item = lookupByTag(deliveryTag);
+    			if (item == null)
+        			throw new FFMQException("Message does not belong to transaction : delivery tag "+deliveryTag,"INTERNAL_ERROR");
+    			
+    			removeFromIdIndex(item);
+    			removeFromTagIndex(item);
+    			itemRemoved(item);
+    			
+    			itemsSnapshot[n++] = item; // Store in snapshot
     		}
-    		
-    		if (!found)
-    			throw new FFMQException("Message does not belong to transaction : "+deliveredMessageID,"INTERNAL_ERROR");
     	}
     	return itemsSnapshot;
     }
@@ -131,11 +300,31 @@ public final class TransactionSet
      */
     public synchronized TransactionItem[] clear()
     {
-    	// Create snapshot
-    	TransactionItem[] itemsSnapshot = items.toArray(new TransactionItem[items.size()]);
+    	// Create snapshot (in delivery order)
+    	TransactionItem[] itemsSnapshot = new TransactionItem[size];
+    	int pos = 0;
+    	for (TransactionItem item : evictedItems.values())
+    	{
+    		item.nextWithSameId = null;
+    		itemsSnapshot[pos++] = item;
+    	}
+    	for (int slot = tagSlotsHead; slot < tagSlotsTail; slot++)
+    	{
+    		TransactionItem item = tagSlots[slot];
+    		if (item != null)
+    		{
+    			item.nextWithSameId = null;
+    			itemsSnapshot[pos++] = item;
+    			tagSlots[slot] = null;
+    		}
+    	}
    	
     	// Clear
     	items.clear();
+    	evictedItems.clear();
+    	queueItemCounts.clear();
+    	size = 0;
+    	tagSlotsHead = tagSlotsTail = 0;
     	
     	return itemsSnapshot;
     }
@@ -145,49 +334,57 @@ public final class TransactionSet
      */
     public synchronized List<LocalQueue> updatedQueues()
     {
-    	List<LocalQueue> updatedQueues = new ArrayList<>(items.size());
-    	for (int i = 0 ; i < items.size() ; i++)
-        {
-    		TransactionItem item = items.get(i);
-            LocalQueue localQueue = item.getDestination();
-            if (!updatedQueues.contains(localQueue))
-                updatedQueues.add(localQueue);
-        }
-    	
-    	return updatedQueues;
+    	return new ArrayList<>(queueItemCounts.keySet());
     }
     
     /**
      * Compute a list of queues that were updated in this transaction set
      */
-    public synchronized List<LocalQueue> updatedQueues( List<String> deliveredMessageIDs ) throws FFMQException
+    public synchronized List<LocalQueue> updatedQueues( DeliveryTagRanges deliveryTags ) throws FFMQException
     {
-    	int len = deliveredMessageIDs.size();
-    	List<LocalQueue> updatedQueues = new ArrayList<>(len);
-    	for(int n=0;n<len;n++)
+    	QueueCollector collector = new QueueCollector(deliveryTags.size());
+    	for (int i = deliveryTags.getRangeCount()-1; i >= 0; i--)
     	{
-    		String deliveredMessageID = deliveredMessageIDs.get(len-n-1);
-    		
-    		boolean found = false;
-    		Iterator<TransactionItem> entries = items.iterator();
-        	while (entries.hasNext())
+    		long first = deliveryTags.getRangeFirst(i);
+    		for (long deliveryTag = deliveryTags.getRangeLast(i); deliveryTag >= first; deliveryTag--)
     		{
-        		TransactionItem item = entries.next();
-        		if (item.getMessageId().equals(deliveredMessageID))
-        		{
-        			found = true;
-        			
-        			LocalQueue localQueue = item.getDestination();
-                    if (!updatedQueues.contains(localQueue))
-                        updatedQueues.add(localQueue);
-
-        			break;
-        		}
+    			TransactionItem item = lookupByTag(deliveryTag);
+    			if (item == null)
+        			throw new FFMQException("Message does not belong to transaction : delivery tag "+deliveryTag,"INTERNAL_ERROR");
+    			
+    			collector.add(item.getDestination());
     		}
-    		
-    		if (!found)
-    			throw new FFMQException("Message does not belong to transaction : "+deliveredMessageID,"INTERNAL_ERROR");
     	}
-    	return updatedQueues;
+    	return collector.updatedQueues;
+    }
+    
+    /**
+     * Collects distinct queues in encounter order
+     */
+    private final class QueueCollector
+    {
+    	protected List<LocalQueue> updatedQueues;
+    	private Map<LocalQueue,Boolean> seenQueues;
+    	
+    	/**
+    	 * Constructor
+    	 */
+    	public QueueCollector( int maxSize )
+    	{
+    		this.updatedQueues = new ArrayList<>(Math.min(maxSize,queueItemCounts.size()));
+    		this.seenQueues = queueItemCounts.size() > 1 ? new IdentityHashMap<LocalQueue,Boolean>() : null;
+    	}
+    	
+    	public void add( LocalQueue localQueue )
+    	{
+    		if (seenQueues == null)
+    		{
+    			// Single queue in this transaction
+    			if (updatedQueues.isEmpty())
+    				updatedQueues.add(localQueue);
+    		}
+    		else if (seenQueues.put(localQueue, Boolean.TRUE) == null)
+    			updatedQueues.add(localQueue);
+    	}
     }
 }
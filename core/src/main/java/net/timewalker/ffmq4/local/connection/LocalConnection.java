@@ -17,6 +17,10 @@
  */
 package net.timewalker.ffmq4.local.connection;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.jms.Connection;
 import javax.jms.Destination;
 import javax.jms.JMSException;
@@ -29,6 +33,7 @@ import net.timewalker.ffmq4.common.destination.DestinationTools;
 import net.timewalker.ffmq4.local.FFMQEngine;
 import net.timewalker.ffmq4.local.session.LocalSession;
 import net.timewalker.ffmq4.security.SecurityContext;
+import net.timewalker.ffmq4.security.VersionedSecurityContext;
 import net.timewalker.ffmq4.utils.id.IntegerID;
 
 /**
@@ -36,9 +41,13 @@ import net.timewalker.ffmq4.utils.id.IntegerID;
  */
 public class LocalConnection extends AbstractConnection
 {
+	// Max number of granted permissions remembered per connection
+	private static final int MAX_CACHED_PERMISSIONS = 1024;
+	
 	// Attribute
     protected FFMQEngine engine;
     private SecurityContext securityContext;
+    private volatile PermissionCache permissionCache;
     
     /**
      * Constructor
@@ -185,7 +194,7 @@ public class LocalConnection extends AbstractConnection
             return; // Security is disabled
     	
     	DestinationRef destinationRef = DestinationTools.asRef(destination);
-    	securityContext.checkPermission(destinationRef.getResourceName(), action);        
+    	checkCachedPermission(destinationRef.getResourceName(), action);
     }
     
     /**
@@ -205,7 +214,31 @@ public class LocalConnection extends AbstractConnection
         if (securityContext == null)
             return; // Security is disabled
 
-        securityContext.checkPermission(resource, action);        
+        checkCachedPermission(resource, action);
+    }
+    
+    private void checkCachedPermission( String resourceName , String action ) throws JMSException
+    {
+    	// Only contexts telling when their privileges change can be cached
+    	if (!(securityContext instanceof VersionedSecurityContext))
+    	{
+    		securityContext.checkPermission(resourceName, action);
+    		return;
+    	}
+    	
+    	// Discard previous decisions if privileges were updated since
+    	int privilegesVersion = ((VersionedSecurityContext)securityContext).getPrivilegesVersion();
+    	PermissionCache cache = permissionCache;
+    	if (cache == null || cache.privilegesVersion != privilegesVersion)
+    		permissionCache = cache = new PermissionCache(privilegesVersion);
+    	
+    	if (cache.isGranted(resourceName, action))
+    		return;
+    	
+    	// Only granted permissions are cached, denials always go through the security context
+    	securityContext.checkPermission(resourceName, action);
+    	if (!cache.grant(resourceName, action))
+    		permissionCache = new PermissionCache(privilegesVersion); // Cache is full, start over
     }
 
     /**
@@ -229,4 +262,45 @@ public class LocalConnection extends AbstractConnection
     	if (clientID != null)
             ClientIDRegistry.getInstance().unregister(clientID);
     }
+    
+    /**
+     * Granted (resource,action) couples for a given version of the security context privileges
+     */
+    private static final class PermissionCache
+    {
+    	protected final int privilegesVersion;
+    	private final ConcurrentHashMap<String,Map<String,Boolean>> grantedResourcesByAction = new ConcurrentHashMap<>();
+    	private final AtomicInteger size = new AtomicInteger();
+    	
+    	protected PermissionCache( int privilegesVersion )
+    	{
+    		this.privilegesVersion = privilegesVersion;
+    	}
+    	
+    	protected boolean isGranted( String resourceName , String action )
+    	{
+    		Map<String,Boolean> grantedResources = grantedResourcesByAction.get(action);
+    		return grantedResources != null && grantedResources.containsKey(resourceName);
+    	}
+    	
+    	/**
+    	 * @return false if the cache is full
+    	 */
+    	protected boolean grant( String resourceName , String action )
+    	{
+    		if (size.incrementAndGet() > MAX_CACHED_PERMISSIONS)
+    			return false;
+    		
+    		Map<String,Boolean> grantedResources = grantedResourcesByAction.get(action);
+    		if (grantedResources == null)
+    		{
+    			grantedResources = new ConcurrentHashMap<>();
+    			Map<String,Boolean> previous = grantedResourcesByAction.putIfAbsent(action, grantedResources);
+    			if (previous != null)
+    				grantedResources = previous;
+    		}
+    		grantedResources.put(resourceName, Boolean.TRUE);
+    		return true;
+    	}
+    }
 }
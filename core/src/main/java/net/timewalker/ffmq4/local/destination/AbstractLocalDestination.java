@@ -182,6 +182,42 @@ public abstract class AbstractLocalDestination implements Destination, LocalDest
     {
         return destinationDef.isUseJournal();
     }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.management.destination.DestinationDescriptorMBean#isMemoryMapped()
+     */
+    @Override
+    public boolean isMemoryMapped()
+    {
+    	return destinationDef.isMemoryMapped();
+    }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.management.destination.DestinationDescriptorMBean#isLogStructured()
+     */
+    @Override
+    public boolean isLogStructured()
+    {
+    	return destinationDef.isLogStructured();
+    }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.management.destination.DestinationDescriptorMBean#isOffHeapMemoryStore()
+     */
+    @Override
+    public boolean isOffHeapMemoryStore()
+    {
+    	return destinationDef.isOffHeapMemoryStore();
+    }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.management.destination.DestinationDescriptorMBean#getMessageCacheSize()
+     */
+    @Override
+    public int getMessageCacheSize()
+    {
+    	return destinationDef.getMessageCacheSize();
+    }
 
     /* (non-Javadoc)
      * @see net.timewalker.ffmq4.local.destination.LocalDestinationMBean#getBlockSize()
@@ -256,6 +292,15 @@ public abstract class AbstractLocalDestination implements Destination, LocalDest
     	return destinationDef.getMaxWriteBatchSize();
     }
     
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.management.destination.DestinationDescriptorMBean#getGroupCommitMaxDelay()
+     */
+    @Override
+    public int getGroupCommitMaxDelay()
+    {
+    	return destinationDef.getGroupCommitMaxDelay();
+    }
+    
     /* (non-Javadoc)
      * @see net.timewalker.ffmq4.management.destination.DestinationDescriptorMBean#isPreAllocateFiles()
      */
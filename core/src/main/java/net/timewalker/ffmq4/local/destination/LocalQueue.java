@@ -18,9 +18,9 @@
 package net.timewalker.ffmq4.local.destination;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.jms.DeliveryMode;
@@ -43,27 +43,36 @@ import net.timewalker.ffmq4.local.session.LocalQueueBrowserCursor;
 import net.timewalker.ffmq4.local.session.LocalSession;
 import net.timewalker.ffmq4.management.destination.definition.QueueDefinition;
 import net.timewalker.ffmq4.storage.data.DataStoreFullException;
-import net.timewalker.ffmq4.storage.message.MessageSerializationLevel;
 import net.timewalker.ffmq4.storage.message.MessageStore;
 import net.timewalker.ffmq4.storage.message.impl.BlockFileMessageStore;
 import net.timewalker.ffmq4.storage.message.impl.InMemoryMessageStore;
+import net.timewalker.ffmq4.storage.message.impl.LazyMessageStore;
+import net.timewalker.ffmq4.storage.message.impl.LazyMessageStoreListener;
+import net.timewalker.ffmq4.storage.message.impl.LogFileMessageStore;
+import net.timewalker.ffmq4.storage.message.impl.OffHeapMessageStore;
+import net.timewalker.ffmq4.storage.message.impl.RecentMessageCache;
+import net.timewalker.ffmq4.storage.message.impl.SharedLogMessageStore;
 import net.timewalker.ffmq4.utils.ErrorTools;
-import net.timewalker.ffmq4.utils.async.AsyncTask;
+import net.timewalker.ffmq4.utils.Histogram;
+import net.timewalker.ffmq4.utils.async.AbstractMergeableAsyncTask;
 import net.timewalker.ffmq4.utils.concurrent.BlockingBoundedFIFO;
 import net.timewalker.ffmq4.utils.concurrent.SynchronizationBarrier;
 import net.timewalker.ffmq4.utils.concurrent.WaitTimeoutException;
+import net.timewalker.ffmq4.utils.timer.TimerEntry;
+import net.timewalker.ffmq4.utils.timer.TimerHandler;
+import net.timewalker.ffmq4.utils.timer.TimingWheel;
 import net.timewalker.ffmq4.utils.watchdog.ActiveObject;
 import net.timewalker.ffmq4.utils.watchdog.ActivityWatchdog;
 
 /**
  * <p>Implementation for a local JMS {@link Queue}</p>
  */
-public final class LocalQueue extends AbstractLocalDestination implements Queue, LocalQueueMBean, ActiveObject
+public final class LocalQueue extends AbstractLocalDestination implements Queue, LocalQueueMBean, ActiveObject, TimerHandler
 {   
     private static final Log log = LogFactory.getLog(LocalQueue.class);
 
-    // Scheduler thread handling delayed redeliveries
-    private static final Timer redeliveryTimer = new Timer(true); 
+    // Delay before checking again an expired message that was locked by a consumer
+    private static final long EXPIRATION_RETRY_DELAY = 1000;
     
     // Definition
     private FFMQEngine engine;
@@ -72,7 +81,9 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
     // Message stores
     private MessageStore volatileStore;
     private MessageStore persistentStore;
-    private Object storeLock = new Object();
+    // Each store has its own lock so that volatile and persistent traffic do not contend
+    private Object volatileStoreLock = new Object();
+    private Object persistentStoreLock = new Object();
    
     // Statistics
     private AtomicLong sentToQueueCount = new AtomicLong();
@@ -81,6 +92,8 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
     private AtomicLong rollbackedGetCount = new AtomicLong();
     private AtomicLong expiredCount = new AtomicLong();
     private AtomicLong storeFullEventsCount = new AtomicLong();
+    private AtomicInteger pendingRedeliveryCount = new AtomicInteger();
+    private AtomicInteger scheduledExpirationCount = new AtomicInteger();
     
     // Settings
     private long inactivityTimeout;
@@ -93,6 +106,14 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
     private volatile int consumerOffset = 0; // Used for a round-robin-like consumer wake-up
     private BlockingBoundedFIFO<AbstractMessage> notificationQueue;
     
+    // Engine-wide scheduler for expirations and delayed redeliveries
+    private TimingWheel timingWheel;
+    private MessageTimerIndex volatileExpirations = new MessageTimerIndex();
+    private MessageTimerIndex persistentExpirations = new MessageTimerIndex();
+    private MessageTimerIndex volatileRedeliveries = new MessageTimerIndex();
+    private MessageTimerIndex persistentRedeliveries = new MessageTimerIndex();
+    private List<MessageTimer> expiredTimers = new ArrayList<>();
+    
     /**
      * Constructor
      */
@@ -107,18 +128,40 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
         	Math.max(engine.getSetup().getNotificationAsyncTaskManagerThreadPoolMaxSize()+1,
         			 engine.getSetup().getInternalNotificationQueueMaxSize());
         this.notificationQueue = new BlockingBoundedFIFO<>(notificationQueueMaxSize,5*1000); /* 5s timeout */
+        this.timingWheel = engine.getTimingWheel();
         
         // Init volatile store
         if (queueDef.getMaxNonPersistentMessages() > 0)
         {
-            this.volatileStore = new InMemoryMessageStore(queueDef);
+        	if (queueDef.isOffHeapMemoryStore())
+        		this.volatileStore = new OffHeapMessageStore(queueDef);
+        	else
+        		this.volatileStore = new InMemoryMessageStore(queueDef);
             this.volatileStore.init();
         }
         
         // Init persistent store
         if (queueDef.hasPersistentStore())
         {
-            this.persistentStore = new BlockFileMessageStore(queueDef,engine.getDiskIOAsyncTaskManager());
+        	if (queueDef.getSharedLogTopic() != null)
+        		this.persistentStore = new SharedLogMessageStore(queueDef,
+        				                                         engine.getDiskIOAsyncTaskManager(),
+        				                                         engine.getSharedJournal(),
+        				                                         engine.getLocalTopic(queueDef.getSharedLogTopic()).getMessageLog());
+        	else if (queueDef.isLogStructured())
+        		this.persistentStore = new LogFileMessageStore(queueDef,engine.getDiskIOAsyncTaskManager());
+        	else
+        		this.persistentStore = new BlockFileMessageStore(queueDef,engine.getDiskIOAsyncTaskManager(),engine.getSharedJournal());
+        	
+        	// Shared log subscribers must stay attached to their topic log
+        	if (engine.getSetup().doUseLazyStores() && !queueDef.isTemporary() && queueDef.getSharedLogTopic() == null)
+        		this.persistentStore = new LazyMessageStore(persistentStore,new LazyMessageStoreListener() {
+					@Override
+					public void storeOpened() throws JMSException
+					{
+						scheduleStoredExpirations();
+					}
+				});
             this.persistentStore.init();
         }
         
@@ -126,6 +169,10 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
         this.redeliveryDelay = engine.getSetup().getRedeliveryDelay();
         this.lastActivity = System.currentTimeMillis();
         ActivityWatchdog.getInstance().register(this);
+        
+        // Lazy stores schedule their expirations when first opened
+        if (persistentStore != null && !(persistentStore instanceof LazyMessageStore))
+        	scheduleStoredExpirations();
     }
     
     /**
@@ -175,31 +222,25 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
     	                            "DeliveryMode.NON_PERSISTENT" : "DeliveryMode.PERSISTENT"),
     	                            "INVALID_DELIVERY_MODE");
     	
-    	int newHandle;
-        synchronized (storeLock)
+    	int newHandle = storeLocked(targetStore, message);
+        if (newHandle == -1)
         {
-            newHandle = targetStore.store(message);
-            if (newHandle == -1)
-            {
-            	// No space left for this message in the target store
-            	if (targetStore == volatileStore && persistentStore != null && queueDef.isOverflowToPersistent())
-            	{
-            		// Fallback to persistent store if possible
-            		targetStore = persistentStore;
-            		newHandle = targetStore.store(message);
-            	}
- 
-            	// Cannot store the message anywhere
-            	if (newHandle == -1)
-            	{
-            		storeFullEventsCount.incrementAndGet();
-            		throw new DataStoreFullException("Cannot store message : queue is full : "+getName());
-            	}
-            }
-            
-            targetStore.lock(newHandle);
-        	locks.add(newHandle, targetStore.getDeliveryMode(), this, message);
+        	// No space left for this message in the target store
+        	if (targetStore == volatileStore && persistentStore != null && queueDef.isOverflowToPersistent())
+        	{
+        		// Fallback to persistent store if possible
+        		targetStore = persistentStore;
+        		newHandle = storeLocked(targetStore, message);
+        	}
+        	
+        	// Cannot store the message anywhere
+        	if (newHandle == -1)
+        	{
+        		storeFullEventsCount.incrementAndGet();
+        		throw new DataStoreFullException("Cannot store message : queue is full : "+getName());
+        	}
         }
+        locks.add(newHandle, targetStore.getDeliveryMode(), this, message);
         
         if (message.getJMSDeliveryMode() == DeliveryMode.PERSISTENT && requiresTransactionalUpdate())
         {
@@ -210,6 +251,87 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
         	return false;
     }
     
+    /**
+     * Store a message in the given store, in locked state
+     * @return the new message handle or -1 if the store is full
+     */
+    private int storeLocked( MessageStore store , AbstractMessage message ) throws JMSException
+    {
+    	synchronized (getStoreLock(store))
+        {
+    		int newHandle = store.store(message);
+    		if (newHandle != -1)
+    		{
+    			store.lock(newHandle);
+    			if (message.getJMSExpiration() > 0)
+    				scheduleExpiration(store, newHandle, message.getJMSExpiration());
+    		}
+    		return newHandle;
+        }
+    }
+    
+    /**
+     * Delete a message from the given store, the store lock should be held by the caller
+     */
+    private void deleteFromStore( MessageStore store , int handle ) throws JMSException
+    {
+    	store.delete(handle);
+    	
+    	MessageTimer timer = getExpirationIndex(store).remove(handle);
+    	if (timer != null)
+    	{
+    		timingWheel.cancel(timer);
+    		scheduledExpirationCount.decrementAndGet();
+    	}
+    }
+    
+    private MessageTimerIndex getExpirationIndex( MessageStore store )
+    {
+    	return store == persistentStore ? persistentExpirations : volatileExpirations;
+    }
+    
+    private MessageTimerIndex getRedeliveryIndex( MessageStore store )
+    {
+    	return store == persistentStore ? persistentRedeliveries : volatileRedeliveries;
+    }
+    
+    private void scheduleExpiration( MessageStore store , int handle , long expiration )
+    {
+    	MessageTimer timer = new MessageTimer(store, handle, null);
+    	getExpirationIndex(store).put(handle, timer);
+    	timingWheel.schedule(timer, expiration);
+    	scheduledExpirationCount.incrementAndGet();
+    }
+    
+    /**
+     * Schedule the expiration of messages already present in the persistent store when it is opened
+     */
+    private void scheduleStoredExpirations() throws JMSException
+    {
+    	synchronized (persistentStoreLock)
+        {
+    		int handle = persistentStore.first();
+    		while (handle != -1)
+    		{
+    			if (persistentExpirations.get(handle) == null)
+    			{
+    				AbstractMessage message = persistentStore.retrieve(handle);
+    				if (message.getJMSExpiration() > 0)
+    					scheduleExpiration(persistentStore, handle, message.getJMSExpiration());
+    			}
+    			handle = persistentStore.next(handle);
+    		}
+        }
+    }
+    
+    /**
+     * Get the lock protecting the given message store
+     */
+    private Object getStoreLock( MessageStore store )
+    {
+    	return store == persistentStore ? persistentStoreLock : volatileStoreLock;
+    }
+    
     /**
      * Unlock a message.
      * Listeners are automatically notified of the new message availability.
@@ -224,7 +346,7 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
     	
     	int handle = lockRef.getHandle();
     	AbstractMessage message = lockRef.getMessage();
-    	synchronized (storeLock)
+    	synchronized (getStoreLock(targetStore))
         {
     		targetStore.unlock(handle);
         }
@@ -250,9 +372,9 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
     	    	pendingChanges = true;
     	}
     	
-    	synchronized (storeLock)
+    	synchronized (getStoreLock(targetStore))
         {
-    		targetStore.delete(lockRef.getHandle());
+    		deleteFromStore(targetStore, lockRef.getHandle());
         }
     }
     
@@ -265,42 +387,43 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
     	checkNotClosed();
     	checkTransactionLock();
     	
-    	int volatileCommitted = 0;
-    	int persistentCommitted = 0;
+    	int volatileCommitted = volatileStore != null ? removeFromStore(localSession, volatileStore, items) : 0;
+    	int persistentCommitted = persistentStore != null ? removeFromStore(localSession, persistentStore, items) : 0;
+        acknowledgedGetCount.addAndGet(volatileCommitted + persistentCommitted);
+        
+        if (persistentCommitted > 0 && requiresTransactionalUpdate())
+        {
+        	pendingChanges = true;
+        	return true;
+        }
+        else
+        	return false;
+    }
+    
+    private int removeFromStore( LocalSession localSession , MessageStore store , TransactionItem[] items ) throws JMSException
+    {
+    	int committed = 0;
+    	int deliveryMode = store.getDeliveryMode();
     	
-        synchronized (storeLock)
+    	synchronized (getStoreLock(store))
         {
     		for (int n = 0 ; n < items.length ; n++)
             {
     			TransactionItem transactionItem = items[n];
-            	if (transactionItem.getDestination() != this)
+            	if (transactionItem.getDestination() != this ||
+            		transactionItem.getDeliveryMode() != deliveryMode)
             		continue;
             	
             	if (traceEnabled)
                 	log.trace(localSession+" COMMIT "+transactionItem.getMessageId());
             	
             	// Delete message from store
-            	if (transactionItem.getDeliveryMode() == DeliveryMode.PERSISTENT)
-            	{
-            		persistentStore.delete(transactionItem.getHandle());
-            		persistentCommitted++;
-            	}
-            	else
-            	{
-            		volatileStore.delete(transactionItem.getHandle());
-            		volatileCommitted++;
-            	}
+            	deleteFromStore(store, transactionItem.getHandle());
+            	committed++;
             }
         }
-        acknowledgedGetCount.addAndGet(volatileCommitted + persistentCommitted);
-        
-        if (persistentCommitted > 0 && requiresTransactionalUpdate())
-        {
-        	pendingChanges = true;
-        	return true;
-        }
-        else
-        	return false;
+    	
+    	return committed;
     }
     
     /**
@@ -313,55 +436,61 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
     	checkNotClosed();
     	checkTransactionLock();
     	
-    	int volatileRollbacked = 0;
-    	int persistentRollbacked = 0;
+    	int volatileRollbacked = volatileStore != null ? redeliverToStore(volatileStore, items, locks) : 0;
+    	int persistentRollbacked = persistentStore != null ? redeliverToStore(persistentStore, items, locks) : 0;
+        rollbackedGetCount.addAndGet(volatileRollbacked + persistentRollbacked);
 
-        synchronized (storeLock)
+        if (persistentRollbacked > 0 && requiresTransactionalUpdate())
+        {
+        	pendingChanges = true;
+        	return true;
+        }
+        else
+        	return false;
+    }
+    
+    private int redeliverToStore( MessageStore store , TransactionItem[] items , MessageLockSet locks ) throws JMSException
+    {
+    	int rollbacked = 0;
+    	int deliveryMode = store.getDeliveryMode();
+    	
+        synchronized (getStoreLock(store))
         {
             for (int n = 0 ; n < items.length ; n++)
             {
             	TransactionItem transactionItem = items[n];
-            	if (transactionItem.getDestination() != this)
+            	if (transactionItem.getDestination() != this ||
+            		transactionItem.getDeliveryMode() != deliveryMode)
             		continue; // Not for us
             	
-            	MessageStore store = transactionItem.getDeliveryMode() == DeliveryMode.PERSISTENT ? persistentStore : volatileStore;
             	int handle = transactionItem.getHandle();
             	
-            	// Retrieve message content
+            	// Update delivery state in store (the message itself is not rewritten)
+            	store.markRedelivered(handle);
+            	
+            	// Retrieve message content (with the redelivered flag merged in)
            		AbstractMessage msg = store.retrieve(handle);
            		
-           		// Update redelivered flag both in memory and message store
-           		msg.setJMSRedelivered(true);
-           		handle = store.replace(handle, msg);
-           		
             	if (redeliveryDelay > 0)
             	{
             	    // Keep the message locked so it cannot be re-consumed immediately            	    
             		// and schedule message unlock after redeliveryDelay milliseconds
-            		redeliveryTimer.schedule(new RedeliveryTask(msg,store,handle), 
-            				                 redeliveryDelay);
+            		pendingRedeliveryCount.incrementAndGet();
+            		MessageTimer timer = new MessageTimer(store, handle, msg);
+            		getRedeliveryIndex(store).put(handle, timer);
+            		timingWheel.schedule(timer, System.currentTimeMillis()+redeliveryDelay);
             	}
             	else
             	{
             		// Store lock for later release
-            		locks.add(handle, store.getDeliveryMode(), this, msg);
+            		locks.add(handle, deliveryMode, this, msg);
             	}
-
-                if (transactionItem.getDeliveryMode() == DeliveryMode.PERSISTENT)
-                	persistentRollbacked++;
-                else
-                	volatileRollbacked++;
+            	
+            	rollbacked++;
             }
         }
-        rollbackedGetCount.addAndGet(volatileRollbacked + persistentRollbacked);
-
-        if (persistentRollbacked > 0 && requiresTransactionalUpdate())
-        {
-        	pendingChanges = true;
-        	return true;
-        }
-        else
-        	return false;
+        
+        return rollbacked;
     }
     
     /*
@@ -377,7 +506,7 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
     	if (persistentStore != null)
     	{
     		long start = System.currentTimeMillis();
-    		synchronized (storeLock)
+    		synchronized (persistentStoreLock)
 			{
     			persistentStore.commitChanges(barrier);
 			}
@@ -389,27 +518,158 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
     	}
     }
     
-    /** See RedeliveryTask */
-    protected void redeliverMessage( AbstractMessage msg , MessageStore store , int handle )
+    /**
+     * Unlock a message once its redelivery delay has elapsed
+     */
+    private void redeliverMessage( MessageTimer timer )
     {
+    	MessageStore store = timer.store;
     	try
     	{
-	    	synchronized (storeLock)
+	    	synchronized (getStoreLock(store))
 	        {
+	    		MessageTimerIndex index = getRedeliveryIndex(store);
+	    		if (index.get(timer.handle) != timer)
+	    			return; // Cancelled on close
+	    		index.remove(timer.handle);
+	    		pendingRedeliveryCount.decrementAndGet();
+	    		
 		    	// Unlock message in store
-		   		store.unlock(handle);
+		   		store.unlock(timer.handle);
 		   		if (traceEnabled)
-		        	log.trace("(Deferred) UNLOCKED "+msg.getJMSMessageID());
+		        	log.trace("(Deferred) UNLOCKED "+timer.message.getJMSMessageID());
 	        }
 	    	
 	    	// Dispatch notification
-	    	sendAvailabilityNotification(msg);
+	    	sendAvailabilityNotification(timer.message);
+    	}
+    	catch (JMSException e)
+    	{
+    		ErrorTools.log(e, log);
+    	}
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see net.timewalker.ffmq4.utils.timer.TimerHandler#timersExpired(java.util.List)
+     */
+    @Override
+    public void timersExpired( List<TimerEntry> entries )
+    {
+    	// Only collect expired timers here, stores are updated asynchronously
+    	// so that the engine-wide timing wheel thread never waits for a store
+    	if (closed)
+    		return;
+    	synchronized (expiredTimers)
+    	{
+    		for (int n = 0; n < entries.size(); n++)
+    			expiredTimers.add((MessageTimer)entries.get(n));
+    	}
+    	
+    	try
+    	{
+    		engine.getNotificationAsyncTaskManager().execute(expiredTimersTask);
+    	}
+    	catch (JMSException e)
+    	{
+    		ErrorTools.log(e, log);
+    	}
+    }
+    
+    /**
+     * Process the timers collected by {@link #timersExpired(List)}
+     */
+    protected void processExpiredTimers()
+    {
+    	List<MessageTimer> timers;
+    	synchronized (expiredTimers)
+    	{
+    		if (expiredTimers.isEmpty())
+    			return;
+    		timers = new ArrayList<>(expiredTimers);
+    		expiredTimers.clear();
+    	}
+    	
+    	List<MessageTimer> volatileExpired = null;
+    	List<MessageTimer> persistentExpired = null;
+    	for (int n = 0; n < timers.size(); n++)
+		{
+    		if (closed)
+    			return;
+    		
+			MessageTimer timer = timers.get(n);
+			if (timer.message != null)
+			{
+				// Delayed redelivery
+				redeliverMessage(timer);
+			}
+			else
+			{
+				// Message expiration
+				if (timer.store == persistentStore)
+				{
+					if (persistentExpired == null)
+						persistentExpired = new ArrayList<>();
+					persistentExpired.add(timer);
+				}
+				else
+				{
+					if (volatileExpired == null)
+						volatileExpired = new ArrayList<>();
+					volatileExpired.add(timer);
+				}
+			}
+		}
+    	
+    	if (closed)
+    		return;
+    	try
+    	{
+	    	if (volatileExpired != null)
+	    		purgeExpired(volatileStore, volatileExpired);
+	    	if (persistentExpired != null)
+	    		purgeExpired(persistentStore, persistentExpired);
     	}
     	catch (JMSException e)
     	{
     		ErrorTools.log(e, log);
     	}
     }
+    
+    /**
+     * Delete expired messages proactively, without waiting for a consumer to scan them
+     */
+    private void purgeExpired( MessageStore store , List<MessageTimer> timers ) throws JMSException
+    {
+    	List<Integer> expiredHandles = null;
+    	
+    	long now = System.currentTimeMillis();
+    	synchronized (getStoreLock(store))
+        {
+    		MessageTimerIndex index = getExpirationIndex(store);
+    		for (int n = 0; n < timers.size(); n++)
+			{
+				MessageTimer timer = timers.get(n);
+				if (index.get(timer.handle) != timer)
+					continue; // Message was deleted in the meantime
+				
+				if (store.isLocked(timer.handle))
+				{
+					// Message is being consumed or not committed yet, check again later
+					timingWheel.schedule(timer, now+EXPIRATION_RETRY_DELAY);
+					continue;
+				}
+				
+				if (expiredHandles == null)
+					expiredHandles = new ArrayList<>();
+				store.lock(timer.handle);
+				expiredHandles.add(Integer.valueOf(timer.handle));
+			}
+        }
+    	
+    	if (expiredHandles != null)
+    		deleteExpired(store, expiredHandles);
+    }
 
     /**
      * Get the first available message from this destination (matching an optional message selector).
@@ -489,7 +749,7 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
     	List<Integer> expiredHandles = null;
     	
     	long now = System.currentTimeMillis();
-    	synchronized (storeLock)
+    	synchronized (getStoreLock(store))
         {
             int current = store.first();
             
@@ -527,7 +787,6 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
                     }
                     else
                     {
-                    	msg.ensureDeserializationLevel(MessageSerializationLevel.ALL_HEADERS);
                     	if (selector.matches(msg))
                     	{
                     		result = msg;
@@ -543,26 +802,7 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
     	
     	// Take care of expired messages
         if (expiredHandles != null)
-        {
-        	openTransaction();
-        	try
-        	{
-        		for (int i = 0; i < expiredHandles.size(); i++)
-				{
-					int expiredHandle = expiredHandles.get(i).intValue();
-					synchronized (storeLock)
-			        {
-						store.delete(expiredHandle);
-			        }
-					expiredCount.incrementAndGet();
-				}
-        		commitChanges(null); // Async commit
-        	}
-        	finally
-        	{
-        		closeTransaction();
-        	}
-        }
+        	deleteExpired(store, expiredHandles);
         
         return result;
     }
@@ -575,9 +815,10 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
     	AbstractMessage result = null;
     	List<Integer> expiredHandles = null;
     	
-        synchronized (storeLock)
+        synchronized (getStoreLock(store))
         {
-            int current = store.first();
+        	// Without a selector, only unlocked messages need to be considered
+            int current = selector != null ? store.first() : store.firstUnlocked();
             while (current != -1)
             {
                 // Skip locked messages
@@ -593,7 +834,7 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
                     		expiredHandles = new ArrayList<>();
                     	store.lock(current);
                     	expiredHandles.add(Integer.valueOf(current));
-                    	current = store.next(current);
+                    	current = selector != null ? store.next(current) : store.firstUnlocked();
                     	continue;
                     }
                     
@@ -601,7 +842,6 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
                     boolean matchesSelector;
                     if (selector != null)
                     {
-                    	msg.ensureDeserializationLevel(MessageSerializationLevel.ALL_HEADERS);
                     	matchesSelector = selector.matches(msg);
                     }
                     else
@@ -630,30 +870,36 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
         
         // Take care of expired messages
         if (expiredHandles != null)
-        {
-        	openTransaction();
-        	try
-        	{
-        		for (int i = 0; i < expiredHandles.size(); i++)
-				{
-					int expiredHandle = expiredHandles.get(i).intValue();
-					synchronized (storeLock)
-			        {
-						store.delete(expiredHandle);
-			        }
-					expiredCount.incrementAndGet();
-				}
-        		commitChanges(null); // Async commit
-        	}
-        	finally
-        	{
-        		closeTransaction();
-        	}
-        }
+        	deleteExpired(store, expiredHandles);
         
         return result;
     }
     
+    /**
+     * Delete expired messages, they should have been locked by the caller
+     */
+    private void deleteExpired( MessageStore store , List<Integer> expiredHandles ) throws JMSException
+    {
+    	openTransaction();
+    	try
+    	{
+    		for (int i = 0; i < expiredHandles.size(); i++)
+			{
+				int expiredHandle = expiredHandles.get(i).intValue();
+				synchronized (getStoreLock(store))
+		        {
+					deleteFromStore(store, expiredHandle);
+		        }
+				expiredCount.incrementAndGet();
+			}
+    		commitChanges(null); // Async commit
+    	}
+    	finally
+    	{
+    		closeTransaction();
+    	}
+    }
+    
     /**
      * Purge some messages from the buffer
      */
@@ -678,7 +924,7 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
     
     private void purgeStore( MessageStore store , MessageSelector selector ) throws JMSException
     {
-        synchronized (storeLock)
+        synchronized (getStoreLock(store))
         {
             int current = store.first();
             while (current != -1)
@@ -691,12 +937,11 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
                 	if (selector != null)
                 	{
                 		AbstractMessage msg = store.retrieve(current);
-                		msg.ensureDeserializationLevel(MessageSerializationLevel.ALL_HEADERS);
                         if (selector.matches(msg))
-                        	store.delete(current);
+                        	deleteFromStore(store, current);
                 	}
                 	else
-                		store.delete(current);
+                		deleteFromStore(store, current);
                 }
                 
                 current = next;
@@ -739,7 +984,6 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
                 MessageSelector consumerSelector = consumer.getReceiveSelector();
                 if (consumerSelector != null)
                 {
-                	message.ensureDeserializationLevel(MessageSerializationLevel.ALL_HEADERS);
                 	if (!consumerSelector.matches(message))
                 		return;
                 }
@@ -773,8 +1017,6 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
             	MessageSelector consumerSelector = consumer.getReceiveSelector();
             	if (consumerSelector != null)
                 {
-            		message.ensureDeserializationLevel(MessageSerializationLevel.ALL_HEADERS);
-            		
 	                try
 	                {
                     	if (!consumerSelector.matches(message))
@@ -808,12 +1050,19 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
 	public int getSize()
     {
         int size = 0;
-        synchronized (storeLock)
+        if (volatileStore != null)
+        {
+        	synchronized (volatileStoreLock)
+            {
+        		size += volatileStore.size();
+            }
+        }
+        if (persistentStore != null)
         {
-            if (volatileStore != null)
-                size += volatileStore.size();
-            if (persistentStore != null)
-                size += persistentStore.size();
+        	synchronized (persistentStoreLock)
+            {
+        		size += persistentStore.size();
+            }
         }
         return size;
     }
@@ -836,6 +1085,79 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
     	return persistentStore != null ? persistentStore.getAbsoluteStoreUsage() : -1;
     }
     
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.local.destination.LocalQueueMBean#getJournalCommitBatchSizes()
+     */
+    @Override
+    public String getJournalCommitBatchSizes()
+    {
+    	Histogram histogram = getJournalHistogram(true);
+    	return histogram != null ? histogram.toString() : null;
+    }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.local.destination.LocalQueueMBean#getJournalSyncLatencies()
+     */
+    @Override
+    public String getJournalSyncLatencies()
+    {
+    	Histogram histogram = getJournalHistogram(false);
+    	return histogram != null ? histogram.toString() : null;
+    }
+    
+    private Histogram getJournalHistogram( boolean batchSizes )
+    {
+    	BlockFileMessageStore store = getBlockFileStore();
+    	if (store == null)
+    		return null;
+    	
+    	return batchSizes ? store.getJournalCommitBatchSizes() : store.getJournalSyncLatencies();
+    }
+    
+    private BlockFileMessageStore getBlockFileStore()
+    {
+    	MessageStore targetStore = persistentStore;
+    	if (targetStore instanceof LazyMessageStore)
+    		targetStore = ((LazyMessageStore)targetStore).getStore();
+    	return targetStore instanceof BlockFileMessageStore ? (BlockFileMessageStore)targetStore : null;
+    }
+    
+    private RecentMessageCache getMessageCache()
+    {
+    	BlockFileMessageStore store = getBlockFileStore();
+    	return store != null ? store.getMessageCache() : null;
+    }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.local.destination.LocalQueueMBean#getMessageCacheHitRatio()
+     */
+    @Override
+    public int getMessageCacheHitRatio()
+    {
+    	RecentMessageCache cache = getMessageCache();
+    	return cache != null ? cache.getHitRatio() : -1;
+    }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.local.destination.LocalQueueMBean#getMessageCacheHits()
+     */
+    @Override
+    public long getMessageCacheHits()
+    {
+    	RecentMessageCache cache = getMessageCache();
+    	return cache != null ? cache.getHits() : 0;
+    }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.local.destination.LocalQueueMBean#getMessageCacheMisses()
+     */
+    @Override
+    public long getMessageCacheMisses()
+    {
+    	RecentMessageCache cache = getMessageCache();
+    	return cache != null ? cache.getMisses() : 0;
+    }
+    
     /*
      * (non-Javadoc)
      * @see net.timewalker.ffmq4.local.destination.LocalDestinationMBean#resetStats()
@@ -850,6 +1172,17 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
     	rollbackedGetCount.set(0);
     	expiredCount.set(0);
     	storeFullEventsCount.set(0);
+    	
+    	Histogram histogram = getJournalHistogram(true);
+    	if (histogram != null)
+    		histogram.reset();
+    	histogram = getJournalHistogram(false);
+    	if (histogram != null)
+    		histogram.reset();
+    	
+    	RecentMessageCache cache = getMessageCache();
+    	if (cache != null)
+    		cache.resetStats();
     }
     
     /*
@@ -877,6 +1210,8 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
        sb.append(rollbackedGetCount);
        sb.append(",expired=");
        sb.append(expiredCount);
+       sb.append(",pendingRedeliveries=");
+       sb.append(pendingRedeliveryCount);
        sb.append(",storeFullEvents=");
        sb.append(storeFullEventsCount);
        sb.append("]");
@@ -900,25 +1235,32 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
     	
     	ActivityWatchdog.getInstance().unregister(this);
     	
-    	synchronized (storeLock)
-		{
-	        if (volatileStore != null)
-	        {
+        if (volatileStore != null)
+        {
+        	synchronized (volatileStoreLock)
+    		{
+        		volatileExpirations.cancelAll(timingWheel);
+        		pendingRedeliveryCount.addAndGet(-volatileRedeliveries.cancelAll(timingWheel));
 	            volatileStore.close();
 	            
 	            // Delete message store if the queue was temporary
 	            if (queueDef.isTemporary())
 	                volatileStore.delete();
-	        }
-	        if (persistentStore != null)
-	        {
+    		}
+        }
+        if (persistentStore != null)
+        {
+        	synchronized (persistentStoreLock)
+    		{
+        		persistentExpirations.cancelAll(timingWheel);
+        		pendingRedeliveryCount.addAndGet(-persistentRedeliveries.cancelAll(timingWheel));
 	            persistentStore.close();
 	            
 	            // Delete message store if the queue was temporary
 	            if (queueDef.isTemporary())
 	                persistentStore.delete();
-	        }
-		}
+    		}
+        }
     	
     	// Create a snapshot to avoid concurrent modification
     	List<LocalMessageConsumer> consumers;
@@ -999,6 +1341,26 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
 	{
 		return expiredCount.get();
 	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see net.timewalker.ffmq4.local.destination.LocalQueueMBean#getScheduledExpirationCount()
+	 */
+	@Override
+	public int getScheduledExpirationCount()
+	{
+		return scheduledExpirationCount.get();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see net.timewalker.ffmq4.local.destination.LocalQueueMBean#getPendingRedeliveryCount()
+	 */
+	@Override
+	public int getPendingRedeliveryCount()
+	{
+		return pendingRedeliveryCount.get();
+	}
     
     /* (non-Javadoc)
      * @see net.timewalker.ffmq4.local.destination.LocalQueueMBean#getStoreFullEventsCount()
@@ -1037,6 +1399,10 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
     	if (closed)
     		return true;
     	
+    	// Nobody to notify, avoid opening lazy stores
+    	if (localConsumers.isEmpty())
+    		return false;
+    	
     	if (getSize() == 0)
     		return false; // Queue is empty
     	
@@ -1079,30 +1445,79 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
     
     //-------------------------------------------------------------------------------
     
-    private final class RedeliveryTask extends TimerTask
+    /**
+     * Timer entry for a message expiration or, when a message is attached, a delayed redelivery
+     */
+    private final class MessageTimer extends TimerEntry
     {
     	// Attributes
-    	private AbstractMessage msg;
-    	private MessageStore store;
-    	private int handle;
+    	final MessageStore store;
+    	final int handle;
+    	final AbstractMessage message;
     	
     	/**
 		 * Constructor
 		 */
-		public RedeliveryTask( AbstractMessage msg , MessageStore store , int handle )
+		public MessageTimer( MessageStore store , int handle , AbstractMessage message )
 		{
-			this.msg = msg;
 			this.store = store;
 			this.handle = handle;
+			this.message = message;
 		}
     	
     	/* (non-Javadoc)
-    	 * @see java.util.TimerTask#run()
+    	 * @see net.timewalker.ffmq4.utils.timer.TimerEntry#getHandler()
     	 */
     	@Override
-		public void run()
+		public TimerHandler getHandler()
+    	{
+    		return LocalQueue.this;
+    	}
+    }
+    
+    /**
+     * Scheduled timers of a message store, indexed by handle
+     */
+    private static final class MessageTimerIndex
+    {
+    	private MessageTimer[] timers = new MessageTimer[16];
+    	
+    	public MessageTimer get( int handle )
+    	{
+    		return handle < timers.length ? timers[handle] : null;
+    	}
+    	
+    	public void put( int handle , MessageTimer timer )
+    	{
+    		if (handle >= timers.length)
+    			timers = Arrays.copyOf(timers, Math.max(handle+1, timers.length*2));
+    		timers[handle] = timer;
+    	}
+    	
+    	public MessageTimer remove( int handle )
     	{
-    		redeliverMessage(msg,store,handle);
+    		if (handle >= timers.length)
+    			return null;
+    		MessageTimer timer = timers[handle];
+    		timers[handle] = null;
+    		return timer;
+    	}
+    	
+    	/**
+    	 * Cancel all timers
+    	 * @return the number of cancelled timers
+    	 */
+    	public int cancelAll( TimingWheel timingWheel )
+    	{
+    		int count = 0;
+    		for (int n = 0; n < timers.length; n++)
+    			if (timers[n] != null)
+    			{
+    				timingWheel.cancel(timers[n]);
+    				count++;
+    			}
+    		timers = new MessageTimer[16];
+    		return count;
     	}
     }
     
@@ -1128,7 +1543,7 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
     
     private final NotificationTask notificationTask = new NotificationTask();
     
-    private final class NotificationTask implements AsyncTask
+    private final class NotificationTask extends AbstractMergeableAsyncTask
     {
     	/**
 		 * Constructor
@@ -1139,13 +1554,26 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
 		}
     	
     	/* (non-Javadoc)
-    	 * @see net.timewalker.ffmq4.utils.async.AsyncTask#isMergeable()
+    	 * @see net.timewalker.ffmq4.utils.async.AsyncTask#execute()
     	 */
     	@Override
-		public boolean isMergeable()
+		public void execute()
     	{
-    		return true;
+    		processAvailabilityNotificationQueue();
     	}
+    }
+    
+    private final ExpiredTimersTask expiredTimersTask = new ExpiredTimersTask();
+    
+    private final class ExpiredTimersTask extends AbstractMergeableAsyncTask
+    {
+    	/**
+		 * Constructor
+		 */
+		public ExpiredTimersTask()
+		{
+			super();
+		}
     	
     	/* (non-Javadoc)
     	 * @see net.timewalker.ffmq4.utils.async.AsyncTask#execute()
@@ -1153,7 +1581,7 @@ public final class LocalQueue extends AbstractLocalDestination implements Queue,
     	@Override
 		public void execute()
     	{
-    		processAvailabilityNotificationQueue();
+    		processExpiredTimers();
     	}
     }
 }
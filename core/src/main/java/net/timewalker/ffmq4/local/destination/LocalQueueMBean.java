@@ -49,6 +49,16 @@ public interface LocalQueueMBean extends LocalDestinationMBean
 	 */
 	public long getExpiredCount();
 	
+	/**
+	 * Get the number of messages with a scheduled expiration in this queue
+	 */
+	public int getScheduledExpirationCount();
+	
+	/**
+	 * Get the number of rollbacked messages waiting for their delayed redelivery
+	 */
+	public int getPendingRedeliveryCount();
+	
 	/**
 	 * Get the number of times a message could not be stored because the queue store was full
 	 */
@@ -63,4 +73,30 @@ public interface LocalQueueMBean extends LocalDestinationMBean
 	 * Get the usage amount (%) for the memory store
 	 */
 	public int getPersistentStoreUsage();
+	
+	/**
+	 * Get the histogram of the number of commits grouped in each persistent store journal sync
+	 */
+	public String getJournalCommitBatchSizes();
+	
+	/**
+	 * Get the histogram of persistent store journal sync latencies (in microseconds)
+	 */
+	public String getJournalSyncLatencies();
+	
+	/**
+	 * Get the ratio of persistent message reads served by the recent message cache (%)
+	 * @return the hit ratio, or -1 if the cache is disabled or was never used
+	 */
+	public int getMessageCacheHitRatio();
+	
+	/**
+	 * Get the number of persistent message reads served by the recent message cache (since startup or last reset)
+	 */
+	public long getMessageCacheHits();
+	
+	/**
+	 * Get the number of persistent message reads that missed the recent message cache (since startup or last reset)
+	 */
+	public long getMessageCacheMisses();
 }
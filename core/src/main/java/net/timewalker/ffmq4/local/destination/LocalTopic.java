@@ -46,7 +46,7 @@ import net.timewalker.ffmq4.local.session.LocalMessageConsumer;
 import net.timewalker.ffmq4.local.session.LocalSession;
 import net.timewalker.ffmq4.management.destination.definition.TopicDefinition;
 import net.timewalker.ffmq4.storage.data.DataStoreFullException;
-import net.timewalker.ffmq4.storage.message.MessageSerializationLevel;
+import net.timewalker.ffmq4.storage.message.impl.SharedMessageLog;
 import net.timewalker.ffmq4.utils.Committable;
 import net.timewalker.ffmq4.utils.ErrorTools;
 import net.timewalker.ffmq4.utils.concurrent.SynchronizationBarrier;
@@ -74,6 +74,7 @@ public final class LocalTopic extends AbstractLocalDestination implements Topic,
     // Runtime
     private Set<Committable> committables = new HashSet<>();
     private boolean pendingChanges;
+    private SharedMessageLog messageLog;
     
     /**
      * Constructor
@@ -92,6 +93,21 @@ public final class LocalTopic extends AbstractLocalDestination implements Topic,
         return topicDef;
     }
     
+    /**
+     * Get the shared log holding the persistent messages of this topic subscribers, opening it if necessary
+     */
+    public synchronized SharedMessageLog getMessageLog() throws JMSException
+    {
+    	if (messageLog == null)
+    	{
+    		checkNotClosed();
+    		SharedMessageLog newLog = new SharedMessageLog(getName(), topicDef.getDataFolder(), SharedMessageLog.DEFAULT_SEGMENT_SIZE);
+    		newLog.init();
+    		messageLog = newLog;
+    	}
+    	return messageLog;
+    }
+    
     /*
      * (non-Javadoc)
      * @see javax.jms.Topic#getTopicName()
@@ -306,13 +322,20 @@ public final class LocalTopic extends AbstractLocalDestination implements Topic,
     	
         boolean commitRequired = false;
         
+        // Persistent messages are appended once to the shared log, whatever the number of subscribers
+        SharedMessageLog dispatchLog = null;
+        if (topicDef.isSharedLog() && srcMessage.getJMSDeliveryMode() == DeliveryMode.PERSISTENT)
+        {
+        	dispatchLog = getMessageLog();
+        	dispatchLog.beginDispatch(srcMessage);
+        }
+        
         subscriptionsLock.readLock().lock();
         try
         {
         	// Pass 1 - Indexed subscriptions
         	if (!indexedSubscriptionMap.isEmpty())
         	{
-        		srcMessage.ensureDeserializationLevel(MessageSerializationLevel.ALL_HEADERS);
         		for(Entry<String,Map<Object,List<LocalTopicSubscription>>> entry : indexedSubscriptionMap.entrySet())
         		{
         			String headerName = entry.getKey();
@@ -343,6 +366,8 @@ public final class LocalTopic extends AbstractLocalDestination implements Topic,
         finally
         {
         	subscriptionsLock.readLock().unlock();
+        	if (dispatchLog != null)
+        		dispatchLog.endDispatch();
         }
         
         return commitRequired;
@@ -384,7 +409,6 @@ public final class LocalTopic extends AbstractLocalDestination implements Topic,
                 MessageSelector selector = subscription.getMessageSelector();
                 if (selector != null)
                 {
-                	srcMessage.ensureDeserializationLevel(MessageSerializationLevel.ALL_HEADERS);
                 	if (!selector.matches(srcMessage))
                 		continue;
                 }
@@ -586,6 +610,15 @@ public final class LocalTopic extends AbstractLocalDestination implements Topic,
 	    		return;
 	    	closed = true;
 		}
+    	
+    	synchronized (this)
+		{
+    		if (messageLog != null)
+    		{
+    			messageLog.close();
+    			messageLog = null;
+    		}
+		}
     }
     
     /* (non-Javadoc)
@@ -601,6 +634,15 @@ public final class LocalTopic extends AbstractLocalDestination implements Topic,
         {
     		long start = System.currentTimeMillis();
     		
+    		// Shared log entries must be durable before subscriber stores reference them
+    		SharedMessageLog currentLog;
+    		synchronized (this)
+			{
+    			currentLog = messageLog;
+			}
+    		if (currentLog != null)
+    			currentLog.flush();
+    		
     		Iterator<Committable> allCommitables = committables.iterator();
         	while (allCommitables.hasNext())
         	{
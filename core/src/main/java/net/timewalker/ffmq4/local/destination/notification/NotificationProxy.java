@@ -31,8 +31,11 @@ public interface NotificationProxy
 {
 	/**
      * Send a notification packet through this proxy
+     * @param consumerId the target consumer id
+     * @param prefetchedMessage the prefetched message
+     * @param deliveryTag the delivery tag assigned to the message by the consumer session
      */
-    public void addNotification( IntegerID consumerId , AbstractMessage prefetchedMessage );
+    public void addNotification( IntegerID consumerId , AbstractMessage prefetchedMessage , long deliveryTag );
     
     /**
      * Flush buffered notifications
@@ -45,7 +45,7 @@ import net.timewalker.ffmq4.security.Resource;
 import net.timewalker.ffmq4.utils.ErrorTools;
 import net.timewalker.ffmq4.utils.Settings;
 import net.timewalker.ffmq4.utils.StringTools;
-import net.timewalker.ffmq4.utils.async.AsyncTask;
+import net.timewalker.ffmq4.utils.async.AbstractMergeableAsyncTask;
 import net.timewalker.ffmq4.utils.id.IntegerID;
 import net.timewalker.ffmq4.utils.id.UUIDProvider;
 
@@ -457,10 +457,8 @@ public class LocalMessageConsumer extends AbstractMessageConsumer
     	    int count = 0;
     		synchronized (prefetchLock)
 			{
-    			if (prefetchCapacity < prefetchSize)
-    				return; // Consumer is busy, we can give up immediately because it will get back to us later anyway
-    			
     		    // Push up to 'prefetchCapacity' messages to the remote consumer
+    			// (the remote consumer grants more credits as it consumes prefetched messages)
 	    		while (prefetchCapacity > 0)
 	    		{    			
 	    			AbstractMessage message = receiveFromDestination(0, false);
@@ -468,7 +466,7 @@ public class LocalMessageConsumer extends AbstractMessageConsumer
 	    			{
 	    			    count++;
 	    				prefetchCapacity--;
-	    				notificationProxy.addNotification(id,message);
+	    				notificationProxy.addNotification(id,message,transactionSet.getDeliveryTag(message.getJMSMessageID(),localQueue));
 	    			}
 	    			else
 	    			    break;
@@ -528,7 +526,7 @@ public class LocalMessageConsumer extends AbstractMessageConsumer
 	
 	private final WakeUpAsyncTask wakeUpAsyncTask = new WakeUpAsyncTask();
 	
-	private final class WakeUpAsyncTask implements AsyncTask
+	private final class WakeUpAsyncTask extends AbstractMergeableAsyncTask
 	{
 		/**
 		 * Constructor
@@ -538,15 +536,6 @@ public class LocalMessageConsumer extends AbstractMessageConsumer
 			super();
 		}
 		
-		/* (non-Javadoc)
-	     * @see net.timewalker.ffmq4.utils.async.AsyncTask#isMergeable()
-	     */
-	    @Override
-		public final boolean isMergeable()
-	    {
-	    	return true;
-	    }
-	    
 		/* (non-Javadoc)
 		 * @see net.timewalker.ffmq4.utils.async.AsyncTask#execute()
 		 */
@@ -17,6 +17,9 @@
  */
 package net.timewalker.ffmq4.local.session;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.jms.Destination;
 import javax.jms.InvalidDestinationException;
 import javax.jms.JMSException;
@@ -110,4 +113,29 @@ public class LocalMessageProducer extends AbstractMessageProducer
         	externalAccessLock.readLock().unlock();
         }
     }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.common.session.AbstractMessageProducer#sendBatchToDestination(javax.jms.Destination, java.util.List)
+     */
+    @Override
+	protected final void sendBatchToDestination(Destination destination, List<AbstractMessage> srcMessages) throws JMSException
+    {
+        // Create internal copies if necessary
+        List<AbstractMessage> messages = new ArrayList<>(srcMessages.size());
+        for (int i = 0; i < srcMessages.size(); i++)
+        	messages.add(MessageTools.makeInternalCopy(srcMessages.get(i)));
+        
+        externalAccessLock.readLock().lock();
+        try
+		{
+    		checkNotClosed();
+    		
+	        // Dispatch to session
+            ((LocalSession)session).dispatch(messages);
+		}
+        finally
+        {
+        	externalAccessLock.readLock().unlock();
+        }
+    }
 }
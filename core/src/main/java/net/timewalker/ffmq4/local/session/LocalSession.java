@@ -46,6 +46,7 @@ import net.timewalker.ffmq4.common.destination.TemporaryQueueRef;
 import net.timewalker.ffmq4.common.destination.TemporaryTopicRef;
 import net.timewalker.ffmq4.common.message.AbstractMessage;
 import net.timewalker.ffmq4.common.session.AbstractSession;
+import net.timewalker.ffmq4.common.session.DeliveryTagRanges;
 import net.timewalker.ffmq4.local.FFMQEngine;
 import net.timewalker.ffmq4.local.MessageLock;
 import net.timewalker.ffmq4.local.MessageLockSet;
@@ -120,6 +121,60 @@ public class LocalSession extends AbstractSession
      * @throws JMSException
      */
     public final void dispatch( AbstractMessage message ) throws JMSException
+    {
+        checkDispatchPermission(message);
+        
+        if (debugEnabled)
+            log.debug(this+" [PUT] in "+message.getJMSDestination()+" - "+message);
+        
+        externalAccessLock.readLock().lock();
+    	try
+        {
+            checkNotClosed();
+            
+            pendingPuts.add(message);
+            
+        	if (!transacted)
+        		commitUpdates(false, null, true, false); // FIXME Async commit ?
+        }
+    	finally
+    	{
+    		externalAccessLock.readLock().unlock();
+    	}
+    }
+    
+    /**
+     * Called from producers when sending a batch of messages.
+     * All messages are stored in a single commit. In non-transacted mode, the batch is atomic :
+     * if one message cannot be stored, none of them is.
+     * @param messages messages to dispatch
+     * @throws JMSException
+     */
+    public final void dispatch( List<AbstractMessage> messages ) throws JMSException
+    {
+    	for (int i = 0; i < messages.size(); i++)
+    		checkDispatchPermission(messages.get(i));
+        
+        if (debugEnabled)
+            log.debug(this+" [PUT] batch of "+messages.size()+" message(s)");
+        
+        externalAccessLock.readLock().lock();
+    	try
+        {
+            checkNotClosed();
+            
+            pendingPuts.addAll(messages);
+            
+        	if (!transacted)
+        		commitUpdates(false, null, true, true);
+        }
+    	finally
+    	{
+    		externalAccessLock.readLock().unlock();
+    	}
+    }
+    
+    private void checkDispatchPermission( AbstractMessage message ) throws JMSException
     {
         // Security
         LocalConnection conn = (LocalConnection)getConnection();
@@ -168,24 +223,6 @@ public class LocalSession extends AbstractSession
             else
                 throw new InvalidDestinationException("Unsupported destination : "+destination);
         }
-        
-        if (debugEnabled)
-            log.debug(this+" [PUT] in "+message.getJMSDestination()+" - "+message);
-        
-        externalAccessLock.readLock().lock();
-    	try
-        {
-            checkNotClosed();
-            
-            pendingPuts.add(message);
-            
-        	if (!transacted)
-        		commitUpdates(false, null, true); // FIXME Async commit ?
-        }
-    	finally
-    	{
-    		externalAccessLock.readLock().unlock();
-    	}
     }
     	
     /*
@@ -201,10 +238,10 @@ public class LocalSession extends AbstractSession
     /**
      * Commit pending put/get operations in this session
      * @param commitGets
-     * @param deliveredMessageIDs
+     * @param deliveryTags
      * @throws JMSException
      */
-    public final void commit( boolean commitGets , List<String> deliveredMessageIDs ) throws JMSException
+    public final void commit( boolean commitGets , DeliveryTagRanges deliveryTags ) throws JMSException
     {
     	if (!transacted)
             throw new IllegalStateException("Session is not transacted"); // [JMS SPEC]
@@ -213,7 +250,7 @@ public class LocalSession extends AbstractSession
     	try
 		{
 	    	checkNotClosed();   
-	        commitUpdates(commitGets,deliveredMessageIDs,true);
+	        commitUpdates(commitGets,deliveryTags,true,false);
 		}
     	finally
     	{
@@ -233,10 +270,10 @@ public class LocalSession extends AbstractSession
     /**
      * Rollback pending put/get operations in this session
      * @param rollbackGets
-     * @param deliveredMessageIDs
+     * @param deliveryTags
      * @throws JMSException
      */
-    public final void rollback( boolean rollbackGets, List<String> deliveredMessageIDs ) throws JMSException
+    public final void rollback( boolean rollbackGets, DeliveryTagRanges deliveryTags ) throws JMSException
     {
     	if (!transacted)
             throw new IllegalStateException("Session is not transacted"); // [JMS SPEC]
@@ -245,7 +282,7 @@ public class LocalSession extends AbstractSession
     	try
 		{
 	    	checkNotClosed();
-	        rollbackUpdates(true,rollbackGets, deliveredMessageIDs);
+	        rollbackUpdates(true,rollbackGets, deliveryTags);
 		}
     	finally
     	{
@@ -255,16 +292,16 @@ public class LocalSession extends AbstractSession
 
     /**
      * Rollback undelivered get operations in this session
-     * @param undeliveredMessageIDs
+     * @param undeliveredTags
      * @throws JMSException
      */
-    public final void rollbackUndelivered( List<String> undeliveredMessageIDs ) throws JMSException
+    public final void rollbackUndelivered( DeliveryTagRanges undeliveredTags ) throws JMSException
     {
     	externalAccessLock.readLock().lock();
     	try
 		{
 	    	checkNotClosed();
-	        rollbackUpdates(false,true, undeliveredMessageIDs);
+	        rollbackUpdates(false,true, undeliveredTags);
 		}
     	finally
     	{
@@ -317,7 +354,7 @@ public class LocalSession extends AbstractSession
         return targetCommitables; 
     }
     
-    private void commitUpdates( boolean commitGets , List<String> deliveredMessageIDs , boolean commitPuts ) throws JMSException
+    private void commitUpdates( boolean commitGets , DeliveryTagRanges deliveryTags , boolean commitPuts , boolean atomicPuts ) throws JMSException
     {
     	SynchronizationBarrier commitBarrier = null;
     	List<LocalQueue> queuesWithGet = null;
@@ -328,8 +365,8 @@ public class LocalSession extends AbstractSession
     	// 1 - Build a list of queues updated in get operations
     	if (commitGets && transactionSet.size() > 0)
     	{
-    		if (deliveredMessageIDs != null)
-    			queuesWithGet = transactionSet.updatedQueues(deliveredMessageIDs);
+    		if (deliveryTags != null)
+    			queuesWithGet = transactionSet.updatedQueues(deliveryTags);
     		else
 				queuesWithGet = transactionSet.updatedQueues();
     	}
@@ -390,7 +427,7 @@ public class LocalSession extends AbstractSession
 	        			}
 	        			catch (JMSException e)
 	        			{
-	        				if (transacted)
+	        				if (transacted || atomicPuts)
 	        				{
 		        				// Oops, something went wrong, we need to rollback what we have done yet
 		        				for (int i = 0; i < locks.size(); i++)
@@ -399,6 +436,8 @@ public class LocalSession extends AbstractSession
 									item.getDestination().removeLocked(item);
 								}
 		        				produced = 0;
+		        				if (!transacted)
+		        					pendingPuts.clear(); // Discard the whole batch
 		        				
 		        				// Store failure (will be re-thrown later after transaction commit, see below)
 		        				putFailure = e;
@@ -422,12 +461,12 @@ public class LocalSession extends AbstractSession
 	    	if (queuesWithGet != null && putFailure == null)
 	    	{    	
 	    		TransactionItem[] pendingGets;
-	    		if (deliveredMessageIDs != null)
+	    		if (deliveryTags != null)
 	    		{
 	    			// Commit only delivered messages
 	    			if (debugEnabled)
-		        		log.debug(this+" - COMMIT [GET] "+deliveredMessageIDs.size()+" message(s)");
-	    			pendingGets = transactionSet.clear(deliveredMessageIDs);
+		        		log.debug(this+" - COMMIT [GET] "+deliveryTags.size()+" message(s)");
+	    			pendingGets = transactionSet.clear(deliveryTags);
 	    		}
 	    		else
 	    		{
@@ -497,7 +536,7 @@ public class LocalSession extends AbstractSession
     	}
     }
     
-    private void rollbackUpdates( boolean rollbackPuts , boolean rollbackGets, List<String> deliveredMessageIDs ) throws JMSException
+    private void rollbackUpdates( boolean rollbackPuts , boolean rollbackGets, DeliveryTagRanges deliveryTags ) throws JMSException
     {
     	// Clear pending put messages
     	if (rollbackPuts && transacted)
@@ -519,12 +558,12 @@ public class LocalSession extends AbstractSession
     		
     		// 1 - Check for pending get operations
     		TransactionItem[] pendingGets;
-			if (deliveredMessageIDs != null)
+			if (deliveryTags != null)
 			{
 				// Rollback only delivered messages
 				if (debugEnabled)
-	        		log.debug(this+" - ROLLBACK [GET] "+deliveredMessageIDs.size()+" message(s)");
-				pendingGets = transactionSet.clear(deliveredMessageIDs);
+	        		log.debug(this+" - ROLLBACK [GET] "+deliveryTags.size()+" message(s)");
+				pendingGets = transactionSet.clear(deliveryTags);
 			}
 			else
 			{
@@ -773,9 +812,9 @@ public class LocalSession extends AbstractSession
     }
     
     /**
-     * @see #rollback(boolean, List)
+     * @see #rollback(boolean, DeliveryTagRanges)
      */
-    public final void recover( List<String> deliveredMessageIDs ) throws JMSException
+    public final void recover( DeliveryTagRanges deliveryTags ) throws JMSException
     {
     	externalAccessLock.readLock().lock();
     	try
@@ -784,7 +823,7 @@ public class LocalSession extends AbstractSession
 	        if (transacted)
 	            throw new IllegalStateException("Session is transacted"); // [JMS SPEC]
 	
-	        rollbackUpdates(true,true, deliveredMessageIDs);
+	        rollbackUpdates(true,true, deliveryTags);
 		}
     	finally
     	{
@@ -869,9 +908,9 @@ public class LocalSession extends AbstractSession
     }
     
     /**
-     * @see #commit(boolean,List)
+     * @see #commit(boolean,DeliveryTagRanges)
      */
-    public final void acknowledge( List<String> deliveredMessageIDs ) throws JMSException
+    public final void acknowledge( DeliveryTagRanges deliveryTags ) throws JMSException
     {      
         if (transacted)
             throw new IllegalStateException("Session is transacted"); // [JMS SPEC]
@@ -880,7 +919,7 @@ public class LocalSession extends AbstractSession
         try
 		{
 	        checkNotClosed();
-	        commitUpdates(true,deliveredMessageIDs,false);
+	        commitUpdates(true,deliveryTags,false,false);
 		}
         finally
         {
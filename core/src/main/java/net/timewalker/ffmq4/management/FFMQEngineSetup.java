@@ -21,8 +21,10 @@ import java.io.File;
 
 import net.timewalker.ffmq4.FFMQCoreSettings;
 import net.timewalker.ffmq4.FFMQException;
+import net.timewalker.ffmq4.storage.StorageSyncMethod;
 import net.timewalker.ffmq4.utils.Settings;
 import net.timewalker.ffmq4.utils.StringTools;
+import net.timewalker.ffmq4.utils.async.AsyncTaskExecutorType;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -47,6 +49,8 @@ public final class FFMQEngineSetup
     private boolean autoCreateTopics;
     private boolean deployQueuesOnStartup;
     private boolean deployTopicsOnStartup;
+    private int deployOnStartupThreads;
+    private boolean lazyStores;
     private int consumerPrefetchSize;
     private int notificationAsyncTaskManagerThreadPoolMinSize;
 	private int notificationAsyncTaskManagerThreadPoolMaxIdle;
@@ -57,10 +61,19 @@ public final class FFMQEngineSetup
 	private int diskIOAsyncTaskManagerThreadPoolMinSize;
 	private int diskIOAsyncTaskManagerThreadPoolMaxIdle;
 	private int diskIOAsyncTaskManagerThreadPoolMaxSize;
+	private int notificationAsyncTaskManagerExecutor;
+	private int deliveryAsyncTaskManagerExecutor;
+	private int diskIOAsyncTaskManagerExecutor;
 	private int watchdogConsumerInactivityTimeout;
 	private String securityConnectorType;
 	private long redeliveryDelay;
 	private int internalNotificationQueueMaxSize;
+	private boolean sharedJournalEnabled;
+	private File sharedJournalDataDir;
+	private long sharedJournalMaxFileSize;
+	private int sharedJournalOutputBuffer;
+	private int sharedJournalSyncMethod;
+	private boolean sharedJournalPreAllocateFiles;
 	
     /**
      * Constructor
@@ -137,21 +150,34 @@ public final class FFMQEngineSetup
         // Deploy on startup
         deployQueuesOnStartup = settings.getBooleanProperty(FFMQCoreSettings.DEPLOY_QUEUES_ON_STARTUP, false);
         deployTopicsOnStartup = settings.getBooleanProperty(FFMQCoreSettings.DEPLOY_TOPICS_ON_STARTUP, false);
+        deployOnStartupThreads = settings.getIntProperty(FFMQCoreSettings.DEPLOY_ON_STARTUP_THREADS, 1);
+        if (deployOnStartupThreads < 1)
+        	throw new FFMQException("Invalid number of startup deployment threads : "+deployOnStartupThreads,"INVALID_SETTING");
+        lazyStores = settings.getBooleanProperty(FFMQCoreSettings.DEPLOY_LAZY_STORES, false);
         
         // Async Task Manager - Notification
 		this.notificationAsyncTaskManagerThreadPoolMinSize = settings.getIntProperty(FFMQCoreSettings.ASYNC_TASK_MANAGER_NOTIFICATION_THREAD_POOL_MINSIZE, 5);
 		this.notificationAsyncTaskManagerThreadPoolMaxIdle = settings.getIntProperty(FFMQCoreSettings.ASYNC_TASK_MANAGER_NOTIFICATION_THREAD_POOL_MAXIDLE, 10);
 		this.notificationAsyncTaskManagerThreadPoolMaxSize = settings.getIntProperty(FFMQCoreSettings.ASYNC_TASK_MANAGER_NOTIFICATION_THREAD_POOL_MAXSIZE, 15);
+		this.notificationAsyncTaskManagerExecutor = settings.getIntProperty(FFMQCoreSettings.ASYNC_TASK_MANAGER_NOTIFICATION_EXECUTOR, AsyncTaskExecutorType.THREAD_POOL);
+		if (!AsyncTaskExecutorType.isValid(notificationAsyncTaskManagerExecutor))
+			throw new FFMQException("Invalid notification async task manager executor : "+notificationAsyncTaskManagerExecutor,"INVALID_SETTING");
         
         // Async Task Manager - Delivery
 		this.deliveryAsyncTaskManagerThreadPoolMinSize = settings.getIntProperty(FFMQCoreSettings.ASYNC_TASK_MANAGER_DELIVERY_THREAD_POOL_MINSIZE, 5);
 		this.deliveryAsyncTaskManagerThreadPoolMaxIdle = settings.getIntProperty(FFMQCoreSettings.ASYNC_TASK_MANAGER_DELIVERY_THREAD_POOL_MAXIDLE, 5);
 		this.deliveryAsyncTaskManagerThreadPoolMaxSize = settings.getIntProperty(FFMQCoreSettings.ASYNC_TASK_MANAGER_DELIVERY_THREAD_POOL_MAXSIZE, 10);
+		this.deliveryAsyncTaskManagerExecutor = settings.getIntProperty(FFMQCoreSettings.ASYNC_TASK_MANAGER_DELIVERY_EXECUTOR, AsyncTaskExecutorType.THREAD_POOL);
+		if (!AsyncTaskExecutorType.isValid(deliveryAsyncTaskManagerExecutor))
+			throw new FFMQException("Invalid delivery async task manager executor : "+deliveryAsyncTaskManagerExecutor,"INVALID_SETTING");
 		
 		// Async Task Manager - Disk I/O
 		this.diskIOAsyncTaskManagerThreadPoolMinSize = settings.getIntProperty(FFMQCoreSettings.ASYNC_TASK_MANAGER_DISKIO_THREAD_POOL_MINSIZE, 2);
 		this.diskIOAsyncTaskManagerThreadPoolMaxIdle = settings.getIntProperty(FFMQCoreSettings.ASYNC_TASK_MANAGER_DISKIO_THREAD_POOL_MAXIDLE, 2);
 		this.diskIOAsyncTaskManagerThreadPoolMaxSize = settings.getIntProperty(FFMQCoreSettings.ASYNC_TASK_MANAGER_DISKIO_THREAD_POOL_MAXSIZE, 4);
+		this.diskIOAsyncTaskManagerExecutor = settings.getIntProperty(FFMQCoreSettings.ASYNC_TASK_MANAGER_DISKIO_EXECUTOR, AsyncTaskExecutorType.THREAD_POOL);
+		if (!AsyncTaskExecutorType.isValid(diskIOAsyncTaskManagerExecutor))
+			throw new FFMQException("Invalid diskIO async task manager executor : "+diskIOAsyncTaskManagerExecutor,"INVALID_SETTING");
         
         // Prefetching
         consumerPrefetchSize = settings.getIntProperty(FFMQCoreSettings.CONSUMER_PREFETCH_SIZE,10);
@@ -166,6 +192,22 @@ public final class FFMQEngineSetup
         
         // Notification queue
         internalNotificationQueueMaxSize = settings.getIntProperty(FFMQCoreSettings.NOTIFICATION_QUEUE_MAX_SIZE,200);
+        
+        // Shared journal
+        sharedJournalEnabled = settings.getBooleanProperty(FFMQCoreSettings.STORAGE_SHARED_JOURNAL_ENABLED,false);
+        if (sharedJournalEnabled)
+        {
+	        String sharedJournalDataDirPath = settings.getStringProperty(FFMQCoreSettings.STORAGE_SHARED_JOURNAL_DATA_DIR, null);
+	        sharedJournalDataDir = sharedJournalDataDirPath != null ? new File(sharedJournalDataDirPath) : defaultDataDir;
+	        if (!sharedJournalDataDir.isDirectory())
+	            throw new FFMQException("Shared journal data directory does not exist : "+sharedJournalDataDir.getAbsolutePath(),"FS_ERROR");
+	        sharedJournalMaxFileSize = settings.getLongProperty(FFMQCoreSettings.STORAGE_SHARED_JOURNAL_MAX_FILE_SIZE, 1024*1024*32 /* 32 MB */);
+	        sharedJournalOutputBuffer = settings.getIntProperty(FFMQCoreSettings.STORAGE_SHARED_JOURNAL_OUTPUT_BUFFER, 65536 /* 64 KB */);
+	        sharedJournalSyncMethod = settings.getIntProperty(FFMQCoreSettings.STORAGE_SHARED_JOURNAL_SYNC_METHOD, StorageSyncMethod.CHANNEL_FORCE_NO_META);
+	        if (!StorageSyncMethod.isValid(sharedJournalSyncMethod))
+	        	throw new FFMQException("Invalid shared journal sync method : "+sharedJournalSyncMethod,"INVALID_SETTING");
+	        sharedJournalPreAllocateFiles = settings.getBooleanProperty(FFMQCoreSettings.STORAGE_SHARED_JOURNAL_PREALLOCATE_FILES, false);
+        }
     }
     
     /**
@@ -247,6 +289,22 @@ public final class FFMQEngineSetup
         return deployTopicsOnStartup;
     }
     
+    /**
+     * @return the number of threads used to open existing queues on startup
+     */
+    public int getDeployOnStartupThreads()
+    {
+        return deployOnStartupThreads;
+    }
+    
+    /**
+     * @return true if persistent queue stores should only be opened on first use
+     */
+    public boolean doUseLazyStores()
+    {
+        return lazyStores;
+    }
+    
     /**
 	 * @return the consumerPrefetchSize
 	 */
@@ -327,6 +385,30 @@ public final class FFMQEngineSetup
 		return diskIOAsyncTaskManagerThreadPoolMaxSize;
 	}
 
+	/**
+	 * @return the notificationAsyncTaskManagerExecutor
+	 */
+	public int getNotificationAsyncTaskManagerExecutor()
+	{
+		return notificationAsyncTaskManagerExecutor;
+	}
+
+	/**
+	 * @return the deliveryAsyncTaskManagerExecutor
+	 */
+	public int getDeliveryAsyncTaskManagerExecutor()
+	{
+		return deliveryAsyncTaskManagerExecutor;
+	}
+
+	/**
+	 * @return the diskIOAsyncTaskManagerExecutor
+	 */
+	public int getDiskIOAsyncTaskManagerExecutor()
+	{
+		return diskIOAsyncTaskManagerExecutor;
+	}
+
 	/**
 	 * @return the watchdogConsumerInactivityTimeout
 	 */
@@ -350,4 +432,52 @@ public final class FFMQEngineSetup
 	{
 		return redeliveryDelay;
 	}
+	
+	/**
+	 * @return the sharedJournalEnabled
+	 */
+	public boolean isSharedJournalEnabled()
+	{
+		return sharedJournalEnabled;
+	}
+	
+	/**
+	 * @return the sharedJournalDataDir
+	 */
+	public File getSharedJournalDataDir()
+	{
+		return sharedJournalDataDir;
+	}
+	
+	/**
+	 * @return the sharedJournalMaxFileSize
+	 */
+	public long getSharedJournalMaxFileSize()
+	{
+		return sharedJournalMaxFileSize;
+	}
+	
+	/**
+	 * @return the sharedJournalOutputBuffer
+	 */
+	public int getSharedJournalOutputBuffer()
+	{
+		return sharedJournalOutputBuffer;
+	}
+	
+	/**
+	 * @return the sharedJournalSyncMethod
+	 */
+	public int getSharedJournalSyncMethod()
+	{
+		return sharedJournalSyncMethod;
+	}
+	
+	/**
+	 * @return the sharedJournalPreAllocateFiles
+	 */
+	public boolean isSharedJournalPreAllocateFiles()
+	{
+		return sharedJournalPreAllocateFiles;
+	}
 }
@@ -43,11 +43,16 @@ public abstract class AbstractDestinationDescriptor extends AbstractSettingsBase
     protected String rawDataFolder;
     protected File dataFolder;
     protected int maxNonPersistentMessages;
+    protected boolean offHeapMemoryStore;
     protected boolean useJournal;
+    protected boolean memoryMapped;
+    protected boolean logStructured;
+    protected int messageCacheSize;
     protected String rawJournalFolder;
     protected File journalFolder;
     protected long maxJournalSize = 1024*1024*32 /* 32 MB */;
     protected int maxWriteBatchSize = 1000;
+    protected int groupCommitMaxDelay;
     protected int maxUnflushedJournalSize = 1024*1024*4 /* 4 MB */;
     protected int maxUncommittedStoreSize = 1024*1024*16 /* 16 MB */;
     protected int journalOutputBuffer = 16384 /* 16 KB */;
@@ -87,11 +92,16 @@ public abstract class AbstractDestinationDescriptor extends AbstractSettingsBase
         this.rawDataFolder = settings.getStringProperty("persistentStore.dataFolder","${FFMQ_BASE}/data",false);
         this.dataFolder = new File(SystemTools.replaceSystemProperties(rawDataFolder));
         this.maxNonPersistentMessages = settings.getIntProperty("memoryStore.maxMessages",0);
+        this.offHeapMemoryStore = settings.getBooleanProperty("memoryStore.offHeap",false);
         this.useJournal = settings.getBooleanProperty("persistentStore.useJournal",true);
+        this.memoryMapped = settings.getBooleanProperty("persistentStore.memoryMapped",false);
+        this.logStructured = settings.getBooleanProperty("persistentStore.logStructured",false);
+        this.messageCacheSize = settings.getIntProperty("persistentStore.messageCacheSize",0);
         this.rawJournalFolder = settings.getStringProperty("persistentStore.journal.dataFolder",rawDataFolder,false);
         this.journalFolder = new File(SystemTools.replaceSystemProperties(rawJournalFolder));
         this.maxJournalSize = settings.getLongProperty("persistentStore.journal.maxFileSize", 1024*1024*32 /* 32 MB */);
         this.maxWriteBatchSize = settings.getIntProperty("persistentStore.journal.maxWriteBatchSize", 1000);
+        this.groupCommitMaxDelay = settings.getIntProperty("persistentStore.journal.groupCommitMaxDelay", 0);
         this.maxUnflushedJournalSize = settings.getIntProperty("persistentStore.journal.maxUnflushedJournalSize", 1024*1024*4 /* 4 MB */);
         this.maxUncommittedStoreSize = settings.getIntProperty("persistentStore.journal.maxUncommittedStoreSize", 1024*1024*16 /* 16 MB */);
         this.journalOutputBuffer = settings.getIntProperty("persistentStore.journal.outputBufferSize", 16384 /* 16 KB */);
@@ -111,11 +121,16 @@ public abstract class AbstractDestinationDescriptor extends AbstractSettingsBase
         target.autoExtendAmount = autoExtendAmount;
         target.blockSize = blockSize;
         target.maxNonPersistentMessages = maxNonPersistentMessages;
+        target.offHeapMemoryStore = offHeapMemoryStore;
         target.useJournal = useJournal;
+        target.memoryMapped = memoryMapped;
+        target.logStructured = logStructured;
+        target.messageCacheSize = messageCacheSize;
         target.rawJournalFolder = rawJournalFolder;
         target.journalFolder = journalFolder;
         target.maxJournalSize = maxJournalSize;
         target.maxWriteBatchSize = maxWriteBatchSize;
+        target.groupCommitMaxDelay = groupCommitMaxDelay;
         target.maxUnflushedJournalSize = maxUnflushedJournalSize;
         target.maxUncommittedStoreSize = maxUncommittedStoreSize;
         target.journalOutputBuffer = journalOutputBuffer;
@@ -147,11 +162,16 @@ public abstract class AbstractDestinationDescriptor extends AbstractSettingsBase
         if (rawDataFolder != null)
         	settings.setStringProperty("persistentStore.dataFolder", rawDataFolder);
         settings.setIntProperty("memoryStore.maxMessages", maxNonPersistentMessages);
+        settings.setBooleanProperty("memoryStore.offHeap", offHeapMemoryStore);
         settings.setBooleanProperty("persistentStore.useJournal", useJournal);
+        settings.setBooleanProperty("persistentStore.memoryMapped", memoryMapped);
+        settings.setBooleanProperty("persistentStore.logStructured", logStructured);
+        settings.setIntProperty("persistentStore.messageCacheSize", messageCacheSize);
         if (rawJournalFolder != null)
         	settings.setStringProperty("persistentStore.journal.dataFolder", rawJournalFolder);
         settings.setLongProperty("persistentStore.journal.maxFileSize", maxJournalSize);
         settings.setIntProperty("persistentStore.journal.maxWriteBatchSize", maxWriteBatchSize);
+        settings.setIntProperty("persistentStore.journal.groupCommitMaxDelay", groupCommitMaxDelay);
         settings.setIntProperty("persistentStore.journal.maxUnflushedJournalSize", maxUnflushedJournalSize);
         settings.setIntProperty("persistentStore.journal.maxUncommittedStoreSize", maxUncommittedStoreSize);
         settings.setIntProperty("persistentStore.journal.outputBufferSize", journalOutputBuffer);
@@ -193,6 +213,42 @@ public abstract class AbstractDestinationDescriptor extends AbstractSettingsBase
 		return useJournal;
 	}
 	
+	/**
+	 * @return memoryMapped
+	 */
+	@Override
+	public boolean isMemoryMapped()
+	{
+		return memoryMapped;
+	}
+	
+	/**
+	 * @return logStructured
+	 */
+	@Override
+	public boolean isLogStructured()
+	{
+		return logStructured;
+	}
+	
+	/**
+	 * @return offHeapMemoryStore
+	 */
+	@Override
+	public boolean isOffHeapMemoryStore()
+	{
+		return offHeapMemoryStore;
+	}
+	
+	/**
+	 * @return messageCacheSize
+	 */
+	@Override
+	public int getMessageCacheSize()
+	{
+		return messageCacheSize;
+	}
+	
 	@Override
 	public int getInitialBlockCount()
     {
@@ -293,6 +349,38 @@ public abstract class AbstractDestinationDescriptor extends AbstractSettingsBase
         this.useJournal = useJournal;
     }
     
+    /**
+     * @param memoryMapped the memoryMapped to set
+     */
+    public void setMemoryMapped(boolean memoryMapped)
+    {
+        this.memoryMapped = memoryMapped;
+    }
+    
+    /**
+     * @param logStructured the logStructured to set
+     */
+    public void setLogStructured(boolean logStructured)
+    {
+        this.logStructured = logStructured;
+    }
+    
+    /**
+     * @param offHeapMemoryStore the offHeapMemoryStore to set
+     */
+    public void setOffHeapMemoryStore(boolean offHeapMemoryStore)
+    {
+        this.offHeapMemoryStore = offHeapMemoryStore;
+    }
+    
+    /**
+     * @param messageCacheSize the messageCacheSize to set
+     */
+    public void setMessageCacheSize(int messageCacheSize)
+    {
+        this.messageCacheSize = messageCacheSize;
+    }
+    
     /**
      * @param name the name to set
      */
@@ -388,6 +476,23 @@ public abstract class AbstractDestinationDescriptor extends AbstractSettingsBase
     {
         this.maxWriteBatchSize = maxWriteBatchSize;
     }
+    
+    /**
+     * @return the groupCommitMaxDelay (in microseconds, 0 if disabled)
+     */
+    @Override
+	public int getGroupCommitMaxDelay()
+    {
+        return groupCommitMaxDelay;
+    }
+
+    /**
+     * @param groupCommitMaxDelay the groupCommitMaxDelay to set (in microseconds, 0 to disable)
+     */
+    public void setGroupCommitMaxDelay(int groupCommitMaxDelay)
+    {
+        this.groupCommitMaxDelay = groupCommitMaxDelay;
+    }
 
     /**
      * @return the maxUnflushedJournalSize
@@ -503,6 +608,7 @@ public abstract class AbstractDestinationDescriptor extends AbstractSettingsBase
         checkMinValue(maxNonPersistentMessages, 0, "maximum non persistent messages");
         checkMinValue(initialBlockCount,        0, "initial block count");
         checkMinValue(maxBlockCount,            0, "maximum block count");
+        checkMinValue(messageCacheSize,         0, "message cache size");
 
         if (maxBlockCount < initialBlockCount)
             throw new InvalidDescriptorException("Maximum block count should be greater or equal than initial block count");
@@ -520,6 +626,16 @@ public abstract class AbstractDestinationDescriptor extends AbstractSettingsBase
             if (initialBlockCount != maxBlockCount)
                 checkMinValue(autoExtendAmount,1,"auto extend amount");
 
+            if (useJournal && memoryMapped && !temporary)
+                throw new InvalidDescriptorException("A memory mapped persistent store cannot be used with a journal");
+            if (logStructured && memoryMapped)
+                throw new InvalidDescriptorException("A log structured persistent store cannot be memory mapped");
+            if (logStructured)
+            {
+                checkMinValue(maxJournalSize,1024,"maximum journal size");
+                checkMinValue(journalOutputBuffer,1024,"journal output buffer size");
+            }
+            
             if (useJournal)
             {
             	if (!journalFolder.isDirectory())
@@ -527,6 +643,7 @@ public abstract class AbstractDestinationDescriptor extends AbstractSettingsBase
             	
                 checkMinValue(maxJournalSize,1024,"maximum journal size");
                 checkMinValue(maxWriteBatchSize,1,"maximum write batch size");
+                checkMinValue(groupCommitMaxDelay,0,"group commit maximum delay");
                 checkMinValue(journalOutputBuffer,1024,"journal output buffer size");
                 checkMinValue(maxUnflushedJournalSize,1024,"maximum unflushed journal size");
                 checkMinValue(maxUncommittedStoreSize,1024,"maximum uncommitted store size");
@@ -573,8 +690,16 @@ public abstract class AbstractDestinationDescriptor extends AbstractSettingsBase
         sb.append(rawDataFolder);
         sb.append(" maxNonPersistentMessages=");
         sb.append(maxNonPersistentMessages);
+        sb.append(" offHeapMemoryStore=");
+        sb.append(offHeapMemoryStore);
         sb.append(" useJournal=");
         sb.append(useJournal);
+        sb.append(" memoryMapped=");
+        sb.append(memoryMapped);
+        sb.append(" logStructured=");
+        sb.append(logStructured);
+        sb.append(" messageCacheSize=");
+        sb.append(messageCacheSize);
         sb.append(" syncMethod=");
         sb.append(storageSyncMethod);
         sb.append(" preAllocationFiles=");
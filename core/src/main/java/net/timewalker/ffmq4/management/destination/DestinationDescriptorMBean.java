@@ -34,12 +34,17 @@ public interface DestinationDescriptorMBean
 	public int getMaxUncommittedStoreSize();
 	public int getMaxUnflushedJournalSize();
 	public int getMaxWriteBatchSize();
+	public int getGroupCommitMaxDelay();
 	public long getMaxJournalSize();
 	public int getAutoExtendAmount();
 	public int getMaxBlockCount();
 	public int getBlockSize();
 	public int getInitialBlockCount();
 	public boolean isUseJournal();
+	public boolean isMemoryMapped();
+	public boolean isLogStructured();
+	public int getMessageCacheSize();
 	public int getMaxNonPersistentMessages();
+	public boolean isOffHeapMemoryStore();
 	public boolean isTemporary();
 }
@@ -28,6 +28,9 @@ import net.timewalker.ffmq4.utils.Settings;
  */
 public final class QueueDefinition extends AbstractDestinationDefinition
 {
+	// Attributes
+	private String sharedLogTopic;
+	
     /**
      * Constructor
      */
@@ -44,6 +47,46 @@ public final class QueueDefinition extends AbstractDestinationDefinition
         super(settings);
     }
     
+    /**
+     * Get the name of the topic whose shared log holds the persistent messages of this queue
+     * @return a topic name or null if this queue is not a topic subscriber queue using a shared log
+     */
+    public String getSharedLogTopic()
+    {
+    	return sharedLogTopic;
+    }
+    
+    /**
+     * @param sharedLogTopic the sharedLogTopic to set
+     */
+    public void setSharedLogTopic(String sharedLogTopic)
+    {
+    	this.sharedLogTopic = sharedLogTopic;
+    }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.management.destination.AbstractDestinationDescriptor#initFromSettings(net.timewalker.ffmq4.utils.Settings)
+     */
+    @Override
+    protected void initFromSettings(Settings settings)
+    {
+    	super.initFromSettings(settings);
+    	
+    	this.sharedLogTopic = settings.getStringProperty("persistentStore.sharedLog.topic");
+    }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.management.destination.AbstractDestinationDescriptor#fillSettings(net.timewalker.ffmq4.utils.Settings)
+     */
+    @Override
+    protected void fillSettings(Settings settings)
+    {
+    	super.fillSettings(settings);
+    	
+    	if (sharedLogTopic != null)
+    		settings.setStringProperty("persistentStore.sharedLog.topic", sharedLogTopic);
+    }
+    
     /*
      * (non-Javadoc)
      * @see net.timewalker.ffmq4.management.destination.DestinationDescriptor#check()
@@ -37,7 +37,8 @@ public final class TopicDefinition extends AbstractDestinationDefinition
 	// Attributes
 	private int subscriberFailurePolicy;
 	private int subscriberOverflowPolicy;
-	private String[] partitionsKeysToIndex;	
+	private String[] partitionsKeysToIndex;
+	private boolean sharedLog;	
 	
     /**
      * Constructor
@@ -103,6 +104,22 @@ public final class TopicDefinition extends AbstractDestinationDefinition
 		return partitionsKeysToIndex;
 	}
 	
+	/**
+	 * @param sharedLog the sharedLog to set
+	 */
+	public void setSharedLog(boolean sharedLog)
+	{
+		this.sharedLog = sharedLog;
+	}
+	
+	/**
+	 * @return true if persistent messages are stored once in a topic-level log shared by all subscribers
+	 */
+	public boolean isSharedLog()
+	{
+		return sharedLog;
+	}
+	
 	/* (non-Javadoc)
 	 * @see net.timewalker.ffmq4.management.destination.AbstractDestinationDescriptor#initFromSettings(net.timewalker.ffmq4.utils.Settings)
 	 */
@@ -113,6 +130,7 @@ public final class TopicDefinition extends AbstractDestinationDefinition
 		
 		this.subscriberFailurePolicy  = settings.getIntProperty("subscriberFailurePolicy",FFMQSubscriberPolicy.SUBSCRIBER_POLICY_LOG);
 		this.subscriberOverflowPolicy = settings.getIntProperty("subscriberOverflowPolicy",FFMQSubscriberPolicy.SUBSCRIBER_POLICY_LOG);
+		this.sharedLog = settings.getBooleanProperty("persistentStore.sharedLog",false);
 		
 		String rawPartitionsKeysToIndex = settings.getStringProperty("partitionsKeysToIndex");
 		if (rawPartitionsKeysToIndex != null)
@@ -137,6 +155,7 @@ public final class TopicDefinition extends AbstractDestinationDefinition
 		settings.setIntProperty("subscriberOverflowPolicy", subscriberOverflowPolicy);
 		if (partitionsKeysToIndex != null)
 			settings.setStringProperty("partitionsKeysToIndex", StringUtils.implode(partitionsKeysToIndex, ","));
+		settings.setBooleanProperty("persistentStore.sharedLog", sharedLog);
 	}
 	
     /**
@@ -148,6 +167,8 @@ public final class TopicDefinition extends AbstractDestinationDefinition
         def.setName(DestinationTools.getQueueNameForTopicConsumer(topicName, consumerId));
         def.setTemporary(temporary);
         copyAttributesTo(def);
+        if (sharedLog && hasPersistentStore())
+        	def.setSharedLogTopic(topicName);
         
         return def;
     }
@@ -37,6 +37,7 @@ public final class TopicTemplate extends AbstractDestinationTemplate
 	private int subscriberFailurePolicy;
 	private int subscriberOverflowPolicy;
 	private String[] partitionsKeysToIndex;
+	private boolean sharedLog;
 	
     /**
      * Constructor
@@ -102,6 +103,22 @@ public final class TopicTemplate extends AbstractDestinationTemplate
 		this.partitionsKeysToIndex = partitionsKeysToIndex;
 	}
 	
+	/**
+	 * @param sharedLog the sharedLog to set
+	 */
+	public void setSharedLog(boolean sharedLog)
+	{
+		this.sharedLog = sharedLog;
+	}
+	
+	/**
+	 * @return true if persistent messages are stored once in a topic-level log shared by all subscribers
+	 */
+	public boolean isSharedLog()
+	{
+		return sharedLog;
+	}
+	
 	/* (non-Javadoc)
 	 * @see net.timewalker.ffmq4.management.destination.AbstractDestinationDescriptor#initFromSettings(net.timewalker.ffmq4.utils.Settings)
 	 */
@@ -112,6 +129,7 @@ public final class TopicTemplate extends AbstractDestinationTemplate
 		
 		this.subscriberFailurePolicy  = settings.getIntProperty("subscriberFailurePolicy",FFMQSubscriberPolicy.SUBSCRIBER_POLICY_LOG);
 		this.subscriberOverflowPolicy = settings.getIntProperty("subscriberOverflowPolicy",FFMQSubscriberPolicy.SUBSCRIBER_POLICY_LOG);
+		this.sharedLog = settings.getBooleanProperty("persistentStore.sharedLog",false);
 		
 		String rawPartitionsKeysToIndex = settings.getStringProperty("partitionsKeysToIndex");
 		if (rawPartitionsKeysToIndex != null)
@@ -136,6 +154,7 @@ public final class TopicTemplate extends AbstractDestinationTemplate
 		settings.setIntProperty("subscriberOverflowPolicy", subscriberOverflowPolicy);
 		if (partitionsKeysToIndex != null)
 			settings.setStringProperty("partitionsKeysToIndex", StringUtils.implode(partitionsKeysToIndex, ","));
+		settings.setBooleanProperty("persistentStore.sharedLog", sharedLog);
 	}
 	
     /**
@@ -150,6 +169,7 @@ public final class TopicTemplate extends AbstractDestinationTemplate
         def.setSubscriberFailurePolicy(subscriberFailurePolicy);
         def.setSubscriberOverflowPolicy(subscriberOverflowPolicy);
         def.setPartitionsKeysToIndex(partitionsKeysToIndex);
+        def.setSharedLog(sharedLog);
         
         return def;
     }
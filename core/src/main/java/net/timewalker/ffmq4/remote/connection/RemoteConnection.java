@@ -18,6 +18,7 @@
 package net.timewalker.ffmq4.remote.connection;
 
 import java.net.URI;
+import java.util.List;
 
 import javax.jms.JMSException;
 import javax.jms.Session;
@@ -268,7 +269,7 @@ public class RemoteConnection extends AbstractConnection implements PacketTransp
         if (packet.getType() == PacketType.NOTIFICATION)
         {
             final NotificationPacket notifPacket = (NotificationPacket)packet;
-            final AbstractMessage prefetchedMessage = notifPacket.getMessage();
+            final List<AbstractMessage> prefetchedMessages = notifPacket.getMessages();
             
             boolean acceptedByConsumer = false;
                 
@@ -277,18 +278,21 @@ public class RemoteConnection extends AbstractConnection implements PacketTransp
             {                   
                 RemoteMessageConsumer consumer = (RemoteMessageConsumer)session.lookupRegisteredConsumer(notifPacket.getConsumerId());
                 if (consumer != null)		
-                    acceptedByConsumer = consumer.addToPrefetchQueue(prefetchedMessage,notifPacket.isDonePrefetching());
+                    acceptedByConsumer = consumer.addToPrefetchQueue(prefetchedMessages);
                 else
                 	log.debug("#"+id+" No such consumer : #"+notifPacket.getSessionId()+":"+notifPacket.getConsumerId()); // Consumer was concurrently closed or not yet registered
             }
             else
             	log.debug("#"+id+" No such session : #"+notifPacket.getSessionId()); // Session was concurrently closed
             
-            // If the consumer was already gone, we need to rollback the prefetched message on the server side
+            // If the consumer was already gone, we need to rollback the prefetched messages on the server side
             if (!acceptedByConsumer)
-                scheduleRollback(notifPacket.getSessionId(),
-                		         notifPacket.getConsumerId(),
-                		         prefetchedMessage);
+            {
+            	for (int n = 0 ; n < prefetchedMessages.size() ; n++)
+	                scheduleRollback(notifPacket.getSessionId(),
+	                		         notifPacket.getConsumerId(),
+	                		         prefetchedMessages.get(n));
+            }
             
             return true;
         }
@@ -306,7 +310,7 @@ public class RemoteConnection extends AbstractConnection implements PacketTransp
     {
         try
         {
-        	final String messageId = message.getJMSMessageID();
+        	final long deliveryTag = message.getDeliveryTag();
             
             // Schedule an async rollback
             ClientEnvironment.getAsyncTaskManager().execute(new AsyncTask()
@@ -328,7 +332,7 @@ public class RemoteConnection extends AbstractConnection implements PacketTransp
                     RollbackMessageQuery query = new RollbackMessageQuery();
                     query.setSessionId(sessionId);
                     query.setConsumerId(consumerId);
-                    query.setMessageId(messageId);
+                    query.setDeliveryTag(deliveryTag);
                     try
                     {
                         transportEndpoint.blockingRequest(query);
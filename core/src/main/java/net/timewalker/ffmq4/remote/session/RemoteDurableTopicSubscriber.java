@@ -21,6 +21,7 @@ import javax.jms.JMSException;
 import javax.jms.Topic;
 
 import net.timewalker.ffmq4.transport.packet.query.CreateDurableSubscriberQuery;
+import net.timewalker.ffmq4.transport.packet.response.CreateConsumerResponse;
 import net.timewalker.ffmq4.utils.id.IntegerID;
 
 /**
@@ -54,6 +55,7 @@ public final class RemoteDurableTopicSubscriber extends RemoteTopicSubscriber
         query.setMessageSelector(messageSelector);
         query.setNoLocal(noLocal);
         query.setName(subscriptionName);
-        transportEndpoint.blockingRequest(query);
+        CreateConsumerResponse response = (CreateConsumerResponse)transportEndpoint.blockingRequest(query);
+        initPrefetchWindow(response.getPrefetchSize());
     }
 }
@@ -18,6 +18,7 @@
 package net.timewalker.ffmq4.remote.session;
 
 import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
@@ -33,10 +34,11 @@ import net.timewalker.ffmq4.storage.message.MessageSerializationLevel;
 import net.timewalker.ffmq4.transport.PacketTransportEndpoint;
 import net.timewalker.ffmq4.transport.packet.query.CloseConsumerQuery;
 import net.timewalker.ffmq4.transport.packet.query.CreateConsumerQuery;
-import net.timewalker.ffmq4.transport.packet.query.PrefetchQuery;
+import net.timewalker.ffmq4.transport.packet.query.PrefetchCreditQuery;
+import net.timewalker.ffmq4.transport.packet.response.CreateConsumerResponse;
 import net.timewalker.ffmq4.utils.ErrorTools;
 import net.timewalker.ffmq4.utils.Settings;
-import net.timewalker.ffmq4.utils.async.AsyncTask;
+import net.timewalker.ffmq4.utils.async.AbstractMergeableAsyncTask;
 import net.timewalker.ffmq4.utils.async.AsyncTaskManager;
 import net.timewalker.ffmq4.utils.id.IntegerID;
 
@@ -57,7 +59,9 @@ public class RemoteMessageConsumer extends AbstractMessageConsumer
     private boolean traceEnabled;
     private LinkedList<AbstractMessage> prefetchQueue = new LinkedList<>();
     private Semaphore prefetchSemaphore = new Semaphore(0);
-    protected boolean donePrefetching = false;
+    private int prefetchSize;
+    private int prefetchLowWaterMark;
+    private int pendingCredits;
     private AsyncTaskManager asyncTaskManager;
     
     // Settings
@@ -91,7 +95,24 @@ public class RemoteMessageConsumer extends AbstractMessageConsumer
         query.setDestination(destination);
         query.setMessageSelector(messageSelector);
         query.setNoLocal(noLocal);
-        transportEndpoint.blockingRequest(query);        
+        CreateConsumerResponse response = (CreateConsumerResponse)transportEndpoint.blockingRequest(query);
+        initPrefetchWindow(response.getPrefetchSize());
+    }
+    
+    /**
+     * Initialize the prefetch window granted by the server.
+     * Consumed messages are credited back to the server as soon as the number of 
+     * outstanding credits falls to half the window, so that the server can keep
+     * pushing messages while the local prefetch queue is being drained.
+     */
+    protected final void initPrefetchWindow( int prefetchSize )
+    {
+    	synchronized (prefetchQueue)
+		{
+	    	this.prefetchSize = prefetchSize;
+	    	this.prefetchLowWaterMark = prefetchSize/2;
+	    	this.pendingCredits = 0;
+		}
     }
 
     /*
@@ -140,13 +161,13 @@ public class RemoteMessageConsumer extends AbstractMessageConsumer
     		query.setSessionId(session.getId());
     		query.setConsumerId(id);
     		
-    		// Append message IDs to rollback
+    		// Append delivery tags to rollback
     		synchronized (prefetchQueue)
             {
     		    while (!prefetchQueue.isEmpty())
     		    {
     		    	AbstractMessage msg = prefetchQueue.removeFirst();
-    		        query.addUndeliveredMessageID(msg.getJMSMessageID());
+    		        query.addUndeliveredTag(msg.getDeliveryTag());
     		    }
             }
     		
@@ -158,8 +179,10 @@ public class RemoteMessageConsumer extends AbstractMessageConsumer
         }
     }
     
-    public final boolean addToPrefetchQueue( AbstractMessage prefetchedMessage , boolean donePrefetching )
+    public final boolean addToPrefetchQueue( List<AbstractMessage> prefetchedMessages )
     {
+    	int count = prefetchedMessages.size();
+    	
     	externalAccessLock.readLock().lock();
     	try
         {
@@ -168,18 +191,21 @@ public class RemoteMessageConsumer extends AbstractMessageConsumer
             
         	synchronized (prefetchQueue)
     		{
-    			if (traceEnabled)
-            		log.trace("#"+id+" [PREFETCHED] from "+destination+" - "+prefetchedMessage);
-    			
-        		prefetchQueue.add(prefetchedMessage);
-        		this.donePrefetching = donePrefetching;
+        		for (int n = 0 ; n < count ; n++)
+        		{
+        			AbstractMessage prefetchedMessage = prefetchedMessages.get(n);
+	    			if (traceEnabled)
+	            		log.trace("#"+id+" [PREFETCHED] from "+destination+" - "+prefetchedMessage);
+	    			
+	        		prefetchQueue.add(prefetchedMessage);
+        		}
     		}
         }
     	finally
     	{
     		externalAccessLock.readLock().unlock();
     	}
-        prefetchSemaphore.release();
+        prefetchSemaphore.release(count);
         
         // Wake up listener asynchronously
 		if (messageListener != null)
@@ -202,29 +228,6 @@ public class RemoteMessageConsumer extends AbstractMessageConsumer
     
     private AbstractMessage getFromPrefetchQueue( long timeout )
     {
-    	boolean shouldPrefetchMore = false;
-    	synchronized (prefetchQueue)
-        {
-    		if (donePrefetching && prefetchQueue.isEmpty())
-    		{
-    			shouldPrefetchMore = true;
-    			donePrefetching = false;
-    		}
-        }
-    	
-    	// Ask for more messages if necessary (asynchronous)
-    	if (shouldPrefetchMore)
-    	{
-	    	try
-	    	{
-		    	prefetchFromDestination();
-	    	}
-	    	catch (JMSException e)
-	    	{
-	    		log.error("Cannot prefetch more messages from remote server",e);
-	    	}
-    	}
-    	
     	// Wait for a message to be available
     	try
     	{
@@ -243,6 +246,7 @@ public class RemoteMessageConsumer extends AbstractMessageConsumer
     		
     	// Get the message from the queue
     	AbstractMessage message;
+    	int credits = 0;
     	externalAccessLock.readLock().lock();
     	try
         {
@@ -256,6 +260,14 @@ public class RemoteMessageConsumer extends AbstractMessageConsumer
 	        		throw new IllegalStateException("Prefetch queue is empty");
 	        	
 	        	message = prefetchQueue.removeFirst();
+	        	
+	        	// Replenish credits when reaching the low-water mark
+	        	pendingCredits++;
+	        	if (prefetchSize - pendingCredits <= prefetchLowWaterMark)
+	        	{
+	        		credits = pendingCredits;
+	        		pendingCredits = 0;
+	        	}
 	        }
         }
     	finally
@@ -263,7 +275,20 @@ public class RemoteMessageConsumer extends AbstractMessageConsumer
     		externalAccessLock.readLock().unlock();
     	}
 
-    	((RemoteSession)session).notifyDeliveredMessage(message.getJMSMessageID());
+    	// Ask for more messages if necessary (asynchronous)
+    	if (credits > 0)
+    	{
+	    	try
+	    	{
+		    	sendPrefetchCredits(credits);
+	    	}
+	    	catch (JMSException e)
+	    	{
+	    		log.error("Cannot prefetch more messages from remote server",e);
+	    	}
+    	}
+    	
+    	((RemoteSession)session).notifyDeliveredMessage(message.getDeliveryTag());
     	
      	if (traceEnabled)
             log.trace("#"+id+" [GET PREFETCHED] in "+destination+" - "+message);
@@ -276,22 +301,23 @@ public class RemoteMessageConsumer extends AbstractMessageConsumer
     }
     
     /**
-     * Prefetch messages from destination
+     * Grant prefetch credits to the server
      * @throws JMSException
      */
-    private void prefetchFromDestination() throws JMSException
+    private void sendPrefetchCredits( int credits ) throws JMSException
     {
         // Lazy test, do not synchronize here but on response (see addToPrefetchQueue())
     	if (closed)
             return;
 
     	if (traceEnabled)
-    		log.trace("#"+id+" Prefetching more from destination "+destination);
+    		log.trace("#"+id+" Granting "+credits+" prefetch credits for destination "+destination);
     	
     	// Ask for more
-        PrefetchQuery query = new PrefetchQuery();
+        PrefetchCreditQuery query = new PrefetchCreditQuery();
         query.setSessionId(session.getId());
         query.setConsumerId(id);
+        query.setCredits(credits);
         transportEndpoint.nonBlockingRequest(query);
     }
     
@@ -337,7 +363,7 @@ public class RemoteMessageConsumer extends AbstractMessageConsumer
     
     private final WakeUpTask wakeUpTask = new WakeUpTask();
     
-    private final class WakeUpTask implements AsyncTask
+    private final class WakeUpTask extends AbstractMergeableAsyncTask
     {
     	/**
 		 * Constructor
@@ -347,15 +373,6 @@ public class RemoteMessageConsumer extends AbstractMessageConsumer
 			super();
 		}
     	
-    	/* (non-Javadoc)
-         * @see net.timewalker.ffmq4.utils.async.AsyncTask#isMergeable()
-         */
-        @Override
-		public final boolean isMergeable()
-        {
-        	return true;
-        }
-        
         /* (non-Javadoc)
          * @see net.timewalker.ffmq4.utils.async.AsyncTask#execute()
          */
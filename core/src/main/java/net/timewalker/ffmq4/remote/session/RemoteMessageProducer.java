@@ -17,10 +17,13 @@
  */
 package net.timewalker.ffmq4.remote.session;
 
+import java.util.List;
+
 import javax.jms.Destination;
 import javax.jms.JMSException;
 import javax.jms.Message;
 
+import net.timewalker.ffmq4.common.message.AbstractMessage;
 import net.timewalker.ffmq4.common.session.AbstractMessageProducer;
 import net.timewalker.ffmq4.utils.id.IntegerID;
 
@@ -57,4 +60,23 @@ public class RemoteMessageProducer extends AbstractMessageProducer
     		externalAccessLock.readLock().unlock();
     	}
     }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.common.session.AbstractMessageProducer#sendBatchToDestination(javax.jms.Destination, java.util.List)
+     */
+    @Override
+	protected final void sendBatchToDestination(Destination destination, List<AbstractMessage> messages) throws JMSException
+    {
+    	externalAccessLock.readLock().lock();
+    	try
+		{
+	    	checkNotClosed();
+	    	
+	    	((RemoteSession)session).dispatch(messages);
+		}
+    	finally
+    	{
+    		externalAccessLock.readLock().unlock();
+    	}
+    }
 }
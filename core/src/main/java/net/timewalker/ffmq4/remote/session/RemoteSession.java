@@ -19,7 +19,6 @@ package net.timewalker.ffmq4.remote.session;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Vector;
 
 import javax.jms.DeliveryMode;
 import javax.jms.Destination;
@@ -48,6 +47,7 @@ import net.timewalker.ffmq4.common.destination.TemporaryTopicRef;
 import net.timewalker.ffmq4.common.message.AbstractMessage;
 import net.timewalker.ffmq4.common.message.MessageTools;
 import net.timewalker.ffmq4.common.session.AbstractSession;
+import net.timewalker.ffmq4.common.session.DeliveryTagRanges;
 import net.timewalker.ffmq4.remote.connection.RemoteConnection;
 import net.timewalker.ffmq4.storage.data.DataStoreFullException;
 import net.timewalker.ffmq4.transport.PacketTransportEndpoint;
@@ -58,6 +58,7 @@ import net.timewalker.ffmq4.transport.packet.query.CommitQuery;
 import net.timewalker.ffmq4.transport.packet.query.CreateSessionQuery;
 import net.timewalker.ffmq4.transport.packet.query.CreateTemporaryQueueQuery;
 import net.timewalker.ffmq4.transport.packet.query.CreateTemporaryTopicQuery;
+import net.timewalker.ffmq4.transport.packet.query.PutBatchQuery;
 import net.timewalker.ffmq4.transport.packet.query.PutQuery;
 import net.timewalker.ffmq4.transport.packet.query.RecoverQuery;
 import net.timewalker.ffmq4.transport.packet.query.RollbackQuery;
@@ -85,7 +86,7 @@ public class RemoteSession extends AbstractSession
     private long retryTimeout;
     
     // Runtime
-    private List<String> deliveredMessageIDs = new Vector<>();
+    private DeliveryTagRanges deliveredTags = new DeliveryTagRanges();
     private Object retryLock = new Object();
     private boolean debugEnabled = log.isDebugEnabled();
     private boolean synchronousAckRequired;
@@ -154,10 +155,56 @@ public class RemoteSession extends AbstractSession
     }
     
     /**
-     * Add a delivered message ID
-     * @param deliveredMessageID
+     * Called from producers when sending a batch of messages
      */
-    public final void notifyDeliveredMessage( String deliveredMessageID )
+    protected final void dispatch( List<AbstractMessage> messages ) throws JMSException
+    {
+    	if (debugEnabled)
+    		log.debug("#"+id+" Sending batch of "+messages.size()+" message(s)");
+    	
+    	boolean asyncDispatch = transacted;
+    	if (!asyncDispatch && allowSendAsync)
+    	{
+    		// Only send asynchronously if all messages are non-persistent
+    		asyncDispatch = true;
+    		for (int i = 0; i < messages.size(); i++)
+    			if (messages.get(i).getJMSDeliveryMode() != DeliveryMode.NON_PERSISTENT)
+    			{
+    				asyncDispatch = false;
+    				break;
+    			}
+    	}
+    	
+        PutBatchQuery query = new PutBatchQuery();
+        query.setSessionId(id);
+        
+        if (asyncDispatch)
+        {
+        	// Create message copies to make sure the messages are not modified concurrently
+        	List<AbstractMessage> msgCopies = new ArrayList<>(messages.size());
+        	for (int i = 0; i < messages.size(); i++)
+        		msgCopies.add(MessageTools.makeInternalCopy(messages.get(i)));
+        	query.setMessages(msgCopies);
+        }
+        else
+        	query.setMessages(messages);
+
+        if (asyncDispatch) 
+        	transportEndpoint.nonBlockingRequest(query);
+        else
+        {
+        	if (retryOnQueueFull)
+        		retriableBlockingQuery(query, retryTimeout);
+        	else
+        		transportEndpoint.blockingRequest(query);
+        }
+    }
+    
+    /**
+     * Add a delivered message
+     * @param deliveryTag the delivery tag of the message
+     */
+    public final void notifyDeliveredMessage( long deliveryTag )
     {
     	externalAccessLock.readLock().lock();
     	try
@@ -166,9 +213,12 @@ public class RemoteSession extends AbstractSession
 	    		return;
 	    	
 	    	if (debugEnabled)
-	    		log.debug(this+" Adding delivered message ID : "+deliveredMessageID);
+	    		log.debug(this+" Adding delivered message tag : "+deliveryTag);
 	    	
-	    	this.deliveredMessageIDs.add(deliveredMessageID);
+	    	synchronized (deliveredTags)
+			{
+	    		deliveredTags.add(deliveryTag);
+			}
 	    	if (!transacted && acknowledgeMode != Session.DUPS_OK_ACKNOWLEDGE)
 	    		synchronousAckRequired = true;
 		}
@@ -338,9 +388,9 @@ public class RemoteSession extends AbstractSession
 
 	        RecoverQuery query = new RecoverQuery();
 	        query.setSessionId(id);
-	        query.setDeliveredMessageIDs(deliveredMessageIDs);
+	        query.setDeliveryTags(snapshotDeliveredTags(false));
 	        transportEndpoint.blockingRequest(query);
-	        deliveredMessageIDs.clear();
+	        clearDeliveredTags();
 	        
 	        synchronousAckRequired = false;
 		}
@@ -394,14 +444,14 @@ public class RemoteSession extends AbstractSession
 	        
 	        final CommitQuery query = new CommitQuery();
 	        query.setSessionId(id);
-	        query.setDeliveredMessageIDs(deliveredMessageIDs);
+	        query.setDeliveryTags(snapshotDeliveredTags(false));
 	        
 	        if (retryOnQueueFull)
 	        	retriableBlockingQuery(query,retryTimeout);
 	        else
 		        transportEndpoint.blockingRequest(query);
 	      
-	        deliveredMessageIDs.clear();
+	        clearDeliveredTags();
 		}
     	finally
     	{
@@ -490,9 +540,9 @@ public class RemoteSession extends AbstractSession
 	        
 	        RollbackQuery query = new RollbackQuery();
 	        query.setSessionId(id);
-	        query.setDeliveredMessageIDs(deliveredMessageIDs);
+	        query.setDeliveryTags(snapshotDeliveredTags(false));
 	        transportEndpoint.blockingRequest(query);
-	        deliveredMessageIDs.clear();
+	        clearDeliveredTags();
 		}
     	finally
     	{
@@ -553,29 +603,19 @@ public class RemoteSession extends AbstractSession
     	try
 		{
 	        checkNotClosed();
-	        if (deliveredMessageIDs.isEmpty())
+	        DeliveryTagRanges tags = snapshotDeliveredTags(sendAcksAsync && !synchronousAckRequired);
+	        if (tags.isEmpty())
 	        	throw new FFMQException("No received message to acknowledge","INTERNAL_ERROR");
 	        
+	        AcknowledgeQuery query = new AcknowledgeQuery();
+	        query.setSessionId(id);
+	        query.setDeliveryTags(tags);
 	        if (sendAcksAsync && !synchronousAckRequired)
-	        {
-	        	// Copy message list
-	        	List<String> messageIDs = new ArrayList<>(deliveredMessageIDs.size());
-	        	for(int n=0;n<deliveredMessageIDs.size();n++)
-	        		messageIDs.add(deliveredMessageIDs.get(n));
-	        	deliveredMessageIDs.clear();
-	        	
-	        	AcknowledgeQuery query = new AcknowledgeQuery();
-		        query.setSessionId(id);
-		        query.setDeliveredMessageIDs(messageIDs);
 		        transportEndpoint.nonBlockingRequest(query);
-	        }
 	        else
 	        {
-	        	AcknowledgeQuery query = new AcknowledgeQuery();
-		        query.setSessionId(id);
-		        query.setDeliveredMessageIDs(deliveredMessageIDs);
 		        transportEndpoint.blockingRequest(query);
-		        deliveredMessageIDs.clear();
+		        clearDeliveredTags();
 	        }
 	        
 	        synchronousAckRequired = false;
@@ -585,4 +625,23 @@ public class RemoteSession extends AbstractSession
     		externalAccessLock.readLock().unlock();
     	}
     }
+    
+    private DeliveryTagRanges snapshotDeliveredTags( boolean clear )
+    {
+    	synchronized (deliveredTags)
+		{
+    		DeliveryTagRanges snapshot = deliveredTags.copy();
+    		if (clear)
+    			deliveredTags.clear();
+    		return snapshot;
+		}
+    }
+    
+    private void clearDeliveredTags()
+    {
+    	synchronized (deliveredTags)
+		{
+    		deliveredTags.clear();
+		}
+    }
 }
@@ -28,6 +28,7 @@ import net.timewalker.ffmq4.utils.StringTools;
 public class Privilege 
 {
 	private String resourcePattern;
+	private String[] compiledResourcePattern;
 	private Set<String> actions = new HashSet<>();
 	
 	/**
@@ -41,6 +42,7 @@ public class Privilege
     public void setResourcePattern(String resourcePattern)
     {
         this.resourcePattern = resourcePattern;
+        this.compiledResourcePattern = StringTools.compilePattern(resourcePattern);
     }
 
     public void setActions( String actionsList )
@@ -59,7 +61,7 @@ public class Privilege
 	public boolean matches( String resourceName , String action )
 	{
 		// Match rsource name first
-		if (!StringTools.matches(resourceName, resourcePattern))
+		if (!StringTools.matches(resourceName, compiledResourcePattern))
 			return false;
 		
 		// Check action
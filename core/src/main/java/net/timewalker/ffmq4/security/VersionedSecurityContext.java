@@ -0,0 +1,32 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.security;
+
+/**
+ * <p>Optional extension of a {@link SecurityContext} whose privileges may change over time.</p>
+ * <p>Connections cache the permission checks of such contexts, until the privileges version changes.
+ * Permissions of contexts not implementing this interface are always checked by the context itself.</p>
+ */
+public interface VersionedSecurityContext extends SecurityContext
+{
+	/**
+	 * Get the current version of this context privileges.
+	 * The version changes whenever privileges are updated, so that previous permission checks can be discarded
+	 */
+	public int getPrivilegesVersion();
+}
@@ -92,4 +92,18 @@ public interface LinkedDataStore extends DataStore
      * @throws DataStoreException on storage error or invalid handle
      */
     public boolean isLocked( int handle ) throws DataStoreException;
+    
+    /**
+     * Get the number of times the data associated with a given handle was redelivered
+     * @throws DataStoreException on storage error or invalid handle
+     */
+    public int getRedeliveryCount( int handle ) throws DataStoreException;
+    
+    /**
+     * Increment the redelivery count of the data associated with a given handle.
+     * The count is kept apart from the data itself and survives replace() operations.
+     * @return the new redelivery count
+     * @throws DataStoreException on storage error or invalid handle
+     */
+    public int markRedelivered( int handle ) throws DataStoreException;
 }
@@ -75,6 +75,13 @@ public abstract class AbstractBlockBasedDataStore extends AbstractDataStore
     private static final byte FLAG_START_BLOCK = 1;
     private static final byte FLAG_END_BLOCK   = 2;
     
+    // The redelivery count is kept in the remaining bits of the start block flags
+    private static final int REDELIVERY_COUNT_SHIFT = 2;
+    private static final byte FLAGS_BLOCK_MASK = FLAG_START_BLOCK | FLAG_END_BLOCK;
+
+    // Maximum number of free areas to look at when allocating contiguous blocks
+    private static final int MAX_RUN_SEARCH_ATTEMPTS = 16;
+    
     // Offsets in the allocation table   
     public static final int AT_HEADER_SIZE                 = 4+4+4;
     public static final int AT_BLOCK_SIZE                  = 1+4+4+4;
@@ -108,6 +115,7 @@ public abstract class AbstractBlockBasedDataStore extends AbstractDataStore
     protected RandomAccessFile dataRandomAccessFile;
     
     // Runtime only
+    private FastBitSet usedBlocks;
     private int lastEmpty;
     private int size;
     private int blocksInUse;
@@ -173,6 +181,7 @@ public abstract class AbstractBlockBasedDataStore extends AbstractDataStore
             this.allocatedSize = new int[blockCount];
             this.previousBlock = new int[blockCount];
             this.nextBlock     = new int[blockCount];
+            this.usedBlocks    = new FastBitSet(blockCount);
             this.blocksInUse   = 0;
             int msgCount = 0;
             for (int n = 0 ; n < blockCount ; n++)
@@ -184,6 +193,7 @@ public abstract class AbstractBlockBasedDataStore extends AbstractDataStore
                 
                 if (allocatedSize[n] != -1)
                 {
+                	usedBlocks.set(n);
                 	blocksInUse++;
                 	
                 	if ((flags[n] & FLAG_START_BLOCK) > 0)
@@ -221,21 +231,47 @@ public abstract class AbstractBlockBasedDataStore extends AbstractDataStore
     
     private int findEmpty() throws DataStoreException
     {
-        int pos = lastEmpty; 
-        for(int n=0;n<blockCount;n++)
+        int pos = usedBlocks.nextClearBit(lastEmpty, blockCount);
+        if (pos == -1)
+            pos = usedBlocks.nextClearBit(0, Math.min(lastEmpty,blockCount));
+        if (pos == -1)
+            throw new DataStoreException("Allocation table is full ("+blockCount+" blocks)");
+        
+        lastEmpty = pos+1;
+        return pos;
+    }
+    
+    /**
+     * Find a run of contiguous empty blocks, looking at a bounded number of free areas
+     * so that a fragmented store falls back quickly to block by block allocation
+     * @return the index of the first block of the run, or -1 if none was found
+     */
+    private int findEmptyRun( int runSize )
+    {
+        int pos = lastEmpty < blockCount ? lastEmpty : 0;
+        boolean wrapped = false;
+        for (int attempt = 0 ; attempt < MAX_RUN_SEARCH_ATTEMPTS ; attempt++)
         {
-        	if (pos >= blockCount)
+            int runStart = usedBlocks.nextClearBit(pos, blockCount);
+            if (runStart == -1 || blockCount-runStart < runSize)
+            {
+                if (wrapped)
+                    return -1;
+                wrapped = true;
                 pos = 0;
-        	
-            if (allocatedSize[pos] == -1)
+                continue;
+            }
+            
+            int runEnd = usedBlocks.nextSetBit(runStart, runStart+runSize);
+            if (runEnd == -1)
             {
-                lastEmpty = pos+1;
-                return pos;
+                lastEmpty = runStart+runSize;
+                return runStart;
             }
             
-            pos++;
+            pos = runEnd+1;
         }
-        throw new DataStoreException("Allocation table is full ("+blockCount+" blocks)");
+        return -1;
     }
     
     /* (non-Javadoc)
@@ -355,11 +391,23 @@ public abstract class AbstractBlockBasedDataStore extends AbstractDataStore
         int current = handle;
         while (current != -1)
         {
-            int blockLen = allocatedSize[current];
+            // Regroup contiguous blocks (all blocks but the last one are full)
+            int runStart = current;
+            int runBlocks = 1;
+            int runLen = allocatedSize[current];
+            while ((flags[current] & FLAG_END_BLOCK) == 0 && nextBlock[current] == current+1)
+            {
+                current++;
+                runBlocks++;
+                runLen += allocatedSize[current];
+            }
             
-            // Read block from map file
-            readDataBlock(data,offset,blockLen,current);
-            offset += blockLen;
+            // Read blocks from map file
+            if (runBlocks == 1)
+                readDataBlock(data,offset,runLen,runStart);
+            else
+                readDataBlocks(data,offset,runLen,runStart,runBlocks);
+            offset += runLen;
             
             if ((flags[current] & FLAG_END_BLOCK) > 0)
                 break;
@@ -412,6 +460,7 @@ public abstract class AbstractBlockBasedDataStore extends AbstractDataStore
             previousBlock[current] = -1;
             nextBlock[current] = -1;
             locks.clear(current);
+            usedBlocks.clear(current);
             
             // Update used blocks count
             blocksInUse--;
@@ -452,6 +501,41 @@ public abstract class AbstractBlockBasedDataStore extends AbstractDataStore
         return previousHandle;
     }
     
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.LinkedDataStore#getRedeliveryCount(int)
+     */
+    @Override
+	public final int getRedeliveryCount(int handle) throws DataStoreException
+    {
+        if (SAFE_MODE) checkHandle(handle);
+        return (flags[handle] & 0xFF) >>> REDELIVERY_COUNT_SHIFT;
+    }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.LinkedDataStore#markRedelivered(int)
+     */
+    @Override
+	public final int markRedelivered(int handle) throws DataStoreException
+    {
+        if (SAFE_MODE) checkHandle(handle);
+        
+        int count = getRedeliveryCount(handle);
+        if (count < MAX_REDELIVERY_COUNT)
+        {
+            count++;
+            setRedeliveryCount(handle, count);
+            flush();
+        }
+        return count;
+    }
+    
+    private void setRedeliveryCount( int handle , int count ) throws DataStoreException
+    {
+        // Only the allocation block of the start block needs to be updated
+        flags[handle] = (byte)((flags[handle] & FLAGS_BLOCK_MASK) | (count << REDELIVERY_COUNT_SHIFT));
+        writeAllocationBlock(handle);
+    }
+    
     /* (non-Javadoc)
      * @see net.timewalker.ffmq4.storage.data.LinkedDataStore#replace(int, java.lang.Object)
      */
@@ -477,8 +561,9 @@ public abstract class AbstractBlockBasedDataStore extends AbstractDataStore
     		}
     	}
 
-    	// Save locking status
+    	// Save locking status and delivery state
     	boolean wasLocked = isLocked(handle);
+    	int redeliveryCount = getRedeliveryCount(handle);
     	
     	// Delete the old message
     	delete(handle);
@@ -486,9 +571,14 @@ public abstract class AbstractBlockBasedDataStore extends AbstractDataStore
     	// Store the new version
     	int newHandle = store(obj, previousHandle);
     	
+    	if (newHandle == -1)
+    		return -1;
+    	
     	// Re-lock if necessary
     	if (wasLocked)
     		lock(newHandle);
+    	if (redeliveryCount > 0)
+    		setRedeliveryCount(newHandle, redeliveryCount);
     	
     	flush();
     	
@@ -573,6 +663,7 @@ public abstract class AbstractBlockBasedDataStore extends AbstractDataStore
             nextBlock[n] = -1;
         }
         this.locks.ensureCapacity(newBlockCount);
+        this.usedBlocks.ensureCapacity(newBlockCount);
         this.blockCount = newBlockCount;
         
         // Extend physical storage
@@ -603,6 +694,9 @@ public abstract class AbstractBlockBasedDataStore extends AbstractDataStore
             }
         }
         
+        // Try to allocate multi-block entries as a single contiguous run
+        int runStart = requiredFreeBlocks > 1 ? findEmptyRun(requiredFreeBlocks) : -1;
+        
         int newHandle = -1;
         int lastBlock = previousBlockHandle;
         int offset = 0;
@@ -611,7 +705,8 @@ public abstract class AbstractBlockBasedDataStore extends AbstractDataStore
         	boolean isStartBlock = (i == 0);
         	boolean isEndBlock = (remaining == 0 && i == fullBlocks-1);
         	
-        	lastBlock = storeDataBlock(data,
+        	lastBlock = storeDataBlock(runStart != -1 ? runStart+i : findEmpty(),
+        	                       runStart != -1 ? null : data,
                                    offset,
                                    blockSize,
                                    lastBlock,
@@ -623,7 +718,8 @@ public abstract class AbstractBlockBasedDataStore extends AbstractDataStore
         }
         if (remaining > 0)
         {
-        	lastBlock = storeDataBlock(data,
+        	lastBlock = storeDataBlock(runStart != -1 ? runStart+fullBlocks : findEmpty(),
+        	                       runStart != -1 ? null : data,
                                    offset,
                                    remaining,
                                    lastBlock,
@@ -633,6 +729,10 @@ public abstract class AbstractBlockBasedDataStore extends AbstractDataStore
                 newHandle = lastBlock;
         }
         
+        // A contiguous run is written straight from the caller buffer in one operation
+        if (runStart != -1)
+            writeDataBlocks(data,0,data.length,runStart,requiredFreeBlocks);
+        
         // Connect end of sub-list to existing list
         if (nextBlockHandle != -1)
         {
@@ -662,9 +762,9 @@ public abstract class AbstractBlockBasedDataStore extends AbstractDataStore
         return newHandle;
     }
     
-    private int storeDataBlock(byte[] data,int offset,int len,int previousHandle,boolean startBlock,boolean endBlock) throws DataStoreException
+    private int storeDataBlock(int nextEmpty,byte[] data,int offset,int len,int previousHandle,boolean startBlock,boolean endBlock) throws DataStoreException
     {
-        int nextEmpty = findEmpty();
+        usedBlocks.set(nextEmpty);
         
         byte flag = 0;
         if (startBlock) flag |= FLAG_START_BLOCK;
@@ -678,8 +778,9 @@ public abstract class AbstractBlockBasedDataStore extends AbstractDataStore
         if (previousHandle != -1)
             nextBlock[previousHandle] = nextEmpty;
         
-        // Write data to map file
-       	writeDataBlock(data,offset,len,nextEmpty);
+        // Write data to map file (unless the caller writes the whole run at once)
+        if (data != null)
+       	    writeDataBlock(data,offset,len,nextEmpty);
         
         return nextEmpty;
     }
@@ -1058,11 +1159,42 @@ public abstract class AbstractBlockBasedDataStore extends AbstractDataStore
      */
     protected abstract void writeDataBlock(byte[] data, int offset, int len, int blockHandle) throws DataStoreException;
 
+    /**
+     * Write a run of contiguous data blocks, all blocks but the last one being full.
+     * Default implementation writes blocks one by one.
+     * @throws DataStoreException
+     */
+    protected void writeDataBlocks(byte[] data, int offset, int len, int firstBlockHandle, int blocks) throws DataStoreException
+    {
+        for (int n = 0 ; n < blocks ; n++)
+        {
+            int blockLen = Math.min(blockSize,len);
+            writeDataBlock(data,offset,blockLen,firstBlockHandle+n);
+            offset += blockLen;
+            len -= blockLen;
+        }
+    }
+    
     /**
      * Read a data block to disk
      * @throws DataStoreException
      */
     protected abstract void readDataBlock(byte[] data, int offset, int len, int blockHandle) throws DataStoreException;
+    
+    /**
+     * Read a run of contiguous data blocks, all blocks but the last one being full.
+     * Default implementation reads blocks one by one.
+     */
+    protected void readDataBlocks(byte[] data, int offset, int len, int firstBlockHandle, int blocks) throws DataStoreException
+    {
+        for (int n = 0 ; n < blocks ; n++)
+        {
+            int blockLen = Math.min(blockSize,len);
+            readDataBlock(data,offset,blockLen,firstBlockHandle+n);
+            offset += blockLen;
+            len -= blockLen;
+        }
+    }
 
     /**
      * Extend the store files to newBlockCount
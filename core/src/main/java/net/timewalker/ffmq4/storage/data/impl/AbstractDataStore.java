@@ -30,6 +30,9 @@ public abstract class AbstractDataStore implements LinkedDataStore
 	// Flag for debugging/testing purposes
     protected static final boolean SAFE_MODE = System.getProperty("ffmq.dataStore.safeMode", "false").equals("true");
     
+    // Redelivery counts saturate at this value
+    public static final int MAX_REDELIVERY_COUNT = 63;
+    
 	// Attributes
 	protected FastBitSet locks;
 	
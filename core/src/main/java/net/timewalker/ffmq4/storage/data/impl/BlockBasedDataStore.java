@@ -104,6 +104,17 @@ public final class BlockBasedDataStore extends AbstractBlockBasedDataStore
     	}
     }
 
+    /*
+     * (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.impl.AbstractBlockBasedDataStore#writeDataBlocks(byte[], int, int, int, int)
+     */
+    @Override
+	protected void writeDataBlocks(byte[] data, int offset, int len, int firstBlockHandle, int blocks) throws DataStoreException
+    {
+    	// Contiguous blocks can be written in a single operation
+    	writeDataBlock(data,offset,len,firstBlockHandle);
+    }
+
     /*
      * (non-Javadoc)
      * @see net.timewalker.ffmq4.storage.data.impl.AbstractBlockBasedDataStore#readDataBlock(byte[], int, int, int)
@@ -127,6 +138,17 @@ public final class BlockBasedDataStore extends AbstractBlockBasedDataStore
         }
     }
     
+    /*
+     * (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.impl.AbstractBlockBasedDataStore#readDataBlocks(byte[], int, int, int, int)
+     */
+    @Override
+	protected void readDataBlocks(byte[] data, int offset, int len, int firstBlockHandle, int blocks) throws DataStoreException
+    {
+    	// Contiguous blocks can be read in a single operation
+    	readDataBlock(data,offset,len,firstBlockHandle);
+    }
+    
     /* (non-Javadoc)
      * @see net.timewalker.ffmq4.storage.data.impl.AbstractBlockBasedDataStore#extendStoreFiles(int, int)
      */
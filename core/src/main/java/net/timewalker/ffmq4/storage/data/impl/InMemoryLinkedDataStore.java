@@ -33,6 +33,7 @@ public final class InMemoryLinkedDataStore extends AbstractDataStore
     // Allocation table
     private int[] nextEntry;
     private int[] previousEntry;
+    private byte[] redeliveryCount;
     private int firstEntry;
 
     // Data table
@@ -51,6 +52,7 @@ public final class InMemoryLinkedDataStore extends AbstractDataStore
         this.maxSize = maxSize;
         this.nextEntry = new int[initialSize];
         this.previousEntry = new int[initialSize];
+        this.redeliveryCount = new byte[initialSize];
         this.firstEntry = -1;
         this.data = new Object[initialSize];
         this.locks = new FastBitSet(initialSize);
@@ -76,14 +78,17 @@ public final class InMemoryLinkedDataStore extends AbstractDataStore
         {
             int[] newNextEntry = new int[newSize];
             int[] newPreviousEntry = new int[newSize];
+            byte[] newRedeliveryCount = new byte[newSize];
             Object[] newData = new Object[newSize];
             
             System.arraycopy(nextEntry, 0, newNextEntry, 0, actualSize);
             System.arraycopy(previousEntry, 0, newPreviousEntry, 0, actualSize);
+            System.arraycopy(redeliveryCount, 0, newRedeliveryCount, 0, actualSize);
             System.arraycopy(data, 0, newData, 0, actualSize);
     
             this.nextEntry = newNextEntry;
             this.previousEntry = newPreviousEntry;
+            this.redeliveryCount = newRedeliveryCount;
             this.data = newData;
             this.locks.ensureCapacity(newSize);
         }
@@ -173,6 +178,7 @@ public final class InMemoryLinkedDataStore extends AbstractDataStore
         // Store data
         previousEntry[newHandle] = previousHandle;
         nextEntry[newHandle] = nextHandle;
+        redeliveryCount[newHandle] = 0;
         data[newHandle] = obj;
         
         // Connect to list
@@ -211,6 +217,7 @@ public final class InMemoryLinkedDataStore extends AbstractDataStore
         // Clear data
         previousEntry[handle] = -1;
         nextEntry[handle] = -1;
+        redeliveryCount[handle] = 0;
         data[handle] = null;
         locks.clear(handle);
         
@@ -222,6 +229,28 @@ public final class InMemoryLinkedDataStore extends AbstractDataStore
         return previousHandle;
     }
 
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.LinkedDataStore#getRedeliveryCount(int)
+     */
+    @Override
+	public int getRedeliveryCount(int handle) throws DataStoreException
+    {
+        if (SAFE_MODE) checkHandle(handle);
+        return redeliveryCount[handle];
+    }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.LinkedDataStore#markRedelivered(int)
+     */
+    @Override
+	public int markRedelivered(int handle) throws DataStoreException
+    {
+        if (SAFE_MODE) checkHandle(handle);
+        if (redeliveryCount[handle] < MAX_REDELIVERY_COUNT)
+        	redeliveryCount[handle]++;
+        return redeliveryCount[handle];
+    }
+
     /*
      * (non-Javadoc)
      * @see net.timewalker.ffmq4.utils.store.LinkedStore#first()
@@ -26,6 +26,8 @@ import net.timewalker.ffmq4.storage.data.DataStoreException;
 import net.timewalker.ffmq4.storage.data.impl.journal.BlockBasedDataStoreJournal;
 import net.timewalker.ffmq4.storage.data.impl.journal.DirtyBlockTable;
 import net.timewalker.ffmq4.storage.data.impl.journal.JournalRecovery;
+import net.timewalker.ffmq4.storage.data.impl.journal.SharedJournal;
+import net.timewalker.ffmq4.utils.Histogram;
 import net.timewalker.ffmq4.utils.async.AsyncTaskManager;
 import net.timewalker.ffmq4.utils.concurrent.SynchronizationBarrier;
 
@@ -41,6 +43,7 @@ public final class JournalingBlockBasedDataStore extends AbstractBlockBasedDataS
 	
 	// Journal related
 	private AsyncTaskManager asyncTaskManager;
+	private SharedJournal sharedJournal;
 	private BlockBasedDataStoreJournal journal;
 	private DirtyBlockTable dirtyBlockTable = new DirtyBlockTable();
 	private boolean keepJournalFiles = System.getProperty("ffmq.dataStore.keepJournalFiles", "false").equals("true");
@@ -49,9 +52,19 @@ public final class JournalingBlockBasedDataStore extends AbstractBlockBasedDataS
 	 * Constructor
 	 */
 	public JournalingBlockBasedDataStore( AbstractDestinationDescriptor descriptor , AsyncTaskManager asyncTaskManager )
+	{
+		this(descriptor,asyncTaskManager,null);
+	}
+	
+	/**
+	 * Constructor
+	 * @param sharedJournal an engine-wide shared journal, or null to use a dedicated journal
+	 */
+	public JournalingBlockBasedDataStore( AbstractDestinationDescriptor descriptor , AsyncTaskManager asyncTaskManager , SharedJournal sharedJournal )
 	{
 		super(descriptor);
 		this.asyncTaskManager = asyncTaskManager;
+		this.sharedJournal = sharedJournal;
 	}
 	
 	/* (non-Javadoc)
@@ -97,6 +110,14 @@ public final class JournalingBlockBasedDataStore extends AbstractBlockBasedDataS
     		integrityCheck();
     		log.warn("["+baseName+"] Check complete.");
     	}
+    	else
+    	if (sharedJournal != null && sharedJournal.consumeRecoveredStore(baseName))
+    	{
+    		// Store files were already recovered from the shared journal
+    		log.warn("["+baseName+"] Forcing integrity check after shared journal recovery ...");
+    		integrityCheck();
+    		log.warn("["+baseName+"] Check complete.");
+    	}
     	
     	// Create new journal
     	this.journal = 
@@ -113,8 +134,27 @@ public final class JournalingBlockBasedDataStore extends AbstractBlockBasedDataS
     			                           dataRandomAccessFile, 
     			                           dirtyBlockTable,
     			                           asyncTaskManager);
+    	journal.setGroupCommitMaxDelay(descriptor.getGroupCommitMaxDelay());
+    	if (sharedJournal != null)
+    		journal.attachTo(sharedJournal, dataFolder);
     }
 	
+	/**
+	 * Get the histogram of the number of commits per journal sync
+	 */
+	public Histogram getJournalCommitBatchSizes()
+	{
+		return journal.getCommitBatchSizes();
+	}
+	
+	/**
+	 * Get the histogram of journal sync latencies (in microseconds)
+	 */
+	public Histogram getJournalSyncLatencies()
+	{
+		return journal.getSyncLatencies();
+	}
+	
 	/*
 	 * (non-Javadoc)
 	 * @see net.timewalker.ffmq4.storage.data.impl.AbstractBlockBasedDataStore#writeFirstBlock()
@@ -187,6 +227,27 @@ public final class JournalingBlockBasedDataStore extends AbstractBlockBasedDataS
             }
     	}
     }
+    
+    /*
+     * (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.impl.AbstractBlockBasedDataStore#readDataBlocks(byte[], int, int, int, int)
+     */
+    @Override
+	protected void readDataBlocks(byte[] data, int offset, int len, int firstBlockHandle, int blocks) throws DataStoreException
+    {
+    	// Dirty blocks must be read from memory, block by block
+    	for (int n = 0 ; n < blocks ; n++)
+    	{
+    		if (dirtyBlockTable.get(firstBlockHandle+n) != null)
+    		{
+    			super.readDataBlocks(data, offset, len, firstBlockHandle, blocks);
+    			return;
+    		}
+    	}
+    	
+    	// Contiguous blocks can be read in a single operation
+    	readDataBlock(data,offset,len,firstBlockHandle);
+    }
 	
     /* (non-Javadoc)
      * @see net.timewalker.ffmq4.storage.data.impl.AbstractBlockBasedDataStore#extendStoreFiles(int, int)
@@ -0,0 +1,1160 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.storage.data.impl;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import javax.jms.JMSException;
+
+import net.timewalker.ffmq4.management.destination.AbstractDestinationDescriptor;
+import net.timewalker.ffmq4.storage.StorageSyncMethod;
+import net.timewalker.ffmq4.storage.data.DataStoreException;
+import net.timewalker.ffmq4.utils.FastBitSet;
+import net.timewalker.ffmq4.utils.async.AsyncTask;
+import net.timewalker.ffmq4.utils.async.AsyncTaskManager;
+import net.timewalker.ffmq4.utils.concurrent.SynchronizationBarrier;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p>Linked data store persisted as a sequence of append-only log segments.</p>
+ * <p>New entries, replacements, deletions and redelivery marks are all appended as records to the
+ * current segment, so each piece of data is written once and sequentially, instead of going through
+ * a journal first and being copied in place afterwards. The allocation table only lives in memory
+ * and is rebuilt on startup by replaying the segments in order.</p>
+ * <p>Only the oldest segment is ever reclaimed : it is dropped as soon as it holds no live entry,
+ * or compacted on segment rotation if its remaining live entries use less than a quarter of it
+ * (they are then copied to the current segment). Reclaiming segments in log order guarantees that
+ * a deletion record is never lost while the entry it refers to is still on disk.</p>
+ * <p>The on-disk order of entries is the insertion order. The linked order is restored
+ * in insertion order by {@link #init()}, callers inserting out of order have to re-arrange it
+ * with {@link #relink(int[])}.</p>
+ */
+public final class LogStructuredDataStore extends AbstractDataStore
+{
+	private static final Log log = LogFactory.getLog(LogStructuredDataStore.class);
+	
+	public static final String FOLDER_SUFFIX = ".segments";
+	private static final String SEGMENT_SUFFIX = ".log";
+	
+	// Record types
+	private static final byte RECORD_STORE       = 1;
+	private static final byte RECORD_DELETE      = 2;
+	private static final byte RECORD_REDELIVERED = 3;
+	
+	// Record header : type(1) + handle(4) + sequence(8) + redelivery count(1) + data length(4) + checksum(4)
+	private static final int RECORD_HEADER_SIZE = 22;
+	
+	// Largest supported segment size (offsets are stored as ints)
+	private static final long MAX_SEGMENT_SIZE = 1024*1024*1024;
+	
+	// The oldest segment is compacted when its live entries use less than 1/COMPACTION_RATIO of it
+	private static final int COMPACTION_RATIO = 4;
+	
+	// Setup
+	private AbstractDestinationDescriptor descriptor;
+	private AsyncTaskManager asyncTaskManager;
+	private String baseName;
+	private File folder;
+	private long maxLiveBytes;
+	private long maxSegmentSize;
+	private int storageSyncMethod;
+	private boolean forceSync;
+	
+	// Allocation table
+	private int[] nextEntry;
+	private int[] previousEntry;
+	private int[] entrySegment;
+	private int[] entryOffset;
+	private int[] entrySize;
+	private long[] entrySeq;
+	private byte[] redeliveryCount;
+	private int firstEntry = -1;
+	private int handleLimit;
+	private int[] freeHandles = new int[256];
+	private int freeCount;
+	
+	// Runtime
+	private int size;
+	private long nextSeq;
+	private long liveBytes;
+	private List<LogSegment> segments = new ArrayList<>();
+	private List<LogSegment> obsoleteSegments = new ArrayList<>();
+	private LogSegment currentSegment;
+	private boolean compacting;
+	private byte[] writeBuffer;
+	private int writeBufferPos;
+	private byte[] recordHeader = new byte[RECORD_HEADER_SIZE];
+	private ByteBuffer recordHeaderView = ByteBuffer.wrap(recordHeader);
+	private CRC32 checksum = new CRC32();
+	
+	// Group commit
+	private List<SynchronizationBarrier> pendingBarriers = new ArrayList<>();
+	private boolean flushRequested;
+	private boolean flushScheduled;
+	private FlushAsyncTask flushAsyncTask = new FlushAsyncTask();
+	private volatile boolean failing;
+	private volatile boolean closed;
+	
+	/**
+	 * Constructor
+	 * @param asyncTaskManager the disk I/O task manager used for asynchronous commits, or null to commit synchronously
+	 */
+	public LogStructuredDataStore( AbstractDestinationDescriptor descriptor , AsyncTaskManager asyncTaskManager )
+	{
+		this.descriptor = descriptor;
+		this.asyncTaskManager = asyncTaskManager;
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.data.LinkedDataStore#init()
+	 */
+	@Override
+	public void init() throws DataStoreException
+	{
+		this.baseName = descriptor.getName();
+		this.folder = new File(descriptor.getDataFolder(),baseName+FOLDER_SUFFIX);
+		this.maxLiveBytes = (long)descriptor.getMaxBlockCount()*descriptor.getBlockSize();
+		this.maxSegmentSize = Math.min(descriptor.getMaxJournalSize(),MAX_SEGMENT_SIZE);
+		this.storageSyncMethod = descriptor.getStorageSyncMethod();
+		this.forceSync = !descriptor.isTemporary();
+		this.writeBuffer = new byte[descriptor.getJournalOutputBuffer()];
+		
+		if (!folder.isDirectory())
+			throw new DataStoreException("Cannot find store folder : "+folder.getAbsolutePath());
+		
+		allocate(Math.max(descriptor.getInitialBlockCount(),16));
+		
+		// Replay existing segments
+		File[] segmentFiles = findSegmentFiles(folder);
+		for (int i = 0; i < segmentFiles.length; i++)
+		{
+			int segmentId = getSegmentId(segmentFiles[i]);
+			if (i > 0 && segmentId != segments.get(i-1).id+1)
+				throw new DataStoreException("Missing log segment before "+segmentFiles[i].getAbsolutePath());
+			
+			LogSegment segment = new LogSegment(segmentId,segmentFiles[i]);
+			segments.add(segment);
+			replay(segment,i == segmentFiles.length-1);
+		}
+		
+		if (segments.isEmpty())
+			segments.add(new LogSegment(0,new File(folder,getSegmentFileName(0))));
+		currentSegment = segments.get(segments.size()-1);
+		
+		// Rebuild the free list and the linked list, in insertion order
+		Integer[] handles = new Integer[size];
+		int count = 0;
+		for (int handle = handleLimit-1; handle >= 0; handle--)
+		{
+			if (entrySegment[handle] == -1)
+				pushFreeHandle(handle);
+			else
+			{
+				handles[count++] = Integer.valueOf(handle);
+				nextSeq = Math.max(nextSeq,entrySeq[handle]+1);
+			}
+		}
+		Arrays.sort(handles, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer h1, Integer h2)
+			{
+				long seq1 = entrySeq[h1.intValue()];
+				long seq2 = entrySeq[h2.intValue()];
+				return seq1 < seq2 ? -1 : (seq1 == seq2 ? 0 : 1);
+			}
+		});
+		int[] order = new int[size];
+		for (int i = 0; i < size; i++)
+			order[i] = handles[i].intValue();
+		relink(order);
+		
+		// Segments emptied before the last shutdown can go away right now
+		while (segments.size() > 1 && segments.get(0).liveCount == 0)
+			segments.remove(0).delete();
+		
+		log.debug("["+baseName+"] Log store loaded : "+size+" entries in "+segments.size()+" segment(s)");
+	}
+	
+	private void replay( LogSegment segment , boolean lastSegment ) throws DataStoreException
+	{
+		long pos = 0;
+		try
+		{
+			long fileSize = segment.channel.size();
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file),65536));
+			try
+			{
+				byte[] data = new byte[4096];
+				while (pos + RECORD_HEADER_SIZE <= fileSize)
+				{
+					in.readFully(recordHeader);
+					recordHeaderView.clear();
+					byte type = recordHeaderView.get();
+					int handle = recordHeaderView.getInt();
+					long seq = recordHeaderView.getLong();
+					int count = recordHeaderView.get();
+					int length = recordHeaderView.getInt();
+					int expectedChecksum = recordHeaderView.getInt();
+					if (type < RECORD_STORE || type > RECORD_REDELIVERED || handle < 0 || length < 0 || 
+						pos + RECORD_HEADER_SIZE + length > fileSize)
+						break;
+					
+					if (length > data.length)
+						data = new byte[Math.max(length,data.length*2)];
+					in.readFully(data,0,length);
+					if (computeChecksum(data,length) != expectedChecksum)
+						break;
+					
+					switch (type)
+					{
+						case RECORD_STORE :
+							ensureCapacity(handle+1);
+							handleLimit = Math.max(handleLimit,handle+1);
+							if (entrySegment[handle] == -1)
+								size++;
+							else
+								releaseLocation(handle);
+							entrySeq[handle] = seq;
+							redeliveryCount[handle] = (byte)count;
+							setLocation(handle,segment,(int)pos,length);
+						break;
+						
+						case RECORD_DELETE :
+							if (handle < handleLimit && entrySegment[handle] != -1)
+							{
+								releaseLocation(handle);
+								entrySegment[handle] = -1;
+								redeliveryCount[handle] = 0;
+								size--;
+							}
+						break;
+						
+						case RECORD_REDELIVERED :
+							if (handle < handleLimit && entrySegment[handle] != -1)
+								redeliveryCount[handle] = (byte)count;
+						break;
+					}
+					
+					pos += RECORD_HEADER_SIZE + length;
+				}
+			}
+			finally
+			{
+				in.close();
+			}
+			
+			if (pos < fileSize)
+			{
+				// Only the tail of the last segment may be incomplete (interrupted write)
+				if (!lastSegment)
+					throw new DataStoreException("Corrupted log segment : "+segment.file.getAbsolutePath()+" (offset "+pos+")");
+				
+				log.warn("["+baseName+"] Truncating incomplete log segment "+segment.file.getName()+" at offset "+pos+" ("+(fileSize-pos)+" bytes discarded)");
+				segment.channel.truncate(pos);
+			}
+		}
+		catch (IOException e)
+		{
+			throw new DataStoreException("Cannot replay log segment : "+segment.file.getAbsolutePath(),e);
+		}
+		
+		segment.size = pos;
+		segment.flushedSize = pos;
+	}
+	
+	private int computeChecksum( byte[] data , int length )
+	{
+		checksum.reset();
+		checksum.update(recordHeader,0,RECORD_HEADER_SIZE-4);
+		if (length > 0)
+			checksum.update(data,0,length);
+		return (int)checksum.getValue();
+	}
+	
+	private void allocate( int capacity )
+	{
+		this.nextEntry = new int[capacity];
+		this.previousEntry = new int[capacity];
+		this.entrySegment = new int[capacity];
+		this.entryOffset = new int[capacity];
+		this.entrySize = new int[capacity];
+		this.entrySeq = new long[capacity];
+		this.redeliveryCount = new byte[capacity];
+		Arrays.fill(entrySegment,-1);
+		this.locks = new FastBitSet(capacity);
+	}
+	
+	private void ensureCapacity( int capacity )
+	{
+		int actualSize = entrySegment.length;
+		if (capacity <= actualSize)
+			return;
+		
+		int newSize = Math.max(capacity,actualSize*2);
+		nextEntry = Arrays.copyOf(nextEntry, newSize);
+		previousEntry = Arrays.copyOf(previousEntry, newSize);
+		entrySegment = Arrays.copyOf(entrySegment, newSize);
+		Arrays.fill(entrySegment, actualSize, newSize, -1);
+		entryOffset = Arrays.copyOf(entryOffset, newSize);
+		entrySize = Arrays.copyOf(entrySize, newSize);
+		entrySeq = Arrays.copyOf(entrySeq, newSize);
+		redeliveryCount = Arrays.copyOf(redeliveryCount, newSize);
+		locks.ensureCapacity(newSize);
+	}
+	
+	private void pushFreeHandle( int handle )
+	{
+		if (freeCount == freeHandles.length)
+			freeHandles = Arrays.copyOf(freeHandles, freeCount*2);
+		freeHandles[freeCount++] = handle;
+	}
+	
+	private int allocateHandle()
+	{
+		if (freeCount > 0)
+			return freeHandles[--freeCount];
+		
+		ensureCapacity(handleLimit+1);
+		return handleLimit++;
+	}
+	
+	/**
+	 * Re-arrange the linked list of entries
+	 * @param handles all the entry handles, in the desired order
+	 */
+	public void relink( int[] handles )
+	{
+		firstEntry = handles.length > 0 ? handles[0] : -1;
+		for (int i = 0; i < handles.length; i++)
+		{
+			previousEntry[handles[i]] = i > 0 ? handles[i-1] : -1;
+			nextEntry[handles[i]] = i < handles.length-1 ? handles[i+1] : -1;
+		}
+	}
+	
+	private LogSegment getSegment( int segmentId )
+	{
+		return segments.get(segmentId-segments.get(0).id);
+	}
+	
+	private void setLocation( int handle , LogSegment segment , int offset , int length )
+	{
+		entrySegment[handle] = segment.id;
+		entryOffset[handle] = offset;
+		entrySize[handle] = length;
+		segment.liveCount++;
+		segment.liveBytes += RECORD_HEADER_SIZE + length;
+		liveBytes += RECORD_HEADER_SIZE + length;
+	}
+	
+	private void releaseLocation( int handle )
+	{
+		LogSegment segment = getSegment(entrySegment[handle]);
+		segment.liveCount--;
+		segment.liveBytes -= RECORD_HEADER_SIZE + entrySize[handle];
+		liveBytes -= RECORD_HEADER_SIZE + entrySize[handle];
+	}
+	
+	//-------------------------------------------------------------------------------------
+	//     Log writing
+	//-------------------------------------------------------------------------------------
+	
+	/**
+	 * Append a record to the current segment
+	 * @return the record offset in the current segment
+	 */
+	private int appendRecord( byte type , int handle , long seq , int count , byte[] data , int length ) throws DataStoreException
+	{
+		if (failing)
+			throw new DataStoreException("["+baseName+"] Log store is failing");
+		
+		int recordSize = RECORD_HEADER_SIZE + length;
+		if (currentSegment.size > 0 && currentSegment.size + recordSize > maxSegmentSize)
+			rotateSegment();
+		
+		recordHeaderView.clear();
+		recordHeaderView.put(type);
+		recordHeaderView.putInt(handle);
+		recordHeaderView.putLong(seq);
+		recordHeaderView.put((byte)count);
+		recordHeaderView.putInt(length);
+		recordHeaderView.putInt(computeChecksum(data,length));
+		
+		int offset = (int)currentSegment.size;
+		write(recordHeader,RECORD_HEADER_SIZE);
+		if (length > 0)
+			write(data,length);
+		currentSegment.size += recordSize;
+		
+		return offset;
+	}
+	
+	private void write( byte[] data , int length ) throws DataStoreException
+	{
+		if (writeBufferPos + length > writeBuffer.length)
+		{
+			flushBuffer();
+			if (length > writeBuffer.length)
+			{
+				// Too large to be buffered
+				currentSegment.write(data,length);
+				return;
+			}
+		}
+		System.arraycopy(data, 0, writeBuffer, writeBufferPos, length);
+		writeBufferPos += length;
+	}
+	
+	private void flushBuffer() throws DataStoreException
+	{
+		if (writeBufferPos > 0)
+		{
+			currentSegment.write(writeBuffer,writeBufferPos);
+			writeBufferPos = 0;
+		}
+	}
+	
+	private void writeEntry( int handle , byte[] data ) throws DataStoreException
+	{
+		int offset = appendRecord(RECORD_STORE,handle,entrySeq[handle],redeliveryCount[handle],data,data.length);
+		
+		// Release the previous location, if any (the entry may have been relocated while appending)
+		if (entrySegment[handle] != -1)
+			releaseLocation(handle);
+		setLocation(handle,currentSegment,offset,data.length);
+	}
+	
+	private void rotateSegment() throws DataStoreException
+	{
+		// Make the previous segment durable before moving on
+		flushBuffer();
+		if (forceSync)
+			currentSegment.force(storageSyncMethod);
+		
+		LogSegment newSegment = new LogSegment(currentSegment.id+1,new File(folder,getSegmentFileName(currentSegment.id+1)));
+		segments.add(newSegment);
+		currentSegment = newSegment;
+		
+		if (!compacting)
+		{
+			compacting = true;
+			try
+			{
+				compactSegments();
+			}
+			finally
+			{
+				compacting = false;
+			}
+		}
+	}
+	
+	private void compactSegments() throws DataStoreException
+	{
+		while (segments.size() > 1)
+		{
+			LogSegment oldest = segments.get(0);
+			if (oldest.liveCount > 0)
+			{
+				if (oldest.liveBytes*COMPACTION_RATIO > oldest.size)
+					break;
+				
+				// Relocate the few remaining live entries to the current segment
+				if (log.isDebugEnabled())
+					log.debug("["+baseName+"] Relocating "+oldest.liveCount+" live entries of log segment "+oldest.file.getName());
+				for (int handle = 0; handle < handleLimit && oldest.liveCount > 0; handle++)
+					if (entrySegment[handle] == oldest.id)
+						writeEntry(handle,readData(handle,entrySize[handle]));
+			}
+			
+			dropOldestSegment();
+		}
+	}
+	
+	private void dropOldestSegments()
+	{
+		while (segments.size() > 1 && segments.get(0).liveCount == 0)
+			dropOldestSegment();
+	}
+	
+	private void dropOldestSegment()
+	{
+		// The segment file is only deleted once the records superseding its content are durable
+		obsoleteSegments.add(segments.remove(0));
+	}
+	
+	private byte[] readData( int handle , int length ) throws DataStoreException
+	{
+		LogSegment segment = getSegment(entrySegment[handle]);
+		long pos = entryOffset[handle] + RECORD_HEADER_SIZE;
+		byte[] data = new byte[length];
+		
+		if (segment == currentSegment && pos + length > segment.flushedSize)
+		{
+			if (pos >= segment.flushedSize)
+			{
+				// Still in the write buffer
+				System.arraycopy(writeBuffer, (int)(pos-segment.flushedSize), data, 0, length);
+				return data;
+			}
+			flushBuffer();
+		}
+		
+		segment.read(pos,data);
+		return data;
+	}
+	
+	//-------------------------------------------------------------------------------------
+	//     LinkedDataStore implementation
+	//-------------------------------------------------------------------------------------
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.data.impl.AbstractDataStore#checkHandle(int)
+	 */
+	@Override
+	protected void checkHandle( int handle ) throws DataStoreException
+	{
+		if (handle < 0 || handle >= handleLimit || entrySegment[handle] == -1)
+			throw new DataStoreException("["+baseName+"] Invalid handle : "+handle);
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.data.LinkedDataStore#first()
+	 */
+	@Override
+	public int first() throws DataStoreException
+	{
+		return firstEntry;
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.data.LinkedDataStore#next(int)
+	 */
+	@Override
+	public int next( int handle ) throws DataStoreException
+	{
+		if (SAFE_MODE) checkHandle(handle);
+		return nextEntry[handle];
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.data.LinkedDataStore#previous(int)
+	 */
+	@Override
+	public int previous( int handle ) throws DataStoreException
+	{
+		if (SAFE_MODE) checkHandle(handle);
+		return previousEntry[handle];
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.data.LinkedDataStore#store(java.lang.Object, int)
+	 */
+	@Override
+	public synchronized int store( Object obj , int previousHandle ) throws DataStoreException
+	{
+		byte[] data = (byte[])obj;
+		if (liveBytes + RECORD_HEADER_SIZE + data.length > maxLiveBytes)
+			return -1; // Store is full
+		
+		int nextHandle;
+		if (previousHandle != -1)
+		{
+			if (SAFE_MODE) checkHandle(previousHandle);
+			nextHandle = nextEntry[previousHandle];
+		}
+		else
+			nextHandle = firstEntry;
+		
+		int newHandle = allocateHandle();
+		entrySeq[newHandle] = nextSeq++;
+		redeliveryCount[newHandle] = 0;
+		try
+		{
+			writeEntry(newHandle,data);
+		}
+		catch (DataStoreException e)
+		{
+			pushFreeHandle(newHandle);
+			throw e;
+		}
+		
+		// Connect to list
+		previousEntry[newHandle] = previousHandle;
+		nextEntry[newHandle] = nextHandle;
+		if (previousHandle != -1)
+			nextEntry[previousHandle] = newHandle;
+		else
+			firstEntry = newHandle;
+		if (nextHandle != -1)
+			previousEntry[nextHandle] = newHandle;
+		
+		size++;
+		
+		return newHandle;
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.data.LinkedDataStore#replace(int, java.lang.Object)
+	 */
+	@Override
+	public synchronized int replace( int handle , Object obj ) throws DataStoreException
+	{
+		if (SAFE_MODE) checkHandle(handle);
+		
+		byte[] data = (byte[])obj;
+		if (liveBytes - entrySize[handle] + data.length > maxLiveBytes)
+			return -1; // Store is full
+		
+		writeEntry(handle,data);
+		
+		return handle;
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.data.LinkedDataStore#retrieve(int)
+	 */
+	@Override
+	public synchronized Object retrieve( int handle ) throws DataStoreException
+	{
+		if (SAFE_MODE) checkHandle(handle);
+		return readData(handle,entrySize[handle]);
+	}
+	
+	/**
+	 * Retrieve the first bytes of the data associated to a given handle
+	 */
+	public synchronized byte[] retrieveHeader( int handle , int length ) throws DataStoreException
+	{
+		if (SAFE_MODE) checkHandle(handle);
+		return readData(handle,Math.min(length,entrySize[handle]));
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.data.LinkedDataStore#delete(int)
+	 */
+	@Override
+	public synchronized int delete( int handle ) throws DataStoreException
+	{
+		if (SAFE_MODE) checkHandle(handle);
+		
+		appendRecord(RECORD_DELETE,handle,0,0,null,0);
+		
+		int previousHandle = previousEntry[handle];
+		int nextHandle = nextEntry[handle];
+		
+		// Reconnect list
+		if (previousHandle != -1)
+			nextEntry[previousHandle] = nextHandle;
+		if (nextHandle != -1)
+			previousEntry[nextHandle] = previousHandle;
+		if (firstEntry == handle)
+			firstEntry = nextHandle;
+		
+		// Clear entry
+		releaseLocation(handle);
+		entrySegment[handle] = -1;
+		previousEntry[handle] = -1;
+		nextEntry[handle] = -1;
+		redeliveryCount[handle] = 0;
+		locks.clear(handle);
+		pushFreeHandle(handle);
+		size--;
+		
+		dropOldestSegments();
+		
+		return previousHandle;
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.data.LinkedDataStore#getRedeliveryCount(int)
+	 */
+	@Override
+	public int getRedeliveryCount( int handle ) throws DataStoreException
+	{
+		if (SAFE_MODE) checkHandle(handle);
+		return redeliveryCount[handle];
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.data.LinkedDataStore#markRedelivered(int)
+	 */
+	@Override
+	public synchronized int markRedelivered( int handle ) throws DataStoreException
+	{
+		if (SAFE_MODE) checkHandle(handle);
+		
+		int count = redeliveryCount[handle];
+		if (count < MAX_REDELIVERY_COUNT)
+		{
+			count++;
+			appendRecord(RECORD_REDELIVERED,handle,0,count,null,0);
+			redeliveryCount[handle] = (byte)count;
+		}
+		
+		return count;
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.data.DataStore#size()
+	 */
+	@Override
+	public int size()
+	{
+		return size;
+	}
+	
+	/**
+	 * Get the number of segments currently in use
+	 */
+	public synchronized int getSegmentCount()
+	{
+		return segments.size();
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.data.DataStore#getStoreUsage()
+	 */
+	@Override
+	public synchronized int getStoreUsage()
+	{
+		long logSize = 0;
+		for (int i = 0; i < segments.size(); i++)
+			logSize += segments.get(i).size;
+		
+		return logSize > 0 ? (int)(liveBytes*100/logSize) : 0;
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.data.DataStore#getAbsoluteStoreUsage()
+	 */
+	@Override
+	public synchronized int getAbsoluteStoreUsage()
+	{
+		return maxLiveBytes > 0 ? (int)(liveBytes*100/maxLiveBytes) : 0;
+	}
+	
+	//-------------------------------------------------------------------------------------
+	//     Commit handling
+	//-------------------------------------------------------------------------------------
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.data.DataStore#commitChanges(net.timewalker.ffmq4.utils.concurrent.SynchronizationBarrier)
+	 */
+	@Override
+	public void commitChanges( SynchronizationBarrier barrier ) throws DataStoreException
+	{
+		if (asyncTaskManager == null)
+		{
+			commitChanges();
+			return;
+		}
+		
+		synchronized (this)
+		{
+			// Refuse any further operation in case of previous failure
+			if (failing)
+				throw new DataStoreException("["+baseName+"] Log store is failing");
+			
+			// Register as a barrier participant
+			if (barrier != null)
+			{
+				barrier.addParty();
+				pendingBarriers.add(barrier);
+			}
+			
+			// Commits requested while a sync is in progress are grouped into the next one
+			flushRequested = true;
+			if (!flushScheduled)
+			{
+				flushScheduled = true;
+				try
+				{
+					asyncTaskManager.execute(flushAsyncTask);
+				}
+				catch (JMSException e)
+				{
+					flushScheduled = false;
+					throw new DataStoreException("["+baseName+"] Cannot schedule log store flush",e);
+				}
+			}
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.data.DataStore#commitChanges()
+	 */
+	@Override
+	public synchronized void commitChanges() throws DataStoreException
+	{
+		if (failing)
+			throw new DataStoreException("["+baseName+"] Log store is failing");
+		
+		flushBuffer();
+		if (forceSync)
+			currentSegment.force(storageSyncMethod);
+		deleteSegments(obsoleteSegments);
+		obsoleteSegments.clear();
+	}
+	
+	/**
+	 * Write pending records and sync them to disk, then reach the barriers of the synced commits
+	 */
+	protected void flush()
+	{
+		while (true)
+		{
+			LogSegment segment;
+			List<SynchronizationBarrier> barriers;
+			List<LogSegment> segmentsToDelete;
+			synchronized (this)
+			{
+				if (!flushRequested || closed)
+				{
+					flushScheduled = false;
+					return;
+				}
+				flushRequested = false;
+				
+				try
+				{
+					flushBuffer();
+				}
+				catch (DataStoreException e)
+				{
+					notifyFailure(e);
+					return;
+				}
+				segment = currentSegment;
+				barriers = pendingBarriers;
+				pendingBarriers = new ArrayList<>();
+				segmentsToDelete = obsoleteSegments;
+				obsoleteSegments = new ArrayList<>();
+			}
+			
+			// Sync without holding the store lock, so that new records can be appended meanwhile
+			try
+			{
+				if (forceSync)
+					segment.force(storageSyncMethod);
+				deleteSegments(segmentsToDelete);
+			}
+			catch (DataStoreException e)
+			{
+				// The store may have been closed (and synced) concurrently
+				if (!closed)
+				{
+					notifyFailure(e);
+					return;
+				}
+			}
+			
+			for (int i = 0; i < barriers.size(); i++)
+				barriers.get(i).reach();
+		}
+	}
+	
+	private void deleteSegments( List<LogSegment> segmentsToDelete ) throws DataStoreException
+	{
+		for (int i = 0; i < segmentsToDelete.size(); i++)
+			segmentsToDelete.get(i).delete();
+	}
+	
+	private void notifyFailure( Exception e )
+	{
+		failing = true;
+		log.fatal("["+baseName+"] Data store failure",e);
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.data.DataStore#close()
+	 */
+	@Override
+	public synchronized void close()
+	{
+		if (closed)
+			return;
+		closed = true;
+		
+		try
+		{
+			if (!failing)
+			{
+				flushBuffer();
+				if (forceSync)
+					currentSegment.force(storageSyncMethod);
+				
+				for (int i = 0; i < pendingBarriers.size(); i++)
+					pendingBarriers.get(i).reach();
+				pendingBarriers.clear();
+				
+				deleteSegments(obsoleteSegments);
+				obsoleteSegments.clear();
+			}
+		}
+		catch (DataStoreException e)
+		{
+			log.error("["+baseName+"] Cannot close log store",e);
+		}
+		
+		for (int i = 0; i < segments.size(); i++)
+			segments.get(i).close();
+	}
+	
+	//-------------------------------------------------------------------------------------
+	//     Filesystem
+	//-------------------------------------------------------------------------------------
+	
+	private static String getSegmentFileName( int segmentId )
+	{
+		StringBuilder sb = new StringBuilder(8+SEGMENT_SUFFIX.length());
+		String hex = Integer.toHexString(segmentId);
+		for (int i = hex.length(); i < 8; i++)
+			sb.append('0');
+		sb.append(hex);
+		sb.append(SEGMENT_SUFFIX);
+		return sb.toString();
+	}
+	
+	private static int getSegmentId( File segmentFile )
+	{
+		String fileName = segmentFile.getName();
+		return (int)Long.parseLong(fileName.substring(0, fileName.length()-SEGMENT_SUFFIX.length()), 16);
+	}
+	
+	private static File[] findSegmentFiles( File folder )
+	{
+		File[] segmentFiles = folder.listFiles(new FileFilter() {
+			/*
+			 * (non-Javadoc)
+			 * @see java.io.FileFilter#accept(java.io.File)
+			 */
+			@Override
+			public boolean accept(File pathname)
+			{
+				return pathname.isFile() && pathname.getName().endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		
+		// Sort them in ascending order (fixed-length names)
+		Arrays.sort(segmentFiles, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2)
+			{
+				return f1.getName().compareTo(f2.getName());
+			}
+		});
+		
+		return segmentFiles;
+	}
+	
+	/**
+	 * Create the filesystem for a new store
+	 */
+	public static void create( String baseName , File dataFolder ) throws DataStoreException
+	{
+		File folder = new File(dataFolder,baseName+FOLDER_SUFFIX);
+		if (folder.exists())
+			throw new DataStoreException("Cannot create store filesystem : "+folder.getAbsolutePath()+" already exists");
+		if (!folder.mkdir())
+			throw new DataStoreException("Cannot create store folder : "+folder.getAbsolutePath());
+	}
+	
+	/**
+	 * Delete the filesystem of a store
+	 */
+	public static void delete( String baseName , File dataFolder ) throws DataStoreException
+	{
+		File folder = new File(dataFolder,baseName+FOLDER_SUFFIX);
+		if (!folder.exists())
+			return;
+		
+		File[] segmentFiles = findSegmentFiles(folder);
+		for (int i = 0; i < segmentFiles.length; i++)
+			if (!segmentFiles[i].delete())
+				throw new DataStoreException("Cannot delete file : "+segmentFiles[i].getAbsolutePath());
+		if (!folder.delete())
+			throw new DataStoreException("Cannot delete folder : "+folder.getAbsolutePath());
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString()
+	{
+		return "LogStructuredDataStore["+baseName+",size="+size+",segments="+segments.size()+",liveBytes="+liveBytes+"]";
+	}
+	
+	//-------------------------------------------------------------------------------------
+	//     Inner classes
+	//-------------------------------------------------------------------------------------
+	
+	/**
+	 * A log segment file
+	 */
+	private static final class LogSegment
+	{
+		// Attributes
+		protected final int id;
+		protected final File file;
+		protected final RandomAccessFile raf;
+		protected final FileChannel channel;
+		
+		// Runtime
+		protected long size;        // Appended bytes, including buffered ones
+		protected long flushedSize; // Bytes actually written to the file
+		protected int liveCount;
+		protected long liveBytes;
+		
+		/**
+		 * Constructor
+		 */
+		public LogSegment( int id , File file ) throws DataStoreException
+		{
+			this.id = id;
+			this.file = file;
+			try
+			{
+				this.raf = new RandomAccessFile(file,"rw");
+				this.channel = raf.getChannel();
+			}
+			catch (IOException e)
+			{
+				throw new DataStoreException("Cannot open log segment : "+file.getAbsolutePath(),e);
+			}
+		}
+		
+		public void write( byte[] data , int length ) throws DataStoreException
+		{
+			try
+			{
+				ByteBuffer buffer = ByteBuffer.wrap(data,0,length);
+				while (buffer.hasRemaining())
+					flushedSize += channel.write(buffer, flushedSize);
+			}
+			catch (IOException e)
+			{
+				throw new DataStoreException("Cannot write to log segment : "+file.getAbsolutePath(),e);
+			}
+		}
+		
+		public void read( long pos , byte[] data ) throws DataStoreException
+		{
+			try
+			{
+				ByteBuffer buffer = ByteBuffer.wrap(data);
+				while (buffer.hasRemaining())
+				{
+					int read = channel.read(buffer, pos+buffer.position());
+					if (read == -1)
+						throw new IOException("Unexpected end of file");
+				}
+			}
+			catch (IOException e)
+			{
+				throw new DataStoreException("Cannot read from log segment : "+file.getAbsolutePath(),e);
+			}
+		}
+		
+		public void force( int storageSyncMethod ) throws DataStoreException
+		{
+			try
+			{
+				switch (storageSyncMethod)
+				{
+					case StorageSyncMethod.FD_SYNC : raf.getFD().sync(); break;
+					case StorageSyncMethod.CHANNEL_FORCE_NO_META : channel.force(false); break;
+					default:
+						throw new DataStoreException("Unsupported sync method : "+storageSyncMethod);
+				}
+			}
+			catch (IOException e)
+			{
+				throw new DataStoreException("Cannot sync log segment : "+file.getAbsolutePath(),e);
+			}
+		}
+		
+		public void close()
+		{
+			try
+			{
+				raf.close();
+			}
+			catch (IOException e)
+			{
+				// Ignore
+			}
+		}
+		
+		public void delete() throws DataStoreException
+		{
+			close();
+			if (!file.delete())
+				throw new DataStoreException("Cannot delete log segment : "+file.getAbsolutePath());
+		}
+	}
+	
+	/**
+	 * Stub class to interface with the disk I/O asynchronous task manager
+	 */
+	private class FlushAsyncTask implements AsyncTask
+	{
+		/**
+		 * Constructor
+		 */
+		public FlushAsyncTask()
+		{
+			super();
+		}
+		
+		/* (non-Javadoc)
+		 * @see net.timewalker.ffmq4.utils.async.AsyncTask#execute()
+		 */
+		@Override
+		public void execute()
+		{
+			flush();
+		}
+		
+		/* (non-Javadoc)
+		 * @see net.timewalker.ffmq4.utils.async.AsyncTask#isMergeable()
+		 */
+		@Override
+		public boolean isMergeable()
+		{
+			return false;
+		}
+	}
+}
@@ -0,0 +1,287 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.timewalker.ffmq4.storage.data.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import net.timewalker.ffmq4.management.destination.AbstractDestinationDescriptor;
+import net.timewalker.ffmq4.storage.data.DataStoreException;
+import net.timewalker.ffmq4.utils.ByteBufferTools;
+import net.timewalker.ffmq4.utils.concurrent.SynchronizationBarrier;
+
+/**
+ * <p>Block-based data store accessing its allocation table and data files through memory mappings.</p>
+ * <p>Block reads and writes are plain memory copies into the OS page cache instead of one seek+read/write
+ * system call per block. Both files are mapped in fixed-size segments (so that stores larger than 2GB are supported)
+ * and only the last, partial segment is remapped when the store files are extended.
+ * Mappings are released explicitly when replaced or when the store is closed.</p>
+ */
+public final class MappedBlockBasedDataStore extends AbstractBlockBasedDataStore
+{
+	// Maximum size of a data file mapping segment
+	private static final int MAX_SEGMENT_SIZE = 1 << 30;
+	
+	// Number of allocation blocks per allocation table mapping segment
+	private static final int AT_BLOCKS_PER_SEGMENT = 64*1024;
+	
+	// Mappings
+	private MappedByteBuffer allocationTableHeader;
+	private MappedByteBuffer[] allocationTableSegments;
+	private MappedByteBuffer[] dataSegments;
+	private int blocksPerSegment;
+	
+	/**
+     * Constructor
+     */
+    public MappedBlockBasedDataStore( AbstractDestinationDescriptor descriptor )
+    {
+		super(descriptor);
+	}
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.impl.AbstractBlockBasedDataStore#initFilesystem()
+     */
+    @Override
+	protected void initFilesystem() throws DataStoreException
+    {
+        super.initFilesystem();
+        
+        // Integrity check (uses regular file I/O, so do it before mapping the files)
+        integrityCheck();
+        
+        try
+        {
+        	allocationTableRandomAccessFile.seek(AT_HEADER_BLOCKCOUNT_OFFSET);
+        	int fileBlockCount = allocationTableRandomAccessFile.readInt();
+        	int fileBlockSize = allocationTableRandomAccessFile.readInt();
+        	
+        	this.blocksPerSegment = Math.max(1,MAX_SEGMENT_SIZE/fileBlockSize);
+        	this.allocationTableSegments = new MappedByteBuffer[0];
+        	this.dataSegments = new MappedByteBuffer[0];
+        	mapFiles(fileBlockSize,fileBlockCount);
+        }
+        catch (IOException e)
+        {
+        	throw new DataStoreException("Cannot map store files : "+dataFile.getAbsolutePath(),e);
+        }
+    }
+    
+    private void mapFiles( int fileBlockSize , int fileBlockCount ) throws IOException
+    {
+    	FileChannel allocationTableChannel = allocationTableRandomAccessFile.getChannel();
+    	if (allocationTableHeader == null)
+    		allocationTableHeader = allocationTableChannel.map(FileChannel.MapMode.READ_WRITE, 0, AT_HEADER_SIZE);
+    	allocationTableSegments = mapSegments(allocationTableChannel, allocationTableSegments, AT_HEADER_SIZE, AT_BLOCK_SIZE, AT_BLOCKS_PER_SEGMENT, fileBlockCount);
+    	dataSegments = mapSegments(dataRandomAccessFile.getChannel(), dataSegments, 0, fileBlockSize, blocksPerSegment, fileBlockCount);
+    }
+    
+    /**
+     * Map a file as a list of fixed-size segments, only (re)mapping the last partial segment and the new ones
+     */
+    private static MappedByteBuffer[] mapSegments( FileChannel channel ,
+    		                                       MappedByteBuffer[] segments ,
+    		                                       long baseOffset ,
+    		                                       int entrySize ,
+    		                                       int entriesPerSegment ,
+    		                                       int entryCount ) throws IOException
+    {
+    	long fullSegmentSize = (long)entriesPerSegment*entrySize;
+    	int segmentCount = (entryCount+entriesPerSegment-1)/entriesPerSegment;
+    	int firstSegmentToMap = segments.length;
+    	if (firstSegmentToMap > 0 && segments[firstSegmentToMap-1].capacity() < fullSegmentSize)
+    		firstSegmentToMap--;
+    	if (firstSegmentToMap >= segmentCount)
+    		return segments;
+    	
+    	MappedByteBuffer[] newSegments = new MappedByteBuffer[segmentCount];
+    	System.arraycopy(segments, 0, newSegments, 0, firstSegmentToMap);
+    	for (int n = firstSegmentToMap ; n < segmentCount ; n++)
+    	{
+    		int segmentEntries = Math.min(entriesPerSegment,entryCount-n*entriesPerSegment);
+    		newSegments[n] = channel.map(FileChannel.MapMode.READ_WRITE, baseOffset+n*fullSegmentSize, (long)segmentEntries*entrySize);
+    	}
+    	
+    	// Release the replaced partial segment
+    	if (firstSegmentToMap < segments.length)
+    		ByteBufferTools.release(segments[firstSegmentToMap]);
+    	
+    	return newSegments;
+    }
+    
+    /*
+	 * (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.data.impl.AbstractBlockBasedDataStore#writeFirstBlock()
+	 */
+    @Override
+	protected void writeFirstBlock() throws DataStoreException
+    {
+    	allocationTableHeader.putInt(AT_HEADER_FIRSTBLOCK_OFFSET, firstBlock);
+    }
+    
+    /*
+     * (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.impl.AbstractBlockBasedDataStore#writeAllocationBlock(int)
+     */
+    @Override
+	protected void writeAllocationBlock( int blockIndex ) throws DataStoreException
+    {
+    	MappedByteBuffer segment = allocationTableSegments[blockIndex/AT_BLOCKS_PER_SEGMENT];
+    	int offset = (blockIndex%AT_BLOCKS_PER_SEGMENT)*AT_BLOCK_SIZE;
+    	segment.put(offset+AB_FLAGS_OFFSET, flags[blockIndex]);
+    	segment.putInt(offset+AB_ALLOCSIZE_OFFSET, allocatedSize[blockIndex]);
+    	segment.putInt(offset+AB_PREVBLOCK_OFFSET, previousBlock[blockIndex]);
+    	segment.putInt(offset+AB_NEXTBLOCK_OFFSET, nextBlock[blockIndex]);
+    }
+    
+    /*
+     * (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.impl.AbstractBlockBasedDataStore#writeDataBlock(byte[], int, int, int)
+     */
+    @Override
+	protected void writeDataBlock(byte[] data, int offset, int len, int blockHandle) throws DataStoreException
+    {
+    	// Use a private view so that the shared mapping position is never modified
+    	ByteBuffer segment = dataSegments[blockHandle/blocksPerSegment].duplicate();
+    	segment.position((blockHandle%blocksPerSegment)*blockSize);
+    	segment.put(data,offset,len);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.impl.AbstractBlockBasedDataStore#writeDataBlocks(byte[], int, int, int, int)
+     */
+    @Override
+	protected void writeDataBlocks(byte[] data, int offset, int len, int firstBlockHandle, int blocks) throws DataStoreException
+    {
+    	// Contiguous blocks within the same segment can be copied at once
+    	if (firstBlockHandle/blocksPerSegment == (firstBlockHandle+blocks-1)/blocksPerSegment)
+    		writeDataBlock(data,offset,len,firstBlockHandle);
+    	else
+    		super.writeDataBlocks(data, offset, len, firstBlockHandle, blocks);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.impl.AbstractBlockBasedDataStore#readDataBlock(byte[], int, int, int)
+     */
+    @Override
+	protected void readDataBlock(byte[] data, int offset, int len, int blockHandle) throws DataStoreException
+    {
+    	// Use a private view so that the shared mapping position is never modified
+    	ByteBuffer segment = dataSegments[blockHandle/blocksPerSegment].duplicate();
+    	segment.position((blockHandle%blocksPerSegment)*blockSize);
+    	segment.get(data,offset,len);
+    }
+    
+    /*
+     * (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.impl.AbstractBlockBasedDataStore#readDataBlocks(byte[], int, int, int, int)
+     */
+    @Override
+	protected void readDataBlocks(byte[] data, int offset, int len, int firstBlockHandle, int blocks) throws DataStoreException
+    {
+    	// Contiguous blocks within the same segment can be copied at once
+    	if (firstBlockHandle/blocksPerSegment == (firstBlockHandle+blocks-1)/blocksPerSegment)
+    		readDataBlock(data,offset,len,firstBlockHandle);
+    	else
+    		super.readDataBlocks(data, offset, len, firstBlockHandle, blocks);
+    }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.impl.AbstractBlockBasedDataStore#extendStoreFiles(int, int)
+     */
+    @Override
+	protected void extendStoreFiles(int oldBlockCount, int newBlockCount) throws DataStoreException
+    {
+        try
+        {
+        	// Grow files, then mappings
+            allocationTableRandomAccessFile.setLength(AT_HEADER_SIZE+(long)newBlockCount*AT_BLOCK_SIZE);
+            dataRandomAccessFile.setLength((long)blockSize*newBlockCount);
+            mapFiles(blockSize,newBlockCount);
+            
+            // Update allocation table
+            for (int n = oldBlockCount ; n < newBlockCount ; n++)
+                writeAllocationBlock(n);
+            allocationTableHeader.putInt(AT_HEADER_BLOCKCOUNT_OFFSET, newBlockCount);
+        }
+        catch (IOException e)
+        {
+            throw new DataStoreException("Could not extends store to "+newBlockCount+" blocks : "+dataFile.getAbsolutePath(),e);
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.DataStore#commitChanges()
+     */
+    @Override
+	public void commitChanges() throws DataStoreException
+    {
+    	// Ignore
+    }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.DataStore#commitChanges(net.timewalker.ffmq4.utils.concurrent.SynchronizationBarrier)
+     */
+    @Override
+	public void commitChanges(SynchronizationBarrier barrier) throws DataStoreException
+    {
+    	// Ignore
+    }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.impl.AbstractBlockBasedDataStore#flush()
+     */
+    @Override
+	protected void flush() throws DataStoreException
+    {
+    	// Nothing to do, dirty pages are written back by the OS
+    }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.impl.AbstractBlockBasedDataStore#close()
+     */
+    @Override
+	public void close()
+    {
+    	// Release mappings right away, so that the store files can be deleted or reopened
+    	if (allocationTableHeader != null)
+    	{
+    		ByteBufferTools.release(allocationTableHeader);
+    		allocationTableHeader = null;
+    	}
+    	if (allocationTableSegments != null)
+    	{
+    		for (int n = 0 ; n < allocationTableSegments.length ; n++)
+    			ByteBufferTools.release(allocationTableSegments[n]);
+    		allocationTableSegments = null;
+    	}
+    	if (dataSegments != null)
+    	{
+    		for (int n = 0 ; n < dataSegments.length ; n++)
+    			ByteBufferTools.release(dataSegments[n]);
+    		dataSegments = null;
+    	}
+    	
+    	super.close();
+    }
+}
@@ -0,0 +1,561 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.storage.data.impl;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import net.timewalker.ffmq4.storage.data.DataStoreException;
+import net.timewalker.ffmq4.utils.FastBitSet;
+import net.timewalker.ffmq4.utils.concurrent.SynchronizationBarrier;
+
+/**
+ * <p>Volatile linked data store keeping raw data outside of the java heap.</p>
+ * <p>Data is appended to fixed size direct buffer slabs and the allocation table only uses primitive arrays,
+ * so the garbage collector never has to trace stored entries. A slab is released as soon as all the entries
+ * it contains are deleted, which is the normal case for a draining FIFO queue. The allocation table
+ * itself is shrunk back to its initial size whenever the store becomes empty.</p>
+ * <p>Only byte arrays can be stored, retrieved data is always a copy.</p>
+ */
+public final class OffHeapLinkedDataStore extends AbstractDataStore
+{
+	// Number of released slabs kept for reuse
+	private static final int MAX_SPARE_SLABS = 2;
+	
+    // Setup
+	private String name;
+	private int initialSize;
+    private int maxSize;
+    private int slabSize;
+    
+    // Allocation table
+    private int[] nextEntry;
+    private int[] previousEntry;
+    private int[] entrySlab;
+    private int[] entryOffset;
+    private int[] entryLength;
+    private byte[] redeliveryCount;
+    private int firstEntry;
+    private int[] freeHandles;
+    private int freeHandlesCount;
+    private int allocatedHandles;
+    
+    // Slabs
+    private ByteBuffer[] slabs = new ByteBuffer[4];
+    private int[] slabLiveEntries = new int[4];
+    private int currentSlab = -1;
+    private ByteBuffer[] spareSlabs = new ByteBuffer[MAX_SPARE_SLABS];
+    private int spareSlabsCount;
+    
+    // Runtime
+    private int size;
+    private long dataSize;
+    private long offHeapSize;
+    
+    /**
+     * Constructor
+     * @param slabSize size of each off-heap memory slab (bytes)
+     */
+    public OffHeapLinkedDataStore( String name , int initialSize , int maxSize , int slabSize )
+    {
+    	this.name = name;
+    	this.initialSize = initialSize;
+        this.maxSize = maxSize;
+        this.slabSize = slabSize;
+        initAllocationTable(initialSize);
+    }
+    
+    private void initAllocationTable( int tableSize )
+    {
+        this.nextEntry = new int[tableSize];
+        this.previousEntry = new int[tableSize];
+        this.entrySlab = new int[tableSize];
+        this.entryOffset = new int[tableSize];
+        this.entryLength = new int[tableSize];
+        this.redeliveryCount = new byte[tableSize];
+        this.freeHandles = new int[tableSize];
+        this.freeHandlesCount = 0;
+        this.allocatedHandles = 0;
+        this.firstEntry = -1;
+        this.locks = new FastBitSet(tableSize);
+        Arrays.fill(entrySlab, -1);
+    }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.LinkedDataStore#init()
+     */
+    @Override
+	public void init() throws DataStoreException
+    {
+    	// Nothing
+    }
+    
+    private boolean reallocate() throws DataStoreException
+    {
+        int actualSize = nextEntry.length;
+        if (actualSize >= maxSize)
+            return false; // Store is full
+        
+        int newSize = (int)Math.min((long)actualSize * 2,maxSize);
+        try
+        {
+        	this.nextEntry = Arrays.copyOf(nextEntry, newSize);
+        	this.previousEntry = Arrays.copyOf(previousEntry, newSize);
+        	this.entrySlab = Arrays.copyOf(entrySlab, newSize);
+        	Arrays.fill(entrySlab, actualSize, newSize, -1);
+        	this.entryOffset = Arrays.copyOf(entryOffset, newSize);
+        	this.entryLength = Arrays.copyOf(entryLength, newSize);
+        	this.redeliveryCount = Arrays.copyOf(redeliveryCount, newSize);
+        	this.freeHandles = Arrays.copyOf(freeHandles, newSize);
+            this.locks.ensureCapacity(newSize);
+        }
+        catch (OutOfMemoryError e)
+        {
+            throw new DataStoreException("["+name+"] Cannot extend off-heap datastore to "+newSize);
+        }
+        
+        return true;
+    }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.impl.AbstractDataStore#checkHandle(int)
+     */
+    @Override
+	protected void checkHandle(int handle) throws DataStoreException
+    {
+        if (handle < 0 ||
+            handle >= entrySlab.length ||
+            entrySlab[handle] == -1)
+            throw new DataStoreException(name+" : Invalid handle : "+handle);
+    }
+    
+    private int allocateHandle() throws DataStoreException
+    {
+    	if (freeHandlesCount > 0)
+    		return freeHandles[--freeHandlesCount];
+    	if (allocatedHandles == nextEntry.length && !reallocate())
+    		return -1;
+    	return allocatedHandles++;
+    }
+    
+    //-------------------------------------------------------------------
+    // Slabs management
+    //-------------------------------------------------------------------
+    
+    private int newSlab( int minSize ) throws DataStoreException
+    {
+    	ByteBuffer buffer;
+    	if (minSize <= slabSize && spareSlabsCount > 0)
+    	{
+    		buffer = spareSlabs[--spareSlabsCount];
+    		spareSlabs[spareSlabsCount] = null;
+    		buffer.clear();
+    	}
+    	else
+    	{
+    		int bufferSize = Math.max(minSize, slabSize);
+    		try
+    		{
+    			buffer = ByteBuffer.allocateDirect(bufferSize);
+    		}
+    		catch (OutOfMemoryError e)
+    		{
+    			throw new DataStoreException("["+name+"] Cannot allocate off-heap memory ("+bufferSize+" bytes) : "+e.getMessage());
+    		}
+    		offHeapSize += bufferSize;
+    	}
+    	
+    	// Find a free slab slot
+    	int slab = -1;
+    	for (int n = 0 ; n < slabs.length ; n++)
+    		if (slabs[n] == null)
+    		{
+    			slab = n;
+    			break;
+    		}
+    	if (slab == -1)
+    	{
+    		slab = slabs.length;
+    		slabs = Arrays.copyOf(slabs, slabs.length*2);
+    		slabLiveEntries = Arrays.copyOf(slabLiveEntries, slabLiveEntries.length*2);
+    	}
+    	slabs[slab] = buffer;
+    	slabLiveEntries[slab] = 0;
+    	return slab;
+    }
+    
+    private void releaseSlab( int slab )
+    {
+    	ByteBuffer buffer = slabs[slab];
+    	slabs[slab] = null;
+    	if (slab == currentSlab)
+    		currentSlab = -1;
+    	
+    	// Keep a few regular slabs around to avoid allocation churn, direct memory is reclaimed by the GC otherwise
+    	if (buffer.capacity() == slabSize && spareSlabsCount < MAX_SPARE_SLABS)
+    		spareSlabs[spareSlabsCount++] = buffer;
+    	else
+    		offHeapSize -= buffer.capacity();
+    }
+    
+    private void writeEntry( int handle , byte[] data ) throws DataStoreException
+    {
+    	ByteBuffer buffer = currentSlab != -1 ? slabs[currentSlab] : null;
+    	int slab;
+    	if (data.length > slabSize)
+    		slab = newSlab(data.length); // Dedicated slab
+    	else
+    	{
+    		if (buffer == null || buffer.remaining() < data.length)
+    		{
+    			// Current slab is full, release it right away if already drained
+    			if (currentSlab != -1 && slabLiveEntries[currentSlab] == 0)
+    				releaseSlab(currentSlab);
+    			currentSlab = newSlab(data.length);
+    		}
+    		slab = currentSlab;
+    	}
+    	
+    	buffer = slabs[slab];
+    	entrySlab[handle] = slab;
+    	entryOffset[handle] = buffer.position();
+    	entryLength[handle] = data.length;
+    	buffer.put(data);
+    	slabLiveEntries[slab]++;
+    	dataSize += data.length;
+    }
+    
+    private void freeEntry( int handle )
+    {
+    	int slab = entrySlab[handle];
+    	entrySlab[handle] = -1;
+    	dataSize -= entryLength[handle];
+    	if (--slabLiveEntries[slab] == 0 && slab != currentSlab)
+    		releaseSlab(slab);
+    }
+    
+    //-------------------------------------------------------------------
+    
+    /*
+     * (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.LinkedDataStore#retrieve(int)
+     */
+    @Override
+	public Object retrieve(int handle) throws DataStoreException
+    {
+        if (SAFE_MODE) checkHandle(handle);
+        
+        byte[] data = new byte[entryLength[handle]];
+        ByteBuffer buffer = slabs[entrySlab[handle]].duplicate();
+        buffer.position(entryOffset[handle]);
+        buffer.get(data);
+        return data;
+    }
+
+    /**
+     * Read a single byte of the data stored under the given handle, without copying the whole entry
+     */
+    public byte retrieveByte( int handle , int index ) throws DataStoreException
+    {
+    	if (SAFE_MODE) checkHandle(handle);
+    	if (index >= entryLength[handle])
+    		throw new DataStoreException(name+" : Invalid index "+index+" for handle "+handle);
+    	
+    	return slabs[entrySlab[handle]].get(entryOffset[handle]+index);
+    }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.LinkedDataStore#replace(int, java.lang.Object)
+     */
+    @Override
+	public int replace(int handle, Object obj) throws DataStoreException
+    {
+        if (SAFE_MODE) checkHandle(handle);
+        
+        // Write the new content first so that the current slab is not released in between
+        int oldSlab = entrySlab[handle];
+        int oldLength = entryLength[handle];
+        writeEntry(handle, (byte[])obj);
+        dataSize -= oldLength;
+        if (--slabLiveEntries[oldSlab] == 0 && oldSlab != currentSlab)
+    		releaseSlab(oldSlab);
+    	return handle;
+    }
+    
+    /*
+     * (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.LinkedDataStore#store(java.lang.Object, int)
+     */
+    @Override
+	public int store(Object obj, int previousHandle) throws DataStoreException
+    {
+        int nextHandle;
+        if (previousHandle != -1)
+        {
+            if (SAFE_MODE) checkHandle(previousHandle);
+            nextHandle = nextEntry[previousHandle];
+        }
+        else
+            nextHandle = firstEntry;
+        
+        int newHandle = allocateHandle();
+        if (newHandle == -1)
+        	return -1; // Store is full
+        
+        // Store data
+        try
+        {
+        	writeEntry(newHandle, (byte[])obj);
+        }
+        catch (DataStoreException e)
+        {
+        	freeHandles[freeHandlesCount++] = newHandle;
+        	throw e;
+        }
+        previousEntry[newHandle] = previousHandle;
+        nextEntry[newHandle] = nextHandle;
+        redeliveryCount[newHandle] = 0;
+        
+        // Connect to list
+        if (previousHandle != -1)
+            nextEntry[previousHandle] = newHandle;
+        if (nextHandle != -1)
+            previousEntry[nextHandle] = newHandle;
+        
+        // Update first entry if necessary
+        if (previousHandle == -1)
+            firstEntry = newHandle;
+        
+        size++;
+        
+        return newHandle;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.LinkedDataStore#delete(int)
+     */
+    @Override
+	public int delete(int handle) throws DataStoreException
+    {
+        if (SAFE_MODE) checkHandle(handle);
+        
+        int previousHandle = previousEntry[handle];
+        int nextHandle = nextEntry[handle];
+        
+        // Reconnect list
+        if (previousHandle != -1)
+            nextEntry[previousHandle] = nextHandle;
+        if (nextHandle != -1)
+            previousEntry[nextHandle] = previousHandle;
+ 
+        // Clear data
+        freeEntry(handle);
+        previousEntry[handle] = -1;
+        nextEntry[handle] = -1;
+        redeliveryCount[handle] = 0;
+        locks.clear(handle);
+        freeHandles[freeHandlesCount++] = handle;
+        
+        if (firstEntry == handle)
+            firstEntry = nextHandle;
+        
+        size--;
+        
+        // Give memory back once drained
+        if (size == 0)
+        {
+        	if (currentSlab != -1)
+        		releaseSlab(currentSlab);
+        	if (nextEntry.length > initialSize)
+        		initAllocationTable(initialSize);
+        }
+        
+        return previousHandle;
+    }
+
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.LinkedDataStore#getRedeliveryCount(int)
+     */
+    @Override
+	public int getRedeliveryCount(int handle) throws DataStoreException
+    {
+        if (SAFE_MODE) checkHandle(handle);
+        return redeliveryCount[handle];
+    }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.LinkedDataStore#markRedelivered(int)
+     */
+    @Override
+	public int markRedelivered(int handle) throws DataStoreException
+    {
+        if (SAFE_MODE) checkHandle(handle);
+        if (redeliveryCount[handle] < MAX_REDELIVERY_COUNT)
+        	redeliveryCount[handle]++;
+        return redeliveryCount[handle];
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.LinkedDataStore#first()
+     */
+    @Override
+	public int first() throws DataStoreException
+    {
+        return firstEntry;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.LinkedDataStore#next(int)
+     */
+    @Override
+	public int next(int handle) throws DataStoreException
+    {
+        if (SAFE_MODE) checkHandle(handle);
+        return nextEntry[handle];
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.LinkedDataStore#previous(int)
+     */
+    @Override
+	public int previous(int handle) throws DataStoreException
+    {
+        if (SAFE_MODE) checkHandle(handle);
+        return previousEntry[handle];
+    }
+	
+	/*
+     * (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.DataStore#size()
+     */
+    @Override
+	public int size()
+    {
+        return size;
+    }
+    
+    /**
+     * Get the amount of stored data (bytes)
+     */
+    public long getDataSize()
+    {
+    	return dataSize;
+    }
+    
+    /**
+     * Get the amount of off-heap memory currently allocated by this store, including spare slabs (bytes)
+     */
+    public long getOffHeapSize()
+    {
+    	return offHeapSize;
+    }
+
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.DataStore#commitChanges(net.timewalker.ffmq4.utils.concurrent.SynchronizationBarrier)
+     */
+    @Override
+	public void commitChanges(SynchronizationBarrier barrier) throws DataStoreException
+    {
+    	// Nothing to do
+    }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.DataStore#commitChanges()
+     */
+    @Override
+	public void commitChanges() throws DataStoreException
+    {
+    	// Nothing to do
+    }
+    
+    /*
+     * (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.DataStore#close()
+     */
+    @Override
+	public void close()
+    {
+    	// Drop all buffers, direct memory is reclaimed by the GC
+    	Arrays.fill(slabs, null);
+    	Arrays.fill(spareSlabs, null);
+    	spareSlabsCount = 0;
+    	currentSlab = -1;
+    	offHeapSize = 0;
+    }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.DataStore#getStoreUsage()
+     */
+    @Override
+	public int getStoreUsage()
+    {
+    	long ratio = maxSize > 0 ? (long)size*100/maxSize : 0;
+    	return (int)ratio;
+    }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.DataStore#getAbsoluteStoreUsage()
+     */
+    @Override
+    public int getAbsoluteStoreUsage() 
+    {
+    	return getStoreUsage();
+    }
+    
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+	public String toString()
+    {
+    	StringBuilder sb = new StringBuilder();
+        
+        sb.append("Allocation Table (size="+size+", dataSize="+dataSize+", offHeapSize="+offHeapSize+")\n");
+        sb.append("------------------------------------\n");
+        sb.append("first entry index : ");
+        sb.append(firstEntry);
+        sb.append("\n");
+        for (int n = 0 ; n < allocatedHandles ; n++)
+        {
+            sb.append(n);
+            sb.append(": ");
+            if (entrySlab[n] == -1)
+                sb.append("(free)\n");
+            else
+            {
+                sb.append(previousEntry[n]);
+                sb.append("\t");
+                sb.append(nextEntry[n]);
+                sb.append("\t");
+                sb.append(entrySlab[n]);
+                sb.append(":");
+                sb.append(entryOffset[n]);
+                sb.append("/");
+                sb.append(entryLength[n]);
+                sb.append("\n");
+            }
+        }
+        sb.append("------------------------------------\n");
+        
+        return sb.toString();
+    }
+}
@@ -27,6 +27,7 @@ public abstract class AbstractJournalOperation
     public static final byte TYPE_META_DATA_BLOCK_WRITE = 3;
     public static final byte TYPE_STORE_EXTEND          = 4;
     public static final byte TYPE_COMMIT                = 5;
+    public static final byte TYPE_STORE_HEADER          = 6;
     
     // Attributes
     private long transactionId;
@@ -51,6 +52,14 @@ public abstract class AbstractJournalOperation
 	{
 		return transactionId;
 	}
+	
+	/**
+	 * @param transactionId the transactionId to set
+	 */
+	protected void setTransactionId(long transactionId)
+	{
+		this.transactionId = transactionId;
+	}
     
     /**
      * @return the type
@@ -29,6 +29,7 @@ import javax.jms.JMSException;
 import net.timewalker.ffmq4.storage.StorageSyncMethod;
 import net.timewalker.ffmq4.storage.data.DataStoreException;
 import net.timewalker.ffmq4.storage.data.impl.AbstractBlockBasedDataStore;
+import net.timewalker.ffmq4.utils.Histogram;
 import net.timewalker.ffmq4.utils.async.AsyncTask;
 import net.timewalker.ffmq4.utils.async.AsyncTaskManager;
 import net.timewalker.ffmq4.utils.concurrent.SynchronizationBarrier;
@@ -65,6 +66,13 @@ public final class BlockBasedDataStoreJournal
     private int journalOutputBuffer;
     private int storageSyncMethod;
     private boolean preAllocateFiles;
+    private long groupCommitMaxDelay; // nanoseconds, 0 if disabled
+    
+    // Shared journal mode
+    private SharedJournal sharedJournal;
+    private File storeFolder;
+    private long firstUnsyncedTransactionId = Long.MAX_VALUE; // same synchronization scope as storeWriteQueue
+    private boolean storeSyncRequested; // same synchronization scope as storeWriteQueue
     
     // Journal files management
     private LinkedList<JournalFile> journalFiles = new LinkedList<>();
@@ -82,6 +90,17 @@ public final class BlockBasedDataStoreJournal
     private int writtenJournalOperations;
     private boolean flushingJournal;
     
+    // Adaptive group commit (same synchronization scope as journalWriteQueue)
+    private int queuedCommits;
+    private long lastCommitTime;
+    private long avgCommitInterval = -1; // nanoseconds, -1 if unknown
+    private boolean waitingForCommits;
+    private int commitBatchTarget = 1; // Recently observed number of commits per sync
+    
+    // Statistics
+    private Histogram commitBatchSizes = new Histogram("");
+    private Histogram syncLatencies = new Histogram("us");
+    
     // Store write queues
     private JournalQueue storeWriteQueue = new JournalQueue();
     private JournalQueue storeProcessingQueue = new JournalQueue();
@@ -133,6 +152,66 @@ public final class BlockBasedDataStoreJournal
         this.traceEnabled = log.isTraceEnabled();
     }
     
+    /**
+     * Enable adaptive group commit : when the recent commit rate suggests that more commits
+     * are coming, the journal flusher waits up to the given delay before syncing, so that
+     * more transactions share the same sync.
+     * @param maxDelay the maximum delay to wait for more commits (in microseconds), 0 to disable
+     */
+    public void setGroupCommitMaxDelay( int maxDelay )
+    {
+    	this.groupCommitMaxDelay = maxDelay*1000L;
+    }
+    
+    /**
+     * Get the histogram of the number of commits per journal sync
+     * @return the histogram of the number of commits per journal sync
+     */
+    public Histogram getCommitBatchSizes()
+    {
+		return commitBatchSizes;
+	}
+    
+    /**
+     * Get the histogram of journal sync latencies (in microseconds)
+     * @return the histogram of journal sync latencies
+     */
+    public Histogram getSyncLatencies()
+    {
+		return syncLatencies;
+	}
+    
+    /**
+     * Attach this store journal to an engine-wide shared journal.
+     * Committed transactions are then appended to the shared journal instead of local journal files.
+     * @param sharedJournal the shared journal
+     * @param storeFolder the folder containing the store files (used for recovery)
+     */
+    public void attachTo( SharedJournal sharedJournal , File storeFolder )
+    {
+    	this.sharedJournal = sharedJournal;
+    	this.storeFolder = storeFolder;
+    	sharedJournal.register(this);
+    }
+    
+    /**
+     * Get the store base name
+     * @return the store base name
+     */
+    public String getBaseName()
+    {
+		return baseName;
+	}
+    
+    /**
+     * Get the folder containing the store files
+     * @return the folder containing the store files
+     */
+    public File getStoreFolder()
+    {
+		return storeFolder;
+	}
+    
     private JournalFile createNewJournalFile() throws JournalException
     {	
     	// Look for a recycled file first
@@ -278,6 +357,10 @@ public final class BlockBasedDataStoreJournal
     	if (failing)
     		throw new JournalException("Store journal is failing");
     	
+    	// Shared mode : operations are retained until commit
+    	if (sharedJournal != null)
+    		return;
+    	
     	boolean newFlushRequired = false;
     	synchronized (journalWriteQueue)
         {
@@ -316,6 +399,12 @@ public final class BlockBasedDataStoreJournal
     	// Register as a barrier participant
     	if (barrier != null)
     		barrier.addParty();
+    	
+    	if (sharedJournal != null)
+    	{
+    		commitShared(barrier);
+    		return;
+    	}
         
         boolean newFlushRequired;
         synchronized (journalWriteQueue)
@@ -342,6 +431,110 @@ public final class BlockBasedDataStoreJournal
         }
     }
     
+    private void commitShared( SynchronizationBarrier barrier ) throws JournalException
+    {
+    	synchronized (journalWriteQueue)
+        {
+    		if (traceEnabled)
+        		log.trace("["+baseName+"] #"+currentTransactionId+" Queueing shared transaction commit -------------------");
+    		
+    		// Move transaction operations to a separate queue, dropping superseeded metadata writes
+    		JournalQueue operations = new JournalQueue();
+    		int prunedOperations = 0;
+    		while (journalWriteQueue.size() > 0)
+    		{
+    			AbstractJournalOperation op = journalWriteQueue.getFirst();
+    			if (op instanceof AbstractMetaDataWriteOperation &&
+    				isMetaDataSuperseeded((AbstractMetaDataWriteOperation)op))
+    			{
+    				journalWriteQueue.removeFirst();
+    				prunedOperations++;
+    				continue;
+    			}
+    			operations.addLast(journalWriteQueue.removeFirst());
+    		}
+    		
+    		CommitOperation commitOp = new CommitOperation(currentTransactionId,operations.size(),barrier);
+    		totalPendingOperations += 1 - prunedOperations;
+    		sharedJournal.commit(this, operations, commitOp);
+    		
+    		// Move to next transaction
+            currentTransactionId++;
+        	unflushedJournalSize = 0;
+        }
+    }
+    
+    /**
+     * Called by the shared journal when an operation of this store was written
+     */
+    protected void onSharedJournalWrite( AbstractJournalOperation op )
+    {
+    	// Retain operations until next commit
+    	uncommittedJournalQueue.addLast(op);
+    }
+    
+    /**
+     * Called by the shared journal when some transactions of this store were synced
+     */
+    protected void onSharedJournalCommit( int commitCount ) throws JournalException
+    {
+    	onJournalCommit();
+    	
+    	synchronized (journalWriteQueue)
+        {
+        	totalPendingOperations -= commitCount;
+        	if (closing && totalPendingOperations == 0)
+        	    journalWriteQueue.notifyAll();
+        }
+    }
+    
+    /**
+     * Called by the shared journal in case of failure
+     */
+    protected void onSharedJournalFailure( Exception e )
+    {
+    	notifyFailure(e);
+    }
+    
+    /**
+     * Get the (shared journal) id of the oldest transaction not yet synced to the store files
+     * @return a transaction id or Long.MAX_VALUE if all transactions were synced
+     */
+    protected long getFirstUnsyncedTransactionId()
+    {
+    	synchronized (storeWriteQueue)
+		{
+    		return firstUnsyncedTransactionId;
+		}
+    }
+    
+    /**
+     * Ask for an asynchronous sync of the store files, so that the shared journal can recycle its files
+     */
+    protected void requestStoreSync() throws JournalException
+    {
+    	boolean newFlushRequired;
+    	synchronized (storeWriteQueue)
+        {
+    		storeSyncRequested = true;
+    		newFlushRequired = !flushingStore;
+    		if (newFlushRequired)
+            	flushingStore = true;
+        }
+    	
+    	if (newFlushRequired)
+        {
+	        try
+	        {
+	        	asyncTaskManager.execute(flushStoreAsyncTask);
+	        }
+	    	catch (JMSException e)
+	    	{
+	    		throw new JournalException("Cannot flush store asynchronously : "+e);
+	    	}
+        }
+    }
+    
     private void writeCommit( SynchronizationBarrier barrier )
     {
     	if (traceEnabled)
@@ -350,6 +543,23 @@ public final class BlockBasedDataStoreJournal
         journalWriteQueue.addLast(new CommitOperation(currentTransactionId,barrier));
         totalPendingOperations++;
         
+        if (groupCommitMaxDelay > 0)
+        {
+        	// Track commit arrival rate (moving average)
+        	long now = System.nanoTime();
+        	if (lastCommitTime != 0)
+        	{
+        		long interval = now - lastCommitTime;
+        		avgCommitInterval = avgCommitInterval == -1 ? interval : avgCommitInterval + (interval - avgCommitInterval)/8;
+        	}
+        	lastCommitTime = now;
+        	queuedCommits++;
+        	
+        	// Wake up the flusher if it's waiting for more commits
+        	if (waitingForCommits)
+        		journalWriteQueue.notify();
+        }
+        
         // Move to next transaction
         currentTransactionId++;
     }
@@ -368,11 +578,17 @@ public final class BlockBasedDataStoreJournal
                         break; // Nothing more for now, exit
                     }
                     
+                    if (groupCommitMaxDelay > 0 && queuedCommits > 0)
+                    	waitForMoreCommits();
+                    
                     // Move up to maxWriteBatchSize items to an intermediate queue 
                     int count = 0;
                     while (journalWriteQueue.size() > 0 && count < maxWriteBatchSize)
                     {
-                        journalProcessingQueue.addLast(journalWriteQueue.removeFirst());
+                    	AbstractJournalOperation op = journalWriteQueue.removeFirst();
+                    	if (op instanceof CommitOperation && queuedCommits > 0)
+                    		queuedCommits--;
+                        journalProcessingQueue.addLast(op);
                         count++;
                     }
                 }
@@ -455,9 +671,18 @@ public final class BlockBasedDataStoreJournal
                 {
                 	if (traceEnabled)
                 		log.trace("["+baseName+"] [Journal] Syncing ("+pendingBarriers.size()+" barrier(s))");
-                	                	
+                	
                     // Sync journal
+                	long syncStart = System.nanoTime();
                 	syncJournal();
+                	syncLatencies.add((System.nanoTime()-syncStart)/1000);
+                	commitBatchSizes.add(commitCount);
+                	
+                	// Track the usual number of concurrent committers (fast attack, slow decay)
+                	if (commitCount >= commitBatchTarget)
+                		commitBatchTarget = commitCount;
+                	else
+                		commitBatchTarget -= (commitBatchTarget - commitCount + 7)/8;
 
                 	// Post-process
                     onJournalCommit();
@@ -492,6 +717,43 @@ public final class BlockBasedDataStoreJournal
     	}
     }
     
+    /*
+     * Wait a bounded amount of time for more commits, as long as fewer commits than usual
+     * are queued and the recent arrival rate suggests that another one is coming soon.
+     * Must be called while holding the journalWriteQueue lock.
+     */
+    private void waitForMoreCommits()
+    {
+    	long deadline = System.nanoTime() + groupCommitMaxDelay;
+    	while (queuedCommits < commitBatchTarget && journalWriteQueue.size() < maxWriteBatchSize)
+    	{
+    		// Low load : do not wait if commits are not frequent enough
+    		if (avgCommitInterval == -1 || avgCommitInterval >= groupCommitMaxDelay)
+    			break;
+    		
+    		// Do not wait past the deadline, or if the next commit is overdue
+    		long now = System.nanoTime();
+    		long nextCommitTimeout = lastCommitTime + 2*avgCommitInterval;
+    		long waitTime = Math.min(deadline, nextCommitTimeout) - now;
+    		if (waitTime <= 0)
+    			break;
+    		
+    		waitingForCommits = true;
+    		try
+    		{
+    			journalWriteQueue.wait(waitTime/1000000, (int)(waitTime%1000000));
+    		}
+    		catch (InterruptedException e)
+    		{
+    			break;
+    		}
+    		finally
+    		{
+    			waitingForCommits = false;
+    		}
+    	}
+    }
+    
     private boolean isMetaDataSuperseeded( AbstractMetaDataWriteOperation baseOp )
     {
     	AbstractJournalOperation current = baseOp.next();
@@ -520,6 +782,9 @@ public final class BlockBasedDataStoreJournal
     	boolean newFlushRequired;
         synchronized (storeWriteQueue)
         {
+        	if (firstUnsyncedTransactionId == Long.MAX_VALUE && uncommittedJournalQueue.size() > 0)
+        		firstUnsyncedTransactionId = uncommittedJournalQueue.getFirst().getTransactionId();
+        	
             uncommittedJournalQueue.migrateTo(storeWriteQueue);
             
             newFlushRequired = storeWriteQueue.size() > 0 && !flushingStore;
@@ -553,9 +818,13 @@ public final class BlockBasedDataStoreJournal
         {
     		while (!failing)
             {
+    			boolean syncRequested;
                 synchronized (storeWriteQueue)
                 {
-                    if (storeWriteQueue.size() == 0)
+                	syncRequested = storeSyncRequested;
+                	storeSyncRequested = false;
+                	
+                    if (storeWriteQueue.size() == 0 && !syncRequested)
                     {
                     	flushingStore = false;
                         break; // Nothing more for now, exit
@@ -611,7 +880,7 @@ public final class BlockBasedDataStoreJournal
                 }
                 
                 // Should we force commit ?
-                if (uncommittedStoreSize > maxUncommittedStoreSize)
+                if (uncommittedStoreSize > maxUncommittedStoreSize || syncRequested)
                 {
                 	uncommittedStoreSize = 0;
 
@@ -620,6 +889,7 @@ public final class BlockBasedDataStoreJournal
                 		
                 	// Sync the store
                 	syncStore();
+                	onStoreSynced();
                 	
                 	// Recycle unused journal files
                 	recycleUnusedJournalFiles();
@@ -673,6 +943,15 @@ public final class BlockBasedDataStoreJournal
 		}
     }
     
+    private void onStoreSynced()
+    {
+    	// Everything processed so far is on disk, only queued operations remain unsynced
+    	synchronized (storeWriteQueue)
+		{
+    		firstUnsyncedTransactionId = storeWriteQueue.size() > 0 ? storeWriteQueue.getFirst().getTransactionId() : Long.MAX_VALUE;
+		}
+    }
+    
     private void syncStoreFile( RandomAccessFile storeFile ) throws JournalException
     {
     	try
@@ -775,6 +1054,10 @@ public final class BlockBasedDataStoreJournal
     	// Sync everything to disk
     	syncJournal();
     	syncStore();
+    	onStoreSynced();
+    	
+    	if (sharedJournal != null)
+    		sharedJournal.unregister(this);
     	
     	// Destroy journal files
     	destroyJournalFiles();
@@ -24,6 +24,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
 import java.util.LinkedList;
 
 import org.apache.commons.logging.Log;
@@ -41,6 +42,7 @@ public final class JournalRecovery
 	private File[] journalFiles;
 	private RandomAccessFile allocationTableRandomAccessFile;
 	private RandomAccessFile dataRandomAccessFile ;
+	private String storeFilter;
     
 	/**
 	 * Constructor
@@ -49,11 +51,25 @@ public final class JournalRecovery
 			                File[] journalFiles ,
 			                RandomAccessFile allocationTableRandomAccessFile ,
                             RandomAccessFile dataRandomAccessFile )
+	{
+		this(baseName,journalFiles,allocationTableRandomAccessFile,dataRandomAccessFile,null);
+	}
+	
+	/**
+	 * Constructor
+	 * @param storeFilter if not null, only replay transactions of the given store (shared journal files)
+	 */
+	public JournalRecovery( String baseName ,
+			                File[] journalFiles ,
+			                RandomAccessFile allocationTableRandomAccessFile ,
+                            RandomAccessFile dataRandomAccessFile ,
+                            String storeFilter )
 	{
 		this.baseName = baseName;
 		this.journalFiles = journalFiles;
 		this.allocationTableRandomAccessFile = allocationTableRandomAccessFile;
 		this.dataRandomAccessFile = dataRandomAccessFile;
+		this.storeFilter = storeFilter;
 	}
 	
 	/**
@@ -90,6 +106,7 @@ public final class JournalRecovery
 		int replayedOperations = 0;
 		int replayedTransactions = 0;
 		long currentTransactionId = -1;
+		boolean selected = storeFilter == null;
 		int newBlockCount = -1;
 		LinkedList<AbstractJournalOperation> transactionQueue = new LinkedList<>();
 		try
@@ -104,6 +121,19 @@ public final class JournalRecovery
 					if (currentTransactionId != op.getTransactionId())
 						throw new IllegalStateException("Transaction id inconsistency : "+currentTransactionId+" -> "+op.getTransactionId());
 				
+				if (op instanceof StoreHeaderOperation)
+				{
+					// Shared journal : only keep transactions of the selected store
+					selected = storeFilter == null || storeFilter.equals(((StoreHeaderOperation)op).getStoreName());
+				}
+				else
+				if (!selected)
+				{
+					// Skip transaction of another store
+					if (op instanceof CommitOperation)
+						currentTransactionId = -1;
+				}
+				else
 				if (op instanceof CommitOperation)
 				{
 					// Check transaction size
@@ -236,6 +266,9 @@ public final class JournalRecovery
 				case AbstractJournalOperation.TYPE_COMMIT :
 					return readCommitOperation(in);
 					
+				case AbstractJournalOperation.TYPE_STORE_HEADER :
+					return readStoreHeaderOperation(in);
+					
 				default:
 					throw new IllegalArgumentException("Invalid operation type : "+operationType);
 			}
@@ -288,6 +321,24 @@ public final class JournalRecovery
         return new StoreExtendOperation(transactionId, blockSize, oldBlockCount, newBlockCount);
     }
 	
+	private static StoreHeaderOperation readStoreHeaderOperation( DataInputStream in ) throws IOException
+	{
+		long transactionId = in.readLong();
+		String storeName = readString(in);
+		String storeFolder = readString(in);
+		int operationsCount = in.readInt();
+		
+		return new StoreHeaderOperation(transactionId, storeName, storeFolder, operationsCount, null);
+	}
+	
+	private static String readString( DataInputStream in ) throws IOException
+	{
+		int len = in.readInt();
+		byte[] data = new byte[len];
+		in.readFully(data);
+		return new String(data, StandardCharsets.UTF_8);
+	}
+	
 	private static CommitOperation readCommitOperation( DataInputStream in ) throws IOException
 	{
 		long transactionId = in.readLong();
@@ -0,0 +1,723 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.storage.data.impl.journal;
+
+import java.io.DataInputStream;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.jms.JMSException;
+
+import net.timewalker.ffmq4.storage.data.DataStoreException;
+import net.timewalker.ffmq4.storage.data.impl.AbstractBlockBasedDataStore;
+import net.timewalker.ffmq4.storage.data.impl.BlockBasedDataStoreTools;
+import net.timewalker.ffmq4.utils.async.AsyncTask;
+import net.timewalker.ffmq4.utils.async.AsyncTaskManager;
+import net.timewalker.ffmq4.utils.concurrent.SynchronizationBarrier;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p>Engine-wide write-ahead journal shared by all journaling data stores.</p>
+ * <p>Committed transactions of all stores are appended to a single set of journal files,
+ * so that all commits received during a flush cycle are made durable by a single sync.
+ * Each transaction is preceded by a {@link StoreHeaderOperation} identifying the originating store,
+ * which allows per-store replay on recovery.</p>
+ * <p>Store files are still updated asynchronously by each store journal. A journal file can only be
+ * recycled once every store has synced all the transactions it contains to its own files.</p>
+ */
+public final class SharedJournal
+{
+    private static final Log log = LogFactory.getLog(SharedJournal.class);
+    
+    /**
+     * Base name of shared journal files
+     */
+    public static final String BASE_NAME = "__shared";
+    
+    // Maximum number of complete journal files to keep before forcing lagging stores to sync
+    private static final int MAX_RETAINED_JOURNAL_FILES = 2;
+    
+    // Settings
+    private File journalFolder;
+    private long maxJournalSize;
+    private int journalOutputBuffer;
+    private int storageSyncMethod;
+    private boolean preAllocateFiles;
+    private AsyncTaskManager asyncTaskManager;
+    
+    // Journal files management
+    private LinkedList<JournalFile> journalFiles = new LinkedList<>();
+    private JournalFile currentJournalFile;
+    private int nextJournalFileIndex = 1;
+    private long currentTransactionId = 1;
+    private LinkedList<File> recycledJournalFiles = new LinkedList<>();
+    
+    // Write queues
+    private JournalQueue journalWriteQueue = new JournalQueue();
+    private JournalQueue journalProcessingQueue = new JournalQueue();
+    private List<SynchronizationBarrier> pendingBarriers = new ArrayList<>();
+    private boolean flushingJournal;
+    
+    // Registered store journals
+    private Set<BlockBasedDataStoreJournal> storeJournals = new HashSet<>();
+    
+    // Stores recovered from a previous run that still require an integrity check
+    private Set<String> recoveredStores = new HashSet<>();
+    
+    // Async target
+    private FlushJournalAsyncTask flushJournalAsyncTask = new FlushJournalAsyncTask();
+    
+    // Runtime
+    private boolean traceEnabled;
+    private volatile boolean failing;
+    
+    /**
+     * Constructor
+     */
+    public SharedJournal( File journalFolder ,
+    		              long maxJournalSize ,
+    		              int journalOutputBuffer ,
+    		              int storageSyncMethod ,
+    		              boolean preAllocateFiles ,
+    		              AsyncTaskManager asyncTaskManager )
+    {
+    	this.journalFolder = journalFolder;
+    	this.maxJournalSize = maxJournalSize;
+    	this.journalOutputBuffer = journalOutputBuffer;
+    	this.storageSyncMethod = storageSyncMethod;
+    	this.preAllocateFiles = preAllocateFiles;
+    	this.asyncTaskManager = asyncTaskManager;
+    	this.traceEnabled = log.isTraceEnabled();
+    }
+    
+    /**
+     * Replay the remaining journal files of a previous run on their respective stores.
+     * Must be called before any store is opened.
+     */
+    public void recover() throws DataStoreException
+    {
+    	recover(null);
+    }
+    
+    /**
+     * Replay the remaining journal files of a previous run on their respective stores.
+     * Must be called before any store is opened.
+     * @param executor an executor used to recover distinct stores concurrently, or null to recover them sequentially
+     */
+    public void recover( ExecutorService executor ) throws DataStoreException
+    {
+    	// Delete old recycled files
+		File[] oldRecycledFiles = BlockBasedDataStoreTools.findRecycledJournalFiles(BASE_NAME, journalFolder);
+		for(int i=0;i<oldRecycledFiles.length;i++)
+			if (!oldRecycledFiles[i].delete())
+				throw new DataStoreException("Cannot delete recycled journal file : "+oldRecycledFiles[i].getAbsolutePath());
+		
+    	File[] files = BlockBasedDataStoreTools.findJournalFiles(BASE_NAME, journalFolder);
+    	if (files.length == 0)
+    		return;
+    	
+    	log.warn("[SharedJournal] Recovery required : found "+files.length+" shared journal file(s)");
+    	
+    	// Look for stores involved
+    	Map<String,File> stores = findStores(files);
+    	
+    	// Replay transactions store by store
+    	if (executor != null && stores.size() > 1)
+    		recoverStores(executor, stores, files);
+    	else
+    	{
+	    	Iterator<Map.Entry<String,File>> entries = stores.entrySet().iterator();
+	    	while (entries.hasNext())
+	    	{
+	    		Map.Entry<String,File> entry = entries.next();
+	    		recoverStore(entry.getKey(), entry.getValue(), files);
+	    	}
+    	}
+    	
+    	for (int i = 0; i < files.length; i++)
+    		if (!files[i].delete())
+    			throw new DataStoreException("Cannot delete journal file : "+files[i].getAbsolutePath());
+    }
+    
+    private Map<String,File> findStores( File[] files ) throws JournalException
+    {
+    	Map<String,File> stores = new LinkedHashMap<>();
+    	for (int i = 0; i < files.length; i++)
+		{
+    		DataInputStream in = null;
+    		try
+    		{
+    			in = new DataInputStream(new BufferedInputStream(new FileInputStream(files[i])));
+    			AbstractJournalOperation op;
+    			while ((op = JournalRecovery.readJournalOperation(in)) != null)
+    			{
+    				if (op instanceof StoreHeaderOperation)
+    				{
+    					StoreHeaderOperation header = (StoreHeaderOperation)op;
+    					stores.put(header.getStoreName(), header.getStoreFolder());
+    				}
+    			}
+    		}
+    		catch (IOException e)
+    		{
+    			throw new JournalException("Cannot read journal file : "+files[i].getAbsolutePath(),e);
+    		}
+    		finally
+    		{
+    			if (in != null)
+    			{
+    				try
+    				{
+    					in.close();
+    				}
+    				catch (IOException e)
+    				{
+    					log.error("[SharedJournal] Cannot close journal file : "+files[i].getAbsolutePath(),e);
+    				}
+    			}
+    		}
+		}
+    	return stores;
+    }
+    
+    private void recoverStores( ExecutorService executor , Map<String,File> stores , final File[] files ) throws DataStoreException
+    {
+    	// Each store has its own files, so they can be replayed concurrently
+    	List<Future<Object>> results = new ArrayList<>(stores.size());
+    	Iterator<Map.Entry<String,File>> entries = stores.entrySet().iterator();
+    	while (entries.hasNext())
+    	{
+    		final Map.Entry<String,File> entry = entries.next();
+    		results.add(executor.submit(new Callable<Object>() {
+    			@Override
+    			public Object call() throws DataStoreException
+    			{
+    				recoverStore(entry.getKey(), entry.getValue(), files);
+    				return null;
+    			}
+    		}));
+    	}
+    	
+    	// Wait for all stores before reporting the first failure, so that no replay is still running
+    	DataStoreException failure = null;
+    	for (int i = 0; i < results.size(); i++)
+    	{
+    		try
+    		{
+    			results.get(i).get();
+    		}
+    		catch (ExecutionException e)
+    		{
+    			if (failure == null)
+    			{
+    				Throwable cause = e.getCause();
+    				if (cause instanceof DataStoreException)
+    					failure = (DataStoreException)cause;
+    				else
+    					failure = new JournalException("Store recovery failed : "+cause);
+    			}
+    		}
+    		catch (InterruptedException e)
+    		{
+    			if (failure == null)
+    				failure = new JournalException("Interrupted while waiting for store recovery");
+    		}
+    	}
+    	if (failure != null)
+    		throw failure;
+    }
+    
+    private void recoverStore( String storeName , File storeFolder , File[] files ) throws DataStoreException
+    {
+    	File allocationTableFile = new File(storeFolder,storeName+AbstractBlockBasedDataStore.ALLOCATION_TABLE_SUFFIX);
+    	File dataFile = new File(storeFolder,storeName+AbstractBlockBasedDataStore.DATA_FILE_SUFFIX);
+    	if (!allocationTableFile.canRead() || !dataFile.canRead())
+    	{
+    		log.warn("[SharedJournal] Store files not found for "+storeName+" in "+storeFolder.getAbsolutePath()+", skipping.");
+    		return;
+    	}
+    	
+    	RandomAccessFile allocationTableRandomAccessFile = null;
+    	RandomAccessFile dataRandomAccessFile = null;
+    	try
+    	{
+    		allocationTableRandomAccessFile = new RandomAccessFile(allocationTableFile,"rw");
+    		dataRandomAccessFile = new RandomAccessFile(dataFile,"rw");
+    		
+    		JournalRecovery recovery = new JournalRecovery(storeName, files, allocationTableRandomAccessFile, dataRandomAccessFile, storeName);
+    		recovery.recover();
+    		
+    		synchronized (recoveredStores)
+			{
+    			recoveredStores.add(storeName);
+			}
+    	}
+    	catch (IOException e)
+    	{
+    		throw new JournalException("Cannot open store files for "+storeName,e);
+    	}
+    	finally
+    	{
+    		try
+    		{
+	    		if (allocationTableRandomAccessFile != null)
+	    			allocationTableRandomAccessFile.close();
+	    		if (dataRandomAccessFile != null)
+	    			dataRandomAccessFile.close();
+    		}
+    		catch (IOException e)
+    		{
+    			log.error("[SharedJournal] Cannot close store files for "+storeName,e);
+    		}
+    	}
+    }
+    
+    /**
+     * Check if the given store was recovered from the shared journal and should be checked.
+     * Only returns true once per store.
+     */
+    public boolean consumeRecoveredStore( String storeName )
+    {
+    	synchronized (recoveredStores)
+		{
+    		return recoveredStores.remove(storeName);
+		}
+    }
+    
+    /**
+     * Register a store journal
+     */
+    protected void register( BlockBasedDataStoreJournal storeJournal )
+    {
+    	synchronized (storeJournals)
+		{
+    		storeJournals.add(storeJournal);
+		}
+    }
+    
+    /**
+     * Unregister a store journal
+     */
+    protected void unregister( BlockBasedDataStoreJournal storeJournal )
+    {
+    	synchronized (storeJournals)
+		{
+    		storeJournals.remove(storeJournal);
+		}
+    }
+    
+    /**
+     * Append a committed store transaction to the shared journal (asynchronous)
+     * @param storeJournal the originating store journal
+     * @param operations the transaction operations
+     * @param commitOp the commit operation
+     */
+    protected void commit( BlockBasedDataStoreJournal storeJournal , JournalQueue operations , CommitOperation commitOp ) throws JournalException
+    {
+    	if (failing)
+    		throw new JournalException("Shared journal is failing");
+    	
+    	boolean newFlushRequired;
+    	synchronized (journalWriteQueue)
+		{
+    		long transactionId = currentTransactionId++;
+    		
+    		journalWriteQueue.addLast(new StoreHeaderOperation(transactionId, 
+    				                                           storeJournal.getBaseName(), 
+    				                                           storeJournal.getStoreFolder().getAbsolutePath(), 
+    				                                           operations.size(), 
+    				                                           storeJournal));
+    		while (operations.size() > 0)
+    		{
+    			AbstractJournalOperation op = operations.removeFirst();
+    			op.setTransactionId(transactionId);
+    			journalWriteQueue.addLast(op);
+    		}
+    		commitOp.setTransactionId(transactionId);
+    		journalWriteQueue.addLast(commitOp);
+    		
+    		newFlushRequired = !flushingJournal;
+        	if (newFlushRequired)
+        		flushingJournal = true;
+		}
+    	
+    	if (newFlushRequired)
+        {
+	        try
+	        {
+	        	asyncTaskManager.execute(flushJournalAsyncTask);
+	        }
+	    	catch (JMSException e)
+	    	{
+	    		throw new JournalException("Cannot flush journal asynchronously : "+e);
+	    	}
+        }
+    }
+    
+    protected void flushJournal()
+    {
+    	try
+    	{
+    		Map<BlockBasedDataStoreJournal,int[]> commitCounts = new IdentityHashMap<>();
+    		
+            while (!failing)
+            {
+                synchronized (journalWriteQueue)
+                {
+                    if (journalWriteQueue.size() == 0)
+                    {
+                    	flushingJournal = false;
+                        break; // Nothing more for now, exit
+                    }
+                    
+                    // Take everything : all pending commits share the same sync
+                    journalWriteQueue.migrateTo(journalProcessingQueue);
+                }
+
+                if (traceEnabled)
+            		log.trace("[SharedJournal] Flushing "+journalProcessingQueue.size()+" operations");
+                
+                // Lazy creation of the journal file
+                if (currentJournalFile == null)
+                	currentJournalFile = createNewJournalFile();
+                
+                boolean syncRequired = false;
+                BlockBasedDataStoreJournal storeJournal = null;
+                boolean writeTransaction = false;
+                while (journalProcessingQueue.size() > 0)
+                {
+                	AbstractJournalOperation op = journalProcessingQueue.removeFirst();
+                	
+                	if (op instanceof StoreHeaderOperation)
+                	{
+                		StoreHeaderOperation header = (StoreHeaderOperation)op;
+                		storeJournal = header.getStoreJournal();
+                		
+                		// Tuning : do not write empty transactions
+                		writeTransaction = header.getOperationsCount() > 0;
+                		if (writeTransaction)
+                			op.writeTo(currentJournalFile);
+                	}
+                	else
+                	if (op instanceof CommitOperation)
+                	{
+                		CommitOperation commitOp = (CommitOperation)op;
+                		if (writeTransaction)
+                		{
+                			op.writeTo(currentJournalFile);
+                			currentJournalFile.setLastTransactionId(op.getTransactionId());
+                			syncRequired = true;
+                		}
+                		
+                		// Register the commit barrier for later use
+                        if (commitOp.getBarrier() != null)
+                        	pendingBarriers.add(commitOp.getBarrier());
+                        
+                        int[] count = commitCounts.get(storeJournal);
+                        if (count == null)
+                        {
+                        	count = new int[1];
+                        	commitCounts.put(storeJournal, count);
+                        }
+                        count[0]++;
+                        
+                        // Transaction boundary : check if we should rotate the journal file
+                        if (rotateJournal())
+                        	syncRequired = false; // The old journal file was synced on completion
+                	}
+                	else
+                	{
+                		op.writeTo(currentJournalFile);
+                		
+                		// Retain operations until next commit
+                		storeJournal.onSharedJournalWrite(op);
+                	}
+                }
+                
+                // Single sync for all transactions of this batch
+                if (syncRequired)
+                {
+                	if (traceEnabled)
+                		log.trace("[SharedJournal] Syncing ("+commitCounts.size()+" store(s), "+pendingBarriers.size()+" barrier(s))");
+                	currentJournalFile.sync();
+                }
+                
+                // Hand committed operations over to their store
+                Iterator<Map.Entry<BlockBasedDataStoreJournal,int[]>> entries = commitCounts.entrySet().iterator();
+                while (entries.hasNext())
+                {
+                	Map.Entry<BlockBasedDataStoreJournal,int[]> entry = entries.next();
+                	entry.getKey().onSharedJournalCommit(entry.getValue()[0]);
+                }
+                commitCounts.clear();
+                
+                // Reach barriers
+                for (int i = 0 ; i < pendingBarriers.size() ; i++)
+                	pendingBarriers.get(i).reach();
+                pendingBarriers.clear();
+                
+                recycleUnusedJournalFiles();
+            }
+    	}
+    	catch (DataStoreException e)
+    	{
+    		notifyFailure(e);
+    	}
+    }
+    
+    private void notifyFailure( Exception e )
+    {
+    	failing = true;
+		log.fatal("[SharedJournal] Shared journal failure",e);
+		
+		// Propagate to all store journals
+		List<BlockBasedDataStoreJournal> journals;
+    	synchronized (storeJournals)
+		{
+    		journals = new ArrayList<>(storeJournals);
+		}
+    	for (int i = 0; i < journals.size(); i++)
+    		journals.get(i).onSharedJournalFailure(e);
+    }
+    
+    private JournalFile createNewJournalFile() throws JournalException
+    {
+    	// Look for a recycled file first
+    	File recycledFile = null;
+    	synchronized (recycledJournalFiles)
+		{
+    		if (recycledJournalFiles.size() > 0)
+    			recycledFile = recycledJournalFiles.removeFirst();
+		}
+    	
+    	JournalFile journalFile;
+    	if (recycledFile == null)
+    	{
+	        journalFile = new JournalFile(nextJournalFileIndex++, 
+	                                      BASE_NAME,
+	                                      journalFolder,
+	                                      maxJournalSize,
+	                                      journalOutputBuffer,
+	                                      storageSyncMethod,
+	                                      preAllocateFiles);
+	        log.debug("[SharedJournal] Created a new journal file : "+journalFile);
+    	}
+    	else
+    	{
+    		journalFile = new JournalFile(nextJournalFileIndex++, 
+    				                      BASE_NAME,
+    				                      journalFolder,
+    				                      recycledFile,
+    				                      journalOutputBuffer,
+    				                      storageSyncMethod);
+    		log.debug("[SharedJournal] Created a recycled journal file : "+journalFile);
+    	}
+     
+        synchronized (journalFiles)
+		{
+        	journalFiles.addLast(journalFile);	
+		}
+        
+        return journalFile;
+    }
+    
+    private boolean rotateJournal() throws JournalException
+    {
+    	synchronized (journalFiles)
+		{
+	        if (currentJournalFile.size() > maxJournalSize)
+	        {
+	        	log.debug("[SharedJournal] Rotating journal : "+currentJournalFile);
+	        	
+	        	currentJournalFile.complete();
+	        	currentJournalFile = createNewJournalFile();
+	        	return true;
+	        }
+		}
+    	
+    	return false;
+    }
+    
+    private void recycleUnusedJournalFiles() throws JournalException
+    {
+    	// Find the oldest transaction not yet synced to its store
+    	long firstUnsyncedTransactionId = Long.MAX_VALUE;
+    	List<BlockBasedDataStoreJournal> journals;
+    	synchronized (storeJournals)
+		{
+    		journals = new ArrayList<>(storeJournals);
+		}
+    	for (int i = 0; i < journals.size(); i++)
+    		firstUnsyncedTransactionId = Math.min(firstUnsyncedTransactionId, journals.get(i).getFirstUnsyncedTransactionId());
+    	
+    	LinkedList<JournalFile> unusedJournalFiles = null;
+    	long oldestRetainedTransactionId = -1;
+    	int retainedFiles = 0;
+    	synchronized (journalFiles)
+		{
+    		Iterator<JournalFile> files = journalFiles.iterator();
+    		while (files.hasNext())
+	    	{
+	    		JournalFile journalFile = files.next();
+	    		if (!journalFile.isComplete())
+	    			break;
+	    		
+	    		// Files are recycled in order, as long as all stores synced their transactions
+	    		if (retainedFiles == 0 && journalFile.getLastTransactionId() < firstUnsyncedTransactionId)
+	    		{
+	    			if (unusedJournalFiles == null)
+	    				unusedJournalFiles = new LinkedList<>();
+	    			unusedJournalFiles.addLast(journalFile);
+	    			files.remove();
+	    		}
+	    		else
+	    		{
+	    			if (retainedFiles == 0)
+	    				oldestRetainedTransactionId = journalFile.getLastTransactionId();
+	    			retainedFiles++;
+	    		}
+	    	}
+		}
+    	
+    	// Recycle unused journal files
+    	if (unusedJournalFiles != null)
+    	{
+    		while (!unusedJournalFiles.isEmpty())
+	    	{
+    			JournalFile journalFile = unusedJournalFiles.removeFirst();
+    			log.debug("[SharedJournal] Recycling unused journal file : "+journalFile);
+    			File recycledFile = journalFile.closeAndRecycle();
+    			synchronized (recycledJournalFiles)
+    			{
+    				recycledJournalFiles.addLast(recycledFile);
+    			}
+	    	}
+    	}
+    	
+    	// Too many files retained : ask lagging stores to sync
+    	if (retainedFiles > MAX_RETAINED_JOURNAL_FILES)
+    	{
+    		for (int i = 0; i < journals.size(); i++)
+    		{
+    			BlockBasedDataStoreJournal storeJournal = journals.get(i);
+    			if (storeJournal.getFirstUnsyncedTransactionId() <= oldestRetainedTransactionId)
+    				storeJournal.requestStoreSync();
+    		}
+    	}
+    }
+    
+    /**
+     * Close the shared journal. All store journals should have been closed first.
+     */
+    public void close() throws JournalException
+    {
+    	if (failing)
+    		return;
+    	
+    	log.debug("[SharedJournal] Waiting for async operations to complete ...");
+    	while (true)
+    	{
+    		synchronized (journalWriteQueue)
+			{
+    			if (journalWriteQueue.size() == 0 && !flushingJournal)
+    				break;
+			}
+    		try
+    		{
+    			Thread.sleep(10);
+    		}
+    		catch (InterruptedException e)
+    		{
+    			throw new JournalException("Wait for async operations completion was interrupted");
+    		}
+    	}
+    	
+    	synchronized (storeJournals)
+		{
+    		if (!storeJournals.isEmpty())
+    		{
+    			log.warn("[SharedJournal] "+storeJournals.size()+" store(s) still open, keeping journal files for recovery");
+    			return;
+    		}
+		}
+    	
+    	log.debug("[SharedJournal] Destroying journal files ...");
+    	while (recycledJournalFiles.size() > 0)
+    	{
+    		File recycledFile = recycledJournalFiles.removeFirst();
+    		recycledFile.delete();
+    	}
+    	while (journalFiles.size() > 0)
+    	{
+    		JournalFile journalFile = journalFiles.removeFirst();
+    		journalFile.closeAndDelete();
+    	}
+    	currentJournalFile = null;
+    }
+    
+    //-------------------------------------------------------------------------------------
+    //     Stub class to interface with the disk I/O asynchronous task manager
+    //-------------------------------------------------------------------------------------
+    
+    private class FlushJournalAsyncTask implements AsyncTask
+    {
+        /**
+         * Constructor
+         */
+        public FlushJournalAsyncTask()
+        {
+            super();
+        }
+        
+        /* (non-Javadoc)
+         * @see net.timewalker.ffmq4.utils.async.AsyncTask#execute()
+         */
+        @Override
+		public void execute()
+        {
+        	flushJournal();
+        }
+        
+        /* (non-Javadoc)
+         * @see net.timewalker.ffmq4.utils.async.AsyncTask#isMergeable()
+         */
+        @Override
+		public boolean isMergeable()
+        {
+            return false;
+        }
+    }
+}
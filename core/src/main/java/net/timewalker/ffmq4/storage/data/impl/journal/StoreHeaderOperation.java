@@ -0,0 +1,123 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.storage.data.impl.journal;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>Shared journal operation identifying the data store a transaction belongs to.</p>
+ * <p>Written before each transaction in a {@link SharedJournal} file so that recovery
+ * can replay transactions on a per-store basis.</p>
+ */
+public final class StoreHeaderOperation extends AbstractJournalOperation
+{
+	// Attributes
+	private String storeName;
+	private String storeFolder;
+	private int operationsCount;
+	
+	// Runtime
+	private BlockBasedDataStoreJournal storeJournal;
+	
+	/**
+     * Constructor
+     */
+    public StoreHeaderOperation( long transactionId , String storeName , String storeFolder , int operationsCount , BlockBasedDataStoreJournal storeJournal )
+    {
+        super(transactionId,TYPE_STORE_HEADER);
+        this.storeName = storeName;
+        this.storeFolder = storeFolder;
+        this.operationsCount = operationsCount;
+        this.storeJournal = storeJournal;
+    }
+    
+    /**
+	 * @return the storeName
+	 */
+	public String getStoreName()
+	{
+		return storeName;
+	}
+	
+	/**
+	 * @return the folder holding the store files
+	 */
+	public File getStoreFolder()
+	{
+		return new File(storeFolder);
+	}
+	
+	/**
+	 * @return the number of operations in the transaction (excluding the commit)
+	 */
+	public int getOperationsCount()
+	{
+		return operationsCount;
+	}
+	
+	/**
+	 * @return the store journal that issued the transaction (runtime only)
+	 */
+	public BlockBasedDataStoreJournal getStoreJournal()
+	{
+		return storeJournal;
+	}
+	
+	/* (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.impl.journal.AbstractJournalOperation#size()
+     */
+    @Override
+	public int size()
+    {
+    	return super.size() + 4 + utf8Length(storeName) + 4 + utf8Length(storeFolder) + 4;
+    }
+    
+    private static int utf8Length( String value )
+    {
+    	return value.getBytes(StandardCharsets.UTF_8).length;
+    }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.data.impl.journal.AbstractJournalOperation#writeTo(net.timewalker.ffmq4.storage.data.impl.journal.JournalFile)
+     */
+    @Override
+	protected void writeTo(JournalFile journalFile) throws JournalException
+    {
+    	super.writeTo(journalFile);
+    	writeString(journalFile, storeName);
+    	writeString(journalFile, storeFolder);
+    	journalFile.writeInt(operationsCount);
+    }
+    
+    private static void writeString( JournalFile journalFile , String value ) throws JournalException
+    {
+    	byte[] data = value.getBytes(StandardCharsets.UTF_8);
+    	journalFile.writeInt(data.length);
+    	journalFile.write(data);
+    }
+    
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+	public String toString()
+    {
+    	return super.toString()+" [STORE_HEADER] store="+storeName+" operationsCount="+operationsCount;
+    }
+}
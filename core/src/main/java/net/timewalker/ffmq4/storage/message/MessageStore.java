@@ -24,6 +24,10 @@ import net.timewalker.ffmq4.utils.concurrent.SynchronizationBarrier;
 
 /**
  * MessageStore
+ * <p>
+ * Implementations are not thread-safe : callers must serialize access to a given store,
+ * but distinct stores (like the volatile and persistent stores of a queue) may be used concurrently.
+ * </p>
  */
 public interface MessageStore
 {
@@ -45,6 +49,12 @@ public interface MessageStore
      */
     public int first() throws JMSException;
     
+    /**
+     * Get the first unlocked message handle stored, taking priorities into account
+     * @return the first unlocked entry handle or -1 if no message is available
+     */
+    public int firstUnlocked() throws JMSException;
+    
     /**
      * Get the next message handle after the given one
      * @param handle block handle
@@ -102,6 +112,19 @@ public interface MessageStore
      */
     public boolean isLocked( int handle ) throws JMSException;
     
+    /**
+     * Get the number of times the message associated to a given handle was redelivered
+     * @throws JMSException on storage error or invalid handle
+     */
+    public int getRedeliveryCount( int handle ) throws JMSException;
+    
+    /**
+     * Flag the message associated to a given handle as redelivered, without rewriting it
+     * @return the new redelivery count
+     * @throws JMSException on storage error or invalid handle
+     */
+    public int markRedelivered( int handle ) throws JMSException;
+    
     /**
      * Get the number of messages in the store
      */
@@ -41,6 +41,7 @@ public abstract class AbstractMessageStore implements MessageStore
 	
 	// Runtime
     private int[] handleByPriority = new int[10];
+    private DeliverableHandleIndex deliverableIndex;
  
     /**
      * Constructor
@@ -63,14 +64,27 @@ public abstract class AbstractMessageStore implements MessageStore
         this.dataStore = createDataStore();
         dataStore.init();
         
+        // Restore the delivery order if the data store does not keep it
+        restoreOrder();
+        
         // Re-build priority table
     	initPriorityTable();
     }
     
+    /**
+     * Restore the delivery order of the recovered messages.
+     * Data stores keep the order of their entries by default, so nothing needs to be done.
+     */
+    protected void restoreOrder() throws JMSException
+    {
+    	// Nothing by default
+    }
+    
     private void initPriorityTable() throws JMSException
     {
         for (int n = 0 ; n < handleByPriority.length ; n++)
             handleByPriority[n] = -1;
+        deliverableIndex = new DeliverableHandleIndex(dataStore.size());
         
         if (dataStore.size() > 10000)
             log.warn("["+queueDef.getName()+"] Re-creating priority table, this may take a while ... ("+dataStore.size()+" messages)");
@@ -82,6 +96,7 @@ public abstract class AbstractMessageStore implements MessageStore
         {
         	int priority = retrieveMessagePriority(handle);
         	handleByPriority[priority] = handle;
+        	deliverableIndex.added(handle, priority);
         	handle = dataStore.next(handle);
         }
         if (log.isTraceEnabled())
@@ -156,7 +171,10 @@ public abstract class AbstractMessageStore implements MessageStore
 	public final void delete(int handle) throws JMSException
     {
     	// Update the datastore
-    	int previousHandle = dataStore.delete(handle);
+    	int previousHandle = deleteMessage(handle);
+    	deliverableIndex.removed(handle);
+    	if (dataStore.size() == 0)
+    		deliverableIndex.trim();
     	
     	// Update the priority indexes
     	for (int n = 0; n < handleByPriority.length; n++) 
@@ -185,6 +203,16 @@ public abstract class AbstractMessageStore implements MessageStore
     {
     	return dataStore.first();
     }
+    
+    /*
+     * (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.message.MessageStore#firstUnlocked()
+     */
+    @Override
+    public final int firstUnlocked() throws JMSException
+    {
+    	return deliverableIndex.first();
+    }
 
     /*
      * (non-Javadoc)
@@ -210,7 +238,7 @@ public abstract class AbstractMessageStore implements MessageStore
      * @see net.timewalker.ffmq4.storage.message.MessageStore#commit(net.timewalker.ffmq4.utils.concurrent.SynchronizationBarrier)
      */
     @Override
-	public final void commitChanges(SynchronizationBarrier barrier) throws JMSException
+	public void commitChanges(SynchronizationBarrier barrier) throws JMSException
     {
     	dataStore.commitChanges(barrier);
     }
@@ -219,7 +247,7 @@ public abstract class AbstractMessageStore implements MessageStore
      * @see net.timewalker.ffmq4.storage.message.MessageStore#commitChanges()
      */
     @Override
-	public final void commitChanges() throws JMSException
+	public void commitChanges() throws JMSException
     {
     	dataStore.commitChanges();
     }
@@ -229,7 +257,7 @@ public abstract class AbstractMessageStore implements MessageStore
      * @see net.timewalker.ffmq4.local.destination.store.MessageStore#close()
      */
     @Override
-	public final void close()
+	public void close() throws JMSException
     {
         dataStore.close();
     }
@@ -255,7 +283,13 @@ public abstract class AbstractMessageStore implements MessageStore
     @Override
 	public final AbstractMessage retrieve(int handle) throws JMSException
     {
-    	return retrieveMessage(handle);
+    	AbstractMessage message = retrieveMessage(handle);
+    	
+    	// Merge delivery state, which is not part of the stored message
+    	if (dataStore.getRedeliveryCount(handle) > 0)
+    		message.setJMSRedelivered(true);
+    	
+    	return message;
     }
     
     /* (non-Javadoc)
@@ -270,6 +304,8 @@ public abstract class AbstractMessageStore implements MessageStore
     	
     	if (newHandle != handle)
     	{
+    		deliverableIndex.moved(handle, newHandle);
+    		
     		// Update the priority indexes
         	for (int n = 0; n < handleByPriority.length; n++) 
         		if (handleByPriority[n] == handle)
@@ -284,6 +320,15 @@ public abstract class AbstractMessageStore implements MessageStore
     
     protected abstract int replaceMessage(int handle, AbstractMessage message) throws JMSException;
     
+    /**
+     * Delete the message with the given handle from the data store
+     * @return the handle of the previous message
+     */
+    protected int deleteMessage( int handle ) throws JMSException
+    {
+    	return dataStore.delete(handle);
+    }
+    
     /*
      * (non-Javadoc)
      * @see net.timewalker.ffmq4.local.destination.store.MessageStore#store(net.timewalker.ffmq4.common.message.AbstractMessage)
@@ -299,6 +344,7 @@ public abstract class AbstractMessageStore implements MessageStore
         
         // Update priority table
         handleByPriority[priority] = newHandle;
+        deliverableIndex.added(newHandle, priority);
         
         return newHandle;
     }
@@ -321,6 +367,7 @@ public abstract class AbstractMessageStore implements MessageStore
 	public final void lock(int handle) throws JMSException 
 	{
 		dataStore.lock(handle);
+		deliverableIndex.locked(handle);
 	}
 
 	/*
@@ -331,6 +378,27 @@ public abstract class AbstractMessageStore implements MessageStore
 	public final void unlock(int handle) throws JMSException 
 	{
 		dataStore.unlock(handle);
+		deliverableIndex.unlocked(handle);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.MessageStore#getRedeliveryCount(int)
+	 */
+	@Override
+	public final int getRedeliveryCount(int handle) throws JMSException
+	{
+		return dataStore.getRedeliveryCount(handle);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.MessageStore#markRedelivered(int)
+	 */
+	@Override
+	public final int markRedelivered(int handle) throws JMSException
+	{
+		return dataStore.markRedelivered(handle);
 	}
 
 	/*
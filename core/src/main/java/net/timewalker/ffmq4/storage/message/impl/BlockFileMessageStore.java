@@ -28,26 +28,47 @@ import net.timewalker.ffmq4.storage.data.impl.AbstractBlockBasedDataStore;
 import net.timewalker.ffmq4.storage.data.impl.BlockBasedDataStore;
 import net.timewalker.ffmq4.storage.data.impl.BlockBasedDataStoreTools;
 import net.timewalker.ffmq4.storage.data.impl.JournalingBlockBasedDataStore;
+import net.timewalker.ffmq4.storage.data.impl.MappedBlockBasedDataStore;
+import net.timewalker.ffmq4.storage.data.impl.journal.SharedJournal;
+import net.timewalker.ffmq4.utils.Histogram;
 import net.timewalker.ffmq4.utils.async.AsyncTaskManager;
 
 /**
  * BlockFileMessageStore
  */
-public final class BlockFileMessageStore extends AbstractMessageStore
+public class BlockFileMessageStore extends AbstractMessageStore
 {
     // Attributes
     private AsyncTaskManager asyncTaskManager;
+    private SharedJournal sharedJournal;
 	private boolean useJournal;
+	private RecentMessageCache messageCache;
 	
 	/**
      * Constructor
      */
     public BlockFileMessageStore( QueueDefinition queueDef ,
     		                      AsyncTaskManager asyncTaskManager )
+    {
+        this(queueDef,asyncTaskManager,null);
+    }
+    
+    /**
+     * Constructor
+     * @param sharedJournal an engine-wide shared journal, or null
+     */
+    public BlockFileMessageStore( QueueDefinition queueDef ,
+    		                      AsyncTaskManager asyncTaskManager ,
+    		                      SharedJournal sharedJournal )
     {
         super(queueDef);
         this.asyncTaskManager = asyncTaskManager;
+        this.sharedJournal = sharedJournal;
         this.useJournal = queueDef.isUseJournal() && !queueDef.isTemporary();
+        
+        // Memory mapped stores do not need a read cache
+        if (queueDef.getMessageCacheSize() > 0 && !queueDef.isMemoryMapped())
+        	this.messageCache = new RecentMessageCache(queueDef.getMessageCacheSize());
     }
     
     /* (non-Javadoc)
@@ -57,11 +78,44 @@ public final class BlockFileMessageStore extends AbstractMessageStore
 	protected LinkedDataStore createDataStore()
     {
         if (useJournal)
-            return new JournalingBlockBasedDataStore(queueDef,asyncTaskManager);
+            return new JournalingBlockBasedDataStore(queueDef,asyncTaskManager,sharedJournal);
+        else if (queueDef.isMemoryMapped())
+            return new MappedBlockBasedDataStore(queueDef);
         else
             return new BlockBasedDataStore(queueDef);
     }
 
+    /**
+     * Get the cache of recently stored messages
+     * @return the cache or null if disabled
+     */
+    public RecentMessageCache getMessageCache()
+    {
+    	return messageCache;
+    }
+    
+    /**
+     * Get the histogram of the number of commits per journal sync
+     * @return a histogram or null if the store does not use a journal
+     */
+    public Histogram getJournalCommitBatchSizes()
+    {
+    	if (dataStore instanceof JournalingBlockBasedDataStore)
+    		return ((JournalingBlockBasedDataStore)dataStore).getJournalCommitBatchSizes();
+    	return null;
+    }
+    
+    /**
+     * Get the histogram of journal sync latencies (in microseconds)
+     * @return a histogram or null if the store does not use a journal
+     */
+    public Histogram getJournalSyncLatencies()
+    {
+    	if (dataStore instanceof JournalingBlockBasedDataStore)
+    		return ((JournalingBlockBasedDataStore)dataStore).getJournalSyncLatencies();
+    	return null;
+    }
+    
     /* (non-Javadoc)
      * @see net.timewalker.ffmq4.storage.message.MessageStore#getDeliveryMode()
      */
@@ -77,6 +131,16 @@ public final class BlockFileMessageStore extends AbstractMessageStore
     @Override
 	protected AbstractMessage retrieveMessage(int handle) throws JMSException
     {
+    	if (messageCache != null)
+    	{
+    		byte[] cachedMsg = messageCache.get(handle);
+    		if (cachedMsg != null)
+    		{
+    			// Unserialized messages may update their raw buffer in place
+    			return MessageSerializer.unserialize(cachedMsg.clone(), true);
+    		}
+    	}
+    	
     	byte[] rawMsg = (byte[])dataStore.retrieve(handle);
     	return MessageSerializer.unserialize(rawMsg, true);
     }
@@ -87,6 +151,13 @@ public final class BlockFileMessageStore extends AbstractMessageStore
     @Override
 	protected int retrieveMessagePriority(int handle) throws JMSException
     {
+    	if (messageCache != null)
+    	{
+    		byte[] cachedMsg = messageCache.peek(handle);
+    		if (cachedMsg != null)
+    			return cachedMsg[1] & 0x0F;
+    	}
+    	
     	// Only read the first header bytes of the message to read the priority field
     	byte[] msgHeader = ((AbstractBlockBasedDataStore)dataStore).retrieveHeader(handle, 2);    	
     	return msgHeader[1] & 0x0F;
@@ -94,7 +165,8 @@ public final class BlockFileMessageStore extends AbstractMessageStore
     
     private byte[] serialize( AbstractMessage message )
     {
-		return MessageSerializer.serialize(message,((AbstractBlockBasedDataStore)dataStore).getBlockSize());
+    	// Block stores copy the data synchronously, so the message raw buffer can be passed through
+		return MessageSerializer.serializeTransient(message,((AbstractBlockBasedDataStore)dataStore).getBlockSize());
     }
     
     /* (non-Javadoc)
@@ -103,7 +175,13 @@ public final class BlockFileMessageStore extends AbstractMessageStore
     @Override
 	protected int replaceMessage(int handle, AbstractMessage message) throws JMSException
     {
-        return dataStore.replace(handle,serialize(message));
+    	if (messageCache != null)
+    		messageCache.remove(handle);
+    	
+        int newHandle = dataStore.replace(handle,serialize(message));
+        if (messageCache != null && newHandle != -1)
+        	messageCache.remove(newHandle);
+        return newHandle;
     }
     
     /*
@@ -113,9 +191,39 @@ public final class BlockFileMessageStore extends AbstractMessageStore
     @Override
 	protected int storeMessage(AbstractMessage message, int previousHandle) throws JMSException
     {
-        return dataStore.store(serialize(message), previousHandle);
+    	if (messageCache == null)
+    		return dataStore.store(serialize(message), previousHandle);
+    	
+    	// The cache retains the array, so it must not be shared with the message
+    	byte[] rawMsg = MessageSerializer.serialize(message,((AbstractBlockBasedDataStore)dataStore).getBlockSize());
+    	int handle = dataStore.store(rawMsg, previousHandle);
+    	if (handle != -1)
+    		messageCache.put(handle, rawMsg);
+    	return handle;
 	}
     
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.message.impl.AbstractMessageStore#deleteMessage(int)
+     */
+    @Override
+	protected int deleteMessage(int handle) throws JMSException
+    {
+    	if (messageCache != null)
+    		messageCache.remove(handle);
+    	return super.deleteMessage(handle);
+    }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.storage.message.impl.AbstractMessageStore#close()
+     */
+    @Override
+	public void close() throws JMSException
+    {
+    	if (messageCache != null)
+    		messageCache.clear();
+    	super.close();
+    }
+    
     /*
      * (non-Javadoc)
      * @see net.timewalker.ffmq4.local.destination.store.MessageStore#delete()
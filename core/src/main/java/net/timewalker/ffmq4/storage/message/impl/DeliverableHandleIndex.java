@@ -0,0 +1,326 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.storage.message.impl;
+
+import net.timewalker.ffmq4.utils.ArrayTools;
+import net.timewalker.ffmq4.utils.FastBitSet;
+
+/**
+ * <p>Index of the unlocked (deliverable) message handles of a message store.</p>
+ * <p>
+ * Each stored handle is given a sequence number reflecting its position in the store
+ * (messages are always appended after the last message with the same priority, so
+ * sequence order is store order inside a given priority rank).<br>
+ * Unlocked handles are kept in one min-heap per priority, ordered by sequence.
+ * Locked or deleted handles are not removed eagerly : stale heap entries are discarded
+ * when they reach the top of their heap, or when a heap grows too large compared to
+ * the number of available handles it indexes.
+ * </p>
+ * Not thread-safe, callers are expected to hold the store lock.
+ */
+final class DeliverableHandleIndex
+{
+	private static final int PRIORITY_LEVELS = 10;
+	private static final int MIN_COMPACTION_SIZE = 64;
+	private static final int MAX_IDLE_CAPACITY = 1024;
+	
+	// Per-handle state
+	private long[] sequenceOf;
+	private byte[] priorityOf;
+	private FastBitSet available;
+	private long nextSequence = 1;
+	
+	// Per-priority heaps
+	private long[][] heapSequences = new long[PRIORITY_LEVELS][];
+	private int[][] heapHandles = new int[PRIORITY_LEVELS][];
+	private int[] heapSize = new int[PRIORITY_LEVELS];
+	private int[] availableCount = new int[PRIORITY_LEVELS];
+	
+	/**
+	 * Constructor
+	 */
+	public DeliverableHandleIndex( int initialCapacity )
+	{
+		int capacity = Math.max(initialCapacity, 16);
+		this.sequenceOf = new long[capacity];
+		this.priorityOf = new byte[capacity];
+		this.available = new FastBitSet(capacity);
+		for (int n = 0 ; n < PRIORITY_LEVELS ; n++)
+		{
+			heapSequences[n] = new long[16];
+			heapHandles[n] = new int[16];
+		}
+	}
+	
+	private void ensureCapacity( int handle )
+	{
+		if (handle < sequenceOf.length)
+			return;
+		
+		int newCapacity = Math.max(sequenceOf.length*2, handle+1);
+		sequenceOf = ArrayTools.extend(sequenceOf, newCapacity);
+		priorityOf = ArrayTools.extend(priorityOf, newCapacity);
+		available.ensureCapacity(newCapacity);
+	}
+	
+	/**
+	 * Register a newly stored, unlocked handle
+	 */
+	public void added( int handle , int priority )
+	{
+		ensureCapacity(handle);
+		sequenceOf[handle] = nextSequence++;
+		priorityOf[handle] = (byte)priority;
+		markAvailable(handle);
+	}
+	
+	/**
+	 * Unregister a deleted handle
+	 */
+	public void removed( int handle )
+	{
+		if (handle >= sequenceOf.length)
+			return;
+		
+		markUnavailable(handle);
+		sequenceOf[handle] = 0;
+	}
+	
+	/**
+	 * Notify that a handle was moved by a replace operation.
+	 * The new handle keeps the position (sequence) and availability of the old one.
+	 */
+	public void moved( int oldHandle , int newHandle )
+	{
+		if (oldHandle == newHandle)
+			return;
+		
+		long sequence = sequenceOf[oldHandle];
+		int priority = priorityOf[oldHandle];
+		boolean wasAvailable = available.get(oldHandle);
+		removed(oldHandle);
+		
+		ensureCapacity(newHandle);
+		sequenceOf[newHandle] = sequence;
+		priorityOf[newHandle] = (byte)priority;
+		if (wasAvailable)
+			markAvailable(newHandle);
+	}
+	
+	/**
+	 * Notify that a handle was locked
+	 */
+	public void locked( int handle )
+	{
+		markUnavailable(handle);
+	}
+	
+	/**
+	 * Notify that a handle was unlocked
+	 */
+	public void unlocked( int handle )
+	{
+		markAvailable(handle);
+	}
+	
+	/**
+	 * Get the first available handle, taking priorities into account
+	 * @return the first available handle or -1
+	 */
+	public int first()
+	{
+		for (int priority = PRIORITY_LEVELS-1 ; priority >= 0 ; priority--)
+		{
+			if (availableCount[priority] == 0)
+			{
+				heapSize[priority] = 0; // Everything left is stale
+				continue;
+			}
+			
+			long[] sequences = heapSequences[priority];
+			int[] handles = heapHandles[priority];
+			while (heapSize[priority] > 0)
+			{
+				int handle = handles[0];
+				if (isValid(handle, sequences[0]))
+					return handle;
+				
+				removeTop(priority);
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Reset the index
+	 */
+	public void clear()
+	{
+		for (int n = 0 ; n < PRIORITY_LEVELS ; n++)
+		{
+			heapSize[n] = 0;
+			availableCount[n] = 0;
+		}
+		for (int n = 0 ; n < sequenceOf.length ; n++)
+			sequenceOf[n] = 0;
+		available.clear();
+		nextSequence = 1;
+	}
+	
+	/**
+	 * Give back the memory used by past handles once the store is empty.
+	 * Small indexes are kept as is to avoid allocation churn on queues that are frequently drained.
+	 */
+	public void trim()
+	{
+		boolean oversized = sequenceOf.length > MAX_IDLE_CAPACITY;
+		for (int n = 0 ; n < PRIORITY_LEVELS && !oversized ; n++)
+			oversized = heapHandles[n].length > MAX_IDLE_CAPACITY;
+		if (!oversized)
+			return;
+		
+		this.sequenceOf = new long[16];
+		this.priorityOf = new byte[16];
+		this.available = new FastBitSet(16);
+		for (int n = 0 ; n < PRIORITY_LEVELS ; n++)
+		{
+			heapSequences[n] = new long[16];
+			heapHandles[n] = new int[16];
+			heapSize[n] = 0;
+			availableCount[n] = 0;
+		}
+	}
+	
+	private boolean isValid( int handle , long sequence )
+	{
+		return sequenceOf[handle] == sequence && available.get(handle);
+	}
+	
+	private void markAvailable( int handle )
+	{
+		if (available.get(handle))
+			return;
+		
+		available.set(handle);
+		int priority = priorityOf[handle];
+		availableCount[priority]++;
+		push(priority, sequenceOf[handle], handle);
+	}
+	
+	private void markUnavailable( int handle )
+	{
+		if (!available.get(handle))
+			return;
+		
+		available.clear(handle);
+		availableCount[priorityOf[handle]]--;
+	}
+	
+	private void push( int priority , long sequence , int handle )
+	{
+		// Drop stale entries if the heap became too large
+		int size = heapSize[priority];
+		if (size >= MIN_COMPACTION_SIZE && size > 2*availableCount[priority])
+		{
+			compact(priority);
+			size = heapSize[priority];
+		}
+		
+		long[] sequences = heapSequences[priority];
+		int[] handles = heapHandles[priority];
+		if (size == sequences.length)
+		{
+			sequences = heapSequences[priority] = ArrayTools.extend(sequences, size*2);
+			handles = heapHandles[priority] = ArrayTools.extend(handles, size*2);
+		}
+		
+		// Sift up
+		int pos = size;
+		while (pos > 0)
+		{
+			int parent = (pos-1) >>> 1;
+			if (sequences[parent] <= sequence)
+				break;
+			sequences[pos] = sequences[parent];
+			handles[pos] = handles[parent];
+			pos = parent;
+		}
+		sequences[pos] = sequence;
+		handles[pos] = handle;
+		heapSize[priority] = size+1;
+	}
+	
+	private void removeTop( int priority )
+	{
+		long[] sequences = heapSequences[priority];
+		int[] handles = heapHandles[priority];
+		int size = --heapSize[priority];
+		if (size == 0)
+			return;
+		
+		siftDown(sequences, handles, size, 0, sequences[size], handles[size]);
+	}
+	
+	private static void siftDown( long[] sequences , int[] handles , int size , int pos , long sequence , int handle )
+	{
+		int half = size >>> 1;
+		while (pos < half)
+		{
+			int child = 2*pos+1;
+			int right = child+1;
+			if (right < size && sequences[right] < sequences[child])
+				child = right;
+			if (sequence <= sequences[child])
+				break;
+			sequences[pos] = sequences[child];
+			handles[pos] = handles[child];
+			pos = child;
+		}
+		sequences[pos] = sequence;
+		handles[pos] = handle;
+	}
+	
+	/**
+	 * Rebuild a heap, keeping only one valid entry per available handle
+	 */
+	private void compact( int priority )
+	{
+		long[] sequences = heapSequences[priority];
+		int[] handles = heapHandles[priority];
+		int size = heapSize[priority];
+		
+		FastBitSet kept = new FastBitSet(sequenceOf.length);
+		int newSize = 0;
+		for (int n = 0 ; n < size ; n++)
+		{
+			int handle = handles[n];
+			if (isValid(handle, sequences[n]) && !kept.get(handle))
+			{
+				kept.set(handle);
+				sequences[newSize] = sequences[n];
+				handles[newSize] = handle;
+				newSize++;
+			}
+		}
+		
+		// Heapify
+		for (int n = (newSize >>> 1)-1 ; n >= 0 ; n--)
+			siftDown(sequences, handles, newSize, n, sequences[n], handles[n]);
+		heapSize[priority] = newSize;
+	}
+}
@@ -0,0 +1,339 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.storage.message.impl;
+
+import javax.jms.JMSException;
+
+import net.timewalker.ffmq4.common.message.AbstractMessage;
+import net.timewalker.ffmq4.storage.message.MessageStore;
+import net.timewalker.ffmq4.utils.ErrorTools;
+import net.timewalker.ffmq4.utils.concurrent.SynchronizationBarrier;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p>Message store wrapper deferring the initialization of the underlying store until its first use.</p>
+ * <p>Used to speed up engine startup when a lot of persistent queues are deployed : recovery and
+ * integrity checks of a store only happen when a message is first stored, retrieved or counted.
+ * Closing or committing a store that was never opened is a no-op.</p>
+ */
+public final class LazyMessageStore implements MessageStore
+{
+	private static final Log log = LogFactory.getLog(LazyMessageStore.class);
+	
+	// Attributes
+	private MessageStore store;
+	private LazyMessageStoreListener listener;
+	
+	// Runtime
+	private volatile boolean opened;
+	private boolean closed;
+	
+	/**
+	 * Constructor
+	 */
+	public LazyMessageStore( MessageStore store )
+	{
+		this(store,null);
+	}
+	
+	/**
+	 * Constructor
+	 * @param listener an optional listener notified once the underlying store is opened
+	 */
+	public LazyMessageStore( MessageStore store , LazyMessageStoreListener listener )
+	{
+		this.store = store;
+		this.listener = listener;
+	}
+	
+	/**
+	 * Get the underlying store (may not be initialized yet)
+	 */
+	public MessageStore getStore()
+	{
+		return store;
+	}
+	
+	/**
+	 * Test if the underlying store was initialized
+	 */
+	public boolean isOpened()
+	{
+		return opened;
+	}
+	
+	private MessageStore openedStore() throws JMSException
+	{
+		if (!opened && open() && listener != null)
+			listener.storeOpened();
+		return store;
+	}
+	
+	/**
+	 * Initialize the underlying store
+	 * @return true if this call actually opened the store
+	 */
+	private synchronized boolean open() throws JMSException
+	{
+		if (opened)
+			return false;
+		if (closed)
+			throw new IllegalStateException("Message store is closed");
+		
+		store.init();
+		opened = true;
+		return true;
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.MessageStore#getStoreUsage()
+	 */
+	@Override
+	public int getStoreUsage()
+	{
+		return opened ? store.getStoreUsage() : 0;
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.MessageStore#getAbsoluteStoreUsage()
+	 */
+	@Override
+	public int getAbsoluteStoreUsage()
+	{
+		return opened ? store.getAbsoluteStoreUsage() : 0;
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.MessageStore#first()
+	 */
+	@Override
+	public int first() throws JMSException
+	{
+		return openedStore().first();
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.MessageStore#firstUnlocked()
+	 */
+	@Override
+	public int firstUnlocked() throws JMSException
+	{
+		return openedStore().firstUnlocked();
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.MessageStore#next(int)
+	 */
+	@Override
+	public int next( int handle ) throws JMSException
+	{
+		return openedStore().next(handle);
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.MessageStore#previous(int)
+	 */
+	@Override
+	public int previous( int handle ) throws JMSException
+	{
+		return openedStore().previous(handle);
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.MessageStore#store(net.timewalker.ffmq4.common.message.AbstractMessage)
+	 */
+	@Override
+	public int store( AbstractMessage message ) throws JMSException
+	{
+		return openedStore().store(message);
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.MessageStore#replace(int, net.timewalker.ffmq4.common.message.AbstractMessage)
+	 */
+	@Override
+	public int replace( int handle , AbstractMessage message ) throws JMSException
+	{
+		return openedStore().replace(handle, message);
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.MessageStore#delete(int)
+	 */
+	@Override
+	public void delete( int handle ) throws JMSException
+	{
+		openedStore().delete(handle);
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.MessageStore#retrieve(int)
+	 */
+	@Override
+	public AbstractMessage retrieve( int handle ) throws JMSException
+	{
+		return openedStore().retrieve(handle);
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.MessageStore#lock(int)
+	 */
+	@Override
+	public void lock( int handle ) throws JMSException
+	{
+		openedStore().lock(handle);
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.MessageStore#unlock(int)
+	 */
+	@Override
+	public void unlock( int handle ) throws JMSException
+	{
+		openedStore().unlock(handle);
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.MessageStore#isLocked(int)
+	 */
+	@Override
+	public boolean isLocked( int handle ) throws JMSException
+	{
+		return openedStore().isLocked(handle);
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.MessageStore#getRedeliveryCount(int)
+	 */
+	@Override
+	public int getRedeliveryCount( int handle ) throws JMSException
+	{
+		return openedStore().getRedeliveryCount(handle);
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.MessageStore#markRedelivered(int)
+	 */
+	@Override
+	public int markRedelivered( int handle ) throws JMSException
+	{
+		return openedStore().markRedelivered(handle);
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.MessageStore#size()
+	 */
+	@Override
+	public int size()
+	{
+		if (!opened)
+		{
+			try
+			{
+				openedStore();
+			}
+			catch (JMSException e)
+			{
+				ErrorTools.log(e, log);
+				if (!opened)
+					return 0;
+			}
+		}
+		return store.size();
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.MessageStore#commitChanges(net.timewalker.ffmq4.utils.concurrent.SynchronizationBarrier)
+	 */
+	@Override
+	public void commitChanges( SynchronizationBarrier barrier ) throws JMSException
+	{
+		// Nothing to commit if the store was never opened
+		if (opened)
+			store.commitChanges(barrier);
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.MessageStore#commitChanges()
+	 */
+	@Override
+	public void commitChanges() throws JMSException
+	{
+		if (opened)
+			store.commitChanges();
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.MessageStore#init()
+	 */
+	@Override
+	public void init() throws JMSException
+	{
+		// Deferred until first use
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.MessageStore#close()
+	 */
+	@Override
+	public synchronized void close() throws JMSException
+	{
+		closed = true;
+		if (opened)
+			store.close();
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.MessageStore#delete()
+	 */
+	@Override
+	public void delete() throws JMSException
+	{
+		store.delete();
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.MessageStore#isFailSafe()
+	 */
+	@Override
+	public boolean isFailSafe()
+	{
+		return store.isFailSafe();
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.MessageStore#getDeliveryMode()
+	 */
+	@Override
+	public int getDeliveryMode()
+	{
+		return store.getDeliveryMode();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString()
+	{
+		return store.toString();
+	}
+}
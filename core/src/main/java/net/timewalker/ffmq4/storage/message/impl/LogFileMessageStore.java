@@ -0,0 +1,161 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.storage.message.impl;
+
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+
+import net.timewalker.ffmq4.common.message.AbstractMessage;
+import net.timewalker.ffmq4.common.message.MessageSerializer;
+import net.timewalker.ffmq4.management.destination.definition.QueueDefinition;
+import net.timewalker.ffmq4.storage.data.LinkedDataStore;
+import net.timewalker.ffmq4.storage.data.impl.LogStructuredDataStore;
+import net.timewalker.ffmq4.utils.async.AsyncTaskManager;
+
+/**
+ * <p>Persistent message store backed by a {@link LogStructuredDataStore}.</p>
+ * <p>Messages are written once to append-only log segments, without a separate journal.</p>
+ */
+public final class LogFileMessageStore extends AbstractMessageStore
+{
+	// Attributes
+	private AsyncTaskManager asyncTaskManager;
+	
+	/**
+	 * Constructor
+	 */
+	public LogFileMessageStore( QueueDefinition queueDef , AsyncTaskManager asyncTaskManager )
+	{
+		super(queueDef);
+		this.asyncTaskManager = asyncTaskManager;
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.impl.AbstractMessageStore#createDataStore()
+	 */
+	@Override
+	protected LinkedDataStore createDataStore()
+	{
+		return new LogStructuredDataStore(queueDef,asyncTaskManager);
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.impl.AbstractMessageStore#restoreOrder()
+	 */
+	@Override
+	protected void restoreOrder() throws JMSException
+	{
+		// The log store recovers messages in insertion order : sort them by descending priority
+		int[][] handlesByPriority = new int[10][];
+		int[] counts = new int[10];
+		int handle = dataStore.first();
+		while (handle != -1)
+		{
+			int priority = retrieveMessagePriority(handle);
+			if (handlesByPriority[priority] == null)
+				handlesByPriority[priority] = new int[16];
+			else if (counts[priority] == handlesByPriority[priority].length)
+			{
+				int[] newHandles = new int[counts[priority]*2];
+				System.arraycopy(handlesByPriority[priority], 0, newHandles, 0, counts[priority]);
+				handlesByPriority[priority] = newHandles;
+			}
+			handlesByPriority[priority][counts[priority]++] = handle;
+			handle = dataStore.next(handle);
+		}
+		
+		int[] order = new int[dataStore.size()];
+		int pos = 0;
+		for (int priority = 9; priority >= 0; priority--)
+		{
+			if (counts[priority] > 0)
+			{
+				System.arraycopy(handlesByPriority[priority], 0, order, pos, counts[priority]);
+				pos += counts[priority];
+			}
+		}
+		((LogStructuredDataStore)dataStore).relink(order);
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.MessageStore#getDeliveryMode()
+	 */
+	@Override
+	public int getDeliveryMode()
+	{
+		return DeliveryMode.PERSISTENT;
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.impl.AbstractMessageStore#retrieveMessage(int)
+	 */
+	@Override
+	protected AbstractMessage retrieveMessage( int handle ) throws JMSException
+	{
+		byte[] rawMsg = (byte[])dataStore.retrieve(handle);
+		return MessageSerializer.unserialize(rawMsg, true);
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.impl.AbstractMessageStore#retrieveMessagePriority(int)
+	 */
+	@Override
+	protected int retrieveMessagePriority( int handle ) throws JMSException
+	{
+		// Only read the first header bytes of the message to read the priority field
+		byte[] msgHeader = ((LogStructuredDataStore)dataStore).retrieveHeader(handle, 2);
+		return msgHeader[1] & 0x0F;
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.impl.AbstractMessageStore#replaceMessage(int, net.timewalker.ffmq4.common.message.AbstractMessage)
+	 */
+	@Override
+	protected int replaceMessage( int handle , AbstractMessage message ) throws JMSException
+	{
+		// The log store copies the data synchronously, so the message raw buffer can be passed through
+		return dataStore.replace(handle,MessageSerializer.serializeTransient(message,queueDef.getBlockSize()));
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.impl.AbstractMessageStore#storeMessage(net.timewalker.ffmq4.common.message.AbstractMessage, int)
+	 */
+	@Override
+	protected int storeMessage( AbstractMessage message , int previousHandle ) throws JMSException
+	{
+		return dataStore.store(MessageSerializer.serializeTransient(message,queueDef.getBlockSize()),previousHandle);
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.MessageStore#delete()
+	 */
+	@Override
+	public void delete() throws JMSException
+	{
+		LogStructuredDataStore.delete(queueDef.getName(),queueDef.getDataFolder());
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.MessageStore#isFailSafe()
+	 */
+	@Override
+	public boolean isFailSafe()
+	{
+		return !queueDef.isTemporary();
+	}
+}
@@ -0,0 +1,294 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.storage.message.impl;
+
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+
+/**
+ * <p>Bounded cache of the raw content of recently stored messages, indexed by store handle.</p>
+ * <p>Entries are evicted in insertion order once the total size of cached data exceeds the
+ * configured limit, or explicitly when a message is deleted. The whole table is softly referenced
+ * so that the garbage collector may drop it under memory pressure.</p>
+ * <p>Not thread-safe, access is synchronized by the owning message store.</p>
+ */
+public final class RecentMessageCache
+{
+	// Attributes
+	private int maxSize;
+	private int maxEntrySize;
+	
+	// Runtime
+	private SoftReference<Table> tableRef;
+	private volatile long hits;
+	private volatile long misses;
+	
+	/**
+	 * Constructor
+	 * @param maxSize maximum amount of cached data (bytes)
+	 */
+	public RecentMessageCache( int maxSize )
+	{
+		this.maxSize = maxSize;
+		this.maxEntrySize = maxSize/4;
+	}
+	
+	private Table getTable( boolean create )
+	{
+		Table table = tableRef != null ? tableRef.get() : null;
+		if (table == null && create)
+		{
+			table = new Table();
+			tableRef = new SoftReference<>(table);
+		}
+		return table;
+	}
+	
+	/**
+	 * Cache the raw content of a message.
+	 * The given array is retained and must not be modified afterwards.
+	 */
+	public void put( int handle , byte[] data )
+	{
+		if (data.length > maxEntrySize)
+		{
+			remove(handle);
+			return;
+		}
+		
+		Table table = getTable(true);
+		table.remove(handle);
+		table.put(handle, data);
+		while (table.size > maxSize)
+			table.evictOldest();
+	}
+	
+	/**
+	 * Get the cached raw content of a message
+	 * @return the cached data (must not be modified) or null if not cached
+	 */
+	public byte[] get( int handle )
+	{
+		Table table = getTable(false);
+		byte[] data = table != null ? table.get(handle) : null;
+		if (data != null)
+			hits++;
+		else
+			misses++;
+		return data;
+	}
+	
+	/**
+	 * Get the cached raw content of a message, without updating hit and miss counters
+	 * @return the cached data (must not be modified) or null if not cached
+	 */
+	public byte[] peek( int handle )
+	{
+		Table table = getTable(false);
+		return table != null ? table.get(handle) : null;
+	}
+	
+	/**
+	 * Remove a message from the cache
+	 */
+	public void remove( int handle )
+	{
+		Table table = getTable(false);
+		if (table != null)
+			table.remove(handle);
+	}
+	
+	/**
+	 * Remove all messages from the cache
+	 */
+	public void clear()
+	{
+		tableRef = null;
+	}
+	
+	/**
+	 * Get the number of lookups served by the cache
+	 */
+	public long getHits()
+	{
+		return hits;
+	}
+	
+	/**
+	 * Get the number of lookups that could not be served by the cache
+	 */
+	public long getMisses()
+	{
+		return misses;
+	}
+	
+	/**
+	 * Get the ratio of lookups served by the cache (%)
+	 * @return the hit ratio or -1 if the cache was never used
+	 */
+	public int getHitRatio()
+	{
+		long hitCount = hits;
+		long total = hitCount+misses;
+		return total > 0 ? (int)(hitCount*100/total) : -1;
+	}
+	
+	/**
+	 * Reset hit and miss counters
+	 */
+	public void resetStats()
+	{
+		hits = 0;
+		misses = 0;
+	}
+	
+	/**
+	 * Get the amount of cached data (bytes)
+	 */
+	public int getSize()
+	{
+		Table table = getTable(false);
+		return table != null ? table.size : 0;
+	}
+	
+	/**
+	 * Get the number of cached messages
+	 */
+	public int getCount()
+	{
+		Table table = getTable(false);
+		return table != null ? table.count : 0;
+	}
+	
+	//---------------------------------------------------------------------------------
+	
+	private static final class Table
+	{
+		// Cached data, indexed by handle
+		byte[][] dataByHandle = new byte[16][];
+		int[] stampByHandle = new int[16];
+		int size;
+		int count;
+		
+		// Insertion order, as (handle,stamp) pairs so that stale slots can be detected
+		int[] fifoHandles = new int[16];
+		int[] fifoStamps = new int[16];
+		int fifoHead;
+		int fifoCount;
+		int nextStamp;
+		
+		byte[] get( int handle )
+		{
+			return handle < dataByHandle.length ? dataByHandle[handle] : null;
+		}
+		
+		void put( int handle , byte[] data )
+		{
+			if (handle >= dataByHandle.length)
+			{
+				int newSize = Math.max(handle+1, dataByHandle.length*2);
+				dataByHandle = Arrays.copyOf(dataByHandle, newSize);
+				stampByHandle = Arrays.copyOf(stampByHandle, newSize);
+			}
+			int stamp = ++nextStamp;
+			dataByHandle[handle] = data;
+			stampByHandle[handle] = stamp;
+			size += data.length;
+			count++;
+			
+			// Drop stale slots left by removed entries before the ring grows
+			if (fifoCount == fifoHandles.length && fifoCount > 2*count)
+				compact();
+			if (fifoCount == fifoHandles.length)
+				growFifo();
+			int tail = (fifoHead+fifoCount) % fifoHandles.length;
+			fifoHandles[tail] = handle;
+			fifoStamps[tail] = stamp;
+			fifoCount++;
+		}
+		
+		void remove( int handle )
+		{
+			if (handle >= dataByHandle.length)
+				return;
+			byte[] data = dataByHandle[handle];
+			if (data == null)
+				return;
+			
+			dataByHandle[handle] = null;
+			size -= data.length;
+			count--;
+		}
+		
+		void evictOldest()
+		{
+			while (fifoCount > 0)
+			{
+				int handle = fifoHandles[fifoHead];
+				int stamp = fifoStamps[fifoHead];
+				fifoHead = (fifoHead+1) % fifoHandles.length;
+				fifoCount--;
+				
+				if (dataByHandle[handle] != null && stampByHandle[handle] == stamp)
+				{
+					remove(handle);
+					return;
+				}
+			}
+		}
+		
+		private boolean isLive( int slot )
+		{
+			int handle = fifoHandles[slot];
+			return dataByHandle[handle] != null && stampByHandle[handle] == fifoStamps[slot];
+		}
+		
+		private void compact()
+		{
+			int liveCount = 0;
+			for (int n = 0 ; n < fifoCount ; n++)
+			{
+				int slot = (fifoHead+n) % fifoHandles.length;
+				if (isLive(slot))
+				{
+					// Target slot always precedes the source slot in ring order
+					int target = (fifoHead+liveCount) % fifoHandles.length;
+					fifoHandles[target] = fifoHandles[slot];
+					fifoStamps[target] = fifoStamps[slot];
+					liveCount++;
+				}
+			}
+			fifoCount = liveCount;
+		}
+		
+		private void growFifo()
+		{
+			int[] newHandles = new int[fifoHandles.length*2];
+			int[] newStamps = new int[fifoStamps.length*2];
+			for (int n = 0 ; n < fifoCount ; n++)
+			{
+				int slot = (fifoHead+n) % fifoHandles.length;
+				newHandles[n] = fifoHandles[slot];
+				newStamps[n] = fifoStamps[slot];
+			}
+			fifoHandles = newHandles;
+			fifoStamps = newStamps;
+			fifoHead = 0;
+		}
+	}
+}
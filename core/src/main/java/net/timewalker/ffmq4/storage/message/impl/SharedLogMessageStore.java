@@ -0,0 +1,396 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.storage.message.impl;
+
+import java.util.Arrays;
+
+import javax.jms.JMSException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import net.timewalker.ffmq4.common.message.AbstractMessage;
+import net.timewalker.ffmq4.common.message.MessageSerializer;
+import net.timewalker.ffmq4.management.destination.definition.QueueDefinition;
+import net.timewalker.ffmq4.storage.data.impl.AbstractBlockBasedDataStore;
+import net.timewalker.ffmq4.storage.data.impl.JournalingBlockBasedDataStore;
+import net.timewalker.ffmq4.storage.data.impl.journal.SharedJournal;
+import net.timewalker.ffmq4.utils.async.AsyncTask;
+import net.timewalker.ffmq4.utils.async.AsyncTaskManager;
+import net.timewalker.ffmq4.utils.concurrent.SynchronizationBarrier;
+
+/**
+ * <p>Persistent store of a topic subscriber, backed by the {@link SharedMessageLog} of the topic.</p>
+ * <p>Messages are appended to the shared log and the subscriber data store only holds a reference record
+ * (a marker byte, the message priority and the log sequence number). Messages whose content becomes
+ * subscriber specific (on redelivery) are stored inline, like in a regular {@link BlockFileMessageStore}.</p>
+ * <p>Log entries dropped by this store are only released once the removal of their reference is committed
+ * and synced, so that a crash can never leave references to reclaimed log segments.</p>
+ */
+public final class SharedLogMessageStore extends BlockFileMessageStore
+{
+	private static final Log log = LogFactory.getLog(SharedLogMessageStore.class);
+	
+	// Reference records start with an invalid message type
+	private static final byte LOG_REFERENCE = (byte)0xFF;
+	private static final int REFERENCE_SIZE = 10;
+	
+	// Attributes
+	private SharedMessageLog messageLog;
+	private AsyncTaskManager asyncTaskManager;
+	
+	// Runtime
+	private SubscriberCursor cursor;
+	private long[] seqByHandle = new long[0];
+	private long[] pendingReleases = new long[16];
+	private int pendingReleasesCount;
+	
+	/**
+     * Constructor
+     */
+	public SharedLogMessageStore( QueueDefinition queueDef ,
+			                      AsyncTaskManager asyncTaskManager ,
+			                      SharedJournal sharedJournal ,
+			                      SharedMessageLog messageLog )
+	{
+		super(queueDef,asyncTaskManager,sharedJournal);
+		this.messageLog = messageLog;
+		this.asyncTaskManager = asyncTaskManager;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.impl.AbstractMessageStore#init()
+	 */
+	@Override
+	public void init() throws JMSException
+	{
+		super.init();
+		
+		// Collect the log entries referenced by this store
+		long[] referencedSeqs = new long[dataStore.size()];
+		int referencedCount = 0;
+		int handle = dataStore.first();
+		while (handle != -1)
+		{
+			byte[] header = ((AbstractBlockBasedDataStore)dataStore).retrieveHeader(handle, REFERENCE_SIZE);
+			if (header[0] == LOG_REFERENCE)
+			{
+				long seq = readSeq(header);
+				setSeq(handle, seq);
+				referencedSeqs[referencedCount++] = seq;
+			}
+			handle = dataStore.next(handle);
+		}
+		
+		cursor = messageLog.attach(queueDef.getName(), !queueDef.isTemporary(), referencedSeqs, referencedCount);
+	}
+	
+	private static long readSeq( byte[] reference )
+	{
+		long seq = 0;
+		for (int n = 2 ; n < REFERENCE_SIZE ; n++)
+			seq = (seq << 8) | (reference[n] & 0xFF);
+		return seq;
+	}
+	
+	private static byte[] createReference( int priority , long seq )
+	{
+		byte[] reference = new byte[REFERENCE_SIZE];
+		reference[0] = LOG_REFERENCE;
+		reference[1] = (byte)priority;
+		for (int n = REFERENCE_SIZE-1 ; n >= 2 ; n--)
+		{
+			reference[n] = (byte)seq;
+			seq >>>= 8;
+		}
+		return reference;
+	}
+	
+	private long getSeq( int handle )
+	{
+		return handle < seqByHandle.length ? seqByHandle[handle] : -1;
+	}
+	
+	private void setSeq( int handle , long seq )
+	{
+		if (handle >= seqByHandle.length)
+		{
+			if (seq == -1)
+				return;
+			
+			int oldSize = seqByHandle.length;
+			seqByHandle = Arrays.copyOf(seqByHandle, Math.max(handle+1, oldSize*2));
+			Arrays.fill(seqByHandle, oldSize, seqByHandle.length, -1);
+		}
+		seqByHandle[handle] = seq;
+	}
+	
+	/**
+	 * Release the log entry referenced by the given handle once the current transaction is committed
+	 */
+	private void dropReference( int handle )
+	{
+		long seq = getSeq(handle);
+		if (seq == -1)
+			return;
+		
+		setSeq(handle, -1);
+		if (pendingReleasesCount == pendingReleases.length)
+			pendingReleases = Arrays.copyOf(pendingReleases, pendingReleases.length*2);
+		pendingReleases[pendingReleasesCount++] = seq;
+	}
+	
+	private long[] takePendingReleases()
+	{
+		if (pendingReleasesCount == 0)
+			return null;
+		
+		long[] seqs = Arrays.copyOf(pendingReleases, pendingReleasesCount);
+		pendingReleasesCount = 0;
+		return seqs;
+	}
+	
+	private void release( long[] seqs ) throws JMSException
+	{
+		for (int n = 0 ; n < seqs.length ; n++)
+			messageLog.release(cursor, seqs[n]);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.impl.AbstractMessageStore#commitChanges(net.timewalker.ffmq4.utils.concurrent.SynchronizationBarrier)
+	 */
+	@Override
+	public void commitChanges(SynchronizationBarrier barrier) throws JMSException
+	{
+		long[] seqs = takePendingReleases();
+		if (seqs == null)
+		{
+			super.commitChanges(barrier);
+			return;
+		}
+		
+		if (!(dataStore instanceof JournalingBlockBasedDataStore))
+		{
+			// Changes are written to the store synchronously
+			super.commitChanges(barrier);
+			release(seqs);
+			return;
+		}
+		
+		// Release entries once the journal is synced, and only then let the caller barrier through
+		final SynchronizationBarrier callerBarrier = barrier;
+		final ReleaseAsyncTask releaseTask = new ReleaseAsyncTask(seqs);
+		SynchronizationBarrier syncBarrier = new SynchronizationBarrier();
+		if (callerBarrier != null)
+			callerBarrier.addParty();
+		syncBarrier.onReached(new Runnable() {
+			/*
+			 * (non-Javadoc)
+			 * @see java.lang.Runnable#run()
+			 */
+			@Override
+			public void run()
+			{
+				try
+				{
+					asyncTaskManager.execute(releaseTask);
+				}
+				catch (JMSException e)
+				{
+					// Manager is closing, release synchronously
+					releaseTask.execute();
+				}
+				if (callerBarrier != null)
+					callerBarrier.reach();
+			}
+		});
+		
+		try
+		{
+			super.commitChanges(syncBarrier);
+		}
+		catch (JMSException e)
+		{
+			if (callerBarrier != null)
+				callerBarrier.reach();
+			throw e;
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.impl.AbstractMessageStore#commitChanges()
+	 */
+	@Override
+	public void commitChanges() throws JMSException
+	{
+		long[] seqs = takePendingReleases();
+		super.commitChanges();
+		if (seqs != null)
+			release(seqs);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.impl.BlockFileMessageStore#storeMessage(net.timewalker.ffmq4.common.message.AbstractMessage, int)
+	 */
+	@Override
+	protected int storeMessage(AbstractMessage message, int previousHandle) throws JMSException
+	{
+		long seq = messageLog.append(cursor, message);
+		int handle = dataStore.store(createReference(message.getJMSPriority(), seq), previousHandle);
+		if (handle == -1)
+		{
+			messageLog.release(cursor, seq);
+			return -1;
+		}
+		
+		setSeq(handle, seq);
+		return handle;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.impl.BlockFileMessageStore#retrieveMessage(int)
+	 */
+	@Override
+	protected AbstractMessage retrieveMessage(int handle) throws JMSException
+	{
+		long seq = getSeq(handle);
+		if (seq == -1)
+			return super.retrieveMessage(handle);
+		
+		return MessageSerializer.unserialize(messageLog.read(seq), true);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.impl.BlockFileMessageStore#replaceMessage(int, net.timewalker.ffmq4.common.message.AbstractMessage)
+	 */
+	@Override
+	protected int replaceMessage(int handle, AbstractMessage message) throws JMSException
+	{
+		// The message content is now specific to this subscriber, store it inline
+		int newHandle = super.replaceMessage(handle, message);
+		if (newHandle == -1)
+			return -1;
+		
+		dropReference(handle);
+		setSeq(newHandle, -1);
+		
+		return newHandle;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.impl.AbstractMessageStore#deleteMessage(int)
+	 */
+	@Override
+	protected int deleteMessage(int handle) throws JMSException
+	{
+		int previousHandle = super.deleteMessage(handle);
+		dropReference(handle);
+		
+		return previousHandle;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.impl.AbstractMessageStore#close()
+	 */
+	@Override
+	public void close() throws JMSException
+	{
+		super.close();
+		if (cursor != null)
+		{
+			// The data store was flushed on close
+			long[] seqs = takePendingReleases();
+			if (seqs != null)
+				release(seqs);
+			messageLog.suspend(cursor);
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see net.timewalker.ffmq4.storage.message.impl.BlockFileMessageStore#delete()
+	 */
+	@Override
+	public void delete() throws JMSException
+	{
+		super.delete();
+		messageLog.detach(queueDef.getName());
+	}
+	
+	/**
+	 * Get the number of messages of this store held by the shared log
+	 */
+	public int getSharedMessagesCount()
+	{
+		synchronized (messageLog)
+		{
+			return cursor != null ? cursor.getPendingCount() : 0;
+		}
+	}
+	
+	//-------------------------------------------------------------------------------------
+	//     Stub classes to interface with the disk I/O asynchronous task manager
+	//-------------------------------------------------------------------------------------
+	
+	private class ReleaseAsyncTask implements AsyncTask
+	{
+		private long[] seqs;
+		
+		/**
+		 * Constructor
+		 */
+		public ReleaseAsyncTask( long[] seqs )
+		{
+			super();
+			this.seqs = seqs;
+		}
+		
+		/* (non-Javadoc)
+		 * @see net.timewalker.ffmq4.utils.async.AsyncTask#execute()
+		 */
+		@Override
+		public void execute()
+		{
+			try
+			{
+				release(seqs);
+			}
+			catch (JMSException e)
+			{
+				log.error("["+queueDef.getName()+"] Cannot release shared log entries",e);
+			}
+		}
+		
+		/* (non-Javadoc)
+		 * @see net.timewalker.ffmq4.utils.async.AsyncTask#isMergeable()
+		 */
+		@Override
+		public boolean isMergeable()
+		{
+			return false;
+		}
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.storage.message.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import net.timewalker.ffmq4.storage.data.DataStoreException;
+
+/**
+ * <p>Append-only segment file of a {@link SharedMessageLog}.</p>
+ * <p>Each record is made of a 4 bytes length, the 8 bytes sequence number of the entry and the serialized message.
+ * Sequence numbers are contiguous within a segment, so record offsets are indexed by sequence number in memory.</p>
+ */
+final class SharedLogSegment
+{
+	/**
+	 * Size of a record header (length + sequence number)
+	 */
+	public static final int RECORD_HEADER_SIZE = 12;
+	
+	// Attributes
+	private File file;
+	private long firstSeq;
+	
+	// Runtime
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private int size;
+	private int[] offsets = new int[256];
+	private int count;
+	private ByteBuffer headerBuffer = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+	
+	/**
+	 * Constructor
+	 */
+	public SharedLogSegment( File file , long firstSeq ) throws DataStoreException
+	{
+		this.file = file;
+		this.firstSeq = firstSeq;
+		try
+		{
+			this.raf = new RandomAccessFile(file,"rw");
+			this.channel = raf.getChannel();
+		}
+		catch (IOException e)
+		{
+			throw new DataStoreException("Cannot open log segment : "+file.getAbsolutePath(),e);
+		}
+	}
+	
+	/**
+	 * Scan the records of an existing segment file.
+	 * The scan stops at the first incomplete or inconsistent record, which is then truncated.
+	 */
+	public void scan() throws DataStoreException
+	{
+		try
+		{
+			long fileSize = channel.size();
+			int pos = 0;
+			while (pos + RECORD_HEADER_SIZE <= fileSize)
+			{
+				headerBuffer.clear();
+				channel.read(headerBuffer, pos);
+				int length = headerBuffer.getInt(0);
+				long seq = headerBuffer.getLong(4);
+				if (length < 0 || seq != firstSeq+count || pos + RECORD_HEADER_SIZE + (long)length > fileSize)
+					break;
+				
+				addOffset(pos);
+				pos += RECORD_HEADER_SIZE + length;
+			}
+			size = pos;
+			if (size < fileSize)
+				channel.truncate(size);
+		}
+		catch (IOException e)
+		{
+			throw new DataStoreException("Cannot scan log segment : "+file.getAbsolutePath(),e);
+		}
+	}
+	
+	private void addOffset( int offset )
+	{
+		if (count == offsets.length)
+		{
+			int[] newOffsets = new int[offsets.length*2];
+			System.arraycopy(offsets, 0, newOffsets, 0, count);
+			offsets = newOffsets;
+		}
+		offsets[count++] = offset;
+	}
+	
+	/**
+	 * Append a new record
+	 * @return the sequence number of the new record
+	 */
+	public long append( byte[] data , int length ) throws DataStoreException
+	{
+		long seq = firstSeq+count;
+		headerBuffer.clear();
+		headerBuffer.putInt(length);
+		headerBuffer.putLong(seq);
+		headerBuffer.flip();
+		try
+		{
+			long pos = size;
+			ByteBuffer dataBuffer = ByteBuffer.wrap(data, 0, length);
+			while (headerBuffer.hasRemaining())
+				pos += channel.write(headerBuffer, pos);
+			while (dataBuffer.hasRemaining())
+				pos += channel.write(dataBuffer, pos);
+		}
+		catch (IOException e)
+		{
+			throw new DataStoreException("Cannot write to log segment : "+file.getAbsolutePath(),e);
+		}
+		
+		addOffset(size);
+		size += RECORD_HEADER_SIZE + length;
+		
+		return seq;
+	}
+	
+	/**
+	 * Get the file offset of a record
+	 */
+	public int getOffset( long seq )
+	{
+		return offsets[(int)(seq - firstSeq)];
+	}
+	
+	/**
+	 * Read the record at the given offset.
+	 * May be called concurrently with appends.
+	 */
+	public byte[] read( int offset ) throws DataStoreException
+	{
+		try
+		{
+			ByteBuffer header = ByteBuffer.allocate(4);
+			channel.read(header, offset);
+			byte[] data = new byte[header.getInt(0)];
+			ByteBuffer dataBuffer = ByteBuffer.wrap(data);
+			long pos = offset + RECORD_HEADER_SIZE;
+			while (dataBuffer.hasRemaining())
+			{
+				int read = channel.read(dataBuffer, pos);
+				if (read == -1)
+					throw new IOException("Unexpected end of file");
+				pos += read;
+			}
+			return data;
+		}
+		catch (IOException e)
+		{
+			throw new DataStoreException("Cannot read from log segment : "+file.getAbsolutePath(),e);
+		}
+	}
+	
+	/**
+	 * Force pending writes to disk
+	 */
+	public void force() throws DataStoreException
+	{
+		try
+		{
+			channel.force(false);
+		}
+		catch (IOException e)
+		{
+			throw new DataStoreException("Cannot sync log segment : "+file.getAbsolutePath(),e);
+		}
+	}
+	
+	/**
+	 * @return the sequence number of the first record
+	 */
+	public long getFirstSeq()
+	{
+		return firstSeq;
+	}
+	
+	/**
+	 * @return the sequence number of the last record, or firstSeq-1 if the segment is empty
+	 */
+	public long getLastSeq()
+	{
+		return firstSeq+count-1;
+	}
+	
+	/**
+	 * @return the number of records
+	 */
+	public int getCount()
+	{
+		return count;
+	}
+	
+	/**
+	 * @return the segment size in bytes
+	 */
+	public int getSize()
+	{
+		return size;
+	}
+	
+	/**
+	 * Close the segment file
+	 */
+	public void close()
+	{
+		try
+		{
+			raf.close();
+		}
+		catch (IOException e)
+		{
+			// Ignore
+		}
+	}
+	
+	/**
+	 * Close and delete the segment file
+	 */
+	public void delete() throws DataStoreException
+	{
+		close();
+		if (!file.delete())
+			throw new DataStoreException("Cannot delete log segment : "+file.getAbsolutePath());
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString()
+	{
+		return file.getName()+"[first="+firstSeq+",count="+count+",size="+size+"]";
+	}
+}
@@ -0,0 +1,682 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.storage.message.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import javax.jms.JMSException;
+
+import net.timewalker.ffmq4.common.message.AbstractMessage;
+import net.timewalker.ffmq4.common.message.MessageSerializer;
+import net.timewalker.ffmq4.storage.data.DataStoreException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p>Topic-level log of persistent messages, shared by all the subscriptions of a topic.</p>
+ * <p>A message published to the topic is appended once to the log, and each subscriber store only holds
+ * a small reference to the log entry (see {@link SharedLogMessageStore}). Each subscriber has a
+ * {@link SubscriberCursor} tracking the log entries it still references.</p>
+ * <p>The log is split in segment files. A segment is reclaimed once every subscriber cursor has moved past it.
+ * Cursors of durable subscribers are saved in a cursors file, so that segments referenced by durable subscriptions
+ * that are not loaded yet survive a restart.</p>
+ */
+public final class SharedMessageLog
+{
+	private static final Log log = LogFactory.getLog(SharedMessageLog.class);
+	
+	/**
+	 * Default size of a log segment
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 16*1024*1024;
+	
+	/**
+	 * Suffix of log folders
+	 */
+	public static final String FOLDER_SUFFIX = ".log";
+	
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".dat";
+	private static final String CURSORS_FILE = "cursors";
+	private static final int CURSORS_FILE_VERSION = 1;
+	
+	// Number of acknowledgements between two reclamation attempts
+	private static final int RECLAIM_INTERVAL = 1024;
+	
+	// Attributes
+	private String name;
+	private File folder;
+	private int segmentSize;
+	
+	// Runtime
+	private TreeMap<Long,SharedLogSegment> segments = new TreeMap<>();
+	private SharedLogSegment currentSegment;
+	private long nextSeq;
+	private boolean dirty;
+	private Map<String,SubscriberCursor> cursors = new HashMap<>();
+	private Map<String,Long> offlineCursors = new HashMap<>();
+	private int releasesSinceReclaim;
+	private ThreadLocal<Dispatch> currentDispatch = new ThreadLocal<>();
+	private List<Dispatch> activeDispatches = new ArrayList<>();
+	private boolean closed;
+	
+	// Stats
+	private long appendedCount;
+	private long reclaimedSegmentsCount;
+	
+	/**
+	 * Constructor
+	 * @param name log name (the topic name)
+	 * @param dataFolder folder holding the log folder
+	 * @param segmentSize maximum size of a segment file
+	 */
+	public SharedMessageLog( String name , File dataFolder , int segmentSize )
+	{
+		this.name = name;
+		this.folder = new File(dataFolder,name+FOLDER_SUFFIX);
+		this.segmentSize = segmentSize;
+	}
+	
+	/**
+	 * Open the log, scanning existing segments
+	 */
+	public synchronized void init() throws JMSException
+	{
+		if (!folder.isDirectory() && !folder.mkdirs())
+			throw new DataStoreException("Cannot create log folder : "+folder.getAbsolutePath());
+		
+		nextSeq = readCursors();
+		
+		File[] segmentFiles = folder.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String fileName)
+			{
+				return fileName.startsWith(SEGMENT_PREFIX) && fileName.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		for (int i = 0; i < segmentFiles.length; i++)
+		{
+			String fileName = segmentFiles[i].getName();
+			long firstSeq;
+			try
+			{
+				firstSeq = Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(), fileName.length()-SEGMENT_SUFFIX.length()), 16);
+			}
+			catch (NumberFormatException e)
+			{
+				log.warn("["+name+"] Ignoring invalid log segment : "+segmentFiles[i].getAbsolutePath());
+				continue;
+			}
+			
+			SharedLogSegment segment = new SharedLogSegment(segmentFiles[i], firstSeq);
+			segment.scan();
+			if (segment.getCount() == 0)
+			{
+				segment.delete();
+				continue;
+			}
+			segments.put(Long.valueOf(firstSeq), segment);
+			nextSeq = Math.max(nextSeq, segment.getLastSeq()+1);
+		}
+		
+		log.debug("["+name+"] Opened shared log : "+segments.size()+" segment(s), next sequence is "+nextSeq);
+	}
+	
+	/**
+	 * @return the log name
+	 */
+	public String getName()
+	{
+		return name;
+	}
+	
+	//--------------------------------------------------------------------
+	// Dispatch
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Start dispatching a message to the topic subscribers from the current thread.
+	 * Until {@link #endDispatch()} is called, all subscriber stores storing this message
+	 * share a single log entry.
+	 */
+	public void beginDispatch( AbstractMessage message )
+	{
+		Dispatch dispatch = currentDispatch.get();
+		if (dispatch == null)
+		{
+			dispatch = new Dispatch();
+			currentDispatch.set(dispatch);
+		}
+		else
+			endDispatch();
+		dispatch.message = message;
+	}
+	
+	/**
+	 * End the current message dispatch
+	 */
+	public void endDispatch()
+	{
+		Dispatch dispatch = currentDispatch.get();
+		if (dispatch == null)
+			return;
+		
+		dispatch.message = null;
+		if (dispatch.seq != -1)
+		{
+			synchronized (this)
+			{
+				activeDispatches.remove(dispatch);
+			}
+			dispatch.seq = -1;
+		}
+	}
+	
+	/**
+	 * Append a message to the log on behalf of a subscriber, unless it is the message being dispatched
+	 * and it was already appended. The log entry is referenced by the subscriber cursor.
+	 * @return the sequence number of the log entry
+	 */
+	public long append( SubscriberCursor cursor , AbstractMessage message ) throws JMSException
+	{
+		Dispatch dispatch = currentDispatch.get();
+		if (dispatch != null && dispatch.message == message)
+		{
+			if (dispatch.seq == -1)
+			{
+				byte[] data = MessageSerializer.serializeTransient(message, 4096);
+				synchronized (this)
+				{
+					dispatch.seq = appendData(data);
+					activeDispatches.add(dispatch); // Pin the entry until the dispatch is complete
+					cursor.add(dispatch.seq);
+				}
+			}
+			else
+				acquire(cursor, dispatch.seq);
+			return dispatch.seq;
+		}
+		
+		byte[] data = MessageSerializer.serializeTransient(message, 4096);
+		synchronized (this)
+		{
+			long seq = appendData(data);
+			cursor.add(seq);
+			return seq;
+		}
+	}
+	
+	private long appendData( byte[] data ) throws JMSException
+	{
+		checkNotClosed();
+		
+		if (currentSegment != null &&
+			currentSegment.getCount() > 0 &&
+			currentSegment.getSize() + SharedLogSegment.RECORD_HEADER_SIZE + data.length > segmentSize)
+		{
+			// Roll over to a new segment
+			currentSegment.force();
+			currentSegment = null;
+			dirty = false;
+			reclaim();
+		}
+		
+		if (currentSegment == null)
+		{
+			currentSegment = new SharedLogSegment(new File(folder,getSegmentFileName(nextSeq)), nextSeq);
+			segments.put(Long.valueOf(nextSeq), currentSegment);
+		}
+		
+		long seq = currentSegment.append(data, data.length);
+		nextSeq = seq+1;
+		appendedCount++;
+		dirty = true;
+		
+		return seq;
+	}
+	
+	private static String getSegmentFileName( long firstSeq )
+	{
+		String hexSeq = Long.toHexString(firstSeq);
+		StringBuilder sb = new StringBuilder(SEGMENT_PREFIX);
+		for (int n = hexSeq.length() ; n < 16 ; n++)
+			sb.append('0');
+		sb.append(hexSeq);
+		sb.append(SEGMENT_SUFFIX);
+		return sb.toString();
+	}
+	
+	/**
+	 * Read the serialized message of a log entry
+	 */
+	public byte[] read( long seq ) throws JMSException
+	{
+		SharedLogSegment segment;
+		int offset;
+		synchronized (this)
+		{
+			checkNotClosed();
+			
+			Entry<Long,SharedLogSegment> entry = segments.floorEntry(Long.valueOf(seq));
+			if (entry == null || seq > entry.getValue().getLastSeq())
+				throw new DataStoreException("["+name+"] Log entry not found : "+seq);
+			
+			segment = entry.getValue();
+			offset = segment.getOffset(seq);
+		}
+		return segment.read(offset);
+	}
+	
+	/**
+	 * Make all appended entries durable
+	 */
+	public synchronized void flush() throws JMSException
+	{
+		if (!dirty || closed)
+			return;
+		
+		currentSegment.force();
+		dirty = false;
+	}
+	
+	//--------------------------------------------------------------------
+	// Subscribers
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Attach a subscriber to the log
+	 * @param subscriberId the subscriber id
+	 * @param durable true if the subscriber store survives a restart
+	 * @param referencedSeqs the log entries already referenced by the subscriber store
+	 * @param referencedCount number of valid entries in referencedSeqs
+	 * @return the subscriber cursor
+	 */
+	public synchronized SubscriberCursor attach( String subscriberId , boolean durable , long[] referencedSeqs , int referencedCount ) throws JMSException
+	{
+		checkNotClosed();
+		
+		SubscriberCursor cursor = new SubscriberCursor(subscriberId, durable);
+		
+		// Add references in log order
+		long[] seqs = new long[referencedCount];
+		System.arraycopy(referencedSeqs, 0, seqs, 0, referencedCount);
+		Arrays.sort(seqs);
+		for (int i = 0; i < seqs.length; i++)
+		{
+			if (seqs[i] >= nextSeq)
+				throw new DataStoreException("["+name+"] Subscriber "+subscriberId+" references an unknown log entry : "+seqs[i]);
+			cursor.add(seqs[i]);
+		}
+		
+		Long previousPosition = offlineCursors.remove(subscriberId);
+		cursors.put(subscriberId, cursor);
+		
+		// Make sure a new durable subscriber is known to the log before it references any entry
+		if (durable && previousPosition == null)
+			writeCursors();
+		
+		log.debug("["+name+"] Attached subscriber : "+cursor);
+		
+		return cursor;
+	}
+	
+	/**
+	 * Reference a log entry from a subscriber
+	 */
+	public synchronized void acquire( SubscriberCursor cursor , long seq )
+	{
+		cursor.add(seq);
+	}
+	
+	/**
+	 * Release a log entry reference of a subscriber
+	 */
+	public synchronized void release( SubscriberCursor cursor , long seq ) throws JMSException
+	{
+		if (!cursor.remove(seq))
+			return;
+		
+		// Reclaim periodically, or as soon as a subscriber is caught up
+		if (++releasesSinceReclaim >= RECLAIM_INTERVAL || cursor.getPendingCount() == 0)
+			reclaim();
+	}
+	
+	/**
+	 * Detach a subscriber whose store is closed but still exists
+	 */
+	public synchronized void suspend( SubscriberCursor cursor ) throws JMSException
+	{
+		if (cursors.remove(cursor.getSubscriberId()) == null)
+			return;
+		
+		if (cursor.isDurable())
+		{
+			long position = cursor.position();
+			offlineCursors.put(cursor.getSubscriberId(), Long.valueOf(position != -1 ? position : nextSeq));
+		}
+		
+		log.debug("["+name+"] Suspended subscriber : "+cursor);
+	}
+	
+	/**
+	 * Remove a subscriber from the log (the subscriber store was deleted)
+	 */
+	public synchronized void detach( String subscriberId ) throws JMSException
+	{
+		SubscriberCursor cursor = cursors.remove(subscriberId);
+		Long offlinePosition = offlineCursors.remove(subscriberId);
+		if (cursor == null && offlinePosition == null)
+			return;
+		
+		log.debug("["+name+"] Detached subscriber : "+subscriberId);
+		
+		if (closed)
+			return;
+		
+		if ((cursor != null && cursor.isDurable()) || offlinePosition != null)
+			writeCursors();
+		reclaim();
+	}
+	
+	//--------------------------------------------------------------------
+	// Reclamation
+	//--------------------------------------------------------------------
+	
+	/**
+	 * Get the sequence number of the oldest entry that may still be referenced by a subscriber
+	 */
+	private long getMinPosition()
+	{
+		long minPosition = nextSeq;
+		for (SubscriberCursor cursor : cursors.values())
+		{
+			long position = cursor.position();
+			if (position != -1 && position < minPosition)
+				minPosition = position;
+		}
+		for (Long position : offlineCursors.values())
+			if (position.longValue() < minPosition)
+				minPosition = position.longValue();
+		for (int i = 0; i < activeDispatches.size(); i++)
+			if (activeDispatches.get(i).seq < minPosition)
+				minPosition = activeDispatches.get(i).seq;
+		
+		return minPosition;
+	}
+	
+	/**
+	 * Delete segments that are no longer referenced by any subscriber
+	 */
+	private void reclaim() throws JMSException
+	{
+		releasesSinceReclaim = 0;
+		
+		long minPosition = getMinPosition();
+		List<SharedLogSegment> reclaimable = null;
+		for (SharedLogSegment segment : segments.values())
+		{
+			if (segment == currentSegment || segment.getLastSeq() >= minPosition)
+				break;
+			
+			if (reclaimable == null)
+				reclaimable = new ArrayList<>();
+			reclaimable.add(segment);
+		}
+		if (reclaimable == null)
+			return;
+		
+		// Persist durable cursors first, so that the log is never behind them after a crash
+		writeCursors();
+		
+		for (int i = 0; i < reclaimable.size(); i++)
+		{
+			SharedLogSegment segment = reclaimable.get(i);
+			segments.remove(Long.valueOf(segment.getFirstSeq()));
+			segment.delete();
+			reclaimedSegmentsCount++;
+			log.debug("["+name+"] Reclaimed log segment : "+segment);
+		}
+	}
+	
+	private long readCursors() throws JMSException
+	{
+		File cursorsFile = new File(folder,CURSORS_FILE);
+		if (!cursorsFile.exists())
+			return 0;
+		
+		try
+		{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cursorsFile)));
+			try
+			{
+				int version = in.readInt();
+				if (version != CURSORS_FILE_VERSION)
+					throw new DataStoreException("["+name+"] Unsupported cursors file version : "+version);
+				
+				long storedNextSeq = in.readLong();
+				int count = in.readInt();
+				for (int i = 0; i < count; i++)
+				{
+					String subscriberId = in.readUTF();
+					long position = in.readLong();
+					offlineCursors.put(subscriberId, Long.valueOf(position));
+				}
+				return storedNextSeq;
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new DataStoreException("Cannot read cursors file : "+cursorsFile.getAbsolutePath(),e);
+		}
+	}
+	
+	private void writeCursors() throws JMSException
+	{
+		File cursorsFile = new File(folder,CURSORS_FILE);
+		File tmpFile = new File(folder,CURSORS_FILE+".tmp");
+		try
+		{
+			FileOutputStream fileOut = new FileOutputStream(tmpFile);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+			try
+			{
+				out.writeInt(CURSORS_FILE_VERSION);
+				out.writeLong(nextSeq);
+				
+				int count = offlineCursors.size();
+				for (SubscriberCursor cursor : cursors.values())
+					if (cursor.isDurable())
+						count++;
+				out.writeInt(count);
+				
+				Iterator<Entry<String,Long>> offlineEntries = offlineCursors.entrySet().iterator();
+				while (offlineEntries.hasNext())
+				{
+					Entry<String,Long> entry = offlineEntries.next();
+					out.writeUTF(entry.getKey());
+					out.writeLong(entry.getValue().longValue());
+				}
+				for (SubscriberCursor cursor : cursors.values())
+				{
+					if (!cursor.isDurable())
+						continue;
+					long position = cursor.position();
+					out.writeUTF(cursor.getSubscriberId());
+					out.writeLong(position != -1 ? position : nextSeq);
+				}
+				out.flush();
+				fileOut.getFD().sync();
+			}
+			finally
+			{
+				out.close();
+			}
+			
+			if (!tmpFile.renameTo(cursorsFile))
+			{
+				// Some platforms do not allow renaming over an existing file
+				if (!cursorsFile.delete() || !tmpFile.renameTo(cursorsFile))
+					throw new IOException("Cannot rename "+tmpFile.getAbsolutePath());
+			}
+		}
+		catch (IOException e)
+		{
+			throw new DataStoreException("Cannot write cursors file : "+cursorsFile.getAbsolutePath(),e);
+		}
+	}
+	
+	//--------------------------------------------------------------------
+	// Stats
+	//--------------------------------------------------------------------
+	
+	/**
+	 * @return the number of entries appended to the log since it was opened
+	 */
+	public synchronized long getAppendedCount()
+	{
+		return appendedCount;
+	}
+	
+	/**
+	 * @return the number of segments reclaimed since the log was opened
+	 */
+	public synchronized long getReclaimedSegmentsCount()
+	{
+		return reclaimedSegmentsCount;
+	}
+	
+	/**
+	 * @return the number of segment files
+	 */
+	public synchronized int getSegmentsCount()
+	{
+		return segments.size();
+	}
+	
+	/**
+	 * @return the number of attached subscribers
+	 */
+	public synchronized int getSubscribersCount()
+	{
+		return cursors.size();
+	}
+	
+	//--------------------------------------------------------------------
+	// Lifecycle
+	//--------------------------------------------------------------------
+	
+	private void checkNotClosed() throws JMSException
+	{
+		if (closed)
+			throw new DataStoreException("["+name+"] Shared log is closed");
+	}
+	
+	/**
+	 * Close the log
+	 */
+	public synchronized void close()
+	{
+		if (closed)
+			return;
+		
+		try
+		{
+			flush();
+			
+			// Keep positions of attached durable subscribers
+			for (SubscriberCursor cursor : cursors.values())
+			{
+				if (!cursor.isDurable())
+					continue;
+				long position = cursor.position();
+				offlineCursors.put(cursor.getSubscriberId(), Long.valueOf(position != -1 ? position : nextSeq));
+			}
+			cursors.clear();
+			writeCursors();
+		}
+		catch (JMSException e)
+		{
+			log.error("["+name+"] Cannot close shared log",e);
+		}
+		
+		closed = true;
+		for (SharedLogSegment segment : segments.values())
+			segment.close();
+		segments.clear();
+		currentSegment = null;
+	}
+	
+	/**
+	 * Close the log and delete its files
+	 */
+	public synchronized void delete() throws JMSException
+	{
+		closed = true;
+		for (SharedLogSegment segment : segments.values())
+			segment.delete();
+		segments.clear();
+		currentSegment = null;
+		
+		File[] files = folder.listFiles();
+		if (files != null)
+			for (int i = 0; i < files.length; i++)
+				if (!files[i].delete())
+					throw new DataStoreException("Cannot delete file : "+files[i].getAbsolutePath());
+		if (folder.exists() && !folder.delete())
+			throw new DataStoreException("Cannot delete log folder : "+folder.getAbsolutePath());
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString()
+	{
+		return "SharedMessageLog["+name+",segments="+segments.size()+",nextSeq="+nextSeq+",subscribers="+cursors.size()+",offline="+offlineCursors.size()+"]";
+	}
+	
+	//--------------------------------------------------------------------
+	
+	private static final class Dispatch
+	{
+		AbstractMessage message;
+		long seq = -1;
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.storage.message.impl;
+
+import java.util.BitSet;
+
+/**
+ * <p>Position of a subscriber in a {@link SharedMessageLog}.</p>
+ * <p>The cursor is the sequence number of the oldest log entry still referenced by the subscriber.
+ * Entries referenced past the cursor are tracked in a compact bitmap, relative to a base sequence number,
+ * so that out-of-order acknowledgements do not hold more than one bit per log entry.</p>
+ * <p>Not thread-safe, access is synchronized by the owning log.</p>
+ */
+final class SubscriberCursor
+{
+	// Leading free bits tolerated before the bitmap is shifted
+	private static final int COMPACTION_THRESHOLD = 64*1024;
+	
+	// Attributes
+	private String subscriberId;
+	private boolean durable;
+	
+	// Runtime
+	private long base;
+	private BitSet pending = new BitSet();
+	private int pendingCount;
+	
+	/**
+	 * Constructor
+	 */
+	public SubscriberCursor( String subscriberId , boolean durable )
+	{
+		this.subscriberId = subscriberId;
+		this.durable = durable;
+	}
+	
+	/**
+	 * @return the subscriberId
+	 */
+	public String getSubscriberId()
+	{
+		return subscriberId;
+	}
+	
+	/**
+	 * @return true if the cursor position should survive a restart
+	 */
+	public boolean isDurable()
+	{
+		return durable;
+	}
+	
+	/**
+	 * Mark a log entry as referenced by this subscriber
+	 */
+	public void add( long seq )
+	{
+		if (pendingCount == 0)
+		{
+			pending.clear();
+			base = seq;
+		}
+		else
+		if (seq < base)
+		{
+			// Re-base the bitmap (should only happen for out-of-order recovery)
+			int shift = (int)(base - seq);
+			BitSet newPending = new BitSet(pending.length()+shift);
+			for (int i = pending.nextSetBit(0) ; i >= 0 ; i = pending.nextSetBit(i+1))
+				newPending.set(i+shift);
+			pending = newPending;
+			base = seq;
+		}
+		
+		int index = (int)(seq - base);
+		if (!pending.get(index))
+		{
+			pending.set(index);
+			pendingCount++;
+		}
+	}
+	
+	/**
+	 * Acknowledge a log entry for this subscriber
+	 * @return true if the entry was referenced by this subscriber
+	 */
+	public boolean remove( long seq )
+	{
+		if (pendingCount == 0 || seq < base)
+			return false;
+		
+		long index = seq - base;
+		if (index > Integer.MAX_VALUE || !pending.get((int)index))
+			return false;
+		
+		pending.clear((int)index);
+		pendingCount--;
+		
+		if (pendingCount == 0)
+			pending.clear();
+		else
+		if (index == 0)
+		{
+			// Drop leading acknowledged entries once there are enough of them
+			int first = pending.nextSetBit(0);
+			if (first >= COMPACTION_THRESHOLD)
+			{
+				pending = pending.get(first, pending.length());
+				base += first;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Get the sequence number of the oldest entry referenced by this subscriber
+	 * @return a sequence number or -1 if the subscriber does not reference any entry
+	 */
+	public long position()
+	{
+		if (pendingCount == 0)
+			return -1;
+		
+		return base + pending.nextSetBit(0);
+	}
+	
+	/**
+	 * Get the number of log entries referenced by this subscriber
+	 */
+	public int getPendingCount()
+	{
+		return pendingCount;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString()
+	{
+		return "SubscriberCursor[subscriberId="+subscriberId+",position="+position()+",pending="+pendingCount+"]";
+	}
+}
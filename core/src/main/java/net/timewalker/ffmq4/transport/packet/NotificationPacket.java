@@ -17,6 +17,9 @@
  */
 package net.timewalker.ffmq4.transport.packet;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import net.timewalker.ffmq4.common.message.AbstractMessage;
 import net.timewalker.ffmq4.common.message.MessageSerializer;
 import net.timewalker.ffmq4.utils.RawDataBuffer;
@@ -25,13 +28,14 @@ import net.timewalker.ffmq4.utils.id.IntegerID;
 
 /**
  * NotificationPacket
+ * <p>Pushes a batch of prefetched messages to a remote consumer</p>
  */
 public final class NotificationPacket extends AbstractPacket
 {
     private IntegerID sessionId;
     private IntegerID consumerId;
-    private AbstractMessage message;
-    private boolean donePrefetching;
+    private List<AbstractMessage> messages = new ArrayList<>();
+    private long[] deliveryTags = new long[4];
     
     /* (non-Javadoc)
      * @see net.timewalker.ffmq4.network.packet.AbstractPacket#getType()
@@ -51,8 +55,13 @@ public final class NotificationPacket extends AbstractPacket
         super.serializeTo(out);
         out.writeInt(sessionId.asInt());
         out.writeInt(consumerId.asInt());
-        MessageSerializer.serializeTo(message, out);
-        out.writeBoolean(donePrefetching);
+        int count = messages.size();
+        out.writeInt(count);
+        for (int n = 0 ; n < count ; n++)
+        {
+        	out.writeLong(deliveryTags[n]);
+            MessageSerializer.serializeTo(messages.get(n), out);
+        }
     }
 
     /* (non-Javadoc)
@@ -64,8 +73,14 @@ public final class NotificationPacket extends AbstractPacket
         super.unserializeFrom(in);
         sessionId = new IntegerID(in.readInt());
         consumerId = new IntegerID(in.readInt());
-        message = MessageSerializer.unserializeFrom(in, false);
-        donePrefetching = in.readBoolean();
+        int count = in.readInt();
+        for (int n = 0 ; n < count ; n++)
+        {
+        	long deliveryTag = in.readLong();
+        	AbstractMessage message = MessageSerializer.unserializeFrom(in, false);
+        	message.setDeliveryTag(deliveryTag);
+            messages.add(message);
+        }
     }
 
     /**
@@ -101,35 +116,29 @@ public final class NotificationPacket extends AbstractPacket
     }
 
     /**
-	 * @return the message
-	 */
-	public AbstractMessage getMessage()
-	{
-		return message;
-	}
-	
-	/**
-	 * @param message the message to set
-	 */
-	public void setMessage(AbstractMessage message)
-	{
-		this.message = message;
-	}
-       
-	/**
-	 * @return the donePrefetching
+	 * @return the messages
 	 */
-	public boolean isDonePrefetching()
+	public List<AbstractMessage> getMessages()
 	{
-		return donePrefetching;
+		return messages;
 	}
 	
 	/**
-	 * @param donePrefetching the donePrefetching to set
+	 * Append a message to this notification
+	 * @param message the prefetched message
+	 * @param deliveryTag the delivery tag assigned to the message by the server session
 	 */
-	public void setDonePrefetching(boolean donePrefetching)
+	public void addMessage(AbstractMessage message, long deliveryTag)
 	{
-		this.donePrefetching = donePrefetching;
+		int pos = messages.size();
+		if (pos == deliveryTags.length)
+		{
+			long[] newDeliveryTags = new long[deliveryTags.length*2];
+			System.arraycopy(deliveryTags, 0, newDeliveryTags, 0, pos);
+			deliveryTags = newDeliveryTags;
+		}
+		deliveryTags[pos] = deliveryTag;
+		messages.add(message);
 	}
 	
 	/*
@@ -154,10 +163,8 @@ public final class NotificationPacket extends AbstractPacket
        sb.append(super.toString());
        sb.append(" consumerId=");
        sb.append(consumerId);
-       sb.append(" message=");
-       sb.append(message.getJMSMessageID());
-       sb.append(" donePrefetching=");
-       sb.append(donePrefetching);
+       sb.append(" messages=");
+       sb.append(messages.size());
        
        return sb.toString();
     }
@@ -34,7 +34,8 @@ import net.timewalker.ffmq4.transport.packet.query.DeleteTemporaryTopicQuery;
 import net.timewalker.ffmq4.transport.packet.query.GetQuery;
 import net.timewalker.ffmq4.transport.packet.query.OpenConnectionQuery;
 import net.timewalker.ffmq4.transport.packet.query.PingQuery;
-import net.timewalker.ffmq4.transport.packet.query.PrefetchQuery;
+import net.timewalker.ffmq4.transport.packet.query.PrefetchCreditQuery;
+import net.timewalker.ffmq4.transport.packet.query.PutBatchQuery;
 import net.timewalker.ffmq4.transport.packet.query.PutQuery;
 import net.timewalker.ffmq4.transport.packet.query.QueueBrowserFetchElementQuery;
 import net.timewalker.ffmq4.transport.packet.query.QueueBrowserGetEnumerationQuery;
@@ -62,7 +63,8 @@ import net.timewalker.ffmq4.transport.packet.response.ErrorResponse;
 import net.timewalker.ffmq4.transport.packet.response.GetResponse;
 import net.timewalker.ffmq4.transport.packet.response.OpenConnectionResponse;
 import net.timewalker.ffmq4.transport.packet.response.PingResponse;
-import net.timewalker.ffmq4.transport.packet.response.PrefetchResponse;
+import net.timewalker.ffmq4.transport.packet.response.PrefetchCreditResponse;
+import net.timewalker.ffmq4.transport.packet.response.PutBatchResponse;
 import net.timewalker.ffmq4.transport.packet.response.PutResponse;
 import net.timewalker.ffmq4.transport.packet.response.QueueBrowserFetchElementResponse;
 import net.timewalker.ffmq4.transport.packet.response.QueueBrowserGetEnumerationResponse;
@@ -130,12 +132,14 @@ public final class PacketType
     public static final byte R_CLOSE_CONSUMER            = 52;
     public static final byte Q_UNSUBSCRIBE               = 55;
     public static final byte R_UNSUBSCRIBE               = 56;
-    public static final byte Q_PREFETCH                  = 57;
-    public static final byte R_PREFETCH                  = 58;
     public static final byte Q_PING                      = 59;
     public static final byte R_PING                      = 60;
     public static final byte Q_ROLLBACK_MESSAGE          = 61;
     public static final byte R_ROLLBACK_MESSAGE          = 62;
+    public static final byte Q_PREFETCH_CREDIT           = 63;
+    public static final byte R_PREFETCH_CREDIT           = 64;
+    public static final byte Q_PUT_BATCH                 = 65;
+    public static final byte R_PUT_BATCH                 = 66;
     
     /**
      * Create a packet instance of the given type
@@ -195,12 +199,14 @@ public final class PacketType
             case R_CLOSE_CONSUMER:            return new CloseConsumerResponse();
             case Q_UNSUBSCRIBE:               return new UnsubscribeQuery();
             case R_UNSUBSCRIBE:               return new UnsubscribeResponse();
-            case Q_PREFETCH:                  return new PrefetchQuery();
-            case R_PREFETCH:                  return new PrefetchResponse();
             case Q_PING:                      return new PingQuery();
             case R_PING:                      return new PingResponse();
             case Q_ROLLBACK_MESSAGE:          return new RollbackMessageQuery();
             case R_ROLLBACK_MESSAGE:          return new RollbackMessageResponse();
+            case Q_PREFETCH_CREDIT:           return new PrefetchCreditQuery();
+            case R_PREFETCH_CREDIT:           return new PrefetchCreditResponse();
+            case Q_PUT_BATCH:                 return new PutBatchQuery();
+            case R_PUT_BATCH:                 return new PutBatchResponse();
             
             default:
                 throw new IllegalArgumentException("Unsupported packet type : "+type);
@@ -17,9 +17,7 @@
  */
 package net.timewalker.ffmq4.transport.packet.query;
 
-import java.util.ArrayList;
-import java.util.List;
-
+import net.timewalker.ffmq4.common.session.DeliveryTagRanges;
 import net.timewalker.ffmq4.utils.RawDataBuffer;
 
 /**
@@ -27,29 +25,22 @@ import net.timewalker.ffmq4.utils.RawDataBuffer;
  */
 public abstract class AbstractTransactionDemarcationQuery extends AbstractSessionQuery
 {
-	private List<String> deliveredMessageIDs;
+	private DeliveryTagRanges deliveryTags;
 	
 	/**
-	 * @return the deliveredMessageIDs
+	 * @return the delivery tags of the delivered messages
 	 */
-	public List<String> getDeliveredMessageIDs()
+	public DeliveryTagRanges getDeliveryTags()
 	{
-		return deliveredMessageIDs;
+		return deliveryTags;
 	}
 
 	/**
-	 * @param deliveredMessageIDs the deliveredMessageIDs to set
+	 * @param deliveryTags the delivery tags of the delivered messages
 	 */
-	public void setDeliveredMessageIDs(List<String> deliveredMessageIDs)
-	{
-		this.deliveredMessageIDs = deliveredMessageIDs;
-	}
-	
-	public void addDeliveredMessageID( String msgID )
+	public void setDeliveryTags(DeliveryTagRanges deliveryTags)
 	{
-		if (deliveredMessageIDs == null)
-			deliveredMessageIDs = new ArrayList<>();
-		deliveredMessageIDs.add(msgID);
+		this.deliveryTags = deliveryTags;
 	}
 	
 	/* (non-Javadoc)
@@ -59,13 +50,8 @@ public abstract class AbstractTransactionDemarcationQuery extends AbstractSessio
 	protected void serializeTo(RawDataBuffer out)
     {
     	super.serializeTo(out);
-    	if (deliveredMessageIDs != null)
-        {
-    		int len = deliveredMessageIDs.size(); 
-            out.writeInt(len);
-            for (int i = 0; i < len; i++)
-            	out.writeUTF(deliveredMessageIDs.get(i));
-        }
+    	if (deliveryTags != null)
+    		deliveryTags.serializeTo(out);
         else
             out.writeInt(0);
     }
@@ -77,12 +63,7 @@ public abstract class AbstractTransactionDemarcationQuery extends AbstractSessio
 	protected void unserializeFrom(RawDataBuffer in)
     {
     	super.unserializeFrom(in);
-    	int idCount = in.readInt();
-        for (int i = 0; i < idCount; i++)
-        {
-        	String msgID = in.readUTF();
-        	addDeliveredMessageID(msgID);
-        }
+    	deliveryTags = DeliveryTagRanges.unserializeFrom(in);
     }
     
     /*
@@ -95,8 +76,8 @@ public abstract class AbstractTransactionDemarcationQuery extends AbstractSessio
     	StringBuilder sb = new StringBuilder();
        
        sb.append(super.toString());
-       sb.append(" ids=");
-       sb.append(deliveredMessageIDs != null ? deliveredMessageIDs.size() : 0);
+       sb.append(" tags=");
+       sb.append(deliveryTags);
        
        return sb.toString();
     }
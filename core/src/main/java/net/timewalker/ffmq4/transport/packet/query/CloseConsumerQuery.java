@@ -17,9 +17,7 @@
  */
 package net.timewalker.ffmq4.transport.packet.query;
 
-import java.util.ArrayList;
-import java.util.List;
-
+import net.timewalker.ffmq4.common.session.DeliveryTagRanges;
 import net.timewalker.ffmq4.transport.packet.PacketType;
 import net.timewalker.ffmq4.utils.RawDataBuffer;
 
@@ -28,21 +26,21 @@ import net.timewalker.ffmq4.utils.RawDataBuffer;
  */
 public final class CloseConsumerQuery extends AbstractConsumerQuery
 {
-	private List<String> undeliveredMessageIDs;
+	private DeliveryTagRanges undeliveredTags;
 	
 	/**
-	 * @return the undeliveredMessageIDs
+	 * @return the delivery tags of the undelivered prefetched messages
 	 */
-	public List<String> getUndeliveredMessageIDs()
+	public DeliveryTagRanges getUndeliveredTags()
 	{
-		return undeliveredMessageIDs;
+		return undeliveredTags;
 	}
 	
-	public void addUndeliveredMessageID( String msgID )
+	public void addUndeliveredTag( long deliveryTag )
 	{
-		if (undeliveredMessageIDs == null)
-			undeliveredMessageIDs = new ArrayList<>();
-		undeliveredMessageIDs.add(msgID);
+		if (undeliveredTags == null)
+			undeliveredTags = new DeliveryTagRanges();
+		undeliveredTags.add(deliveryTag);
 	}
 	
 	/* (non-Javadoc)
@@ -61,13 +59,8 @@ public final class CloseConsumerQuery extends AbstractConsumerQuery
 	protected void serializeTo(RawDataBuffer out)
     {
     	super.serializeTo(out);
-    	if (undeliveredMessageIDs != null)
-        {
-    		int len = undeliveredMessageIDs.size(); 
-            out.writeInt(len);
-            for (int i = 0; i < len; i++)
-            	out.writeUTF(undeliveredMessageIDs.get(i));
-        }
+    	if (undeliveredTags != null)
+    		undeliveredTags.serializeTo(out);
         else
             out.writeInt(0);
     }
@@ -79,11 +72,6 @@ public final class CloseConsumerQuery extends AbstractConsumerQuery
 	protected void unserializeFrom(RawDataBuffer in)
     {
     	super.unserializeFrom(in);
-    	int idCount = in.readInt();
-        for (int i = 0; i < idCount; i++)
-        {
-        	String msgID = in.readUTF();
-        	addUndeliveredMessageID(msgID);
-        }
+    	undeliveredTags = DeliveryTagRanges.unserializeFrom(in);
     }
 }
@@ -0,0 +1,91 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.transport.packet.query;
+
+import net.timewalker.ffmq4.transport.packet.PacketType;
+import net.timewalker.ffmq4.utils.RawDataBuffer;
+
+/**
+ * PrefetchCreditQuery
+ * <p>Grants additional prefetch credits to a remote consumer (one credit per message the server may push)</p>
+ */
+public final class PrefetchCreditQuery extends AbstractConsumerQuery
+{
+	private int credits;
+	
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.network.packet.AbstractPacket#getType()
+     */
+    @Override
+	public byte getType()
+    {
+        return PacketType.Q_PREFETCH_CREDIT;
+    }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.transport.packet.query.AbstractConsumerQuery#serializeTo(net.timewalker.ffmq4.utils.RawDataBuffer)
+     */
+    @Override
+	protected void serializeTo(RawDataBuffer out)
+    {
+    	super.serializeTo(out);
+        out.writeInt(credits);
+    }
+
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.transport.packet.query.AbstractConsumerQuery#unserializeFrom(net.timewalker.ffmq4.utils.RawDataBuffer)
+     */
+    @Override
+	protected void unserializeFrom(RawDataBuffer in)
+    {
+    	super.unserializeFrom(in);
+    	credits = in.readInt();
+    }
+    
+    /**
+	 * @return the credits
+	 */
+	public int getCredits()
+	{
+		return credits;
+	}
+	
+	/**
+	 * @param credits the credits to set
+	 */
+	public void setCredits(int credits)
+	{
+		this.credits = credits;
+	}
+	
+	/*
+     *  (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+	public String toString()
+    {
+    	StringBuilder sb = new StringBuilder();
+        
+        sb.append(super.toString());
+        sb.append(" credits=");
+        sb.append(credits);
+        
+        return sb.toString();
+    }
+}
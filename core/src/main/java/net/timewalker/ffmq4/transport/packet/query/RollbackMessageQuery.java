@@ -8,22 +8,22 @@ import net.timewalker.ffmq4.utils.RawDataBuffer;
  */
 public final class RollbackMessageQuery extends AbstractConsumerQuery
 {
-    private String messageId;
+    private long deliveryTag;
     
     /**
-	 * @param messageId the messageId to set
+	 * @param deliveryTag the delivery tag of the message to rollback
 	 */
-	public void setMessageId(String messageId)
+	public void setDeliveryTag(long deliveryTag)
 	{
-		this.messageId = messageId;
+		this.deliveryTag = deliveryTag;
 	}
     
     /**
-	 * @return the messageId
+	 * @return the delivery tag of the message to rollback
 	 */
-	public String getMessageId()
+	public long getDeliveryTag()
 	{
-		return messageId;
+		return deliveryTag;
 	}
     
     /* (non-Javadoc)
@@ -42,7 +42,7 @@ public final class RollbackMessageQuery extends AbstractConsumerQuery
 	protected void serializeTo(RawDataBuffer out)
     {
         super.serializeTo(out);
-        out.writeUTF(messageId);
+        out.writeLong(deliveryTag);
     }
 
     /* (non-Javadoc)
@@ -52,6 +52,6 @@ public final class RollbackMessageQuery extends AbstractConsumerQuery
 	protected void unserializeFrom(RawDataBuffer in)
     {
         super.unserializeFrom(in);
-        messageId = in.readUTF();
+        deliveryTag = in.readLong();
     }
 }
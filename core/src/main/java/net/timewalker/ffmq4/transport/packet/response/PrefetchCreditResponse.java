@@ -15,21 +15,31 @@
  * along with FFMQ; if not, write to the Free Software
  * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
  */
-package net.timewalker.ffmq4.transport.packet.query;
 
+package net.timewalker.ffmq4.transport.packet.response;
+
+import net.timewalker.ffmq4.transport.packet.AbstractResponsePacket;
 import net.timewalker.ffmq4.transport.packet.PacketType;
 
 /**
- * PrefetchQuery
+ * PrefetchCreditResponse
  */
-public final class PrefetchQuery extends AbstractConsumerQuery
-{	
+public final class PrefetchCreditResponse extends AbstractResponsePacket
+{
+    /**
+     * Constructor
+     */
+    public PrefetchCreditResponse()
+    {
+        super();
+    }
+    
     /* (non-Javadoc)
      * @see net.timewalker.ffmq4.network.packet.AbstractPacket#getType()
      */
     @Override
 	public byte getType()
     {
-        return PacketType.Q_PREFETCH;
+        return PacketType.R_PREFETCH_CREDIT;
     }
-}
\ No newline at end of file
+}
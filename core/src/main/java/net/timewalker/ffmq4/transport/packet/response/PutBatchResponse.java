@@ -22,14 +22,14 @@ import net.timewalker.ffmq4.transport.packet.AbstractResponsePacket;
 import net.timewalker.ffmq4.transport.packet.PacketType;
 
 /**
- * PrefetchResponse
+ * PutBatchResponse
  */
-public final class PrefetchResponse extends AbstractResponsePacket
+public final class PutBatchResponse extends AbstractResponsePacket
 {
     /**
      * Constructor
      */
-    public PrefetchResponse()
+    public PutBatchResponse()
     {
         super();
     }
@@ -40,6 +40,6 @@ public final class PrefetchResponse extends AbstractResponsePacket
     @Override
 	public byte getType()
     {
-        return PacketType.R_PREFETCH;
+        return PacketType.R_PUT_BATCH;
     }
 }
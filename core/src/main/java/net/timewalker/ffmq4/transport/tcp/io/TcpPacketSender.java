@@ -19,7 +19,9 @@ package net.timewalker.ffmq4.transport.tcp.io;
 
 import java.io.OutputStream;
 import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.timewalker.ffmq4.transport.PacketTransportListener;
 import net.timewalker.ffmq4.transport.packet.AbstractPacket;
@@ -48,7 +50,9 @@ public final class TcpPacketSender extends AbstractTcpPacketHandler implements R
     private int sendQueueMaxSize;
     
     // Runtime
-    private LinkedList<AbstractPacket> sendQueue = new LinkedList<>();
+    // Lock-free queue so that senders never block on a monitor (which would pin virtual threads)
+    private ConcurrentLinkedQueue<AbstractPacket> sendQueue = new ConcurrentLinkedQueue<>();
+    private AtomicInteger sendQueueSize = new AtomicInteger();
     private LinkedList<AbstractPacket> pipeline = new LinkedList<>();
     private Semaphore waitLock = new Semaphore(0);
     private volatile boolean stopRequired;
@@ -72,19 +76,14 @@ public final class TcpPacketSender extends AbstractTcpPacketHandler implements R
      */
     public void send(AbstractPacket packet)
     {
-    	synchronized (sendQueue)
-		{    		
-    		sendQueue.addLast(packet);
-		}
+    	sendQueue.add(packet);
+    	sendQueueSize.incrementAndGet();
     	waitLock.release();
     }
     
     public boolean needsThrottling()
     {
-    	synchronized (sendQueue)
-		{
-    		return (sendQueueMaxSize > 0 && sendQueue.size() >= sendQueueMaxSize);
-		}
+    	return (sendQueueMaxSize > 0 && sendQueueSize.get() >= sendQueueMaxSize);
     }
     
     /* (non-Javadoc)
@@ -110,13 +109,13 @@ public final class TcpPacketSender extends AbstractTcpPacketHandler implements R
 	    		//   before asking to flush the buffers.
 
 	    		// De-queue pending messages and move them to the pipeline
-	    		synchronized (sendQueue)
+	    		while (pipeline.size() < 16)
                 {
-                    while (!sendQueue.isEmpty() && pipeline.size() < 16)
-                    {
-                        AbstractPacket packet = sendQueue.removeFirst();
-                        pipeline.add(packet);
-                    }
+                    AbstractPacket packet = sendQueue.poll();
+                    if (packet == null)
+                        break;
+                    sendQueueSize.decrementAndGet();
+                    pipeline.add(packet);
                 }
 	    			   
 	    		if (pipeline.size() > 0)
@@ -38,6 +38,7 @@ import net.timewalker.ffmq4.transport.packet.AbstractPacket;
 import net.timewalker.ffmq4.transport.tcp.AbstractTcpPacketTransport;
 import net.timewalker.ffmq4.transport.tcp.SocketUtils;
 import net.timewalker.ffmq4.utils.Settings;
+import net.timewalker.ffmq4.utils.concurrent.VirtualThreads;
 import net.timewalker.ffmq4.utils.ssl.PermissiveTrustManager;
 
 import org.apache.commons.logging.Log;
@@ -53,6 +54,7 @@ public final class TcpPacketTransport extends AbstractTcpPacketTransport
     // Attributes
     private Settings settings;
     private int maxPacketSize;
+    private boolean useVirtualThreads;
     
     // Runtime
     private Socket socket;    
@@ -87,6 +89,12 @@ public final class TcpPacketTransport extends AbstractTcpPacketTransport
     {
     	this.settings = settings;
     	this.maxPacketSize = settings.getIntProperty(FFMQCoreSettings.TRANSPORT_TCP_PACKET_MAX_SIZE, 1024*1024+1024);
+    	this.useVirtualThreads = settings.getBooleanProperty(FFMQCoreSettings.TRANSPORT_TCP_VIRTUAL_THREADS, false);
+    	if (useVirtualThreads && !VirtualThreads.isSupported())
+    	{
+    		log.debug("#"+id+" virtual threads are not supported by this JVM, using platform threads");
+    		useVirtualThreads = false;
+    	}
     }
 
     /* (non-Javadoc)
@@ -207,10 +215,10 @@ public final class TcpPacketTransport extends AbstractTcpPacketTransport
             		                         pingInterval,
             		                         client ? -1 : maxPacketSize);
             
-            senderThread = new Thread(sender,"TcpPacketSender["+(client ? "client" : "server")+"]");
+            senderThread = VirtualThreads.newThread(sender,"TcpPacketSender["+(client ? "client" : "server")+"]",useVirtualThreads);
             senderThread.start();
             
-            receiverThread = new Thread(receiver,"TcpPacketReceiver["+(client ? "client" : "server")+"]");
+            receiverThread = VirtualThreads.newThread(receiver,"TcpPacketReceiver["+(client ? "client" : "server")+"]",useVirtualThreads);
             receiverThread.start();
         }
         catch (Exception e)
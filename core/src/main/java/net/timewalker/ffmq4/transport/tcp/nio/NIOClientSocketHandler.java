@@ -67,6 +67,12 @@ public interface NIOClientSocketHandler
 	 */
 	public boolean hasWriteInterest();
 	
+	/**
+	 * Test if this client is ready to accept more incoming data
+	 * @return true if this client is ready to accept more incoming data
+	 */
+	public boolean hasReadInterest();
+	
 	/**
 	 * Called if the multiplexer closes the socket channel after a network error
 	 */
@@ -25,8 +25,11 @@ import java.nio.ByteOrder;
 import java.nio.channels.SocketChannel;
 import java.util.LinkedList;
 
+import javax.jms.JMSException;
+
 import net.timewalker.ffmq4.FFMQCoreSettings;
 import net.timewalker.ffmq4.transport.PacketTransportException;
+import net.timewalker.ffmq4.transport.PacketTransportListener;
 import net.timewalker.ffmq4.transport.packet.AbstractPacket;
 import net.timewalker.ffmq4.transport.packet.PacketSerializer;
 import net.timewalker.ffmq4.transport.packet.query.PingQuery;
@@ -34,6 +37,8 @@ import net.timewalker.ffmq4.transport.tcp.AbstractTcpPacketTransport;
 import net.timewalker.ffmq4.transport.tcp.SocketUtils;
 import net.timewalker.ffmq4.utils.RawDataBuffer;
 import net.timewalker.ffmq4.utils.Settings;
+import net.timewalker.ffmq4.utils.async.AsyncTask;
+import net.timewalker.ffmq4.utils.async.AsyncTaskManager;
 import net.timewalker.ffmq4.utils.watchdog.ActiveObject;
 import net.timewalker.ffmq4.utils.watchdog.ActivityWatchdog;
 
@@ -46,6 +51,9 @@ import org.apache.commons.logging.LogFactory;
 public final class NIOTcpPacketTransport extends AbstractTcpPacketTransport implements NIOClientSocketHandler
 {
 	protected static final Log log = LogFactory.getLog(NIOTcpPacketTransport.class);
+	
+	// Max. number of packets processed by a dispatch task before yielding its worker thread
+	private static final int DISPATCH_BATCH_SIZE = 32;
 
 	// Attributes
 	private ByteBuffer inputBuffer;
@@ -53,6 +61,8 @@ public final class NIOTcpPacketTransport extends AbstractTcpPacketTransport impl
 	private NIOTcpMultiplexer multiplexer;
 	private SocketChannel socketChannel;
 	private int maxPacketSize;
+	private AsyncTaskManager dispatchManager;
+	private int dispatchQueueMaxSize;
 	
 	// Runtime
 	private LinkedList<AbstractPacket> sendQueue = new LinkedList<>();
@@ -64,8 +74,12 @@ public final class NIOTcpPacketTransport extends AbstractTcpPacketTransport impl
 	protected long lastRecvActivity;
 	private ActiveObject sendActivityMonitor;
 	private ActiveObject recvActivityMonitor;
-	private boolean trustedConnection = false;
+	private volatile boolean trustedConnection = false;
 	private boolean traceEnabled;
+	private LinkedList<AbstractPacket> dispatchQueue = new LinkedList<>();
+	private boolean dispatchScheduled;
+	private boolean dispatchEnabled;
+	private DispatchTask dispatchTask = new DispatchTask();
 	
 	/**
 	 * Constructor
@@ -82,10 +96,23 @@ public final class NIOTcpPacketTransport extends AbstractTcpPacketTransport impl
 	 * Constructor
 	 */
 	public NIOTcpPacketTransport( String id , NIOTcpMultiplexer multiplexer , SocketChannel socketChannel , Settings settings )
+	{
+		this(id,multiplexer,socketChannel,settings,null,0);
+	}
+	
+	/**
+	 * Constructor
+	 * @param dispatchManager if not null, packets received on a trusted connection are handed to this
+	 *        manager's workers (in order) instead of being processed by the selector thread
+	 * @param dispatchQueueMaxSize number of pending packets above which the transport stops reading from its socket (0 means no limit)
+	 */
+	public NIOTcpPacketTransport( String id , NIOTcpMultiplexer multiplexer , SocketChannel socketChannel , Settings settings , AsyncTaskManager dispatchManager , int dispatchQueueMaxSize )
 	{
 		super(id,false,settings);
 		this.multiplexer = multiplexer;
 		this.socketChannel = socketChannel;
+		this.dispatchManager = dispatchManager;
+		this.dispatchQueueMaxSize = dispatchQueueMaxSize;
 		init(settings);
 	}
 	
@@ -287,7 +314,21 @@ public final class NIOTcpPacketTransport extends AbstractTcpPacketTransport impl
 	                    log.trace("#"+id+" Received "+packet);
 					
 					if (listener != null)
-						trustedConnection = listener.packetReceived(packet);
+					{
+						if (dispatchEnabled)
+						{
+							if (!dispatch(packet))
+								return false;
+						}
+						else
+						{
+							// Handshake packets are processed synchronously, so that the connection trust
+							// level is known before the next packet size is checked
+							trustedConnection = listener.packetReceived(packet);
+							if (trustedConnection && dispatchManager != null)
+								dispatchEnabled = true;
+						}
+					}
 				}
 			}
 		}
@@ -295,6 +336,46 @@ public final class NIOTcpPacketTransport extends AbstractTcpPacketTransport impl
 		return true;
 	}
 	
+	private boolean dispatch( AbstractPacket packet )
+	{
+		boolean scheduleRequired;
+		synchronized (dispatchQueue)
+		{
+			dispatchQueue.add(packet);
+			scheduleRequired = !dispatchScheduled;
+			dispatchScheduled = true;
+		}
+		
+		if (scheduleRequired)
+		{
+			try
+			{
+				dispatchManager.execute(dispatchTask);
+			}
+			catch (JMSException e)
+			{
+				log.error("#"+id+" cannot dispatch packet",e);
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.transport.tcp.nio.NIOClientSocketHandler#hasReadInterest()
+	 */
+	@Override
+	public boolean hasReadInterest()
+	{
+		if (dispatchQueueMaxSize <= 0)
+			return true;
+		
+		synchronized (dispatchQueue)
+		{
+			return dispatchQueue.size() < dispatchQueueMaxSize;
+		}
+	}
+	
 	/* (non-Javadoc)
 	 * @see net.timewalker.ffmq4.transport.tcp.nio.NIOClientSocketHandler#appendOutgoingData()
 	 */
@@ -402,7 +483,7 @@ public final class NIOTcpPacketTransport extends AbstractTcpPacketTransport impl
 		}
 		
 		if (wakeUpRequired)
-			multiplexer.wakeUp();
+			multiplexer.wakeUp(this);
 	}
 	
 	/* (non-Javadoc)
@@ -426,7 +507,7 @@ public final class NIOTcpPacketTransport extends AbstractTcpPacketTransport impl
 		if (client)
 			multiplexer.registerClientSocketHandler(this);
 		else
-			multiplexer.wakeUp();
+			multiplexer.wakeUp(this);
 	}
 	
 	protected void closeTransport( boolean linkFailed )
@@ -447,6 +528,12 @@ public final class NIOTcpPacketTransport extends AbstractTcpPacketTransport impl
 		if (!linkFailed)
 			multiplexer.unregisterClientSocketHandler(this);
 
+		// Drop pending packets
+		synchronized (dispatchQueue)
+		{
+			dispatchQueue.clear();
+		}
+		
 		// Notify listener
 		if (listener != null)
 			listener.transportClosed(linkFailed,false);
@@ -469,4 +556,77 @@ public final class NIOTcpPacketTransport extends AbstractTcpPacketTransport impl
 	{
 		closeTransport(false);
 	}	
+	
+	//-------------------------------------------------------------------------------
+	
+	/**
+	 * Processes pending incoming packets of this transport, in reception order
+	 */
+	private final class DispatchTask implements AsyncTask
+	{
+		/**
+		 * Constructor
+		 */
+		public DispatchTask()
+		{
+			super();
+		}
+		
+		/* (non-Javadoc)
+		 * @see net.timewalker.ffmq4.utils.async.AsyncTask#isMergeable()
+		 */
+		@Override
+		public boolean isMergeable()
+		{
+			return false;
+		}
+		
+		/* (non-Javadoc)
+		 * @see net.timewalker.ffmq4.utils.async.AsyncTask#execute()
+		 */
+		@Override
+		public void execute()
+		{
+			for (int n = 0 ; n < DISPATCH_BATCH_SIZE ; n++)
+			{
+				AbstractPacket packet;
+				boolean resumeReading;
+				synchronized (dispatchQueue)
+				{
+					if (dispatchQueue.isEmpty())
+					{
+						dispatchScheduled = false;
+						return;
+					}
+					packet = dispatchQueue.removeFirst();
+					resumeReading = dispatchQueue.size() == dispatchQueueMaxSize-1;
+				}
+				
+				if (resumeReading)
+					multiplexer.wakeUp(NIOTcpPacketTransport.this);
+				
+				if (closed)
+					continue;
+				
+				PacketTransportListener currentListener = listener;
+				if (currentListener != null)
+					trustedConnection = currentListener.packetReceived(packet);
+			}
+			
+			// Give other connections a chance to be processed
+			try
+			{
+				dispatchManager.execute(this);
+			}
+			catch (JMSException e)
+			{
+				log.error("#"+id+" cannot reschedule packet dispatching",e);
+				synchronized (dispatchQueue)
+				{
+					dispatchQueue.clear();
+					dispatchScheduled = false;
+				}
+			}
+		}
+	}
 }
@@ -0,0 +1,639 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.transport.tcp.nio;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.AbstractSelectableChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import net.timewalker.ffmq4.transport.PacketTransportException;
+import net.timewalker.ffmq4.transport.tcp.SocketUtils;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * NIOTcpReactor
+ * <p>
+ * A selector thread handling a subset of the connections of a {@link NIOTcpMultiplexer}.
+ * Only the read/write interests of handlers that were active or explicitly woken up
+ * are updated after each select loop.
+ * </p>
+ */
+public final class NIOTcpReactor implements NIOTcpReactorMBean
+{
+	protected static final Log log = LogFactory.getLog(NIOTcpReactor.class);
+	
+	// Attributes
+	private String name;
+	protected NIOTcpMultiplexer multiplexer;
+	protected Selector selector;
+	private SelectorThread selectorThread;
+	
+	// Runtime
+	protected List<NIOServerSocketHandler> pendingAcceptHandlers = new ArrayList<>();
+	protected List<NIOServerSocketHandler> serverHandlers = new CopyOnWriteArrayList<>();
+	protected Map<String,NIOClientSocketHandler> clientHandlers = new ConcurrentHashMap<>();
+	protected Queue<NIOClientSocketHandler> pendingUpdates = new ConcurrentLinkedQueue<>();
+	protected volatile boolean fullUpdateRequired;
+	private boolean waiting;
+	
+	// Statistics (only updated by the selector thread)
+	protected volatile long selectCount;
+	protected volatile long acceptedCount;
+	protected volatile long readCount;
+	protected volatile long writeCount;
+	protected volatile long bytesRead;
+	protected volatile long bytesWritten;
+	
+	/**
+	 * Constructor
+	 */
+	protected NIOTcpReactor( NIOTcpMultiplexer multiplexer , String name ) throws IOException
+	{
+		this.multiplexer = multiplexer;
+		this.name = name;
+		this.selector = SelectorProvider.provider().openSelector();
+		this.selectorThread = new SelectorThread(name);
+	}
+	
+	/**
+	 * Start the selector thread
+	 */
+	protected void start()
+	{
+		selectorThread.start();
+	}
+	
+	/**
+	 * Stop the selector thread
+	 */
+	protected void stop()
+	{
+		selectorThread.pleaseStop();
+	}
+	
+	protected synchronized void wakeUpAndWait()
+	{
+		if (!selectorThread.isAlive())
+			return;
+
+		selector.wakeup();
+		waiting = true;
+		while (waiting)
+		{
+    		try
+    		{
+    			wait();
+    		}
+    		catch (InterruptedException e)
+    		{
+    			log.error("Wait was interrupted");
+    			waiting = false;
+    		}
+		}
+	}
+	
+	protected synchronized void onSelectExit()
+	{
+		if (waiting)
+		{
+		    waiting = false;
+			notifyAll();
+		}
+	}
+	
+	/**
+	 * Wake up the reactor so it has a chance to update the read/write interests of all its handlers
+	 */
+	protected void wakeUp()
+	{
+		fullUpdateRequired = true;
+		selector.wakeup();
+	}
+	
+	/**
+	 * Wake up the reactor so it has a chance to update the read/write interests of the given handler
+	 */
+	protected void wakeUp( NIOClientSocketHandler clientHandler )
+	{
+		pendingUpdates.add(clientHandler);
+		selector.wakeup();
+	}
+	
+	protected void registerServerSocketHandler( NIOServerSocketHandler serverHandler )
+	{
+		synchronized (pendingAcceptHandlers)
+		{
+			pendingAcceptHandlers.add(serverHandler);
+		}
+		selector.wakeup();
+	}
+	
+	protected void unregisterServerSocketHandler( NIOServerSocketHandler serverHandler )
+	{
+		synchronized (pendingAcceptHandlers)
+		{
+			if (pendingAcceptHandlers.remove(serverHandler))
+				return; // Not handled yet
+		}
+		
+		if (serverHandlers.remove(serverHandler))
+		{
+			closeSocketChannel(serverHandler.getServerSocketChannel());
+			wakeUpAndWait();
+		}
+	}
+	
+	protected void registerClientSocketHandler( NIOClientSocketHandler clientHandler )
+	{
+		clientHandlers.put(clientHandler.getId(), clientHandler);
+		wakeUp(clientHandler);
+	}
+	
+	protected void dropClientHandler( NIOClientSocketHandler clientHandler , boolean linkFailed )
+    {
+		if (clientHandlers.remove(clientHandler.getId()) != null)
+			log.debug("["+clientHandler.getId()+"] Disconnecting client ("+clientHandlers.size()+" remaining on "+name+")");
+		multiplexer.onClientHandlerDropped(clientHandler);
+		
+        closeSocketChannel(clientHandler.getSocketChannel());
+        
+        if (linkFailed)
+        	clientHandler.onSocketChannelClosed();
+    }
+	
+	private void closeSocketChannel( AbstractSelectableChannel channel )
+    {
+        try
+        {
+            SelectionKey sk = channel.keyFor(selector);
+            if (sk != null && sk.isValid())
+                sk.cancel();
+            if (channel.isOpen())
+                channel.close();
+        }
+        catch (Exception e)
+        {
+            log.error("Could not close channel : "+e.toString());
+        }
+    }
+	
+	protected boolean readAndProcessChannelData( NIOClientSocketHandler clientHandler )
+    {
+        try
+        {
+        	ByteBuffer inputBuffer = clientHandler.getInputBuffer();
+        	int readAmount = clientHandler.getSocketChannel().read(inputBuffer);
+            if (readAmount <= 0)
+            {
+                log.debug("["+clientHandler.getId()+"] Cannot read, channel socket was closed");
+                return false;
+            }
+            readCount++;
+            bytesRead += readAmount;
+            
+            inputBuffer.flip();    // Prepare for reading
+            boolean status = clientHandler.handleIncomingData();
+            inputBuffer.compact(); // Restore pointers
+            
+            return status;
+        }
+        catch (IOException e)
+        {
+            log.debug("["+clientHandler.getId()+"] Read failed : "+e.getMessage());
+            return false;
+        }
+        catch (Exception e)
+        {
+            log.error("["+clientHandler.getId()+"] Could not read channel data",e);
+            return false;
+        }
+    }
+	
+	protected boolean writeAndProcessChannelData( NIOClientSocketHandler clientHandler )
+    {
+        try
+        {           
+            if (!clientHandler.appendOutgoingData())
+                return false;
+            
+            ByteBuffer outputBuffer = clientHandler.getOutputBuffer();
+            outputBuffer.flip(); // Prepare for reading
+            int writeAmount;
+            try
+            {
+                writeAmount = clientHandler.getSocketChannel().write(outputBuffer);
+                if (writeAmount <= 0)
+                    log.debug("["+clientHandler.getId()+"] Cannot write, channel socket was closed");
+            }
+            catch (IOException e)
+            {
+                log.error("["+clientHandler.getId()+"] Write failed : "+e.getMessage());
+                writeAmount = -1;
+            }
+            outputBuffer.compact(); // Restore pointers
+            
+            if (writeAmount > 0)
+            {
+            	writeCount++;
+            	bytesWritten += writeAmount;
+            }
+
+            return (writeAmount > 0);
+        }
+        catch (Exception e)
+        {
+            log.error("["+clientHandler.getId()+"] Could not process data",e);
+            return false;
+        }
+    }
+	
+	private void updateInterests( NIOClientSocketHandler clientHandler )
+	{
+		SocketChannel socketChannel = clientHandler.getSocketChannel();
+		if (!socketChannel.isOpen())
+			return;
+		
+        // We are interested in connect if not already done
+        if (!socketChannel.isConnected())
+        {
+            addInterest(socketChannel,SelectionKey.OP_CONNECT,clientHandler);
+            return;
+        }
+        removeInterest(socketChannel,SelectionKey.OP_CONNECT);
+        
+        // We are interested in reading only if we have some buffer space left
+        // and the handler is not lagging behind
+        if (clientHandler.getInputBuffer().remaining() > 0 && clientHandler.hasReadInterest())
+            addInterest(socketChannel,SelectionKey.OP_READ,clientHandler);
+        else
+            removeInterest(socketChannel,SelectionKey.OP_READ);
+        
+        // We are interested in writing only if there is something in the output buffer or
+    	// the handler expresses the need to write something
+        if (clientHandler.getOutputBuffer().position() > 0 || clientHandler.hasWriteInterest())
+            addInterest(socketChannel,SelectionKey.OP_WRITE,clientHandler);
+        else
+            removeInterest(socketChannel,SelectionKey.OP_WRITE);
+	}
+	
+    private void addInterest( AbstractSelectableChannel channel ,  int interest , Object attachment )
+    {
+    	try
+    	{
+	        SelectionKey sk = channel.keyFor(selector);
+	        if (sk != null)
+	        {
+	        	if (!sk.isValid())
+	        		return;
+	        	
+	            int actualInterests = sk.interestOps();
+	            if ((actualInterests & interest) != interest)
+	                sk.interestOps(actualInterests | interest);
+	            if (attachment != null)
+	                sk.attach(attachment);
+	        }
+	        else
+	            channel.register(selector, interest, attachment);
+    	}
+    	catch (ClosedChannelException e)
+    	{
+    		log.warn("Cannot add interest to selector channel : channel is closed");
+    	}
+    }
+    
+    private void removeInterest( AbstractSelectableChannel channel ,  int interest )
+    {
+        SelectionKey sk = channel.keyFor(selector);
+        if (sk != null && sk.isValid())
+        {
+            int actualInterests = sk.interestOps();
+            if ((actualInterests & interest) != 0)
+                sk.interestOps(sk.interestOps() & ~interest);
+        }
+    }
+    
+    private boolean finalizeConnect( NIOClientSocketHandler clientHandler , SocketChannel channel )
+    {
+        try
+        {
+            // Finish the connection handshake
+            channel.finishConnect();
+            
+            log.debug("["+clientHandler.getId()+"] Connected to "+channel.socket().getInetAddress());
+            
+            // Unregister connect interest
+            removeInterest(channel, SelectionKey.OP_CONNECT);
+            
+            return true;
+        }
+        catch (SocketException e)
+        {
+            log.error("["+clientHandler.getId()+"] Could not connect to remote server : "+e.getMessage());
+            return false;
+        }
+        catch (Exception e)
+        {
+            log.error("["+clientHandler.getId()+"] Could not finalize connection",e);
+            return false;
+        }
+    }
+    
+    /*
+     * (non-Javadoc)
+     * @see net.timewalker.ffmq4.transport.tcp.nio.NIOTcpReactorMBean#getName()
+     */
+    @Override
+	public String getName()
+    {
+    	return name;
+    }
+    
+    /*
+     * (non-Javadoc)
+     * @see net.timewalker.ffmq4.transport.tcp.nio.NIOTcpReactorMBean#getClientCount()
+     */
+    @Override
+	public int getClientCount()
+    {
+    	return clientHandlers.size();
+    }
+    
+    /*
+     * (non-Javadoc)
+     * @see net.timewalker.ffmq4.transport.tcp.nio.NIOTcpReactorMBean#getSelectCount()
+     */
+    @Override
+	public long getSelectCount()
+    {
+    	return selectCount;
+    }
+    
+    /*
+     * (non-Javadoc)
+     * @see net.timewalker.ffmq4.transport.tcp.nio.NIOTcpReactorMBean#getAcceptedCount()
+     */
+    @Override
+	public long getAcceptedCount()
+    {
+    	return acceptedCount;
+    }
+    
+    /*
+     * (non-Javadoc)
+     * @see net.timewalker.ffmq4.transport.tcp.nio.NIOTcpReactorMBean#getReadCount()
+     */
+    @Override
+	public long getReadCount()
+    {
+    	return readCount;
+    }
+    
+    /*
+     * (non-Javadoc)
+     * @see net.timewalker.ffmq4.transport.tcp.nio.NIOTcpReactorMBean#getWriteCount()
+     */
+    @Override
+	public long getWriteCount()
+    {
+    	return writeCount;
+    }
+    
+    /*
+     * (non-Javadoc)
+     * @see net.timewalker.ffmq4.transport.tcp.nio.NIOTcpReactorMBean#getBytesRead()
+     */
+    @Override
+	public long getBytesRead()
+    {
+    	return bytesRead;
+    }
+    
+    /*
+     * (non-Javadoc)
+     * @see net.timewalker.ffmq4.transport.tcp.nio.NIOTcpReactorMBean#getBytesWritten()
+     */
+    @Override
+	public long getBytesWritten()
+    {
+    	return bytesWritten;
+    }
+    
+	//-------------------------------------------------------------------------------------------------------------------
+	//                                                 SELECTOR THREAD
+    //-------------------------------------------------------------------------------------------------------------------
+    
+	private class SelectorThread extends Thread
+    {
+		// Runtime
+		private volatile boolean stopRequired = false;
+		private List<NIOClientSocketHandler> activeHandlers = new ArrayList<>();
+		
+		/**
+		 * Constructor
+		 */
+		public SelectorThread( String name )
+		{
+			super(name);
+			setPriority(MAX_PRIORITY);
+			setDaemon(true);
+		}
+		
+		public void pleaseStop()
+		{
+			stopRequired = true;
+			selector.wakeup();
+		}
+		
+		private void acceptClient( SelectionKey sk ) throws IOException, PacketTransportException
+		{
+			NIOServerSocketHandler serverHandler = (NIOServerSocketHandler)sk.attachment();
+            ServerSocketChannel nextReady = (ServerSocketChannel)sk.channel();
+            
+            // Accept a new client socket
+            SocketChannel clientChannel = nextReady.accept();
+            if (clientChannel == null)
+            	return; // Spurious wake up
+            clientChannel.configureBlocking(false);
+            SocketUtils.setupSocket(clientChannel.socket(),
+                                    multiplexer.socketSendBufferSize,
+                                    multiplexer.socketRecvBufferSize);
+            
+            // Create a new client handler
+            if (!multiplexer.acceptClient(serverHandler,clientChannel))
+            {
+                log.error("Dropping incoming connection due to errors ...");
+                clientChannel.close();
+                return;
+            }
+            acceptedCount++;
+		}
+		
+        /*
+         * (non-Javadoc)
+         * @see java.lang.Thread#run()
+         */
+        @Override
+		public void run()
+        {
+            try
+            {
+                // Main loop
+                while (!stopRequired)
+                {
+                    int selectedCount = selector.select();
+                    if (stopRequired)
+                    	break;
+                    
+                    onSelectExit();
+                    selectCount++;
+                    
+                    if (selectedCount > 0)
+                    {
+                        Set<SelectionKey> readyKeys = selector.selectedKeys();
+                        Iterator<SelectionKey> i = readyKeys.iterator();
+                        
+                        // Walk through the active keys
+                        while (i.hasNext()) 
+                        {
+                            SelectionKey sk = i.next();
+                            i.remove();
+                            
+                            // Concurrently cancelled, skip
+                            if (!sk.isValid())
+                        		continue;
+                            
+                            try
+                            {
+                            	if (sk.isAcceptable())
+	                            {
+                            		acceptClient(sk);
+                            		continue;
+	                            }
+                            	
+                            	NIOClientSocketHandler clientHandler = (NIOClientSocketHandler)sk.attachment();
+                            	activeHandlers.add(clientHandler);
+                            	
+                            	if (sk.isConnectable())
+	                            {
+	                                if (!finalizeConnect(clientHandler,(SocketChannel)sk.channel()))
+	                                {
+	                                    dropClientHandler(clientHandler,true);
+	                                    continue;
+	                                }
+	                            }
+                            	
+	                            if (sk.isWritable())
+	                            {
+	                                if (!writeAndProcessChannelData(clientHandler))
+	                                {
+	                                    dropClientHandler(clientHandler,true);
+	                                    continue;
+	                                }
+	                            }
+
+	                            if (sk.isReadable())
+	                            {
+	                                if (!readAndProcessChannelData(clientHandler))
+	                                {
+	                                	dropClientHandler(clientHandler,true);
+	                                	continue;
+	                                }
+	                            }
+                            }
+                            catch (CancelledKeyException e)
+                            {
+                            	Object attachement = sk.attachment();
+                            	if (attachement instanceof NIOClientSocketHandler)
+                            	{
+                            		NIOClientSocketHandler clientHandler = (NIOClientSocketHandler)attachement;
+                            		log.debug("["+clientHandler.getId()+"] Selection key cancelled, dropping cient ...");
+                            		dropClientHandler(clientHandler,true);
+                            	}
+                            	else
+                            		log.error("Server selection key was cancelled",e);
+                            }
+                        }
+                    }
+                    
+                    // Register pending server handlers 
+                    synchronized (pendingAcceptHandlers)
+					{
+                    	if (pendingAcceptHandlers.size() > 0)
+                    	{
+	                    	for (int i = 0; i < pendingAcceptHandlers.size(); i++)
+							{
+	                    		NIOServerSocketHandler serverHandler = pendingAcceptHandlers.get(i);
+	                        	addInterest(serverHandler.getServerSocketChannel(), SelectionKey.OP_ACCEPT, serverHandler);
+	                        	serverHandlers.add(serverHandler);
+	                        }
+	                    	pendingAcceptHandlers.clear();
+                    	}
+					}
+                    
+                    // Update read/write interests
+                    if (fullUpdateRequired)
+                    {
+                    	fullUpdateRequired = false;
+                    	pendingUpdates.clear();
+                    	activeHandlers.clear();
+                    	
+                    	Iterator<NIOClientSocketHandler> clientsIt = clientHandlers.values().iterator();
+                        while (clientsIt.hasNext())
+                        	updateInterests(clientsIt.next());
+                    }
+                    else
+                    {
+	                    for (int i = 0; i < activeHandlers.size(); i++)
+							updateInterests(activeHandlers.get(i));
+	                    activeHandlers.clear();
+	                    
+	                    NIOClientSocketHandler clientHandler;
+	                    while ((clientHandler = pendingUpdates.poll()) != null)
+	                    	updateInterests(clientHandler);
+                    }
+                }
+                
+                selector.close();
+            }
+            catch (Throwable e)
+            {
+                log.error("Selector thread failed",e);
+            }
+            log.debug("Exiting");
+        }
+    }
+}
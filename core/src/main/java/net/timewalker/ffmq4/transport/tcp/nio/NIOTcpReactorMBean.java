@@ -0,0 +1,64 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.transport.tcp.nio;
+
+/**
+ * <p>JMX interface for a {@link NIOTcpReactor}</p>
+ */
+public interface NIOTcpReactorMBean
+{
+	/**
+	 * Get the reactor name
+	 */
+	public String getName();
+	
+	/**
+	 * Get the number of client connections handled by this reactor
+	 */
+	public int getClientCount();
+	
+	/**
+	 * Get the number of select loops performed since startup
+	 */
+	public long getSelectCount();
+	
+	/**
+	 * Get the number of connections accepted by this reactor since startup
+	 */
+	public long getAcceptedCount();
+	
+	/**
+	 * Get the number of socket read operations since startup
+	 */
+	public long getReadCount();
+	
+	/**
+	 * Get the number of socket write operations since startup
+	 */
+	public long getWriteCount();
+	
+	/**
+	 * Get the number of bytes read since startup
+	 */
+	public long getBytesRead();
+	
+	/**
+	 * Get the number of bytes written since startup
+	 */
+	public long getBytesWritten();
+}
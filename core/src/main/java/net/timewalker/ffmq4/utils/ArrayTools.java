@@ -48,4 +48,11 @@ public final class ArrayTools
         System.arraycopy(array, 0, result, 0, Math.min(array.length, newSize));
         return result;
     }
+	
+	public static long[] extend( long[] array , int newSize )
+    {
+	    long[] result = new long[newSize];
+        System.arraycopy(array, 0, result, 0, Math.min(array.length, newSize));
+        return result;
+    }
 }
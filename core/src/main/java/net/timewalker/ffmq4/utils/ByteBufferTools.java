@@ -0,0 +1,106 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.utils;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * ByteBufferTools
+ * <p>Explicit release of direct and memory mapped buffers, through reflection on the JDK internal cleaner API
+ * (sun.misc.Unsafe on JDK 9+, the buffer cleaner on older JVMs).<br>
+ * When none is available, buffers are left to the garbage collector.</p>
+ */
+public final class ByteBufferTools
+{
+	private static final Object UNSAFE;
+	private static final Method INVOKE_CLEANER;
+	private static final Method GET_CLEANER;
+	private static final Method CLEAN;
+	static
+	{
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		Method getCleaner = null;
+		Method clean = null;
+		try
+		{
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			unsafe = theUnsafe.get(null);
+		}
+		catch (Throwable e)
+		{
+			invokeCleaner = null;
+			try
+			{
+				getCleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+				clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+			}
+			catch (Throwable ex)
+			{
+				getCleaner = null;
+			}
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+		GET_CLEANER = getCleaner;
+		CLEAN = clean;
+	}
+	
+	private ByteBufferTools()
+	{
+		// Utility class
+	}
+	
+	/**
+	 * Release the memory or mapping of the given direct buffer right away.
+	 * The buffer (and any view of it) must not be used afterwards.
+	 * @return true if the buffer was released, false if it is left to the garbage collector
+	 */
+	public static boolean release( ByteBuffer buffer )
+	{
+		if (buffer == null || !buffer.isDirect())
+			return false;
+		try
+		{
+			if (INVOKE_CLEANER != null)
+			{
+				INVOKE_CLEANER.invoke(UNSAFE, buffer);
+				return true;
+			}
+			if (GET_CLEANER != null)
+			{
+				Object cleaner = GET_CLEANER.invoke(buffer);
+				if (cleaner != null)
+				{
+					CLEAN.invoke(cleaner);
+					return true;
+				}
+			}
+		}
+		catch (Exception e)
+		{
+			// Left to the garbage collector
+		}
+		return false;
+	}
+}
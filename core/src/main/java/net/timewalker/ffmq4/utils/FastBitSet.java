@@ -126,6 +126,60 @@ public final class FastBitSet
         return ((words[wordIndex] & (1L << bitIndex)) != 0);
     }
 
+    /**
+     * Returns the index of the first bit that is set to <code>false</code>
+     * in the range [fromIndex,toIndex[, skipping full words at once.
+     * @param fromIndex the index to start checking from (inclusive)
+     * @param toIndex the index to stop checking at (exclusive)
+     * @return the index of the next clear bit, or -1 if there is no such bit
+     */
+    public int nextClearBit(int fromIndex, int toIndex)
+    {
+        if (fromIndex >= toIndex)
+            return -1;
+
+        int wordIndex = wordIndex(fromIndex);
+        long word = ~words[wordIndex] & (-1L << fromIndex);
+        while (true)
+        {
+            if (word != 0)
+            {
+                int bitIndex = (wordIndex * BITS_PER_WORD) + Long.numberOfTrailingZeros(word);
+                return bitIndex < toIndex ? bitIndex : -1;
+            }
+            if (++wordIndex > wordIndex(toIndex - 1))
+                return -1;
+            word = ~words[wordIndex];
+        }
+    }
+
+    /**
+     * Returns the index of the first bit that is set to <code>true</code>
+     * in the range [fromIndex,toIndex[, skipping empty words at once.
+     * @param fromIndex the index to start checking from (inclusive)
+     * @param toIndex the index to stop checking at (exclusive)
+     * @return the index of the next set bit, or -1 if there is no such bit
+     */
+    public int nextSetBit(int fromIndex, int toIndex)
+    {
+        if (fromIndex >= toIndex)
+            return -1;
+
+        int wordIndex = wordIndex(fromIndex);
+        long word = words[wordIndex] & (-1L << fromIndex);
+        while (true)
+        {
+            if (word != 0)
+            {
+                int bitIndex = (wordIndex * BITS_PER_WORD) + Long.numberOfTrailingZeros(word);
+                return bitIndex < toIndex ? bitIndex : -1;
+            }
+            if (++wordIndex > wordIndex(toIndex - 1))
+                return -1;
+            word = words[wordIndex];
+        }
+    }
+
     /**
      * Returns the number of bits of space actually in use by this
      * <code>BitSet</code> to represent bit values.
@@ -0,0 +1,143 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.utils;
+
+/**
+ * <p>Simple thread-safe histogram of positive values, using power-of-two buckets.</p>
+ * Bucket 0 holds value 0, bucket n holds values in [2^(n-1),2^n-1].
+ */
+public final class Histogram
+{
+	private static final int BUCKETS = 64;
+	
+	// Attributes
+	private String unit;
+	
+	// Runtime
+	private long[] counts = new long[BUCKETS];
+	private long totalCount;
+	private long totalValue;
+	private long maxValue;
+	
+	/**
+	 * Constructor
+	 * @param unit the unit of recorded values (for display purposes)
+	 */
+	public Histogram( String unit )
+	{
+		this.unit = unit;
+	}
+	
+	/**
+	 * Record a value
+	 * @param value a positive value
+	 */
+	public synchronized void add( long value )
+	{
+		if (value < 0)
+			value = 0;
+		
+		counts[BUCKETS-Long.numberOfLeadingZeros(value)]++;
+		totalCount++;
+		totalValue += value;
+		if (value > maxValue)
+			maxValue = value;
+	}
+	
+	/**
+	 * Get the number of recorded values
+	 */
+	public synchronized long getCount()
+	{
+		return totalCount;
+	}
+	
+	/**
+	 * Get the average recorded value
+	 */
+	public synchronized double getAverage()
+	{
+		return totalCount > 0 ? (double)totalValue/totalCount : 0;
+	}
+	
+	/**
+	 * Get the maximum recorded value
+	 */
+	public synchronized long getMax()
+	{
+		return maxValue;
+	}
+	
+	/**
+	 * Get a copy of the bucket counts
+	 */
+	public synchronized long[] getCounts()
+	{
+		long[] result = new long[BUCKETS];
+		System.arraycopy(counts, 0, result, 0, BUCKETS);
+		return result;
+	}
+	
+	/**
+	 * Reset all recorded values
+	 */
+	public synchronized void reset()
+	{
+		for (int i = 0; i < BUCKETS; i++)
+			counts[i] = 0;
+		totalCount = 0;
+		totalValue = 0;
+		maxValue = 0;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append("count=");
+		sb.append(totalCount);
+		sb.append(" avg=");
+		sb.append(Math.round(getAverage()));
+		sb.append(unit);
+		sb.append(" max=");
+		sb.append(maxValue);
+		sb.append(unit);
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			if (counts[i] == 0)
+				continue;
+			
+			long low = i == 0 ? 0 : 1L << (i-1);
+			long high = i == 0 ? 0 : (1L << (i-1))*2-1;
+			sb.append(" [");
+			sb.append(low);
+			if (high != low)
+			{
+				sb.append('-');
+				sb.append(high);
+			}
+			sb.append("]=");
+			sb.append(counts[i]);
+		}
+		return sb.toString();
+	}
+}
@@ -724,6 +724,97 @@ public final class RawDataBuffer implements DataOutput, DataInput
         return new String(chars);
     }
     
+    private int readUTFLength()
+    {
+        int type = buf[pos++] & 0xff; // Read UTF type prefix
+        switch (type)
+        {
+            case UTF_TYPE_1 :
+                return buf[pos++] & 0xff;
+            case UTF_TYPE_2 :
+                int ch1 = buf[pos++] & 0xff;
+                int ch2 = buf[pos++] & 0xff;
+                return (ch1 << 8) + (ch2 << 0);
+            case UTF_TYPE_4 :
+                ch1 = buf[pos++] & 0xff;
+                ch2 = buf[pos++] & 0xff;
+                int ch3 = buf[pos++] & 0xff;
+                int ch4 = buf[pos++] & 0xff;
+                return ((ch1 << 24) + (ch2 << 16) + (ch3 << 8) + (ch4 << 0));
+            default:
+                throw new IllegalArgumentException("Invalid UTF type : "+type);
+        }
+    }
+    
+    private char readUTFChar()
+    {
+        int c = buf[pos++] & 0xff;
+        switch (c >> 4)
+        {
+            case 0: case 1: case 2: case 3: case 4: case 5: case 6: case 7:
+                /* 0xxxxxxx*/
+                return (char)c;
+            case 12: case 13:
+                /* 110x xxxx   10xx xxxx*/
+                int char2 = buf[pos++];
+                return (char)(((c & 0x1F) << 6) | (char2 & 0x3F));
+            case 14:
+                /* 1110 xxxx  10xx xxxx  10xx xxxx */
+                char2 = buf[pos++];
+                int char3 = buf[pos++];
+                return (char)(((c & 0x0F) << 12) | ((char2 & 0x3F) << 6) | ((char3 & 0x3F) << 0));
+            default:
+                /* 10xx xxxx,  1111 xxxx */
+                throw new IllegalStateException("Malformed input around byte " + (pos-1));
+        }
+    }
+    
+    /**
+     * Skip a string written with writeUTF() without decoding it
+     */
+    public void skipUTF()
+    {
+        int strlen = readUTFLength();
+        for (int n = 0 ; n < strlen ; n++)
+        {
+            int c = buf[pos] & 0xff;
+            if (c < 0x80)
+                pos++;
+            else
+            if ((c >> 5) == 0x06)
+                pos += 2;
+            else
+                pos += 3;
+        }
+    }
+    
+    /**
+     * Read a string written with writeUTF() and compare it to the given value, without allocating it
+     * @return true if the read string is equal to the given value
+     */
+    public boolean readUTFEquals( String value )
+    {
+        int savedPos = pos;
+        int strlen = readUTFLength();
+        if (strlen != value.length())
+        {
+            pos = savedPos;
+            skipUTF();
+            return false;
+        }
+        
+        for (int n = 0 ; n < strlen ; n++)
+        {
+            if (readUTFChar() != value.charAt(n))
+            {
+                pos = savedPos;
+                skipUTF();
+                return false;
+            }
+        }
+        return true;
+    }
+    
     /**
      * Read a string or null value from the stream
      */
@@ -786,6 +877,30 @@ public final class RawDataBuffer implements DataOutput, DataInput
         }                
     }
     
+    /**
+     * Skip a value written with writeGeneric() without decoding it
+     */
+    public void skipGeneric()
+    {
+        byte type = readByte();
+        switch (type)
+        {
+            case NULL_VALUE     : break;
+            case TYPE_STRING    : skipUTF(); break;
+            case TYPE_BOOLEAN   : 
+            case TYPE_BYTE      : pos += 1; break;
+            case TYPE_SHORT     :
+            case TYPE_CHARACTER : pos += 2; break;
+            case TYPE_INT       :
+            case TYPE_FLOAT     : pos += 4; break;
+            case TYPE_LONG      :
+            case TYPE_DOUBLE    : pos += 8; break;
+            case TYPE_BYTEARRAY : pos += readInt(); break;
+            default:
+                throw new IllegalArgumentException("Unsupported type : "+type);
+        }
+    }
+    
     public void clear() 
     {
         size = 0;
@@ -806,6 +921,14 @@ public final class RawDataBuffer implements DataOutput, DataInput
         return pos;
     }
     
+    /**
+     * Move the read cursor to the given position
+     */
+    public void setPos( int pos )
+    {
+        this.pos = pos;
+    }
+    
     public byte[] toByteArray() 
     {
         byte[] copy = new byte[size];
@@ -813,6 +936,18 @@ public final class RawDataBuffer implements DataOutput, DataInput
         return copy;
     }
     
+    /**
+     * Get the buffer content as a byte array, without copying it if the
+     * internal array already has the exact content size.
+     * The returned array may be shared with this buffer and must not be modified.
+     */
+    public byte[] toSharedByteArray() 
+    {
+        if (size == buf.length)
+            return buf;
+        return toByteArray();
+    }
+    
     public byte[] toByteArray( int offset , int len ) 
     {
         byte[] copy = new byte[len];
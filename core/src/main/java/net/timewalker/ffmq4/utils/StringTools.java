@@ -178,15 +178,44 @@ public class StringTools
     {
         if (text == null)
             return false;
-        if (pattern.length() == 0)
-            return text.length() == 0;
         
-        int textPos = 0;
-        boolean startWithAny = false;
+        return matches(text,compilePattern(pattern),ignoreCase);
+    }
+    
+    /**
+     * Split a pattern into literal parts and wildcards, so that it can be matched
+     * repeatedly without being parsed again
+     * @see #matches(String, String[])
+     */
+    public static String[] compilePattern( String pattern )
+    {
+        List<String> tokens = new ArrayList<>();
         StringTokenizer st = new StringTokenizer(pattern,"*?",true);
         while (st.hasMoreTokens())
+            tokens.add(st.nextToken());
+        
+        return tokens.toArray(new String[tokens.size()]);
+    }
+    
+    /**
+     * Check if the given text matches a compiled pattern
+     * @see #compilePattern(String)
+     */
+    public static boolean matches( String text , String[] compiledPattern )
+    {
+        return matches(text,compiledPattern,false);
+    }
+    
+    private static boolean matches( String text , String[] compiledPattern , boolean ignoreCase )
+    {
+        if (text == null)
+            return false;
+        
+        int textPos = 0;
+        boolean startWithAny = false;
+        for (int i = 0 ; i < compiledPattern.length ; i++)
         {
-            String subPattern = st.nextToken();
+            String subPattern = compiledPattern[i];
             
             if (subPattern.equals("*"))
             {
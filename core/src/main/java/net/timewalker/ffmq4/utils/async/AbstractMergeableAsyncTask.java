@@ -0,0 +1,66 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.timewalker.ffmq4.utils.async;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>Base class for mergeable asynchronous tasks.</p>
+ * <p>The task carries its own "queued" flag so that an {@link AsyncTaskManager} can
+ * de-duplicate pending occurences with a single compare-and-set instead of a shared set.</p>
+ */
+public abstract class AbstractMergeableAsyncTask implements AsyncTask
+{
+	// Runtime
+	private final AtomicBoolean queued = new AtomicBoolean();
+	
+	/**
+	 * Constructor
+	 */
+	public AbstractMergeableAsyncTask()
+	{
+		super();
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.utils.async.AsyncTask#isMergeable()
+	 */
+	@Override
+	public final boolean isMergeable()
+	{
+		return true;
+	}
+	
+	/**
+	 * Mark this task as queued
+	 * @return false if the task was already queued
+	 */
+	protected final boolean markQueued()
+	{
+		return queued.compareAndSet(false, true);
+	}
+	
+	/**
+	 * Clear the queued flag of this task (called right before execution or on cancellation)
+	 */
+	protected final void clearQueued()
+	{
+		queued.set(false);
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.utils.async;
+
+/**
+ * AsyncTaskExecutorType
+ */
+public final class AsyncTaskExecutorType
+{
+	public static final int THREAD_POOL = 1;
+	public static final int FORK_JOIN = 2;
+	public static final int VIRTUAL_THREADS = 3;
+	
+	public static final int[] ALL = {
+		THREAD_POOL, FORK_JOIN, VIRTUAL_THREADS
+	};
+	
+	public static boolean isValid( int type )
+	{
+		for (int i = 0; i < ALL.length; i++)
+			if (ALL[i] == type)
+				return true;
+		return false;
+	}
+	
+	public static String toString( int type )
+	{
+		switch (type)
+		{
+			case THREAD_POOL     : return "threadPool";
+			case FORK_JOIN       : return "forkJoin";
+			case VIRTUAL_THREADS : return "virtualThreads";
+			default :
+				return "unknown("+type+")";
+		}
+	}
+}
@@ -18,27 +18,56 @@
 
 package net.timewalker.ffmq4.utils.async;
 
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.jms.JMSException;
 
+import net.timewalker.ffmq4.FFMQException;
+import net.timewalker.ffmq4.utils.concurrent.VirtualThreads;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
  * AsyncTaskManager
+ * <p>
+ * Tasks are either dispatched to a private pool of processor threads (default)
+ * or submitted to an {@link ExecutorService} backend (work-stealing fork/join pool or virtual threads).
+ * In both modes, mergeable tasks are queued at most once.
+ * </p>
  */
 public final class AsyncTaskManager implements AsyncTaskProcessorThreadListener, AsyncTaskManagerMBean
 {
 	private static final Log log = LogFactory.getLog(AsyncTaskManager.class);
 	
-	// Runtime
+	// Attributes
 	private String name;
+	private int executorType;
+	private int threadPoolMinSize;
+	private int threadPoolMaxIdle;
+	private int threadPoolMaxSize;
+	
+	// Runtime
 	private AsyncTaskProcessorThreadPool threadPool;
-	private Set<AsyncTask> taskSet = new HashSet<>();
-	private LinkedList<AsyncTask> taskQueue = new LinkedList<>();
+	private LinkedList<PendingTask> taskQueue;
+	private ExecutorService executor;
+	private Set<AsyncTask> mergeSet = Collections.newSetFromMap(new ConcurrentHashMap<AsyncTask,Boolean>());
+	
+	// Statistics
+	private AtomicInteger pendingCount = new AtomicInteger();
+	private AtomicLong executedCount = new AtomicLong();
+	private AtomicLong totalLatency = new AtomicLong();
+	private AtomicLong maxLatency = new AtomicLong();
 
 	/**
 	 * Constructor
@@ -48,47 +77,133 @@ public final class AsyncTaskManager implements AsyncTaskProcessorThreadListener,
 							 int threadPoolMaxIdle ,
 							 int threadPoolMaxSize ) throws JMSException
 	{
-		log.debug("Initializing "+name);
+		this(name,AsyncTaskExecutorType.THREAD_POOL,threadPoolMinSize,threadPoolMaxIdle,threadPoolMaxSize);
+	}
+	
+	/**
+	 * Constructor
+	 */
+	public AsyncTaskManager( String name ,
+							 int executorType ,
+							 int threadPoolMinSize ,
+							 int threadPoolMaxIdle ,
+							 int threadPoolMaxSize ) throws JMSException
+	{
+		log.debug("Initializing "+name+" ("+AsyncTaskExecutorType.toString(executorType)+")");
 		this.name = name;
-		this.threadPool = new AsyncTaskProcessorThreadPool(name,
-													       threadPoolMinSize,
-				                                           threadPoolMaxIdle,
-				                                           threadPoolMaxSize,
-				                                           this);
+		this.threadPoolMinSize = threadPoolMinSize;
+		this.threadPoolMaxIdle = threadPoolMaxIdle;
+		this.threadPoolMaxSize = threadPoolMaxSize;
+		
+		if (executorType == AsyncTaskExecutorType.VIRTUAL_THREADS)
+		{
+			this.executor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+			if (executor == null)
+			{
+				log.warn(name+" : virtual threads are not supported by this JVM, using a fork/join pool instead");
+				executorType = AsyncTaskExecutorType.FORK_JOIN;
+			}
+		}
+		
+		switch (executorType)
+		{
+			case AsyncTaskExecutorType.THREAD_POOL :
+				this.taskQueue = new LinkedList<>();
+				this.threadPool = new AsyncTaskProcessorThreadPool(name,
+															       threadPoolMinSize,
+						                                           threadPoolMaxIdle,
+						                                           threadPoolMaxSize,
+						                                           this);
+				break;
+				
+			case AsyncTaskExecutorType.FORK_JOIN :
+				this.executor = new ForkJoinPool(Math.max(1,threadPoolMaxSize),
+						                         new NamedWorkerThreadFactory(name),
+						                         null,
+						                         true);
+				break;
+				
+			case AsyncTaskExecutorType.VIRTUAL_THREADS :
+				break;
+				
+			default:
+				throw new FFMQException("Invalid async task manager executor type : "+executorType,"INVALID_SETTING");
+		}
+		this.executorType = executorType;
 	}
 	
 	/**
-	 * Cancel a task for the manager queue
+	 * Cancel a task for the manager queue.
+	 * Only supported by the thread pool backend, other backends will still run the task.
 	 * @param task
 	 */
-	public synchronized void cancelTask( AsyncTask task )
+	public void cancelTask( AsyncTask task )
 	{
-		taskQueue.remove(task);
+		if (threadPool == null)
+			return;
+		
+		synchronized (this)
+		{
+			Iterator<PendingTask> pendingTasks = taskQueue.iterator();
+			while (pendingTasks.hasNext())
+			{
+				PendingTask pendingTask = pendingTasks.next();
+				if (pendingTask.task == task)
+				{
+					pendingTasks.remove();
+					pendingCount.decrementAndGet();
+					unmarkQueued(task);
+					break;
+				}
+			}
+		}
 	}
 	
 	/**
 	 * Asynchronously execute the given task
 	 */
-	public synchronized void execute( AsyncTask task ) throws JMSException
-	{		
-		AsyncTaskProcessorThread thread = threadPool.borrow(); // Dispatch using new borrowed thread
-		if (thread != null)
+	public void execute( AsyncTask task ) throws JMSException
+	{
+		if (threadPool == null)
 		{
-			thread.setTask(task);
-			thread.execute();
+			if (task.isMergeable() && !markQueued(task))
+				return; // Already queued
+			
+			pendingCount.incrementAndGet();
+			try
+			{
+				executor.execute(new PendingTask(task));
+			}
+			catch (RejectedExecutionException e)
+			{
+				pendingCount.decrementAndGet();
+				if (task.isMergeable())
+					unmarkQueued(task);
+				throw new FFMQException("Async task manager "+name+" is closed","ASYNC_TASK_MANAGER_CLOSED");
+			}
+			return;
 		}
-		else
+		
+		synchronized (this)
 		{
-			// All threads are busy ...
-			
-			if (task.isMergeable())
+			AsyncTaskProcessorThread thread = threadPool.borrow(); // Dispatch using new borrowed thread
+			if (thread != null)
+			{
+				executed(0);
+				thread.setTask(task);
+				thread.execute();
+			}
+			else
 			{
-				if (!taskSet.add(task))
+				// All threads are busy ...
+				
+				if (task.isMergeable() && !markQueued(task))
 					return; // Already queued
+				
+				// Enqueue task
+				taskQueue.add(new PendingTask(task));
+				pendingCount.incrementAndGet();
 			}
-			
-			// Enqueue task
-			taskQueue.add(task);
 		}
 	}
 	
@@ -101,23 +216,54 @@ public final class AsyncTaskManager implements AsyncTaskProcessorThreadListener,
 		// If tasks are waiting, unqueue them
 		if (!taskQueue.isEmpty())
 		{
-			AsyncTask nextTask = taskQueue.removeFirst();
-			if (nextTask.isMergeable())
-				taskSet.remove(nextTask);
+			PendingTask nextTask = taskQueue.removeFirst();
+			pendingCount.decrementAndGet();
+			nextTask.dequeued();
 			
-			thread.setTask(nextTask);
+			thread.setTask(nextTask.task);
 			thread.execute();
 		}
 		else
 			threadPool.release(thread); // Release the thread
 	}
 	
+	private boolean markQueued( AsyncTask task )
+	{
+		if (task instanceof AbstractMergeableAsyncTask)
+			return ((AbstractMergeableAsyncTask)task).markQueued();
+		return mergeSet.add(task);
+	}
+	
+	private void unmarkQueued( AsyncTask task )
+	{
+		if (task instanceof AbstractMergeableAsyncTask)
+			((AbstractMergeableAsyncTask)task).clearQueued();
+		else
+			mergeSet.remove(task);
+	}
+	
+	private void executed( long latency )
+	{
+		executedCount.incrementAndGet();
+		if (latency > 0)
+		{
+			totalLatency.addAndGet(latency);
+			long max;
+			while (latency > (max = maxLatency.get()))
+				if (maxLatency.compareAndSet(max, latency))
+					break;
+		}
+	}
+	
 	/**
 	 * Close manager resources
 	 */
 	public void close()
 	{
-		threadPool.close();
+		if (threadPool != null)
+			threadPool.close();
+		else
+			executor.shutdown();
 	}
 	
 	/* (non-Javadoc)
@@ -129,6 +275,16 @@ public final class AsyncTaskManager implements AsyncTaskProcessorThreadListener,
 	    return name;
 	}
 	
+	/*
+	 * (non-Javadoc)
+	 * @see net.timewalker.ffmq4.utils.async.AsyncTaskManagerMBean#getExecutorType()
+	 */
+	@Override
+	public String getExecutorType()
+	{
+		return AsyncTaskExecutorType.toString(executorType);
+	}
+	
 	/*
 	 * (non-Javadoc)
 	 * @see net.timewalker.ffmq4.utils.async.AsyncTaskManagerMBean#getTaskQueueSize()
@@ -136,7 +292,50 @@ public final class AsyncTaskManager implements AsyncTaskProcessorThreadListener,
 	@Override
 	public int getTaskQueueSize()
 	{
-	    return taskQueue.size();
+	    return pendingCount.get();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see net.timewalker.ffmq4.utils.async.AsyncTaskManagerMBean#getExecutedTaskCount()
+	 */
+	@Override
+	public long getExecutedTaskCount()
+	{
+		return executedCount.get();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see net.timewalker.ffmq4.utils.async.AsyncTaskManagerMBean#getAverageTaskLatency()
+	 */
+	@Override
+	public long getAverageTaskLatency()
+	{
+		long count = executedCount.get();
+		return count > 0 ? totalLatency.get()/count/1000 : 0;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see net.timewalker.ffmq4.utils.async.AsyncTaskManagerMBean#getMaxTaskLatency()
+	 */
+	@Override
+	public long getMaxTaskLatency()
+	{
+		return maxLatency.get()/1000;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see net.timewalker.ffmq4.utils.async.AsyncTaskManagerMBean#resetStats()
+	 */
+	@Override
+	public void resetStats()
+	{
+		executedCount.set(0);
+		totalLatency.set(0);
+		maxLatency.set(0);
 	}
 
     /*
@@ -146,7 +345,7 @@ public final class AsyncTaskManager implements AsyncTaskProcessorThreadListener,
     @Override
 	public int getThreadPoolMaxIdle()
     {
-        return threadPool.getThreadPoolMaxIdle();
+        return threadPool != null ? threadPool.getThreadPoolMaxIdle() : threadPoolMaxIdle;
     }
 
     /*
@@ -156,7 +355,7 @@ public final class AsyncTaskManager implements AsyncTaskProcessorThreadListener,
     @Override
 	public int getThreadPoolMinSize()
     {
-        return threadPool.getThreadPoolMinSize();
+        return threadPool != null ? threadPool.getThreadPoolMinSize() : threadPoolMinSize;
     }
 
     /*
@@ -166,7 +365,7 @@ public final class AsyncTaskManager implements AsyncTaskProcessorThreadListener,
     @Override
 	public int getThreadPoolMaxSize()
     {
-        return threadPool.getThreadPoolMaxSize();
+        return threadPool != null ? threadPool.getThreadPoolMaxSize() : threadPoolMaxSize;
     }
 
     /*
@@ -176,7 +375,7 @@ public final class AsyncTaskManager implements AsyncTaskProcessorThreadListener,
     @Override
 	public int getThreadPoolExhaustionPolicy()
     {
-        return threadPool.getThreadPoolExhaustionPolicy();
+        return threadPool != null ? threadPool.getThreadPoolExhaustionPolicy() : 0;
     }
 
     /*
@@ -186,7 +385,7 @@ public final class AsyncTaskManager implements AsyncTaskProcessorThreadListener,
     @Override
 	public long getThreadPoolWaitTimeout()
     {
-        return threadPool.getThreadPoolWaitTimeout();
+        return threadPool != null ? threadPool.getThreadPoolWaitTimeout() : 0;
     }
 
     /*
@@ -196,7 +395,7 @@ public final class AsyncTaskManager implements AsyncTaskProcessorThreadListener,
     @Override
 	public int getThreadPoolAvailableCount()
     {
-        return threadPool.getThreadPoolAvailableCount();
+        return threadPool != null ? threadPool.getThreadPoolAvailableCount() : 0;
     }
 
     /*
@@ -206,7 +405,7 @@ public final class AsyncTaskManager implements AsyncTaskProcessorThreadListener,
     @Override
 	public int getThreadPoolPendingWaits()
     {
-        return threadPool.getThreadPoolPendingWaits();
+        return threadPool != null ? threadPool.getThreadPoolPendingWaits() : 0;
     }
     
     /* (non-Javadoc)
@@ -215,6 +414,86 @@ public final class AsyncTaskManager implements AsyncTaskProcessorThreadListener,
     @Override
 	public int getThreadPoolSize()
     {
-        return threadPool.getThreadPoolSize();
+        if (threadPool != null)
+            return threadPool.getThreadPoolSize();
+        if (executor instanceof ForkJoinPool)
+            return ((ForkJoinPool)executor).getPoolSize();
+        return 0;
+    }
+    
+    //-------------------------------------------------------------------------------
+    
+    /**
+     * A submitted task, stamped with its submission time
+     */
+    private final class PendingTask implements Runnable
+    {
+    	protected final AsyncTask task;
+    	private final long submitTime;
+    	
+    	/**
+		 * Constructor
+		 */
+		public PendingTask( AsyncTask task )
+		{
+			this.task = task;
+			this.submitTime = System.nanoTime();
+		}
+		
+		/**
+		 * Called when the task leaves the queue, right before its execution
+		 */
+		protected void dequeued()
+		{
+			if (task.isMergeable())
+				unmarkQueued(task);
+			executed(System.nanoTime() - submitTime);
+		}
+		
+		/* (non-Javadoc)
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run()
+		{
+			pendingCount.decrementAndGet();
+			dequeued();
+			try
+			{
+				task.execute();
+			}
+			catch (Throwable ex)
+			{
+				log.error("Asynchronous task execution failed",ex);
+			}
+		}
+    }
+    
+    /**
+     * Fork/join worker thread factory using the manager name
+     */
+    private static final class NamedWorkerThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory
+    {
+    	private final String name;
+    	private final AtomicInteger threadCount = new AtomicInteger();
+    	
+    	/**
+		 * Constructor
+		 */
+		public NamedWorkerThreadFactory( String name )
+		{
+			this.name = name;
+		}
+		
+		/* (non-Javadoc)
+		 * @see java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory#newThread(java.util.concurrent.ForkJoinPool)
+		 */
+		@Override
+		public ForkJoinWorkerThread newThread( ForkJoinPool pool )
+		{
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			thread.setName(name+"-"+threadCount.incrementAndGet());
+			return thread;
+		}
     }
 }
@@ -33,4 +33,29 @@ public interface AsyncTaskManagerMBean extends ObjectPoolMBean
      * Get the manager internal queue size
      */
     public int getTaskQueueSize();
+    
+    /**
+     * Get the executor backend type
+     */
+    public String getExecutorType();
+    
+    /**
+     * Get the number of tasks dispatched since startup (or last reset)
+     */
+    public long getExecutedTaskCount();
+    
+    /**
+     * Get the average time spent by a task in queue before execution (microseconds)
+     */
+    public long getAverageTaskLatency();
+    
+    /**
+     * Get the maximum time spent by a task in queue before execution (microseconds)
+     */
+    public long getMaxTaskLatency();
+    
+    /**
+     * Reset task statistics
+     */
+    public void resetStats();
 }
@@ -17,6 +17,9 @@
  */
 package net.timewalker.ffmq4.utils.concurrent;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * SynchronizationBarrier
  */
@@ -24,6 +27,7 @@ public final class SynchronizationBarrier
 {
     private boolean reached;
     private int remaining;
+    private List<Runnable> reachedActions;
     
     /**
      * Increment the number of involved parties
@@ -45,29 +49,76 @@ public final class SynchronizationBarrier
      * Wait for the synchronization point to be reached.
      * Returns immediately if the sync. point is already reached.
      */
-    public synchronized void waitFor() throws InterruptedException
+    public void waitFor() throws InterruptedException
     {
-    	if (remaining == 0)
-    		reached = true;
-    	while (!reached)
-    	    wait();
+    	List<Runnable> actions = null;
+    	synchronized (this)
+    	{
+	    	if (remaining == 0 && !reached)
+	    	{
+	    		reached = true;
+	    		actions = takeReachedActions();
+	    	}
+	    	while (!reached)
+	    	    wait();
+    	}
+    	runActions(actions);
     }
     
     /**
      * Indicate that the current thread reached the synchronization barrier.
      * If all parties have reached the barrier, this wakes up all waiting threads.
      */
-    public synchronized void reach()
+    public void reach()
+    {
+    	List<Runnable> actions;
+    	synchronized (this)
+    	{
+	        if (reached)
+	            return;
+	        
+	        remaining--;
+	        if (remaining > 0)
+	        	return;
+	        
+	        reached = true;
+	        notifyAll();
+	        actions = takeReachedActions();
+    	}
+    	runActions(actions);
+    }
+    
+    /**
+     * Register an action to be run once the synchronization point is reached.
+     * The action is run by the thread reaching the barrier, or immediately if the barrier was already reached.
+     */
+    public void onReached( Runnable action )
+    {
+    	synchronized (this)
+    	{
+    		if (!reached)
+    		{
+    			if (reachedActions == null)
+    				reachedActions = new ArrayList<>();
+    			reachedActions.add(action);
+    			return;
+    		}
+    	}
+    	action.run();
+    }
+    
+    private List<Runnable> takeReachedActions()
+    {
+    	List<Runnable> actions = reachedActions;
+    	reachedActions = null;
+    	return actions;
+    }
+    
+    private static void runActions( List<Runnable> actions )
     {
-        if (reached)
-            return;
-        
-        remaining--;
-        if (remaining <= 0)
-        {
-            reached = true;
-            notifyAll();
-        }
+    	if (actions != null)
+    		for (int i = 0; i < actions.size(); i++)
+    			actions.get(i).run();
     }
     
     /**
@@ -77,5 +128,6 @@ public final class SynchronizationBarrier
     {
         remaining = 0;
         reached = false;
+        reachedActions = null;
     }
 }
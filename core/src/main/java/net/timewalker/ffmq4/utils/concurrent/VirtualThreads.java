@@ -0,0 +1,117 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.utils.concurrent;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * VirtualThreads
+ * <p>Access to the JDK 21+ virtual threads API through reflection, so that the code base
+ * can still be compiled for and run on older JVMs.<br>
+ * All factory methods fall back to platform threads when virtual threads are not available.</p>
+ */
+public final class VirtualThreads
+{
+	private static final Method OF_VIRTUAL;
+	private static final Method BUILDER_NAME;
+	private static final Method BUILDER_UNSTARTED;
+	private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR;
+	static
+	{
+		Method ofVirtual = null;
+		Method builderName = null;
+		Method builderUnstarted = null;
+		Method newExecutor = null;
+		try
+		{
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builderName = builderClass.getMethod("name", String.class);
+			builderUnstarted = builderClass.getMethod("unstarted", Runnable.class);
+			newExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			
+			// Preview versions of the API throw at invocation time unless enabled
+			ofVirtual.invoke(null);
+		}
+		catch (Throwable e)
+		{
+			ofVirtual = null;
+		}
+		OF_VIRTUAL = ofVirtual;
+		BUILDER_NAME = builderName;
+		BUILDER_UNSTARTED = builderUnstarted;
+		NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = newExecutor;
+	}
+	
+	private VirtualThreads()
+	{
+		// Utility class
+	}
+	
+	/**
+	 * Test if virtual threads are supported by the current JVM
+	 */
+	public static boolean isSupported()
+	{
+		return OF_VIRTUAL != null;
+	}
+	
+	/**
+	 * Create a new (unstarted) thread
+	 * @param task the thread body
+	 * @param name the thread name
+	 * @param virtual create a virtual thread if supported, a platform thread otherwise
+	 */
+	public static Thread newThread( Runnable task , String name , boolean virtual )
+	{
+		if (virtual && OF_VIRTUAL != null)
+		{
+			try
+			{
+				Object builder = OF_VIRTUAL.invoke(null);
+				builder = BUILDER_NAME.invoke(builder, name);
+				return (Thread)BUILDER_UNSTARTED.invoke(builder, task);
+			}
+			catch (Exception e)
+			{
+				throw new IllegalStateException("Cannot create virtual thread : "+e.toString());
+			}
+		}
+		return new Thread(task,name);
+	}
+	
+	/**
+	 * Create an executor starting a new virtual thread for each task
+	 * @return the executor or null if virtual threads are not supported
+	 */
+	public static ExecutorService newVirtualThreadPerTaskExecutor()
+	{
+		if (OF_VIRTUAL == null)
+			return null;
+		try
+		{
+			return (ExecutorService)NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+		}
+		catch (Exception e)
+		{
+			return null;
+		}
+	}
+}
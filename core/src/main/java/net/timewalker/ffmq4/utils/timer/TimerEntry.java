@@ -0,0 +1,71 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.utils.timer;
+
+/**
+ * <p>Entry scheduled in a {@link TimingWheel}.</p>
+ * <p>Entries are linked in place in the wheel slots, so scheduling or cancelling them
+ * does not allocate anything.</p>
+ */
+public abstract class TimerEntry
+{
+	// Runtime
+	long deadline;
+	long tick;
+	TimerEntry previous;
+	TimerEntry next;
+	
+	/**
+	 * Get the handler this entry should be handed over to once expired.
+	 * Expired entries sharing the same handler are processed as a batch.
+	 */
+	public abstract TimerHandler getHandler();
+	
+	/**
+	 * Get the entry deadline
+	 * @return the entry deadline (absolute time in milliseconds)
+	 */
+	public final long getDeadline()
+	{
+		return deadline;
+	}
+	
+	/**
+	 * Test if this entry is currently scheduled
+	 */
+	final boolean isLinked()
+	{
+		return next != null;
+	}
+	
+	final void linkBefore( TimerEntry entry )
+	{
+		previous = entry.previous;
+		next = entry;
+		entry.previous.next = this;
+		entry.previous = this;
+	}
+	
+	final void unlink()
+	{
+		previous.next = next;
+		next.previous = previous;
+		previous = null;
+		next = null;
+	}
+}
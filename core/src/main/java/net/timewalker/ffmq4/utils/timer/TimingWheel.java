@@ -0,0 +1,296 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.utils.timer;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p>Hierarchical timing wheel, running in its own daemon thread.</p>
+ * <p>
+ *  Time is divided in ticks of a fixed duration. Entries due in the next 64 ticks
+ *  are hashed by tick into the first wheel, later entries into one of the coarser wheels
+ *  (64 slots each) and are moved down one level at a time as time goes by.
+ *  Scheduling and cancelling an entry are constant time operations, whatever the number 
+ *  of scheduled entries.
+ * </p>
+ * <p>
+ *  Expired entries are handed over to their {@link TimerHandler} once per tick, 
+ *  as a single batch per handler.
+ *  The thread sleeps when the wheel is empty.
+ * </p>
+ */
+public final class TimingWheel extends Thread
+{
+	private static final Log log = LogFactory.getLog(TimingWheel.class);
+	
+	// Wheels geometry
+	private static final int WHEEL_BITS = 6;
+	private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+	private static final int WHEEL_MASK = WHEEL_SIZE-1;
+	private static final int LEVELS = 4;
+	private static final long MAX_TICKS = 1L << (WHEEL_BITS*LEVELS);
+	
+	// Attributes
+	private long tickDuration;
+	
+	// Runtime
+	private TimerEntry[][] wheels;
+	private long currentTick;
+	private int size;
+	private boolean stop;
+	
+	/**
+	 * Constructor
+	 * @param name thread name
+	 * @param tickDuration duration of a tick in milliseconds
+	 */
+	public TimingWheel( String name , long tickDuration )
+	{
+		super(name);
+		setDaemon(true);
+		this.tickDuration = tickDuration;
+		this.wheels = new TimerEntry[LEVELS][WHEEL_SIZE];
+		for (int level = 0; level < LEVELS; level++)
+			for (int n = 0; n < WHEEL_SIZE; n++)
+			{
+				TimerEntry sentinel = new SentinelEntry();
+				sentinel.previous = sentinel;
+				sentinel.next = sentinel;
+				wheels[level][n] = sentinel;
+			}
+		this.currentTick = System.currentTimeMillis()/tickDuration;
+	}
+	
+	/**
+	 * Schedule an entry. If the entry was already scheduled, it is rescheduled.
+	 * @param entry the entry to schedule
+	 * @param deadline the entry deadline (absolute time in milliseconds)
+	 */
+	public synchronized void schedule( TimerEntry entry , long deadline )
+	{
+		if (entry.isLinked())
+		{
+			entry.unlink();
+			size--;
+		}
+		
+		if (size == 0)
+		{
+			// Skip idle time
+			currentTick = Math.max(currentTick, System.currentTimeMillis()/tickDuration);
+			notify();
+		}
+		
+		entry.deadline = deadline;
+		entry.tick = Math.max(deadline/tickDuration+1, currentTick+1); // Never early
+		insert(entry);
+		size++;
+	}
+	
+	/**
+	 * Cancel a scheduled entry
+	 * @param entry the entry to cancel
+	 * @return true if the entry was scheduled
+	 */
+	public synchronized boolean cancel( TimerEntry entry )
+	{
+		if (!entry.isLinked())
+			return false;
+		
+		entry.unlink();
+		size--;
+		return true;
+	}
+	
+	/**
+	 * Get the number of scheduled entries
+	 */
+	public synchronized int getSize()
+	{
+		return size;
+	}
+	
+	private void insert( TimerEntry entry )
+	{
+		long delta = entry.tick - currentTick;
+		if (delta >= MAX_TICKS)
+			delta = MAX_TICKS-1; // Re-inserted later on, when cascading
+		
+		int level = 0;
+		while (delta >= (1L << (WHEEL_BITS*(level+1))))
+			level++;
+		
+		long slotTick = currentTick + delta;
+		int slot = (int)((slotTick >>> (WHEEL_BITS*level)) & WHEEL_MASK);
+		entry.linkBefore(wheels[level][slot]);
+	}
+	
+	/**
+	 * Move the entries of a coarse wheel slot down to the finer wheels
+	 */
+	private void cascade( int level , int slot )
+	{
+		TimerEntry sentinel = wheels[level][slot];
+		TimerEntry entry = sentinel.next;
+		while (entry != sentinel)
+		{
+			TimerEntry next = entry.next;
+			entry.unlink();
+			insert(entry);
+			entry = next;
+		}
+	}
+	
+	/**
+	 * Advance the wheel up to the given tick, collecting expired entries
+	 */
+	private void advance( long targetTick , List<TimerEntry> expired )
+	{
+		while (currentTick < targetTick && size > 0)
+		{
+			currentTick++;
+			
+			int slot = (int)(currentTick & WHEEL_MASK);
+			if (slot == 0)
+			{
+				for (int level = 1; level < LEVELS; level++)
+				{
+					int levelSlot = (int)((currentTick >>> (WHEEL_BITS*level)) & WHEEL_MASK);
+					cascade(level, levelSlot);
+					if (levelSlot != 0)
+						break;
+				}
+			}
+			
+			TimerEntry sentinel = wheels[0][slot];
+			while (sentinel.next != sentinel)
+			{
+				TimerEntry entry = sentinel.next;
+				entry.unlink();
+				size--;
+				expired.add(entry);
+			}
+		}
+		currentTick = Math.max(currentTick, targetTick);
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Thread#run()
+	 */
+	@Override
+	public void run()
+	{
+		log.debug("Starting timing wheel (tickDuration="+tickDuration+"ms)");
+		List<TimerEntry> expired = new ArrayList<>();
+		try
+		{
+			while (true)
+			{
+				synchronized (this)
+				{
+					while (!stop && size == 0)
+						wait();
+					if (stop)
+						break;
+					
+					long now = System.currentTimeMillis();
+					long nowTick = now/tickDuration;
+					if (nowTick <= currentTick)
+					{
+						wait(tickDuration - (now % tickDuration));
+						continue;
+					}
+					advance(nowTick, expired);
+				}
+				
+				if (!expired.isEmpty())
+				{
+					dispatch(expired);
+					expired.clear();
+				}
+			}
+			log.debug("Timing wheel stopped");
+		}
+		catch (Throwable e)
+		{
+			log.error("Timing wheel failed",e);
+		}
+	}
+	
+	private void dispatch( List<TimerEntry> expired )
+	{
+		// Group entries by handler
+		Map<TimerHandler,List<TimerEntry>> batches = new IdentityHashMap<>();
+		for (int n = 0; n < expired.size(); n++)
+		{
+			TimerEntry entry = expired.get(n);
+			List<TimerEntry> batch = batches.get(entry.getHandler());
+			if (batch == null)
+			{
+				batch = new ArrayList<>();
+				batches.put(entry.getHandler(), batch);
+			}
+			batch.add(entry);
+		}
+		
+		Iterator<Entry<TimerHandler,List<TimerEntry>>> batchesIterator = batches.entrySet().iterator();
+		while (batchesIterator.hasNext())
+		{
+			Entry<TimerHandler,List<TimerEntry>> batch = batchesIterator.next();
+			try
+			{
+				batch.getKey().timersExpired(batch.getValue());
+			}
+			catch (Exception e)
+			{
+				log.error("Timer handler failed",e);
+			}
+		}
+	}
+	
+	/**
+	 * Ask the wheel thread to stop. Scheduled entries are dropped.
+	 */
+	public synchronized void pleaseStop()
+	{
+		stop = true;
+		notify();
+	}
+	
+	//-------------------------------------------------------------------------------
+	
+	private static final class SentinelEntry extends TimerEntry
+	{
+		/* (non-Javadoc)
+		 * @see net.timewalker.ffmq4.utils.timer.TimerEntry#getHandler()
+		 */
+		@Override
+		public TimerHandler getHandler()
+		{
+			return null;
+		}
+	}
+}
@@ -6,17 +6,32 @@ import junit.framework.TestSuite;
 import net.timewalker.ffmq4.test.common.message.BytesMessageImplTest;
 import net.timewalker.ffmq4.test.common.message.EmptyMessageImplTest;
 import net.timewalker.ffmq4.test.common.message.MapMessageImplTest;
+import net.timewalker.ffmq4.test.common.message.RawMessageHeadersTest;
 import net.timewalker.ffmq4.test.common.message.StreamMessageImplTest;
+import net.timewalker.ffmq4.test.common.message.selector.MessageSelectorCompilerTest;
 import net.timewalker.ffmq4.test.common.message.selector.MessageSelectorParserTest;
 import net.timewalker.ffmq4.test.common.message.selector.expression.utils.StringUtilsTest;
 import net.timewalker.ffmq4.test.jndi.JndiTest;
+import net.timewalker.ffmq4.test.common.session.DeliveryTagRangesTest;
 import net.timewalker.ffmq4.test.local.TransactionSetTest;
 import net.timewalker.ffmq4.test.local.destination.store.impl.BlockFileMessageStoreTest;
+import net.timewalker.ffmq4.test.local.destination.store.impl.CachedBlockFileMessageStoreTest;
 import net.timewalker.ffmq4.test.local.destination.store.impl.InMemoryMessageStoreTest;
 import net.timewalker.ffmq4.test.local.destination.store.impl.JournalingBlockFileMessageStoreTest;
+import net.timewalker.ffmq4.test.local.destination.store.impl.LazyMessageStoreTest;
+import net.timewalker.ffmq4.test.local.destination.store.impl.LogFileMessageStoreTest;
+import net.timewalker.ffmq4.test.local.destination.store.impl.OffHeapMessageStoreTest;
+import net.timewalker.ffmq4.test.local.destination.store.impl.SharedLogMessageStoreTest;
 import net.timewalker.ffmq4.test.storage.data.impl.BlockBasedDataStoreTest;
 import net.timewalker.ffmq4.test.storage.data.impl.InMemoryLinkedObjectStoreTest;
 import net.timewalker.ffmq4.test.storage.data.impl.JournalingBlockBasedDataStoreTest;
+import net.timewalker.ffmq4.test.storage.data.impl.LogStructuredDataStoreTest;
+import net.timewalker.ffmq4.test.storage.data.impl.MappedBlockBasedDataStoreTest;
+import net.timewalker.ffmq4.test.storage.data.impl.SharedJournalDataStoreTest;
+import net.timewalker.ffmq4.test.transport.tcp.io.TcpPacketTransportTest;
+import net.timewalker.ffmq4.test.transport.tcp.nio.NIOTcpMultiplexerTest;
+import net.timewalker.ffmq4.test.utils.async.AsyncTaskManagerTest;
+import net.timewalker.ffmq4.test.utils.timer.TimingWheelTest;
 
 /**
  * AllTests
@@ -30,17 +45,32 @@ public class AllCoreTests extends TestCase
         suite.addTestSuite(BytesMessageImplTest.class);
         suite.addTestSuite(EmptyMessageImplTest.class);
         suite.addTestSuite(MapMessageImplTest.class);
+        suite.addTestSuite(RawMessageHeadersTest.class);
         suite.addTestSuite(StreamMessageImplTest.class);
         suite.addTestSuite(TransactionSetTest.class);
+        suite.addTestSuite(DeliveryTagRangesTest.class);
         suite.addTestSuite(StringUtilsTest.class);
         suite.addTestSuite(MessageSelectorParserTest.class);
+        suite.addTestSuite(MessageSelectorCompilerTest.class);
         suite.addTestSuite(JndiTest.class);
         suite.addTestSuite(BlockFileMessageStoreTest.class);
         suite.addTestSuite(JournalingBlockFileMessageStoreTest.class);
+        suite.addTestSuite(CachedBlockFileMessageStoreTest.class);
+        suite.addTestSuite(LogFileMessageStoreTest.class);
+        suite.addTestSuite(LazyMessageStoreTest.class);
+        suite.addTestSuite(SharedLogMessageStoreTest.class);
         suite.addTestSuite(InMemoryMessageStoreTest.class);
+        suite.addTestSuite(OffHeapMessageStoreTest.class);
         suite.addTestSuite(InMemoryLinkedObjectStoreTest.class);
         suite.addTestSuite(BlockBasedDataStoreTest.class);
         suite.addTestSuite(JournalingBlockBasedDataStoreTest.class);
+        suite.addTestSuite(LogStructuredDataStoreTest.class);
+        suite.addTestSuite(MappedBlockBasedDataStoreTest.class);
+        suite.addTestSuite(SharedJournalDataStoreTest.class);
+        suite.addTestSuite(AsyncTaskManagerTest.class);
+        suite.addTestSuite(TimingWheelTest.class);
+        suite.addTestSuite(NIOTcpMultiplexerTest.class);
+        suite.addTestSuite(TcpPacketTransportTest.class);
         //$JUnit-END$
         return suite;
     }
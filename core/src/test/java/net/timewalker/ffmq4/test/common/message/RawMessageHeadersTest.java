@@ -0,0 +1,161 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.test.common.message;
+
+import java.util.Enumeration;
+
+import junit.framework.TestCase;
+import net.timewalker.ffmq4.common.destination.QueueRef;
+import net.timewalker.ffmq4.common.message.AbstractMessage;
+import net.timewalker.ffmq4.common.message.MessageSelector;
+import net.timewalker.ffmq4.common.message.MessageSerializer;
+import net.timewalker.ffmq4.common.message.TextMessageImpl;
+import net.timewalker.ffmq4.storage.message.MessageSerializationLevel;
+import net.timewalker.ffmq4.utils.RawDataBuffer;
+
+/**
+ * RawMessageHeadersTest
+ */
+public class RawMessageHeadersTest extends TestCase
+{
+	private static byte[] createRawMessage() throws Exception
+	{
+		TextMessageImpl msg = new TextMessageImpl("some text");
+		msg.setJMSMessageID("ID:test");
+		msg.setJMSDestination(new QueueRef("TEST"));
+		msg.setJMSCorrelationID("corr-é中");
+		msg.setJMSReplyTo(new QueueRef("REPLY"));
+		msg.setJMSTimestamp(123456789L);
+		msg.setJMSType("typeA");
+		msg.setStringProperty("name", "value");
+		msg.setIntProperty("count", 42);
+		msg.setBooleanProperty("flag", true);
+		msg.setDoubleProperty("ratio", 0.5);
+		msg.setStringProperty("unicodeé", "été");
+
+		return MessageSerializer.serialize(msg, 256);
+	}
+
+	private static void assertBaseHeadersOnly( AbstractMessage msg )
+	{
+		try
+		{
+			msg.getPropertyNames();
+			fail("Should have failed");
+		}
+		catch (IllegalStateException e)
+		{
+			// Expected
+		}
+	}
+
+	public void testReadRawHeaders() throws Exception
+	{
+		AbstractMessage msg = MessageSerializer.unserialize(createRawMessage(), true);
+
+		assertEquals("corr-é中", msg.getJMSCorrelationID());
+		assertEquals(123456789L, msg.getJMSTimestamp());
+		assertEquals("typeA", msg.getJMSType());
+		assertEquals("value", msg.getStringProperty("name"));
+		assertEquals(42, msg.getIntProperty("count"));
+		assertEquals(Boolean.TRUE, msg.getObjectProperty("flag"));
+		assertEquals(0.5, msg.getDoubleProperty("ratio"), 0);
+		assertEquals("été", msg.getStringProperty("unicodeé"));
+		assertNull(msg.getObjectProperty("unknown"));
+		assertNull(msg.getObjectProperty("unicode"));
+
+		assertTrue(new MessageSelector("name = 'value' AND count > 40 AND JMSType = 'typeA'").matches(msg));
+		assertFalse(new MessageSelector("flag AND ratio > 1").matches(msg));
+		assertBaseHeadersOnly(msg);
+
+		// Copies share the raw header index
+		AbstractMessage copy = msg.copy();
+		assertEquals("value", copy.getStringProperty("name"));
+		assertEquals("typeA", copy.getJMSType());
+
+		// Full deserialization must still be possible afterwards
+		msg.ensureDeserializationLevel(MessageSerializationLevel.ALL_HEADERS);
+		int count = 0;
+		Enumeration<String> names = msg.getPropertyNames();
+		while (names.hasMoreElements())
+		{
+			names.nextElement();
+			count++;
+		}
+		assertEquals(5, count);
+		assertEquals("REPLY", ((QueueRef)msg.getJMSReplyTo()).getQueueName());
+		assertEquals("corr-é中", msg.getJMSCorrelationID());
+		msg.ensureDeserializationLevel(MessageSerializationLevel.FULL);
+		assertEquals("some text", ((TextMessageImpl)msg).getText());
+	}
+
+	public void testRawUTF() throws Exception
+	{
+		String[] values = { "" , "abc" , "éè" , "中文" , "a\u0000b" };
+
+		RawDataBuffer buffer = new RawDataBuffer(64);
+		for (int n = 0 ; n < values.length ; n++)
+			buffer.writeUTF(values[n]);
+		buffer.writeInt(-1);
+
+		buffer.setPos(0);
+		for (int n = 0 ; n < values.length ; n++)
+			buffer.skipUTF();
+		assertEquals(-1, buffer.readInt());
+
+		buffer.setPos(0);
+		for (int n = 0 ; n < values.length ; n++)
+		{
+			int pos = buffer.pos();
+			assertTrue(buffer.readUTFEquals(values[n]));
+			buffer.setPos(pos);
+			assertFalse(buffer.readUTFEquals(values[n]+"x"));
+		}
+		assertEquals(-1, buffer.readInt());
+	}
+
+	public void testRawHeadersBenchmark() throws Exception
+	{
+		byte[] rawData = createRawMessage();
+		MessageSelector selector = new MessageSelector("name = 'value' AND count > 40");
+		int iterations = 200000;
+
+		for (int pass = 0 ; pass < 2 ; pass++)
+		{
+			long start = System.nanoTime();
+			for (int n = 0 ; n < iterations ; n++)
+			{
+				AbstractMessage msg = MessageSerializer.unserialize(rawData, true);
+				msg.ensureDeserializationLevel(MessageSerializationLevel.ALL_HEADERS);
+				assertTrue(selector.matches(msg));
+			}
+			long deserializeTime = System.nanoTime()-start;
+
+			start = System.nanoTime();
+			for (int n = 0 ; n < iterations ; n++)
+			{
+				AbstractMessage msg = MessageSerializer.unserialize(rawData, true);
+				assertTrue(selector.matches(msg));
+			}
+			long rawTime = System.nanoTime()-start;
+
+			if (pass > 0)
+				System.out.println("Selector on "+iterations+" raw messages : deserialized headers="+(deserializeTime/1000000)+"ms raw headers="+(rawTime/1000000)+"ms");
+		}
+	}
+}
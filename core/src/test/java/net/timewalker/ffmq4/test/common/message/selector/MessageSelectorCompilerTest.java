@@ -0,0 +1,268 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.test.common.message.selector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import junit.framework.TestCase;
+import net.timewalker.ffmq4.common.message.TextMessageImpl;
+import net.timewalker.ffmq4.common.message.selector.MessageSelectorParser;
+import net.timewalker.ffmq4.common.message.selector.compiler.MessageSelectorCompiler;
+import net.timewalker.ffmq4.common.message.selector.compiler.SelectorEvaluator;
+import net.timewalker.ffmq4.common.message.selector.expression.SelectorNode;
+import net.timewalker.ffmq4.common.message.selector.expression.utils.LikePattern;
+
+/**
+ * MessageSelectorCompilerTest
+ */
+public class MessageSelectorCompilerTest extends TestCase
+{
+	private static final String[] EXTRA_SELECTORS = {
+		"sProp like 'f%r'",
+		"sProp like '%o_b%'",
+		"sProp like '%bar'",
+		"sProp like '%oba%'",
+		"sProp like 'foo'",
+		"sProp like '_oobar'",
+		"sProp not like '%x%'",
+		"sProp in ('a','b','c','d','e','f','g','h','i','foobar')",
+		"sProp not in ('a','b','c','d','e','f','g','h','i','j')",
+		"iProp between 0.5 and 1.5",
+		"dProp between 4 and 5",
+		"lProp > 2.5 and lProp < 3.5",
+		"1 < iProp and 2 >= iProp2",
+		"iProp = 1.0",
+		"fProp = 1.23",
+		"iProp <> 1",
+		"iProp = 1 and iProp2 = 2 and lProp = 3 and sProp = 'foobar'",
+		"iProp = 2 or iProp2 = 3 or lProp = 4 or sProp like 'foo%'",
+		"undefined = 1 or iProp = 1",
+		"undefined = 1 and iProp = 2",
+		"not (iProp = 1 and undefined = 2)",
+		"iProp > 2*3-5",
+		"iProp = 1/0",
+		"bProp and iProp = 1",
+		"bProp = false or undefined",
+		"JMSPriority > 3 and JMSDeliveryMode = 'PERSISTENT'"
+	};
+	
+	private List<Message> getTestMessages() throws Exception
+	{
+		List<Message> messages = new ArrayList<>();
+		messages.add(MessageSelectorParserTest.getTestMessage());
+		messages.add(new TextMessageImpl());
+		
+		Message msg = new TextMessageImpl();
+		msg.setStringProperty("sProp", "fooxbar");
+		msg.setLongProperty("iProp", 2);
+		msg.setShortProperty("iProp2", (short)3);
+		msg.setDoubleProperty("lProp", 3.0);
+		msg.setStringProperty("fProp", "1.23");
+		msg.setIntProperty("dProp", 5);
+		msg.setBooleanProperty("bProp", false);
+		msg.setIntProperty("undefined", 1);
+		msg.setJMSPriority(5);
+		messages.add(msg);
+		
+		return messages;
+	}
+	
+	private List<String> getSelectorCorpus()
+	{
+		List<String> selectors = new ArrayList<>();
+		for (int n = 0; n < MessageSelectorParserTest.VALID_SELECTORS.length; n++)
+			if (MessageSelectorParserTest.VALID_SELECTORS[n].getSelector().trim().length() > 0)
+				selectors.add(MessageSelectorParserTest.VALID_SELECTORS[n].getSelector());
+		for (int n = 0; n < EXTRA_SELECTORS.length; n++)
+			selectors.add(EXTRA_SELECTORS[n]);
+		return selectors;
+	}
+	
+	private static Boolean interpret( SelectorNode tree , Message message ) throws JMSException
+	{
+		return tree.evaluateBoolean(message);
+	}
+	
+	private static Boolean evaluate( SelectorEvaluator evaluator , Message message ) throws JMSException
+	{
+		switch (evaluator.evaluate(message))
+		{
+			case SelectorEvaluator.TRUE  : return Boolean.TRUE;
+			case SelectorEvaluator.FALSE : return Boolean.FALSE;
+			default :
+				return null;
+		}
+	}
+	
+	public void testCompiledMatchesInterpreted() throws Exception
+	{
+		List<String> selectors = getSelectorCorpus();
+		List<Message> messages = getTestMessages();
+		for (int n = 0; n < selectors.size(); n++)
+		{
+			String selector = selectors.get(n);
+			SelectorNode tree = new MessageSelectorParser(selector).parse();
+			SelectorEvaluator evaluator = MessageSelectorCompiler.compile(tree);
+			for (int i = 0; i < messages.size(); i++)
+			{
+				Message message = messages.get(i);
+				
+				Boolean expected;
+				try
+				{
+					expected = interpret(tree, message);
+				}
+				catch (JMSException e)
+				{
+					// Type errors may be hidden by AND/OR operands evaluated first
+					continue;
+				}
+				
+				assertEquals(selector+" on message #"+i, expected, evaluate(evaluator, message));
+			}
+		}
+	}
+	
+	public void testFailOnEval() throws Exception
+	{
+		for (int n = 0; n < MessageSelectorParserTest.FAIL_ON_EVAL_SELECTORS.length; n++)
+		{
+			String selector = MessageSelectorParserTest.FAIL_ON_EVAL_SELECTORS[n];
+			SelectorNode tree;
+			try
+			{
+				tree = new MessageSelectorParser(selector).parse();
+			}
+			catch (JMSException e)
+			{
+				continue; // Rejected by the parser
+			}
+			
+			try
+			{
+				MessageSelectorCompiler.compile(tree).evaluate(MessageSelectorParserTest.getTestMessage());
+				fail("Should have failed : "+selector);
+			}
+			catch (JMSException e)
+			{
+				// Expected
+			}
+		}
+	}
+	
+	public void testLikePattern() throws Exception
+	{
+		assertTrue(new LikePattern("", null).matches(""));
+		assertFalse(new LikePattern("", null).matches("a"));
+		assertTrue(new LikePattern("%", null).matches(""));
+		assertTrue(new LikePattern("%%", null).matches("abc"));
+		assertTrue(new LikePattern("abc", null).matches("abc"));
+		assertFalse(new LikePattern("ab", null).matches("abc"));
+		assertFalse(new LikePattern("abcd", null).matches("abc"));
+		assertTrue(new LikePattern("ab%", null).matches("abc"));
+		assertFalse(new LikePattern("ab%", null).matches("xabc"));
+		assertTrue(new LikePattern("%bc", null).matches("abc"));
+		assertFalse(new LikePattern("%bc", null).matches("abcd"));
+		assertTrue(new LikePattern("%b%", null).matches("abc"));
+		assertFalse(new LikePattern("%x%", null).matches("abc"));
+		assertTrue(new LikePattern("_b_", null).matches("abc"));
+		assertFalse(new LikePattern("_b_", null).matches("abcd"));
+		assertTrue(new LikePattern("a%c%e", null).matches("abcdcde"));
+		assertFalse(new LikePattern("a%c%e", null).matches("abcdcdef"));
+		assertTrue(new LikePattern("%a%a%a", null).matches("aaaa"));
+		assertFalse(new LikePattern("%a%a%a", null).matches("aab"));
+		assertTrue(new LikePattern("a_%", null).matches("ab"));
+		assertFalse(new LikePattern("a_%", null).matches("a"));
+		
+		// Escaping
+		assertTrue(new LikePattern("100\\%", "\\").matches("100%"));
+		assertFalse(new LikePattern("100\\%", "\\").matches("1000"));
+		assertTrue(new LikePattern("a\\_b", "\\").matches("a_b"));
+		assertFalse(new LikePattern("a\\_b", "\\").matches("axb"));
+		assertTrue(new LikePattern("%!%%", "!").matches("50% off"));
+		assertTrue(new LikePattern("a!!b", "!").matches("a!b"));
+	}
+	
+	public void testCompilerBenchmark() throws Exception
+	{
+		List<String> selectors = getSelectorCorpus();
+		List<Message> messages = getTestMessages();
+		
+		List<SelectorNode> trees = new ArrayList<>();
+		List<SelectorEvaluator> evaluators = new ArrayList<>();
+		for (int n = 0; n < selectors.size(); n++)
+		{
+			SelectorNode tree = new MessageSelectorParser(selectors.get(n)).parse();
+			SelectorEvaluator evaluator = MessageSelectorCompiler.compile(tree);
+			
+			// Only keep selectors that evaluate without errors
+			boolean valid = true;
+			for (int i = 0; i < messages.size(); i++)
+			{
+				try
+				{
+					interpret(tree, messages.get(i));
+					evaluator.evaluate(messages.get(i));
+				}
+				catch (JMSException e)
+				{
+					valid = false;
+				}
+			}
+			if (valid)
+			{
+				trees.add(tree);
+				evaluators.add(evaluator);
+			}
+		}
+		
+		int iterations = 2000;
+		for (int pass = 0; pass < 5; pass++)
+		{
+			int interpretedMatches = 0;
+			long start = System.nanoTime();
+			for (int k = 0; k < iterations; k++)
+				for (int n = 0; n < trees.size(); n++)
+					for (int i = 0; i < messages.size(); i++)
+					{
+						Boolean result = interpret(trees.get(n), messages.get(i));
+						if (result != null && result.booleanValue())
+							interpretedMatches++;
+					}
+			long interpretedTime = System.nanoTime() - start;
+			
+			int compiledMatches = 0;
+			start = System.nanoTime();
+			for (int k = 0; k < iterations; k++)
+				for (int n = 0; n < evaluators.size(); n++)
+					for (int i = 0; i < messages.size(); i++)
+						if (evaluators.get(n).matches(messages.get(i)))
+							compiledMatches++;
+			long compiledTime = System.nanoTime() - start;
+			
+			assertEquals(interpretedMatches, compiledMatches);
+			
+			long evaluations = (long)iterations*trees.size()*messages.size();
+			System.out.println("Selectors["+trees.size()+" x "+messages.size()+" messages] interpreted="+(interpretedTime/evaluations)+" ns/eval, compiled="+(compiledTime/evaluations)+" ns/eval");
+		}
+	}
+}
@@ -33,7 +33,7 @@ import net.timewalker.ffmq4.common.message.selector.expression.SelectorNode;
  */
 public class MessageSelectorParserTest extends TestCase
 {
-	private static final SelectorUseCase[] VALID_SELECTORS = {
+	static final SelectorUseCase[] VALID_SELECTORS = {
 		
 		// White space handling
 	    new SelectorUseCase("   ",false),
@@ -264,7 +264,7 @@ public class MessageSelectorParserTest extends TestCase
     	"2 between 3 and"
     };
     
-    private static final String[] FAIL_ON_EVAL_SELECTORS = {
+    static final String[] FAIL_ON_EVAL_SELECTORS = {
         "false or iProp",
         "3/sProp = 1",
         "iProp like 'test'",
@@ -277,7 +277,7 @@ public class MessageSelectorParserTest extends TestCase
         "undefined in (1,2)",
     };
     
-    private Message getTestMessage() throws Exception
+    static Message getTestMessage() throws Exception
     {
     	Message msg = new TextMessageImpl();
     	msg.setStringProperty("sProp", "foobar");
@@ -355,7 +355,7 @@ public class MessageSelectorParserTest extends TestCase
         System.out.println("-------------------------------------------------");
     }
     
-    private static class SelectorUseCase
+    static class SelectorUseCase
     {
     	private String selector;
     	private boolean shouldMatch;
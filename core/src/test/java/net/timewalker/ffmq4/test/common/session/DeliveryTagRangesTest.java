@@ -0,0 +1,94 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.timewalker.ffmq4.test.common.session;
+
+import junit.framework.TestCase;
+import net.timewalker.ffmq4.common.session.DeliveryTagRanges;
+import net.timewalker.ffmq4.utils.RawDataBuffer;
+import net.timewalker.ffmq4.utils.id.UUIDProvider;
+
+/**
+ * DeliveryTagRangesTest
+ */
+public class DeliveryTagRangesTest extends TestCase
+{
+	public void testRanges() throws Exception
+	{
+		DeliveryTagRanges tags = new DeliveryTagRanges();
+		assertTrue(tags.isEmpty());
+		
+		for (long tag = 1; tag <= 5; tag++)
+			tags.add(tag);
+		tags.add(7);
+		tags.add(3);
+		for (long tag = 10; tag <= 20; tag++)
+			tags.add(tag);
+		
+		assertEquals(18, tags.size());
+		assertEquals(4, tags.getRangeCount());
+		assertEquals(1, tags.getRangeFirst(0));
+		assertEquals(5, tags.getRangeLast(0));
+		assertEquals(7, tags.getRangeFirst(1));
+		assertEquals(7, tags.getRangeLast(1));
+		assertEquals(3, tags.getRangeFirst(2));
+		assertEquals(20, tags.getRangeLast(3));
+		assertEquals("[1-5,7,3,10-20]", tags.toString());
+		
+		DeliveryTagRanges copy = tags.copy();
+		tags.clear();
+		assertTrue(tags.isEmpty());
+		assertEquals(18, copy.size());
+		assertEquals("[1-5,7,3,10-20]", copy.toString());
+	}
+	
+	public void testSerialization() throws Exception
+	{
+		DeliveryTagRanges tags = new DeliveryTagRanges();
+		for (long tag = 100; tag < 1100; tag++)
+			if (tag != 500)
+				tags.add(tag);
+		
+		RawDataBuffer buffer = new RawDataBuffer(256);
+		tags.serializeTo(buffer);
+		buffer.reset();
+		DeliveryTagRanges tags2 = DeliveryTagRanges.unserializeFrom(buffer);
+		assertEquals(tags.size(), tags2.size());
+		assertEquals(tags.toString(), tags2.toString());
+	}
+	
+	public void testEncodedSize() throws Exception
+	{
+		int msgCount = 1000;
+		
+		// Previous encoding : one message ID string per delivered message
+		RawDataBuffer idsBuffer = new RawDataBuffer(256);
+		idsBuffer.writeInt(msgCount);
+		for (int i = 0; i < msgCount; i++)
+			idsBuffer.writeUTF("ID:"+UUIDProvider.getInstance().getUUID());
+		
+		DeliveryTagRanges tags = new DeliveryTagRanges();
+		for (long tag = 1; tag <= msgCount; tag++)
+			tags.add(tag);
+		RawDataBuffer tagsBuffer = new RawDataBuffer(256);
+		tags.serializeTo(tagsBuffer);
+		
+		System.out.println("Acknowledge of "+msgCount+" messages : message IDs="+idsBuffer.size()+" bytes, delivery tags="+tagsBuffer.size()+" bytes");
+		assertTrue(tagsBuffer.size()*10 < idsBuffer.size());
+	}
+}
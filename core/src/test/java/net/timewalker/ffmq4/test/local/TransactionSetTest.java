@@ -22,8 +22,11 @@ import java.util.ArrayList;
 import java.util.List;
 
 import junit.framework.TestCase;
+import net.timewalker.ffmq4.FFMQException;
+import net.timewalker.ffmq4.common.session.DeliveryTagRanges;
 import net.timewalker.ffmq4.local.TransactionItem;
 import net.timewalker.ffmq4.local.TransactionSet;
+import net.timewalker.ffmq4.local.destination.LocalQueue;
 
 /**
  * TransactionSetTest
@@ -98,29 +101,187 @@ public class TransactionSetTest extends TestCase
 		assertEquals(0,set.size());
 	}
 	
-	public void testPartialClear() throws Exception
+	public void testDuplicateMessageIDs() throws Exception
 	{
 		TransactionSet set = new TransactionSet();
-		List<String> deliveredMessageIDs = new ArrayList<>();
 		
-		int msgCount = 50;
+		set.add(1,"msg1",1,null);
+		set.add(2,"msg2",1,null);
+		set.add(3,"msg1",1,null);
+		assertEquals(3,set.size());
+		
+		// The newest item with a given ID is resolved first
+		assertEquals(3, set.getDeliveryTag("msg1", null));
+		DeliveryTagRanges tags = new DeliveryTagRanges();
+		tags.add(3);
+		TransactionItem[] items = set.clear(tags);
+		assertEquals(1, items.length);
+		assertEquals(3, items[0].getHandle());
+		assertEquals(2,set.size());
+		
+		assertEquals(1, set.getDeliveryTag("msg1", null));
+		tags.clear();
+		tags.add(1);
+		items = set.clear(tags);
+		assertEquals(1, items[0].getHandle());
+		assertEquals(1,set.size());
+		assertEquals(-1, set.getDeliveryTag("msg1", null));
+		
+		items = set.clear();
+		assertEquals(1, items.length);
+		assertEquals(2, items[0].getHandle());
+		assertEquals(0,set.size());
+		assertTrue(set.updatedQueues().isEmpty());
+	}
+	
+	public void testDeliveryTags() throws Exception
+	{
+		TransactionSet set = new TransactionSet();
+		
+		for (int i = 1; i <= 10; i++)
+			assertEquals(i, set.add(i,"msg"+i,1,null));
+		assertEquals(4, set.getDeliveryTag("msg4", null));
+		assertEquals(-1, set.getDeliveryTag("msg11", null));
 		
-		for (int n = 1; n <= msgCount; n++)
+		// Partial clear of [3-5] and [8]
+		DeliveryTagRanges tags = new DeliveryTagRanges();
+		tags.add(3);
+		tags.add(4);
+		tags.add(5);
+		tags.add(8);
+		assertEquals(2, tags.getRangeCount());
+		assertEquals(1, set.updatedQueues(tags).size());
+		TransactionItem[] items = set.clear(tags);
+		assertEquals(4, items.length);
+		assertEquals(8, items[0].getHandle());
+		assertEquals(5, items[1].getHandle());
+		assertEquals(3, items[3].getHandle());
+		assertEquals(6, set.size());
+		assertEquals(-1, set.getDeliveryTag("msg4", null));
+		
+		// Already cleared
+		try
+		{
+			set.clear(tags);
+			fail("Should have failed");
+		}
+		catch (FFMQException e)
 		{
-			for(int i=1;i<=msgCount;i++)
-				set.add(i,"msg"+i,1,null);
+			assertEquals("INTERNAL_ERROR", e.getErrorCode());
+		}
 		
-			assertEquals(msgCount,set.size());
+		// Remaining items keep their delivery order, and new tags keep increasing
+		assertEquals(11, set.add(11,"msg11",1,null));
+		items = set.clear();
+		assertEquals(7, items.length);
+		long previousTag = 0;
+		for (int n = 0; n < items.length; n++)
+		{
+			assertTrue(items[n].getDeliveryTag() > previousTag);
+			previousTag = items[n].getDeliveryTag();
+		}
+		assertEquals(12, set.add(12,"msg12",1,null));
+	}
+	
+	public void testDeliveryTagsWindow() throws Exception
+	{
+		TransactionSet set = new TransactionSet();
 		
-			deliveredMessageIDs.clear();
-			deliveredMessageIDs.add("msg"+n);
-			TransactionItem[] items = set.clear(deliveredMessageIDs);
+		// Keep the oldest item pending while many others are added and cleared
+		set.add(0,"first",1,null);
+		for (int i = 1; i <= 1000; i++)
+		{
+			long tag = set.add(i,"msg"+i,1,null);
+			DeliveryTagRanges tags = new DeliveryTagRanges();
+			tags.add(tag);
+			TransactionItem[] items = set.clear(tags);
+			assertEquals(i, items[0].getHandle());
+			assertEquals(1, set.size());
+		}
+		
+		// Then with the oldest one gone
+		DeliveryTagRanges tags = new DeliveryTagRanges();
+		tags.add(1);
+		assertEquals(0, set.clear(tags)[0].getHandle());
+		for (int i = 1; i <= 1000; i++)
+			set.add(i,"msg"+i,1,null);
+		tags.clear();
+		for (long tag = 1002; tag <= 2001; tag++)
+			tags.add(tag);
+		assertEquals(1, tags.getRangeCount());
+		assertEquals(1000, set.clear(tags).length);
+		assertEquals(0, set.size());
+	}
+	
+	public void testDeliveryTagsWindowEviction() throws Exception
+	{
+		TransactionSet set = new TransactionSet();
+		
+		// A few long-lived items among many short-lived ones
+		List<Long> pinnedTags = new ArrayList<>();
+		for (int i = 1; i <= 100000; i++)
+		{
+			long tag = set.add(i,"msg"+i,1,null);
+			if (i % 10000 == 1)
+			{
+				pinnedTags.add(Long.valueOf(tag));
+				continue;
+			}
+			DeliveryTagRanges tags = new DeliveryTagRanges();
+			tags.add(tag);
+			assertEquals(i, set.clear(tags)[0].getHandle());
+		}
+		assertEquals(10, set.size());
+		assertEquals(1, set.getDeliveryTag("msg1", null));
+		
+		// Long-lived items can still be cleared by delivery tag
+		DeliveryTagRanges tags = new DeliveryTagRanges();
+		tags.add(pinnedTags.get(1).longValue());
+		assertEquals(10001, set.clear(tags)[0].getHandle());
+		try
+		{
+			set.clear(tags);
+			fail("Should have failed");
+		}
+		catch (FFMQException e)
+		{
+			assertEquals("INTERNAL_ERROR", e.getErrorCode());
+		}
+		
+		// Full clear keeps the delivery order
+		TransactionItem[] items = set.clear();
+		assertEquals(9, items.length);
+		assertEquals(1, items[0].getHandle());
+		for (int n = 1; n < items.length; n++)
+			assertEquals((n+1)*10000+1, items[n].getHandle());
+		assertEquals(0, set.size());
+		assertEquals(100001, set.add(0,"msg0",1,null));
+	}
 	
-			assertEquals(msgCount-1,set.size());
-			assertEquals(1, items.length);
-			assertEquals(n, items[0].getHandle());
+	public void testLargeTransactionDeliveryTagsBenchmark() throws Exception
+	{
+		TransactionSet set = new TransactionSet();
+		int msgCount = 10000;
+		
+		for (int pass = 0; pass < 5; pass++)
+		{
+			DeliveryTagRanges tags = new DeliveryTagRanges();
+			for (int i = 1; i <= msgCount; i++)
+				tags.add(set.add(i,"ID:msg"+i,1,null));
+			assertEquals(1, tags.getRangeCount());
+			
+			long start = System.nanoTime();
+			List<LocalQueue> updatedQueues = set.updatedQueues(tags);
+			long updatedQueuesTime = System.nanoTime() - start;
+			assertEquals(1, updatedQueues.size());
+			
+			start = System.nanoTime();
+			TransactionItem[] items = set.clear(tags);
+			long clearTime = System.nanoTime() - start;
+			assertEquals(msgCount, items.length);
+			assertEquals(0, set.size());
 			
-			set.clear();
+			System.out.println("TransactionSet["+msgCount+" delivery tags] updatedQueues="+(updatedQueuesTime/1000)+" us, clear="+(clearTime/1000)+" us");
 		}
 	}
 }
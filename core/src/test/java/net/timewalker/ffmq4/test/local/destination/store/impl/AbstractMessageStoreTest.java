@@ -194,4 +194,206 @@ public abstract class AbstractMessageStoreTest extends TestCase
 		assertOrdered(msgStore);
 		msgStore.close();
 	}
+	
+	private int scanFirstUnlocked( MessageStore msgStore ) throws Exception
+	{
+		int current = msgStore.first();
+		while (current != -1 && msgStore.isLocked(current))
+			current = msgStore.next(current);
+		return current;
+	}
+	
+	public void testFirstUnlocked() throws Exception
+	{
+		MessageStore msgStore = createMessageStore(true);
+		
+		Random rand = new Random(System.currentTimeMillis());
+		
+		int msgCount = 150;
+		for (int i = 0; i < msgCount; i++)
+		{
+			AbstractMessage msg = new TextMessageImpl("msg"+i);
+			msg.setJMSMessageID("ID:FOO"+i);
+			msg.setJMSPriority(rand.nextInt(10));
+			assertTrue(msgStore.store(msg) != -1);
+		}
+		msgStore.commitChanges();
+		assertEquals(scanFirstUnlocked(msgStore), msgStore.firstUnlocked());
+		
+		// Lock some messages from the head, like consumers would
+		for (int i = 0; i < msgCount/3; i++)
+		{
+			int handle = msgStore.firstUnlocked();
+			assertEquals(scanFirstUnlocked(msgStore), handle);
+			msgStore.lock(handle);
+		}
+		
+		// Randomly lock, unlock, redeliver or delete messages
+		for (int i = 0; i < 1000; i++)
+		{
+			int current = msgStore.first();
+			int skip = rand.nextInt(msgStore.size());
+			for (int n = 0; n < skip; n++)
+				current = msgStore.next(current);
+			
+			switch (rand.nextInt(4))
+			{
+				case 0 :
+					if (!msgStore.isLocked(current))
+						msgStore.lock(current);
+					break;
+				case 1 :
+					if (msgStore.isLocked(current))
+						msgStore.unlock(current);
+					break;
+				case 2 :
+					AbstractMessage msg = msgStore.retrieve(current);
+					msg.setJMSRedelivered(true);
+					assertTrue(msgStore.replace(current, msg) != -1);
+					break;
+				default :
+					msgStore.delete(current);
+					AbstractMessage newMsg = new TextMessageImpl("new_msg"+i);
+					newMsg.setJMSMessageID("ID:BAR"+i);
+					newMsg.setJMSPriority(rand.nextInt(10));
+					assertTrue(msgStore.store(newMsg) != -1);
+					break;
+			}
+			
+			assertEquals(scanFirstUnlocked(msgStore), msgStore.firstUnlocked());
+		}
+		msgStore.commitChanges();
+		
+		// Drain the store
+		int handle;
+		while ((handle = msgStore.firstUnlocked()) != -1)
+		{
+			assertEquals(scanFirstUnlocked(msgStore), handle);
+			msgStore.lock(handle);
+		}
+		assertEquals(-1, scanFirstUnlocked(msgStore));
+		
+		msgStore.close();
+	}
+	
+	public void testRedeliveryCount() throws Exception
+	{
+		MessageStore msgStore = createMessageStore(true);
+		
+		int msgCount = 20;
+		for (int i = 0; i < msgCount; i++)
+		{
+			AbstractMessage msg = new TextMessageImpl("msg"+i);
+			msg.setJMSMessageID("ID:FOO"+i);
+			msg.setJMSPriority(4);
+			assertTrue(msgStore.store(msg) != -1);
+		}
+		msgStore.commitChanges();
+		
+		// Redeliver every other message, the first one several times
+		int current = msgStore.first();
+		assertEquals(1, msgStore.markRedelivered(current));
+		assertEquals(2, msgStore.markRedelivered(current));
+		int n = 0;
+		while (current != -1)
+		{
+			if (n % 2 == 0)
+			{
+				if (n > 0)
+					assertEquals(1, msgStore.markRedelivered(current));
+				assertTrue(msgStore.retrieve(current).getJMSRedelivered());
+			}
+			else
+			{
+				assertEquals(0, msgStore.getRedeliveryCount(current));
+				assertFalse(msgStore.retrieve(current).getJMSRedelivered());
+			}
+			current = msgStore.next(current);
+			n++;
+		}
+		msgStore.commitChanges();
+		
+		// Delivery state must survive message updates
+		current = msgStore.first();
+		AbstractMessage msg = new TextMessageImpl("a much longer content to make sure the message has to move ..................................................................................................................................................................................................................................................................................................................................................................................................................................................................................................................");
+		msg.setJMSMessageID("ID:FOO0");
+		msg.setJMSPriority(4);
+		current = msgStore.replace(current, msg);
+		assertTrue(current != -1);
+		assertEquals(2, msgStore.getRedeliveryCount(current));
+		assertTrue(msgStore.retrieve(current).getJMSRedelivered());
+		msgStore.commitChanges();
+		
+		// Redelivery counts saturate
+		for (int i = 0; i < 100; i++)
+			msgStore.markRedelivered(current);
+		int maxCount = msgStore.getRedeliveryCount(current);
+		assertTrue(maxCount >= 63);
+		msgStore.commitChanges();
+		msgStore.close();
+		
+		if (msgStore.getDeliveryMode() == DeliveryMode.PERSISTENT)
+		{
+			// Re-open
+			msgStore = createMessageStore(false);
+			assertEquals(msgCount, msgStore.size());
+			
+			current = msgStore.first();
+			assertEquals(maxCount, msgStore.getRedeliveryCount(current));
+			n = 0;
+			while (current != -1)
+			{
+				assertEquals(n % 2 == 0, msgStore.retrieve(current).getJMSRedelivered());
+				current = msgStore.next(current);
+				n++;
+			}
+			msgStore.close();
+		}
+	}
+	
+	public void testRedeliveryBenchmark() throws Exception
+	{
+		MessageStore msgStore = createMessageStore(true);
+		
+		int msgCount = 100;
+		for (int i = 0; i < msgCount; i++)
+		{
+			AbstractMessage msg = new TextMessageImpl("msg"+i);
+			msg.setJMSMessageID("ID:FOO"+i);
+			assertTrue(msgStore.store(msg) != -1);
+		}
+		msgStore.commitChanges();
+		
+		// Rewrite messages to update the redelivered flag (former behavior)
+		long start = System.nanoTime();
+		for (int pass = 0; pass < 10; pass++)
+		{
+			int current = msgStore.first();
+			while (current != -1)
+			{
+				AbstractMessage msg = msgStore.retrieve(current);
+				msg.setJMSRedelivered(true);
+				current = msgStore.next(msgStore.replace(current, msg));
+			}
+			msgStore.commitChanges();
+		}
+		long rewriteTime = System.nanoTime()-start;
+		
+		// Update delivery state only
+		start = System.nanoTime();
+		for (int pass = 0; pass < 10; pass++)
+		{
+			int current = msgStore.first();
+			while (current != -1)
+			{
+				msgStore.markRedelivered(current);
+				current = msgStore.next(current);
+			}
+			msgStore.commitChanges();
+		}
+		long markTime = System.nanoTime()-start;
+		
+		System.out.println(getClass().getSimpleName()+" - redelivery of "+(10*msgCount)+" messages : rewrite="+(rewriteTime/1000000)+"ms delivery state="+(markTime/1000000)+"ms");
+		msgStore.close();
+	}
 }
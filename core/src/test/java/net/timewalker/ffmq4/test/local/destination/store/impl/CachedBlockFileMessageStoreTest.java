@@ -0,0 +1,166 @@
+package net.timewalker.ffmq4.test.local.destination.store.impl;
+
+import java.io.File;
+
+import net.timewalker.ffmq4.common.message.AbstractMessage;
+import net.timewalker.ffmq4.common.message.TextMessageImpl;
+import net.timewalker.ffmq4.management.destination.definition.QueueDefinition;
+import net.timewalker.ffmq4.storage.data.impl.BlockBasedDataStoreTools;
+import net.timewalker.ffmq4.storage.message.MessageStore;
+import net.timewalker.ffmq4.storage.message.impl.BlockFileMessageStore;
+import net.timewalker.ffmq4.storage.message.impl.RecentMessageCache;
+import net.timewalker.ffmq4.utils.Settings;
+import net.timewalker.ffmq4.utils.StringTools;
+import net.timewalker.ffmq4.utils.id.UUIDProvider;
+
+/**
+ * CachedBlockFileMessageStoreTest
+ */
+public class CachedBlockFileMessageStoreTest extends BlockFileMessageStoreTest
+{
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.test.local.destination.store.impl.BlockFileMessageStoreTest#createMessageStore(boolean)
+     */
+    @Override
+	protected MessageStore createMessageStore(boolean createStoreFiles) throws Exception 
+	{
+    	return createMessageStore(createStoreFiles, 1024*1024, true);
+	}
+    
+    private BlockFileMessageStore createMessageStore(boolean createStoreFiles, int cacheSize, boolean useJournal) throws Exception 
+	{
+    	if (createStoreFiles)
+    		BlockBasedDataStoreTools.create(id,new File("target/test"), 200, 512, true);
+		
+		Settings settings = new Settings();
+        settings.setStringProperty("name", id);
+        settings.setStringProperty("persistentStore.dataFolder", new File("target/test").getAbsolutePath());
+        settings.setBooleanProperty("persistentStore.useJournal", useJournal);
+        settings.setIntProperty("persistentStore.maxBlockCount", 10000);
+        settings.setIntProperty("persistentStore.autoExtendAmount", 200);
+        settings.setIntProperty("persistentStore.messageCacheSize", cacheSize);
+        QueueDefinition queueDef = new QueueDefinition(settings);
+		
+        BlockFileMessageStore store = new BlockFileMessageStore(queueDef,asyncTaskManager);
+        store.init();
+        
+        return store;
+	}
+    
+    private static AbstractMessage createMessage( int index , int size ) throws Exception
+    {
+    	TextMessageImpl msg = new TextMessageImpl(StringTools.rightPad("msg"+index, size, 'X'));
+    	msg.setJMSMessageID("ID:FOO"+index);
+    	msg.setIntProperty("index", index);
+    	msg.setJMSPriority(index % 10);
+    	return msg;
+    }
+    
+    public void testCacheHits() throws Exception
+    {
+    	BlockFileMessageStore store = createMessageStore(true, 1024*1024, true);
+    	RecentMessageCache cache = store.getMessageCache();
+    	
+    	int[] handles = new int[10];
+    	for (int i = 0; i < handles.length; i++)
+    		handles[i] = store.store(createMessage(i, 100));
+    	store.commitChanges();
+    	assertEquals(10, cache.getCount());
+    	
+    	for (int i = 0; i < handles.length; i++)
+    		assertEquals(i, store.retrieve(handles[i]).getIntProperty("index"));
+    	assertEquals(10, cache.getHits());
+    	assertEquals(0, cache.getMisses());
+    	assertEquals(100, cache.getHitRatio());
+    	
+    	// Retrieved messages must not share the cached content
+    	AbstractMessage msg = store.retrieve(handles[0]);
+    	msg.setJMSRedelivered(true);
+    	assertFalse(store.retrieve(handles[0]).getJMSRedelivered());
+    	store.markRedelivered(handles[0]);
+    	assertTrue(store.retrieve(handles[0]).getJMSRedelivered());
+    	
+    	store.delete(handles[0]);
+    	store.commitChanges();
+    	assertEquals(9, cache.getCount());
+    	store.close();
+    	
+    	// Messages recovered from disk are not cached
+    	store = createMessageStore(false, 1024*1024, true);
+    	cache = store.getMessageCache();
+    	assertEquals(9, store.size());
+    	for (int i = 1; i < handles.length; i++)
+    		assertEquals(i, store.retrieve(handles[i]).getIntProperty("index"));
+    	assertEquals(0, cache.getHits());
+    	assertEquals(9, cache.getMisses());
+    	store.close();
+    	store.delete();
+    }
+    
+    public void testCacheEviction() throws Exception
+    {
+    	BlockFileMessageStore store = createMessageStore(true, 8192, false);
+    	RecentMessageCache cache = store.getMessageCache();
+    	
+    	int[] handles = new int[100];
+    	for (int i = 0; i < handles.length; i++)
+    	{
+    		handles[i] = store.store(createMessage(i, 500));
+    		assertTrue(cache.getSize() <= 8192);
+    	}
+    	assertTrue(cache.getCount() > 0);
+    	assertTrue(cache.getCount() < handles.length);
+    	
+    	// Oldest entries were evicted, most recent ones are still cached
+    	assertEquals(0, store.retrieve(handles[0]).getIntProperty("index"));
+    	assertEquals(1, cache.getMisses());
+    	assertEquals(99, store.retrieve(handles[99]).getIntProperty("index"));
+    	assertEquals(1, cache.getHits());
+    	
+    	// Messages bigger than a quarter of the cache are never cached
+    	int bigHandle = store.store(createMessage(100, 4000));
+    	assertEquals(100, store.retrieve(bigHandle).getIntProperty("index"));
+    	assertEquals(2, cache.getMisses());
+    	
+    	// Repeated store/delete cycles must not grow the cache
+    	for (int i = 0; i < 1000; i++)
+    		store.delete(store.store(createMessage(i, 100)));
+    	assertTrue(cache.getSize() <= 8192);
+    	
+    	store.close();
+    	store.delete();
+    }
+    
+    public void testCacheBenchmark() throws Exception
+    {
+    	int[] cacheSizes = { 0, 4*1024*1024 };
+    	int msgCount = 2000;
+    	for (int pass = 0; pass < 2; pass++)
+    	{
+	    	for (int n = 0; n < cacheSizes.length; n++)
+	    	{
+	    		id = UUIDProvider.getInstance().getUUID();
+	    		BlockFileMessageStore store = createMessageStore(true, cacheSizes[n], false);
+	    		
+	    		int[] handles = new int[msgCount];
+	    		for (int i = 0; i < msgCount; i++)
+	    			handles[i] = store.store(createMessage(i, 1000));
+	    		store.commitChanges();
+	    		
+	    		// Consumer caught up with the producer
+	    		long start = System.nanoTime();
+	    		for (int i = 0; i < msgCount; i++)
+	    		{
+	    			AbstractMessage msg = store.retrieve(handles[i]);
+	    			msg.getIntProperty("index");
+	    		}
+	    		long elapsed = System.nanoTime()-start;
+	    		
+	    		if (pass > 0)
+	    			System.out.println("Retrieval of "+msgCount+" recent persistent messages : cacheSize="+cacheSizes[n]+" "+(elapsed/1000)+"us");
+	    		store.close();
+	    		store.delete();
+	    	}
+    	}
+    }
+}
@@ -1,5 +1,7 @@
 package net.timewalker.ffmq4.test.local.destination.store.impl;
 
+import net.timewalker.ffmq4.common.message.AbstractMessage;
+import net.timewalker.ffmq4.common.message.TextMessageImpl;
 import net.timewalker.ffmq4.management.destination.definition.QueueDefinition;
 import net.timewalker.ffmq4.storage.message.MessageStore;
 import net.timewalker.ffmq4.storage.message.impl.InMemoryMessageStore;
@@ -26,4 +28,46 @@ public class InMemoryMessageStoreTest extends AbstractMessageStoreTest
         
         return store;
 	}
+	
+	public void testFirstUnlockedLatency() throws Exception
+	{
+		int[] inFlightCounts = { 10, 100, 1000, 10000, 100000 };
+		for (int i = 0; i < inFlightCounts.length; i++)
+		{
+			int inFlight = inFlightCounts[i];
+			int available = 1000;
+			
+			Settings settings = new Settings();
+	        settings.setStringProperty("name", getClass().getName());
+	        settings.setIntProperty("memoryStore.maxMessages", inFlight+available);
+	        MessageStore store = new InMemoryMessageStore(new QueueDefinition(settings));
+	        store.init();
+	        
+	        for (int n = 0; n < inFlight+available; n++)
+	        {
+	        	AbstractMessage msg = new TextMessageImpl("msg"+n);
+				msg.setJMSMessageID("ID:FOO"+n);
+				msg.setJMSPriority(4);
+				store.store(msg);
+	        }
+	        
+	        // Lock in-flight messages at the head of the queue
+	        for (int n = 0; n < inFlight; n++)
+	        	store.lock(store.firstUnlocked());
+	        
+	        // Receive the remaining messages
+	        long start = System.nanoTime();
+	        for (int n = 0; n < available; n++)
+	        {
+	        	int handle = store.firstUnlocked();
+	        	store.retrieve(handle);
+	        	store.lock(handle);
+	        }
+	        long end = System.nanoTime();
+	        assertEquals(-1, store.firstUnlocked());
+	        
+	        System.out.println("Receive latency with "+inFlight+" locked in-flight messages : "+((end-start)/available)+" ns");
+	        store.close();
+		}
+	}
 }
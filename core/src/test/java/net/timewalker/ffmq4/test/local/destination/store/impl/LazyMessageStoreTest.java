@@ -0,0 +1,73 @@
+package net.timewalker.ffmq4.test.local.destination.store.impl;
+
+import java.io.File;
+
+import net.timewalker.ffmq4.common.message.TextMessageImpl;
+import net.timewalker.ffmq4.management.destination.definition.QueueDefinition;
+import net.timewalker.ffmq4.storage.data.impl.BlockBasedDataStoreTools;
+import net.timewalker.ffmq4.storage.message.MessageStore;
+import net.timewalker.ffmq4.storage.message.impl.BlockFileMessageStore;
+import net.timewalker.ffmq4.storage.message.impl.LazyMessageStore;
+import net.timewalker.ffmq4.utils.Settings;
+
+/**
+ * LazyMessageStoreTest
+ */
+public class LazyMessageStoreTest extends BlockFileMessageStoreTest
+{
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.test.local.destination.store.impl.BlockFileMessageStoreTest#createMessageStore(boolean)
+     */
+    @Override
+	protected MessageStore createMessageStore(boolean createStoreFiles) throws Exception 
+	{
+    	MessageStore store = createLazyMessageStore(createStoreFiles);
+    	store.init();
+    	return store;
+	}
+    
+    private LazyMessageStore createLazyMessageStore(boolean createStoreFiles) throws Exception 
+	{
+    	if (createStoreFiles)
+    		BlockBasedDataStoreTools.create(id,new File("target/test"), 200, 512, true);
+		
+		Settings settings = new Settings();
+        settings.setStringProperty("name", id);
+        settings.setStringProperty("persistentStore.dataFolder", new File("target/test").getAbsolutePath());
+        settings.setBooleanProperty("persistentStore.useJournal", false);
+        QueueDefinition queueDef = new QueueDefinition(settings);
+		
+        return new LazyMessageStore(new BlockFileMessageStore(queueDef,asyncTaskManager));
+	}
+    
+    public void testDeferredOpen() throws Exception
+    {
+    	LazyMessageStore store = createLazyMessageStore(true);
+    	store.init();
+    	store.commitChanges();
+    	assertEquals(0, store.getAbsoluteStoreUsage());
+    	assertFalse(store.isOpened());
+    	
+    	// Closing a store that was never opened must not touch its files
+    	store.close();
+    	assertFalse(store.isOpened());
+    	
+    	store = createLazyMessageStore(false);
+    	store.init();
+    	assertEquals(0, store.size());
+    	assertTrue(store.isOpened());
+    	
+    	TextMessageImpl msg = new TextMessageImpl("foo");
+    	msg.setJMSMessageID("ID:1");
+    	store.store(msg);
+    	store.commitChanges();
+    	store.close();
+    	
+    	store = createLazyMessageStore(false);
+    	store.init();
+    	assertFalse(store.isOpened());
+    	assertEquals(1, store.size());
+    	store.close();
+    	store.delete();
+    }
+}
@@ -0,0 +1,110 @@
+package net.timewalker.ffmq4.test.local.destination.store.impl;
+
+import java.io.File;
+import java.util.Random;
+
+import net.timewalker.ffmq4.common.message.AbstractMessage;
+import net.timewalker.ffmq4.common.message.TextMessageImpl;
+import net.timewalker.ffmq4.management.destination.definition.QueueDefinition;
+import net.timewalker.ffmq4.storage.data.impl.LogStructuredDataStore;
+import net.timewalker.ffmq4.storage.message.MessageStore;
+import net.timewalker.ffmq4.storage.message.impl.LogFileMessageStore;
+import net.timewalker.ffmq4.utils.Settings;
+import net.timewalker.ffmq4.utils.id.UUIDProvider;
+
+/**
+ * LogFileMessageStoreTest
+ */
+public class LogFileMessageStoreTest extends AbstractMessageStoreTest
+{
+	protected String id = UUIDProvider.getInstance().getUUID();
+	
+	/* (non-Javadoc)
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		File dataDir = new File("target/test");
+		dataDir.mkdir();
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.test.local.destination.store.impl.AbstractMessageStoreTest#createMessageStore(boolean)
+	 */
+	@Override
+	protected MessageStore createMessageStore(boolean createStoreFiles) throws Exception
+	{
+		if (createStoreFiles)
+			LogStructuredDataStore.create(id,new File("target/test"));
+		
+		Settings settings = new Settings();
+		settings.setStringProperty("name", id);
+		settings.setStringProperty("persistentStore.dataFolder", new File("target/test").getAbsolutePath());
+		settings.setIntProperty("persistentStore.maxBlockCount", 200);
+		settings.setIntProperty("persistentStore.blockSize", 4096);
+		settings.setBooleanProperty("persistentStore.logStructured", true);
+		QueueDefinition queueDef = new QueueDefinition(settings);
+		
+		MessageStore store = new LogFileMessageStore(queueDef,asyncTaskManager);
+		store.init();
+		
+		return store;
+	}
+	
+	public void testPriorityRecovery() throws Exception
+	{
+		MessageStore msgStore = createMessageStore(true);
+		
+		Random rand = new Random(1234);
+		int msgCount = 200;
+		for (int i = 0; i < msgCount; i++)
+		{
+			AbstractMessage msg = new TextMessageImpl("msg"+i);
+			msg.setJMSMessageID("ID:FOO"+i);
+			msg.setIntProperty("index", i);
+			msg.setJMSPriority(rand.nextInt(10));
+			assertTrue(msgStore.store(msg) != -1);
+		}
+		msgStore.commitChanges();
+		int[] expectedOrder = readOrder(msgStore);
+		msgStore.close();
+		
+		// The log only keeps the insertion order, the priority order must be restored on recovery
+		msgStore = createMessageStore(false);
+		assertEquals(msgCount, msgStore.size());
+		int[] order = readOrder(msgStore);
+		for (int i = 0; i < msgCount; i++)
+			assertEquals(expectedOrder[i], order[i]);
+		
+		// New messages must still be inserted at the right place
+		AbstractMessage msg = new TextMessageImpl("urgent");
+		msg.setJMSMessageID("ID:FOO"+msgCount);
+		msg.setJMSPriority(9);
+		int handle = msgStore.store(msg);
+		int current = msgStore.first();
+		while (current != -1 && msgStore.retrieve(current).getJMSPriority() == 9)
+		{
+			if (current == handle)
+				break;
+			current = msgStore.next(current);
+		}
+		assertEquals(handle, current);
+		msgStore.commitChanges();
+		msgStore.close();
+	}
+	
+	private int[] readOrder( MessageStore msgStore ) throws Exception
+	{
+		int[] order = new int[msgStore.size()];
+		int count = 0;
+		int current = msgStore.first();
+		while (current != -1)
+		{
+			order[count++] = msgStore.retrieve(current).getIntProperty("index");
+			current = msgStore.next(current);
+		}
+		return order;
+	}
+}
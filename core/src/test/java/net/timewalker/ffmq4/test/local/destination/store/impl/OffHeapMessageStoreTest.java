@@ -0,0 +1,242 @@
+package net.timewalker.ffmq4.test.local.destination.store.impl;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.List;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import net.timewalker.ffmq4.common.message.AbstractMessage;
+import net.timewalker.ffmq4.common.message.TextMessageImpl;
+import net.timewalker.ffmq4.management.destination.definition.QueueDefinition;
+import net.timewalker.ffmq4.storage.message.MessageSerializationLevel;
+import net.timewalker.ffmq4.storage.message.MessageStore;
+import net.timewalker.ffmq4.storage.message.impl.InMemoryMessageStore;
+import net.timewalker.ffmq4.storage.message.impl.OffHeapMessageStore;
+import net.timewalker.ffmq4.utils.Settings;
+
+/**
+ * OffHeapMessageStoreTest
+ */
+public class OffHeapMessageStoreTest extends AbstractMessageStoreTest
+{
+	// Use -Dffmq.test.offHeap.messageCount=5000000 (and a large enough heap) for a full size run
+	private static final int FOOTPRINT_MSG_COUNT = Integer.parseInt(System.getProperty("ffmq.test.offHeap.messageCount", "100000"));
+
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.test.local.destination.store.impl.AbstractMessageStoreTest#createMessageStore(boolean)
+	 */
+	@Override
+	protected MessageStore createMessageStore(boolean createStoreFiles) throws Exception
+	{
+		return createMessageStore(true, 10000);
+	}
+
+	private MessageStore createMessageStore( boolean offHeap , int maxMessages ) throws Exception
+	{
+		Settings settings = new Settings();
+        settings.setStringProperty("name", getClass().getName());
+        settings.setIntProperty("memoryStore.maxMessages", maxMessages);
+        settings.setBooleanProperty("memoryStore.offHeap", offHeap);
+        QueueDefinition queueDef = new QueueDefinition(settings);
+
+        MessageStore store = offHeap ? (MessageStore)new OffHeapMessageStore(queueDef) : new InMemoryMessageStore(queueDef);
+        store.init();
+
+        return store;
+	}
+
+	private static AbstractMessage createMessage( int n ) throws Exception
+	{
+		AbstractMessage msg = new TextMessageImpl("msg"+n);
+		msg.setIntProperty("index", n);
+		msg.setJMSPriority(n % 10);
+		return msg;
+	}
+
+	public void testRetrieveCopies() throws Exception
+	{
+		MessageStore store = createMessageStore(true, 100);
+
+		int handle = store.store(createMessage(1));
+		AbstractMessage msg = store.retrieve(handle);
+		assertEquals(1, msg.getIntProperty("index"));
+		assertEquals(1, msg.getJMSPriority());
+		msg.ensureDeserializationLevel(MessageSerializationLevel.FULL);
+		assertEquals("msg1", ((TextMessageImpl)msg).getText());
+
+		// Retrieved messages are independent copies
+		assertNotSame(msg, store.retrieve(handle));
+
+		// Replace under the same handle
+		assertEquals(handle, store.replace(handle, createMessage(2)));
+		assertEquals(2, store.retrieve(handle).getIntProperty("index"));
+
+		store.delete(handle);
+		assertEquals(0, store.size());
+		store.close();
+	}
+
+	public void testMemoryReleasedOnDrain() throws Exception
+	{
+		OffHeapMessageStore store = (OffHeapMessageStore)createMessageStore(true, 200000);
+
+		// Large messages get a dedicated slab
+		TextMessageImpl bigMsg = new TextMessageImpl(new String(new char[2*1024*1024]));
+		int bigHandle = store.store(bigMsg);
+		assertTrue(store.getOffHeapSize() >= 2*1024*1024);
+
+		for (int n = 0 ; n < 100000 ; n++)
+			store.store(createMessage(n));
+		long fullSize = store.getOffHeapSize();
+		assertTrue(fullSize > 2*1024*1024);
+
+		store.delete(bigHandle);
+		assertTrue(store.getOffHeapSize() < fullSize);
+		assertEquals(100000, store.size());
+
+		// Drain in queue order
+		int count = 0;
+		int handle;
+		int lastPriority = 9;
+		while ((handle = store.first()) != -1)
+		{
+			AbstractMessage msg = store.retrieve(handle);
+			assertTrue(msg.getJMSPriority() <= lastPriority);
+			lastPriority = msg.getJMSPriority();
+			store.delete(handle);
+			count++;
+		}
+		assertEquals(100000, count);
+
+		// Only spare slabs may remain
+		assertTrue(store.getOffHeapSize() <= 2*1024*1024);
+
+		store.close();
+	}
+
+	public void testHeapFootprint() throws Exception
+	{
+		for (int pass = 0 ; pass < 2 ; pass++)
+		{
+			boolean offHeap = pass == 1;
+			MessageStore store = createMessageStore(offHeap, FOOTPRINT_MSG_COUNT);
+			GCPauseListener pauses = new GCPauseListener();
+
+			long heapBefore = usedHeapAfterGC();
+			long gcTimeBefore = totalGCTime();
+			pauses.reset();
+
+			long start = System.currentTimeMillis();
+			for (int n = 0 ; n < FOOTPRINT_MSG_COUNT ; n++)
+				store.store(createMessage(n));
+			long fillTime = System.currentTimeMillis()-start;
+			long fillGCTime = totalGCTime()-gcTimeBefore;
+			long fillMaxPause = pauses.getMaxPause();
+
+			long fullGCStart = System.currentTimeMillis();
+			System.gc();
+			long fullGCTime = System.currentTimeMillis()-fullGCStart;
+			long heapFull = usedHeapAfterGC();
+			long offHeapFull = offHeap ? ((OffHeapMessageStore)store).getOffHeapSize() : 0;
+
+			gcTimeBefore = totalGCTime();
+			pauses.reset();
+			start = System.currentTimeMillis();
+			int handle;
+			while ((handle = store.first()) != -1)
+			{
+				store.retrieve(handle);
+				store.delete(handle);
+			}
+			long drainTime = System.currentTimeMillis()-start;
+			long drainGCTime = totalGCTime()-gcTimeBefore;
+			long drainMaxPause = pauses.getMaxPause();
+
+			long heapDrained = usedHeapAfterGC();
+			pauses.close();
+			store.close();
+
+			System.out.println((offHeap ? "Off-heap" : "In-memory")+" store, "+FOOTPRINT_MSG_COUNT+" messages : "+
+			                   "heap used="+((heapFull-heapBefore)/(1024*1024))+"MB (after drain="+((heapDrained-heapBefore)/(1024*1024))+"MB), off-heap="+(offHeapFull/(1024*1024))+"MB, "+
+					           "fill="+fillTime+"ms (gc="+fillGCTime+"ms, max pause="+fillMaxPause+"ms), "+
+			                   "full gc="+fullGCTime+"ms, "+
+					           "drain="+drainTime+"ms (gc="+drainGCTime+"ms, max pause="+drainMaxPause+"ms)");
+		}
+	}
+
+	private static long usedHeapAfterGC()
+	{
+		MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+		for (int n = 0 ; n < 3 ; n++)
+			System.gc();
+		return memoryBean.getHeapMemoryUsage().getUsed();
+	}
+
+	private static long totalGCTime()
+	{
+		long total = 0;
+		List<GarbageCollectorMXBean> gcBeans = ManagementFactory.getGarbageCollectorMXBeans();
+		for (int n = 0 ; n < gcBeans.size() ; n++)
+			total += Math.max(0, gcBeans.get(n).getCollectionTime());
+		return total;
+	}
+
+	/**
+	 * Tracks the longest garbage collection pause, excluding explicit collections
+	 */
+	private static class GCPauseListener implements NotificationListener
+	{
+		private static final String GC_NOTIFICATION = "com.sun.management.gc.notification";
+
+		private volatile long maxPause;
+
+		public GCPauseListener()
+		{
+			List<GarbageCollectorMXBean> gcBeans = ManagementFactory.getGarbageCollectorMXBeans();
+			for (int n = 0 ; n < gcBeans.size() ; n++)
+				if (gcBeans.get(n) instanceof NotificationEmitter)
+					((NotificationEmitter)gcBeans.get(n)).addNotificationListener(this, null, null);
+		}
+
+		/* (non-Javadoc)
+		 * @see javax.management.NotificationListener#handleNotification(javax.management.Notification, java.lang.Object)
+		 */
+		@Override
+		public void handleNotification( Notification notification , Object handback )
+		{
+			if (!GC_NOTIFICATION.equals(notification.getType()))
+				return;
+
+			CompositeData info = (CompositeData)notification.getUserData();
+			if ("System.gc()".equals(info.get("gcCause")))
+				return;
+
+			long duration = ((Long)((CompositeData)info.get("gcInfo")).get("duration")).longValue();
+			if (duration > maxPause)
+				maxPause = duration;
+		}
+
+		public void reset()
+		{
+			maxPause = 0;
+		}
+
+		public long getMaxPause()
+		{
+			return maxPause;
+		}
+
+		public void close() throws Exception
+		{
+			List<GarbageCollectorMXBean> gcBeans = ManagementFactory.getGarbageCollectorMXBeans();
+			for (int n = 0 ; n < gcBeans.size() ; n++)
+				if (gcBeans.get(n) instanceof NotificationEmitter)
+					((NotificationEmitter)gcBeans.get(n)).removeNotificationListener(this);
+		}
+	}
+}
@@ -0,0 +1,327 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.test.local.destination.store.impl;
+
+import java.io.File;
+
+import net.timewalker.ffmq4.common.message.AbstractMessage;
+import net.timewalker.ffmq4.common.message.TextMessageImpl;
+import net.timewalker.ffmq4.management.destination.definition.QueueDefinition;
+import net.timewalker.ffmq4.storage.data.impl.BlockBasedDataStoreTools;
+import net.timewalker.ffmq4.storage.message.MessageSerializationLevel;
+import net.timewalker.ffmq4.storage.message.MessageStore;
+import net.timewalker.ffmq4.storage.message.impl.BlockFileMessageStore;
+import net.timewalker.ffmq4.storage.message.impl.SharedLogMessageStore;
+import net.timewalker.ffmq4.storage.message.impl.SharedMessageLog;
+import net.timewalker.ffmq4.utils.Settings;
+import net.timewalker.ffmq4.utils.concurrent.SynchronizationBarrier;
+import net.timewalker.ffmq4.utils.id.UUIDProvider;
+
+/**
+ * SharedLogMessageStoreTest
+ */
+public class SharedLogMessageStoreTest extends AbstractMessageStoreTest
+{
+	private static final File DATA_FOLDER = new File("target/test");
+	private static final int SEGMENT_SIZE = 16*1024;
+	
+	protected String id = UUIDProvider.getInstance().getUUID();
+	private String topicName = "TOPIC-"+id;
+	private SharedMessageLog messageLog;
+	
+    /* (non-Javadoc)
+     * @see junit.framework.TestCase#setUp()
+     */
+    @Override
+	protected void setUp() throws Exception
+    {
+        super.setUp();
+        DATA_FOLDER.mkdir();
+        messageLog = openLog();
+    }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.test.local.destination.store.impl.AbstractMessageStoreTest#tearDown()
+     */
+    @Override
+    protected void tearDown() throws Exception
+    {
+    	messageLog.delete();
+    	super.tearDown();
+    }
+    
+    private SharedMessageLog openLog() throws Exception
+    {
+    	SharedMessageLog log = new SharedMessageLog(topicName, DATA_FOLDER, SEGMENT_SIZE);
+    	log.init();
+    	return log;
+    }
+    
+    private MessageStore createSubscriberStore( String name , boolean createStoreFiles , boolean useSharedLog ) throws Exception
+    {
+    	return createSubscriberStore(name, createStoreFiles, useSharedLog, false);
+    }
+    
+    private MessageStore createSubscriberStore( String name , boolean createStoreFiles , boolean useSharedLog , boolean useJournal ) throws Exception
+    {
+    	if (createStoreFiles)
+    		BlockBasedDataStoreTools.create(name, DATA_FOLDER, 2000, 512, true);
+		
+		Settings settings = new Settings();
+        settings.setStringProperty("name", name);
+        settings.setStringProperty("persistentStore.dataFolder", DATA_FOLDER.getAbsolutePath());
+        settings.setBooleanProperty("persistentStore.useJournal", useJournal);
+        QueueDefinition queueDef = new QueueDefinition(settings);
+		
+        MessageStore store = useSharedLog ? new SharedLogMessageStore(queueDef,asyncTaskManager,null,messageLog) :
+        	                                new BlockFileMessageStore(queueDef,asyncTaskManager);
+        store.init();
+        
+        return store;
+    }
+    
+    /* (non-Javadoc)
+     * @see net.timewalker.ffmq4.test.local.destination.store.impl.AbstractMessageStoreTest#createMessageStore(boolean)
+     */
+    @Override
+	protected MessageStore createMessageStore(boolean createStoreFiles) throws Exception 
+	{
+    	return createSubscriberStore(id, createStoreFiles, true);
+	}
+    
+    private AbstractMessage createMessage( int n , int payloadSize ) throws Exception
+    {
+    	StringBuilder payload = new StringBuilder();
+    	payload.append("msg").append(n);
+    	while (payload.length() < payloadSize)
+    		payload.append('x');
+    	
+    	AbstractMessage msg = new TextMessageImpl(payload.toString());
+		msg.setJMSMessageID("ID:FOO"+n);
+		msg.setJMSPriority(4);
+		msg.setInternalCopy(true);
+		return msg;
+    }
+    
+    private int dispatch( MessageStore[] stores , int count , int payloadSize ) throws Exception
+    {
+    	for (int i = 0; i < count; i++)
+		{
+			AbstractMessage msg = createMessage(i, payloadSize);
+			messageLog.beginDispatch(msg);
+			try
+			{
+				for (int n = 0; n < stores.length; n++)
+					assertTrue(stores[n].store(msg) != -1);
+			}
+			finally
+			{
+				messageLog.endDispatch();
+			}
+		}
+    	messageLog.flush();
+    	for (int n = 0; n < stores.length; n++)
+    		stores[n].commitChanges();
+    	
+    	return count;
+    }
+    
+    private void assertContent( MessageStore store , int count ) throws Exception
+    {
+    	assertEquals(count, store.size());
+    	int current = store.first();
+    	int n = 0;
+    	while (current != -1)
+    	{
+    		TextMessageImpl msg = (TextMessageImpl)store.retrieve(current);
+    		msg.ensureDeserializationLevel(MessageSerializationLevel.FULL);
+    		assertTrue(msg.getText().startsWith("msg"+n+"x"));
+    		current = store.next(current);
+    		n++;
+    	}
+    	assertEquals(count, n);
+    }
+    
+    private void drain( MessageStore store ) throws Exception
+    {
+    	int current = store.first();
+		while (current != -1)
+		{
+			int next = store.next(current);
+			store.delete(current);
+			current = next;
+		}
+		store.commitChanges();
+    }
+    
+    public void testFanOut() throws Exception
+    {
+    	MessageStore[] stores = new MessageStore[5];
+    	for (int n = 0; n < stores.length; n++)
+    		stores[n] = createSubscriberStore(id+"-"+n, true, true);
+    	
+    	int msgCount = dispatch(stores, 100, 100);
+    	
+    	// Each message is written once to the log
+    	assertEquals(msgCount, messageLog.getAppendedCount());
+    	for (int n = 0; n < stores.length; n++)
+    		assertContent(stores[n], msgCount);
+    	
+    	// Redelivered messages become subscriber specific
+    	int handle = stores[0].first();
+    	AbstractMessage msg = stores[0].retrieve(handle);
+    	msg.setJMSRedelivered(true);
+    	handle = stores[0].replace(handle, msg);
+    	assertTrue(stores[0].retrieve(handle).getJMSRedelivered());
+    	assertFalse(stores[1].retrieve(stores[1].first()).getJMSRedelivered());
+    	
+    	for (int n = 0; n < stores.length; n++)
+    	{
+    		drain(stores[n]);
+    		stores[n].close();
+    		stores[n].delete();
+    	}
+    }
+    
+    public void testReclaim() throws Exception
+    {
+    	MessageStore[] stores = new MessageStore[2];
+    	for (int n = 0; n < stores.length; n++)
+    		stores[n] = createSubscriberStore(id+"-"+n, true, true);
+    	
+    	int msgCount = dispatch(stores, 1500, 200);
+    	int segmentsCount = messageLog.getSegmentsCount();
+    	assertTrue(segmentsCount > 1);
+    	
+    	// Segments are kept while a subscriber still references them
+    	drain(stores[0]);
+    	assertEquals(segmentsCount, messageLog.getSegmentsCount());
+    	assertContent(stores[1], msgCount);
+    	
+    	drain(stores[1]);
+    	assertEquals(1, messageLog.getSegmentsCount());
+    	assertEquals(segmentsCount-1, messageLog.getReclaimedSegmentsCount());
+    	
+    	for (int n = 0; n < stores.length; n++)
+    	{
+    		stores[n].close();
+    		stores[n].delete();
+    	}
+    }
+    
+    public void testReleaseAfterCommit() throws Exception
+    {
+    	SharedLogMessageStore store = (SharedLogMessageStore)createSubscriberStore(id+"-0", true, true, true);
+    	
+    	int msgCount = dispatch(new MessageStore[] { store }, 1500, 200);
+    	int segmentsCount = messageLog.getSegmentsCount();
+    	assertTrue(segmentsCount > 1);
+    	
+    	// Deleted references are only released once the deletion is committed and synced
+    	int current = store.first();
+		while (current != -1)
+		{
+			int next = store.next(current);
+			store.delete(current);
+			current = next;
+		}
+		assertEquals(msgCount, store.getSharedMessagesCount());
+		assertEquals(segmentsCount, messageLog.getSegmentsCount());
+		
+		SynchronizationBarrier barrier = new SynchronizationBarrier();
+		store.commitChanges(barrier);
+		barrier.waitFor();
+		
+		// Release is asynchronous
+		long timeout = System.currentTimeMillis()+5000;
+		while (store.getSharedMessagesCount() > 0 && System.currentTimeMillis() < timeout)
+			Thread.sleep(10);
+		assertEquals(0, store.getSharedMessagesCount());
+		assertEquals(1, messageLog.getSegmentsCount());
+		
+		store.close();
+		store.delete();
+    }
+    
+    public void testRestartWithOfflineSubscriber() throws Exception
+    {
+    	MessageStore[] stores = new MessageStore[2];
+    	for (int n = 0; n < stores.length; n++)
+    		stores[n] = createSubscriberStore(id+"-"+n, true, true);
+    	
+    	int msgCount = dispatch(stores, 1500, 200);
+    	int segmentsCount = messageLog.getSegmentsCount();
+    	for (int n = 0; n < stores.length; n++)
+    		stores[n].close();
+    	messageLog.close();
+    	
+    	// Restart, with only the first subscriber reconnecting
+    	messageLog = openLog();
+    	assertEquals(segmentsCount, messageLog.getSegmentsCount());
+    	stores[0] = createSubscriberStore(id+"-0", false, true);
+    	assertContent(stores[0], msgCount);
+    	drain(stores[0]);
+    	dispatch(new MessageStore[] { stores[0] }, 1500, 200);
+    	drain(stores[0]);
+    	
+    	// The offline subscriber still references the old segments
+    	stores[1] = createSubscriberStore(id+"-1", false, true);
+    	assertContent(stores[1], msgCount);
+    	drain(stores[1]);
+    	
+    	for (int n = 0; n < stores.length; n++)
+    	{
+    		stores[n].close();
+    		stores[n].delete();
+    	}
+    	assertEquals(1, messageLog.getSegmentsCount());
+    }
+    
+    public void testFanOutBenchmark() throws Exception
+    {
+    	int subscribers = 10;
+    	int msgCount = 100;
+    	int payloadSize = 10*1024;
+    	
+    	for (int pass = 0; pass < 2; pass++)
+    	{
+    		boolean useSharedLog = pass == 1;
+    		MessageStore[] stores = new MessageStore[subscribers];
+        	for (int n = 0; n < stores.length; n++)
+        	{
+        		String name = id+"-bench"+pass+"-"+n;
+        		BlockBasedDataStoreTools.create(name, DATA_FOLDER, 400, 4096, true);
+        		stores[n] = createSubscriberStore(name, false, useSharedLog);
+        	}
+        	
+        	long start = System.nanoTime();
+        	dispatch(stores, msgCount, payloadSize);
+        	long storeTime = System.nanoTime()-start;
+        	
+        	System.out.println("Fan-out of "+msgCount+" messages ("+payloadSize+" bytes) to "+subscribers+" subscribers, "+
+        	                   (useSharedLog ? "shared log" : "subscriber stores")+" : "+(storeTime/1000000)+"ms");
+        	
+        	for (int n = 0; n < stores.length; n++)
+        	{
+        		drain(stores[n]);
+        		stores[n].close();
+        		stores[n].delete();
+        	}
+    	}
+    }
+}
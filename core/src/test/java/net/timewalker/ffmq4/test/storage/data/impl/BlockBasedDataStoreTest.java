@@ -1,6 +1,8 @@
 package net.timewalker.ffmq4.test.storage.data.impl;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
 
 import junit.framework.TestCase;
 import net.timewalker.ffmq4.management.destination.definition.QueueDefinition;
@@ -274,6 +276,111 @@ public class BlockBasedDataStoreTest extends TestCase
 		store.close();
 	}
 	
+	public void testStoreLatencyByOccupancy() throws Exception
+	{
+		System.out.println("--------- Store latency by occupancy ---------");
+		measureStoreLatency(10);
+		measureStoreLatency(90);
+		measureStoreLatency(99);
+	}
+	
+	private void measureStoreLatency( int occupancy ) throws Exception
+	{
+		String storeId = UUIDProvider.getInstance().getUUID();
+		int blockCount = 20000;
+		
+		BlockBasedDataStoreTools.create(storeId, new File("target/test"), blockCount, 512, true);
+		LinkedDataStore store = createStore(storeId, new File("target/test"));
+		
+		// Fill the store with single-block entries
+		byte[] smallData = new byte[100];
+		int[] handles = new int[blockCount];
+		for (int n = 0; n < blockCount; n++)
+			handles[n] = store.store(smallData, -1);
+		
+		// Free random entries until the target occupancy is reached
+		Random random = new Random(1234);
+		int toDelete = blockCount*(100-occupancy)/100;
+		while (toDelete > 0)
+		{
+			int index = random.nextInt(blockCount);
+			if (handles[index] != -1)
+			{
+				store.delete(handles[index]);
+				handles[index] = -1;
+				toDelete--;
+			}
+		}
+		store.commitChanges();
+		
+		// Store and delete multi-block entries
+		byte[] data = new byte[1500];
+		int iterations = 10000;
+		storeAndDelete(store, data, iterations); // Warm-up
+		long start = System.nanoTime();
+		storeAndDelete(store, data, iterations);
+		long end = System.nanoTime();
+		store.commitChanges();
+		store.close();
+		
+		System.out.println("Store latency at "+occupancy+"% occupancy : "+(end-start)/iterations+" ns");
+	}
+	
+	private void storeAndDelete( LinkedDataStore store , byte[] data , int iterations ) throws Exception
+	{
+		for (int n = 0; n < iterations; n++)
+		{
+			int handle = store.store(data, -1);
+			if (handle == -1)
+				throw new IllegalStateException("No space left !");
+			store.delete(handle);
+		}
+	}
+	
+	public void testLargeEntryThroughput() throws Exception
+	{
+		System.out.println("--------- Large entry throughput ---------");
+		String storeId = UUIDProvider.getInstance().getUUID();
+		int entrySize = 64*1024;
+		int entries = 64;
+		
+		BlockBasedDataStoreTools.create(storeId, new File("target/test"), entries*entrySize/4096, 4096, true);
+		LinkedDataStore store = createStore(storeId, new File("target/test"));
+		
+		byte[] data = new byte[entrySize];
+		new Random(1234).nextBytes(data);
+		
+		// Contiguous runs are written and read in a single operation
+		int handle = store.store(data, -1);
+		store.commitChanges();
+		byte[] readData = (byte[])store.retrieve(handle);
+		assertTrue(Arrays.equals(data, readData));
+		store.delete(handle);
+		store.commitChanges();
+		
+		int iterations = 200;
+		long start = System.nanoTime();
+		for (int n = 0; n < iterations; n++)
+		{
+			int[] handles = new int[entries];
+			int previous = -1;
+			for (int i = 0; i < entries; i++)
+				previous = handles[i] = store.store(data, previous);
+			store.commitChanges();
+			for (int i = 0; i < entries; i++)
+			{
+				store.retrieve(handles[i]);
+				store.delete(handles[i]);
+			}
+			store.commitChanges();
+		}
+		long end = System.nanoTime();
+		store.close();
+		
+		long totalBytes = (long)iterations*entries*entrySize;
+		System.out.println("Large entry throughput ("+getClass().getSimpleName()+") : "+(totalBytes*1000/(end-start))+" MB/s");
+	}
+	
 	public void testHugeMessages_singleAutoExtend() throws Exception
     {
         System.out.println("--------- testHugeMessages_singleAutoExtend ---------");
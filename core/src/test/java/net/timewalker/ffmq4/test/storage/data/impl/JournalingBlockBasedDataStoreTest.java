@@ -28,6 +28,7 @@ import net.timewalker.ffmq4.storage.data.impl.JournalingBlockBasedDataStore;
 import net.timewalker.ffmq4.utils.Settings;
 import net.timewalker.ffmq4.utils.StringTools;
 import net.timewalker.ffmq4.utils.async.AsyncTaskManager;
+import net.timewalker.ffmq4.utils.concurrent.SynchronizationBarrier;
 import net.timewalker.ffmq4.utils.id.UUIDProvider;
 
 /**
@@ -67,6 +68,11 @@ public class JournalingBlockBasedDataStoreTest extends BlockBasedDataStoreTest
 	 */
 	@Override
 	protected LinkedDataStore createStore(String baseName, File dataFolder) throws DataStoreException
+	{
+		return createStore(baseName, dataFolder, 0);
+	}
+	
+	private LinkedDataStore createStore(String baseName, File dataFolder, int groupCommitMaxDelay) throws DataStoreException
 	{
 	    Settings settings = new Settings();
         settings.setStringProperty("name", baseName);
@@ -74,6 +80,7 @@ public class JournalingBlockBasedDataStoreTest extends BlockBasedDataStoreTest
         settings.setBooleanProperty("persistentStore.useJournal", true);
         settings.setIntProperty("persistentStore.maxBlockCount", 10000);
         settings.setIntProperty("persistentStore.autoExtendAmount", 500);
+        settings.setIntProperty("persistentStore.journal.groupCommitMaxDelay", groupCommitMaxDelay);
         QueueDefinition queueDef = new QueueDefinition(settings);
 	    
 		LinkedDataStore dataStore = new JournalingBlockBasedDataStore(queueDef,asyncTaskManager);
@@ -163,4 +170,84 @@ public class JournalingBlockBasedDataStoreTest extends BlockBasedDataStoreTest
         assertEquals(0, store.size());
         store.close();
 	}
+	
+	public void testAdaptiveGroupCommit() throws Exception
+	{
+		int[] threadCounts = { 1, 4, 16 };
+		for (int i = 0; i < threadCounts.length; i++)
+		{
+			runConcurrentCommits(threadCounts[i], 0);
+			runConcurrentCommits(threadCounts[i], 2000);
+		}
+	}
+	
+	private void runConcurrentCommits( int threadCount , int groupCommitMaxDelay ) throws Exception
+	{
+		final int commitsPerThread = 200;
+		final byte[] data = StringTools.rightPad("DATA-", 200, 'X').getBytes();
+		
+		String storeId = UUIDProvider.getInstance().getUUID();
+		BlockBasedDataStoreTools.create(storeId, new File("target/test"), 1000, 512, true);
+		final JournalingBlockBasedDataStore store = (JournalingBlockBasedDataStore)createStore(storeId, new File("target/test"), groupCommitMaxDelay);
+		
+		final Exception[] errors = new Exception[threadCount];
+		Thread[] threads = new Thread[threadCount];
+		for (int i = 0; i < threadCount; i++)
+		{
+			final int index = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run()
+				{
+					try
+					{
+						for (int n = 0; n < commitsPerThread; n++)
+						{
+							// Same pattern as a local queue : store access is serialized, the commit wait is not
+							SynchronizationBarrier barrier = new SynchronizationBarrier();
+							synchronized (store)
+							{
+								store.store(data, store.first());
+								store.commitChanges(barrier);
+							}
+							barrier.waitFor();
+							
+							barrier = new SynchronizationBarrier();
+							synchronized (store)
+							{
+								store.delete(store.first());
+								store.commitChanges(barrier);
+							}
+							barrier.waitFor();
+						}
+					}
+					catch (Exception e)
+					{
+						errors[index] = e;
+					}
+				}
+			};
+		}
+		
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < threadCount; i++)
+			threads[i].start();
+		for (int i = 0; i < threadCount; i++)
+			threads[i].join();
+		long elapsed = Math.max(1, System.currentTimeMillis()-start);
+		
+		for (int i = 0; i < threadCount; i++)
+			if (errors[i] != null)
+				throw errors[i];
+		assertEquals(0, store.size());
+		
+		long totalCommits = (long)threadCount*commitsPerThread*2;
+		long syncs = store.getJournalCommitBatchSizes().getCount();
+		assertTrue(syncs > 0 && syncs <= totalCommits);
+		System.out.println(threadCount+" thread(s), groupCommitMaxDelay="+groupCommitMaxDelay+"us : "+
+		                   (totalCommits*1000/elapsed)+" commit/s, "+syncs+" sync(s) for "+totalCommits+" commit(s)");
+		System.out.println("  batch sizes   : "+store.getJournalCommitBatchSizes());
+		System.out.println("  sync latency  : "+store.getJournalSyncLatencies());
+		store.close();
+	}
 }
@@ -0,0 +1,347 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package net.timewalker.ffmq4.test.storage.data.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import net.timewalker.ffmq4.management.destination.definition.QueueDefinition;
+import net.timewalker.ffmq4.storage.data.LinkedDataStore;
+import net.timewalker.ffmq4.storage.data.impl.BlockBasedDataStoreTools;
+import net.timewalker.ffmq4.storage.data.impl.JournalingBlockBasedDataStore;
+import net.timewalker.ffmq4.storage.data.impl.LogStructuredDataStore;
+import net.timewalker.ffmq4.utils.Settings;
+import net.timewalker.ffmq4.utils.StringTools;
+import net.timewalker.ffmq4.utils.async.AsyncTaskManager;
+import net.timewalker.ffmq4.utils.concurrent.SynchronizationBarrier;
+import net.timewalker.ffmq4.utils.id.UUIDProvider;
+
+/**
+ * LogStructuredDataStoreTest
+ */
+public class LogStructuredDataStoreTest extends TestCase
+{
+	private File dataFolder = new File("target/test");
+	private AsyncTaskManager asyncTaskManager;
+	
+	/*
+	 * (non-Javadoc)
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		dataFolder.mkdir();
+		asyncTaskManager = new AsyncTaskManager("testAsyncTaskManager", 
+				1, 
+				2, 
+				10);
+		
+		System.setProperty("ffmq.dataStore.safeMode", "true");
+	}
+	
+	/* (non-Javadoc)
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	@Override
+	protected void tearDown() throws Exception
+	{
+		asyncTaskManager.close();
+		super.tearDown();
+	}
+	
+	private QueueDefinition createQueueDefinition( String baseName , int maxBlockCount , long segmentSize )
+	{
+		Settings settings = new Settings();
+		settings.setStringProperty("name", baseName);
+		settings.setStringProperty("persistentStore.dataFolder", dataFolder.getAbsolutePath());
+		settings.setIntProperty("persistentStore.maxBlockCount", maxBlockCount);
+		settings.setBooleanProperty("persistentStore.logStructured", true);
+		QueueDefinition queueDef = new QueueDefinition(settings);
+		queueDef.setBlockSize(1024);
+		queueDef.setMaxJournalSize(segmentSize);
+		return queueDef;
+	}
+	
+	private LogStructuredDataStore createStore( String baseName , int maxBlockCount , long segmentSize ) throws Exception
+	{
+		LogStructuredDataStore store = new LogStructuredDataStore(createQueueDefinition(baseName, maxBlockCount, segmentSize),asyncTaskManager);
+		store.init();
+		return store;
+	}
+	
+	private static byte[] createData( int n , int size )
+	{
+		return StringTools.rightPad("DATA-"+n+"-", size, 'X').getBytes();
+	}
+	
+	private static String readEntry( LinkedDataStore store , int handle ) throws Exception
+	{
+		String data = new String((byte[])store.retrieve(handle));
+		return data.substring(0, data.indexOf('X'));
+	}
+	
+	public void testReplay() throws Exception
+	{
+		String storeId = UUIDProvider.getInstance().getUUID();
+		LogStructuredDataStore.create(storeId, dataFolder);
+		LogStructuredDataStore store = createStore(storeId, 1000, 1024*1024);
+		
+		// Insert at the head, tail and middle of the list
+		int first = store.store(createData(1, 100), -1);
+		int last = store.store(createData(3, 100), first);
+		store.store(createData(2, 100), first);
+		store.store(createData(0, 100), -1);
+		store.replace(last, createData(3, 2000));
+		assertEquals(1, store.markRedelivered(last));
+		assertEquals(2, store.markRedelivered(last));
+		store.commitChanges();
+		
+		// Entries are recovered in insertion order
+		store.close();
+		store = createStore(storeId, 1000, 1024*1024);
+		assertEquals(4, store.size());
+		int handle = store.first();
+		assertEquals("DATA-1-", readEntry(store, handle));
+		handle = store.next(handle);
+		assertEquals("DATA-3-", readEntry(store, handle));
+		assertEquals(2000, ((byte[])store.retrieve(handle)).length);
+		assertEquals(2, store.getRedeliveryCount(handle));
+		handle = store.next(handle);
+		assertEquals("DATA-2-", readEntry(store, handle));
+		assertEquals(0, store.getRedeliveryCount(handle));
+		
+		// Deletions are replayed
+		store.delete(store.first());
+		store.delete(handle);
+		int newHandle = store.store(createData(4, 100), store.next(store.first()));
+		store.commitChanges();
+		store.close();
+		
+		store = createStore(storeId, 1000, 1024*1024);
+		assertEquals(3, store.size());
+		assertEquals(newHandle, store.next(store.next(store.first())));
+		String[] expected = { "DATA-3-" , "DATA-0-" , "DATA-4-" };
+		handle = store.first();
+		for (int i = 0; i < expected.length; i++)
+		{
+			assertEquals(expected[i], readEntry(store, handle));
+			handle = store.next(handle);
+		}
+		assertEquals(-1, handle);
+		store.close();
+		
+		LogStructuredDataStore.delete(storeId, dataFolder);
+		assertFalse(new File(dataFolder,storeId+LogStructuredDataStore.FOLDER_SUFFIX).exists());
+	}
+	
+	public void testIncompleteRecord() throws Exception
+	{
+		String storeId = UUIDProvider.getInstance().getUUID();
+		LogStructuredDataStore.create(storeId, dataFolder);
+		LogStructuredDataStore store = createStore(storeId, 1000, 1024*1024);
+		for (int n = 0; n < 10; n++)
+			store.store(createData(n, 500), -1);
+		store.commitChanges();
+		store.close();
+		
+		// Simulate a write interrupted by a crash
+		File[] segmentFiles = new File(dataFolder,storeId+LogStructuredDataStore.FOLDER_SUFFIX).listFiles();
+		assertEquals(1, segmentFiles.length);
+		long size = segmentFiles[0].length();
+		FileOutputStream out = new FileOutputStream(segmentFiles[0],true);
+		out.write(new byte[] { 1, 0, 0, 0, 12, 0, 0, 0 });
+		out.close();
+		
+		store = createStore(storeId, 1000, 1024*1024);
+		assertEquals(10, store.size());
+		assertEquals(size, segmentFiles[0].length());
+		store.store(createData(10, 500), -1);
+		store.commitChanges();
+		store.close();
+		
+		store = createStore(storeId, 1000, 1024*1024);
+		assertEquals(11, store.size());
+		assertEquals("DATA-1-", readEntry(store, store.next(store.first())));
+		store.close();
+	}
+	
+	public void testSegmentReclaim() throws Exception
+	{
+		String storeId = UUIDProvider.getInstance().getUUID();
+		LogStructuredDataStore.create(storeId, dataFolder);
+		LogStructuredDataStore store = createStore(storeId, 1000, 16*1024);
+		
+		// A long lived entry must be relocated for old segments to be reclaimed
+		int oldHandle = store.store(createData(-1, 100), -1);
+		store.markRedelivered(oldHandle);
+		for (int i = 0; i < 200; i++)
+		{
+			int previous = oldHandle;
+			for (int j = 0; j < 10; j++)
+				previous = store.store(createData(j, 1000), previous);
+			store.commitChanges();
+			for (int j = 0; j < 10; j++)
+				store.delete(store.next(oldHandle));
+			store.commitChanges();
+			assertTrue(store.getSegmentCount() <= 3);
+		}
+		assertEquals(1, store.size());
+		File folder = new File(dataFolder,storeId+LogStructuredDataStore.FOLDER_SUFFIX);
+		assertTrue(folder.listFiles().length <= 3);
+		store.close();
+		
+		store = createStore(storeId, 1000, 16*1024);
+		assertEquals(1, store.size());
+		assertEquals("DATA--1-", readEntry(store, store.first()));
+		assertEquals(1, store.getRedeliveryCount(store.first()));
+		store.close();
+	}
+	
+	public void testStoreFull() throws Exception
+	{
+		String storeId = UUIDProvider.getInstance().getUUID();
+		LogStructuredDataStore.create(storeId, dataFolder);
+		LogStructuredDataStore store = createStore(storeId, 10, 1024*1024);
+		
+		int count = 0;
+		while (store.store(createData(count, 1000), -1) != -1)
+			count++;
+		assertEquals(10*1024/(1000+22), count);
+		assertTrue(store.getAbsoluteStoreUsage() >= 90);
+		
+		store.delete(store.first());
+		assertTrue(store.store(createData(count, 1000), -1) != -1);
+		store.close();
+	}
+	
+	public void testGroupCommit() throws Exception
+	{
+		String storeId = UUIDProvider.getInstance().getUUID();
+		LogStructuredDataStore.create(storeId, dataFolder);
+		final LogStructuredDataStore store = createStore(storeId, 10000, 1024*1024);
+		final byte[] data = createData(0, 200);
+		
+		final Exception[] errors = new Exception[4];
+		Thread[] threads = new Thread[errors.length];
+		for (int i = 0; i < threads.length; i++)
+		{
+			final int index = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run()
+				{
+					try
+					{
+						for (int n = 0; n < 100; n++)
+						{
+							SynchronizationBarrier barrier = new SynchronizationBarrier();
+							synchronized (store)
+							{
+								store.store(data, -1);
+								store.commitChanges(barrier);
+							}
+							barrier.waitFor();
+						}
+					}
+					catch (Exception e)
+					{
+						errors[index] = e;
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++)
+			threads[i].join();
+		for (int i = 0; i < errors.length; i++)
+			if (errors[i] != null)
+				throw errors[i];
+		assertEquals(400, store.size());
+		store.close();
+		
+		LogStructuredDataStore reloaded = createStore(storeId, 10000, 1024*1024);
+		assertEquals(400, reloaded.size());
+		assertTrue(Arrays.equals(data, (byte[])reloaded.retrieve(reloaded.first())));
+		reloaded.close();
+	}
+	
+	public void testWriteBenchmark() throws Exception
+	{
+		int msgSize = 1000;
+		int batchSize = 10;
+		int batches = 300;
+		
+		for (int pass = 0; pass < 2; pass++)
+		{
+			// Journaled block store
+			String storeId = UUIDProvider.getInstance().getUUID();
+			BlockBasedDataStoreTools.create(storeId, dataFolder, 2000, 1024, true);
+			Settings settings = new Settings();
+			settings.setStringProperty("name", storeId);
+			settings.setStringProperty("persistentStore.dataFolder", dataFolder.getAbsolutePath());
+			settings.setBooleanProperty("persistentStore.useJournal", true);
+			settings.setIntProperty("persistentStore.maxBlockCount", 2000);
+			settings.setIntProperty("persistentStore.blockSize", 1024);
+			LinkedDataStore journalStore = new JournalingBlockBasedDataStore(new QueueDefinition(settings),asyncTaskManager);
+			journalStore.init();
+			long journalTime = runProducerConsumer(journalStore, msgSize, batchSize, batches);
+			journalStore.close();
+			
+			// Log structured store
+			storeId = UUIDProvider.getInstance().getUUID();
+			LogStructuredDataStore.create(storeId, dataFolder);
+			LinkedDataStore logStore = createStore(storeId, 2000, 1024*1024);
+			long logTime = runProducerConsumer(logStore, msgSize, batchSize, batches);
+			logStore.close();
+			
+			if (pass > 0)
+				System.out.println("Put/get of "+(batchSize*batches)+" persistent entries : journaled block store="+(journalTime/1000000)+"ms log structured store="+(logTime/1000000)+"ms");
+		}
+	}
+	
+	private long runProducerConsumer( LinkedDataStore store , int msgSize , int batchSize , int batches ) throws Exception
+	{
+		byte[] data = createData(0, msgSize);
+		long start = System.nanoTime();
+		for (int i = 0; i < batches; i++)
+		{
+			int previous = -1;
+			for (int j = 0; j < batchSize; j++)
+				previous = store.store(data, previous);
+			commit(store);
+			for (int j = 0; j < batchSize; j++)
+			{
+				store.retrieve(store.first());
+				store.delete(store.first());
+			}
+			commit(store);
+		}
+		return System.nanoTime()-start;
+	}
+	
+	private void commit( LinkedDataStore store ) throws Exception
+	{
+		SynchronizationBarrier barrier = new SynchronizationBarrier();
+		store.commitChanges(barrier);
+		barrier.waitFor();
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.timewalker.ffmq4.test.storage.data.impl;
+
+import java.io.File;
+
+import net.timewalker.ffmq4.management.destination.definition.QueueDefinition;
+import net.timewalker.ffmq4.storage.data.DataStoreException;
+import net.timewalker.ffmq4.storage.data.LinkedDataStore;
+import net.timewalker.ffmq4.storage.data.impl.BlockBasedDataStore;
+import net.timewalker.ffmq4.storage.data.impl.BlockBasedDataStoreTools;
+import net.timewalker.ffmq4.storage.data.impl.MappedBlockBasedDataStore;
+import net.timewalker.ffmq4.utils.Settings;
+import net.timewalker.ffmq4.utils.id.UUIDProvider;
+
+/**
+ * MappedBlockBasedDataStoreTest
+ */
+public class MappedBlockBasedDataStoreTest extends BlockBasedDataStoreTest
+{
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.test.storage.data.impl.BlockBasedDataStoreTest#createStore(java.lang.String, java.io.File)
+	 */
+	@Override
+	protected LinkedDataStore createStore(String baseName, File dataFolder) throws DataStoreException
+	{
+		return createStore(baseName, dataFolder, true);
+	}
+	
+	private LinkedDataStore createStore(String baseName, File dataFolder, boolean memoryMapped) throws DataStoreException
+	{
+		return createStore(baseName, dataFolder, memoryMapped, 10000, 500);
+	}
+	
+	private LinkedDataStore createStore(String baseName, File dataFolder, boolean memoryMapped, int maxBlockCount, int autoExtendAmount) throws DataStoreException
+	{
+	    Settings settings = new Settings();
+        settings.setStringProperty("name", baseName);
+        settings.setStringProperty("persistentStore.dataFolder", dataFolder.getAbsolutePath());
+        settings.setBooleanProperty("persistentStore.useJournal", false);
+        settings.setBooleanProperty("persistentStore.memoryMapped", memoryMapped);
+        settings.setIntProperty("persistentStore.maxBlockCount", maxBlockCount);
+        settings.setIntProperty("persistentStore.autoExtendAmount", autoExtendAmount);
+        QueueDefinition queueDef = new QueueDefinition(settings);
+	    
+		LinkedDataStore dataStore = memoryMapped ? new MappedBlockBasedDataStore(queueDef) : new BlockBasedDataStore(queueDef);
+        dataStore.init();
+        
+		return dataStore;
+	}
+	
+	public void testGrowthAcrossMappingSegments() throws Exception
+	{
+		String storeId = UUIDProvider.getInstance().getUUID();
+		File dataFolder = new File("target/test");
+		int msgCount = 150000;
+		
+		// Small blocks, so that the allocation table spans several mapping segments
+		BlockBasedDataStoreTools.create(storeId, dataFolder, 100, 16, true);
+		LinkedDataStore store = createStore(storeId, dataFolder, true, 200000, 30000);
+		int previous = -1;
+		for (int n = 0; n < msgCount; n++)
+		{
+			previous = store.store(intToBytes(n), previous);
+			assertTrue(previous != -1);
+		}
+		store.close();
+		
+		// Reopen the released mappings
+		store = createStore(storeId, dataFolder, true, 200000, 30000);
+		assertEquals(msgCount, store.size());
+		int current = store.first();
+		for (int n = 0; n < msgCount; n++)
+		{
+			assertEquals(n, bytesToInt((byte[])store.retrieve(current)));
+			current = store.next(current);
+		}
+		assertEquals(-1, current);
+		store.close();
+		BlockBasedDataStoreTools.delete(storeId, dataFolder, true);
+	}
+	
+	private static byte[] intToBytes( int value )
+	{
+		return new byte[] { (byte)(value >>> 24), (byte)(value >>> 16), (byte)(value >>> 8), (byte)value };
+	}
+	
+	private static int bytesToInt( byte[] data )
+	{
+		return ((data[0] & 0xFF) << 24) | ((data[1] & 0xFF) << 16) | ((data[2] & 0xFF) << 8) | (data[3] & 0xFF);
+	}
+	
+	public void testReadPerformanceComparison() throws Exception
+	{
+		System.out.println("--------- RandomAccessFile vs memory mapped store ---------");
+		compareReadPerformance(1024, 2000);
+		compareReadPerformance(16*1024, 500);
+		compareReadPerformance(1024*1024, 20);
+	}
+	
+	private void compareReadPerformance( int msgSize , int msgCount ) throws Exception
+	{
+		long rafTime = measureReadTime(msgSize, msgCount, false);
+		long mappedTime = measureReadTime(msgSize, msgCount, true);
+		System.out.println("Message size "+msgSize+" : RandomAccessFile="+rafTime/1000+" us , memory mapped="+mappedTime/1000+" us");
+	}
+	
+	private long measureReadTime( int msgSize , int msgCount , boolean memoryMapped ) throws Exception
+	{
+		String storeId = UUIDProvider.getInstance().getUUID();
+		byte[] data = new byte[msgSize];
+		for (int n = 0; n < data.length; n++)
+			data[n] = (byte)n;
+		
+		BlockBasedDataStoreTools.create(storeId, new File("target/test"), 200, 4096, true);
+		LinkedDataStore store = createStore(storeId, new File("target/test"), memoryMapped);
+		
+		int previous = -1;
+		for (int n = 0; n < msgCount; n++)
+		{
+			previous = store.store(data, previous);
+			if (previous == -1)
+                throw new IllegalStateException("No space left !");
+		}
+		store.commitChanges();
+		
+		// Warm-up
+		readAll(store, msgSize);
+		
+		long start = System.nanoTime();
+		for (int n = 0; n < 10; n++)
+			readAll(store, msgSize);
+		long end = System.nanoTime();
+		
+		store.close();
+		
+		return end-start;
+	}
+	
+	private void readAll( LinkedDataStore store , int msgSize ) throws Exception
+	{
+		int current = store.first();
+		while (current != -1)
+		{
+			byte[] data = (byte[])store.retrieve(current);
+			assertEquals(msgSize, data.length);
+			current = store.next(current);
+		}
+	}
+}
@@ -0,0 +1,280 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.timewalker.ffmq4.test.storage.data.impl;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.timewalker.ffmq4.management.destination.definition.QueueDefinition;
+import net.timewalker.ffmq4.storage.StorageSyncMethod;
+import net.timewalker.ffmq4.storage.data.DataStoreException;
+import net.timewalker.ffmq4.storage.data.LinkedDataStore;
+import net.timewalker.ffmq4.storage.data.impl.AbstractBlockBasedDataStore;
+import net.timewalker.ffmq4.storage.data.impl.BlockBasedDataStoreTools;
+import net.timewalker.ffmq4.storage.data.impl.JournalingBlockBasedDataStore;
+import net.timewalker.ffmq4.storage.data.impl.journal.SharedJournal;
+import net.timewalker.ffmq4.utils.Settings;
+import net.timewalker.ffmq4.utils.StringTools;
+import net.timewalker.ffmq4.utils.async.AsyncTaskManager;
+import net.timewalker.ffmq4.utils.id.UUIDProvider;
+
+/**
+ * SharedJournalDataStoreTest
+ */
+public class SharedJournalDataStoreTest extends BlockBasedDataStoreTest
+{
+	private AsyncTaskManager asyncTaskManager;
+	private File journalFolder;
+	private SharedJournal sharedJournal;
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		asyncTaskManager = new AsyncTaskManager("testAsyncTaskManager", 
+				1, 
+				2, 
+				10);
+		journalFolder = new File("target/test/shared-"+UUIDProvider.getInstance().getUUID());
+		journalFolder.mkdirs();
+		sharedJournal = createSharedJournal();
+	}
+	
+	/* (non-Javadoc)
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	@Override
+	protected void tearDown() throws Exception
+	{
+		sharedJournal.close();
+		asyncTaskManager.close();
+		super.tearDown();
+	}
+	
+	private SharedJournal createSharedJournal() throws DataStoreException
+	{
+		return createSharedJournal(null);
+	}
+	
+	private SharedJournal createSharedJournal( ExecutorService recoveryExecutor ) throws DataStoreException
+	{
+		SharedJournal journal = new SharedJournal(journalFolder, 
+				                                  1024*1024, 
+				                                  16384, 
+				                                  StorageSyncMethod.CHANNEL_FORCE_NO_META, 
+				                                  false, 
+				                                  asyncTaskManager);
+		journal.recover(recoveryExecutor);
+		return journal;
+	}
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.test.storage.data.impl.BlockBasedDataStoreTest#createStore(java.lang.String, java.io.File)
+	 */
+	@Override
+	protected LinkedDataStore createStore(String baseName, File dataFolder) throws DataStoreException
+	{
+		return createStore(baseName, dataFolder, true);
+	}
+	
+	private LinkedDataStore createStore(String baseName, File dataFolder, boolean shared) throws DataStoreException
+	{
+	    Settings settings = new Settings();
+        settings.setStringProperty("name", baseName);
+        settings.setStringProperty("persistentStore.dataFolder", dataFolder.getAbsolutePath());
+        settings.setBooleanProperty("persistentStore.useJournal", true);
+        settings.setIntProperty("persistentStore.maxBlockCount", 10000);
+        settings.setIntProperty("persistentStore.autoExtendAmount", 500);
+        QueueDefinition queueDef = new QueueDefinition(settings);
+	    
+		LinkedDataStore dataStore = new JournalingBlockBasedDataStore(queueDef,asyncTaskManager,shared ? sharedJournal : null);
+        dataStore.init();
+        
+		return dataStore;
+	}
+	
+	public void testSharedJournalRecovery() throws Exception
+	{
+		runSharedJournalRecovery(null);
+	}
+	
+	public void testParallelSharedJournalRecovery() throws Exception
+	{
+		ExecutorService recoveryExecutor = Executors.newFixedThreadPool(2);
+		try
+		{
+			runSharedJournalRecovery(recoveryExecutor);
+		}
+		finally
+		{
+			recoveryExecutor.shutdown();
+		}
+	}
+	
+	private void runSharedJournalRecovery( ExecutorService recoveryExecutor ) throws Exception
+	{
+		File dataFolder = new File("target/test");
+		String storeId1 = UUIDProvider.getInstance().getUUID();
+		String storeId2 = UUIDProvider.getInstance().getUUID();
+		
+		byte[] data = StringTools.rightPad("DATA-", 1000, 'X').getBytes();
+		
+		BlockBasedDataStoreTools.create(storeId1, dataFolder, 100, 512, true);
+		BlockBasedDataStoreTools.create(storeId2, dataFolder, 100, 512, true);
+		
+		// Keep a copy of the empty stores
+		File backupFolder = new File(dataFolder,"backup-"+storeId1);
+		backupFolder.mkdirs();
+		backupStoreFiles(storeId1, dataFolder, backupFolder);
+		backupStoreFiles(storeId2, dataFolder, backupFolder);
+		
+		// Interleaved commits on both stores (will also extend both stores)
+		LinkedDataStore store1 = createStore(storeId1, dataFolder);
+		LinkedDataStore store2 = createStore(storeId2, dataFolder);
+		int last1 = -1;
+		int last2 = -1;
+		for (int i = 0; i < 100; i++)
+		{
+			last1 = store1.store(data, last1);
+			store1.commitChanges();
+			if (i % 2 == 0)
+			{
+				last2 = store2.store(data, last2);
+				store2.commitChanges();
+			}
+		}
+		for (int i = 0; i < 20; i++)
+			store1.delete(store1.first());
+		store1.commitChanges();
+		
+		// Simulate a crash : keep the journal files, but lose all store updates
+		File[] journalFiles = BlockBasedDataStoreTools.findJournalFiles(SharedJournal.BASE_NAME, journalFolder);
+		assertTrue(journalFiles.length > 0);
+		for (int i = 0; i < journalFiles.length; i++)
+			Files.copy(journalFiles[i].toPath(), new File(backupFolder,journalFiles[i].getName()).toPath());
+		store1.close();
+		store2.close();
+		sharedJournal.close();
+		assertEquals(0, BlockBasedDataStoreTools.findJournalFiles(SharedJournal.BASE_NAME, journalFolder).length);
+		
+		backupStoreFiles(storeId1, backupFolder, dataFolder);
+		backupStoreFiles(storeId2, backupFolder, dataFolder);
+		for (int i = 0; i < journalFiles.length; i++)
+			Files.copy(new File(backupFolder,journalFiles[i].getName()).toPath(), journalFiles[i].toPath());
+		
+		// Replay
+		sharedJournal = createSharedJournal(recoveryExecutor);
+		assertEquals(0, BlockBasedDataStoreTools.findJournalFiles(SharedJournal.BASE_NAME, journalFolder).length);
+		
+		store1 = createStore(storeId1, dataFolder);
+		store2 = createStore(storeId2, dataFolder);
+		assertEquals(80, store1.size());
+		assertEquals(50, store2.size());
+		assertEquals(new String(data), new String((byte[])store1.retrieve(store1.first())));
+		assertEquals(new String(data), new String((byte[])store2.retrieve(store2.first())));
+		store1.close();
+		store2.close();
+	}
+	
+	private void backupStoreFiles( String storeId , File from , File to ) throws Exception
+	{
+		String[] suffixes = { AbstractBlockBasedDataStore.ALLOCATION_TABLE_SUFFIX, AbstractBlockBasedDataStore.DATA_FILE_SUFFIX };
+		for (int i = 0; i < suffixes.length; i++)
+			Files.copy(new File(from,storeId+suffixes[i]).toPath(), new File(to,storeId+suffixes[i]).toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+	
+	public void testGroupCommitThroughput() throws Exception
+	{
+		int[] storeCounts = { 1, 4, 8 };
+		for (int i = 0; i < storeCounts.length; i++)
+		{
+			long dedicated = runConcurrentCommits(storeCounts[i], false);
+			long shared = runConcurrentCommits(storeCounts[i], true);
+			System.out.println("Concurrent commits on "+storeCounts[i]+" store(s) : dedicated journals="+dedicated+" commit/s, shared journal="+shared+" commit/s");
+		}
+	}
+	
+	private long runConcurrentCommits( int storeCount , boolean shared ) throws Exception
+	{
+		final int commitsPerStore = 200;
+		final byte[] data = StringTools.rightPad("DATA-", 200, 'X').getBytes();
+		
+		File dataFolder = new File("target/test");
+		final LinkedDataStore[] stores = new LinkedDataStore[storeCount];
+		for (int i = 0; i < storeCount; i++)
+		{
+			String storeId = UUIDProvider.getInstance().getUUID();
+			BlockBasedDataStoreTools.create(storeId, dataFolder, 1000, 512, true);
+			stores[i] = createStore(storeId, dataFolder, shared);
+		}
+		
+		final Exception[] errors = new Exception[storeCount];
+		Thread[] threads = new Thread[storeCount];
+		for (int i = 0; i < storeCount; i++)
+		{
+			final int index = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run()
+				{
+					try
+					{
+						LinkedDataStore store = stores[index];
+						for (int n = 0; n < commitsPerStore; n++)
+						{
+							store.store(data, store.first());
+							store.commitChanges();
+							store.delete(store.first());
+							store.commitChanges();
+						}
+					}
+					catch (Exception e)
+					{
+						errors[index] = e;
+					}
+				}
+			};
+		}
+		
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < storeCount; i++)
+			threads[i].start();
+		for (int i = 0; i < storeCount; i++)
+			threads[i].join();
+		long elapsed = Math.max(1, System.currentTimeMillis()-start);
+		
+		for (int i = 0; i < storeCount; i++)
+		{
+			if (errors[i] != null)
+				throw errors[i];
+			assertEquals(0, stores[i].size());
+			stores[i].close();
+		}
+		
+		return (long)storeCount*commitsPerStore*2*1000/elapsed;
+	}
+}
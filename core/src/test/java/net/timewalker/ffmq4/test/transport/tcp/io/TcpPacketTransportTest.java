@@ -0,0 +1,376 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.timewalker.ffmq4.test.transport.tcp.io;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import net.timewalker.ffmq4.FFMQCoreSettings;
+import net.timewalker.ffmq4.transport.PacketTransportListener;
+import net.timewalker.ffmq4.transport.packet.AbstractPacket;
+import net.timewalker.ffmq4.transport.packet.query.PingQuery;
+import net.timewalker.ffmq4.transport.tcp.io.TcpPacketTransport;
+import net.timewalker.ffmq4.utils.Settings;
+import net.timewalker.ffmq4.utils.concurrent.VirtualThreads;
+
+/**
+ * TcpPacketTransportTest
+ * <p>Connection scaling benchmark of the blocking TCP transport : memory footprint and
+ * ping-pong throughput of many connections, using platform or virtual I/O threads.</p>
+ */
+public class TcpPacketTransportTest extends TestCase
+{
+	// Use -Dffmq.test.tcp.connections=5000 (and high enough process/file descriptor limits) for a full size run
+	private static final int CONNECTIONS = Integer.parseInt(System.getProperty("ffmq.test.tcp.connections", "50"));
+	private static final int DRIVERS = 16;
+	private static final int ROUNDS = 10;
+	
+	public void testPlatformThreads() throws Exception
+	{
+		// Client and server side both use a sender and a receiver thread per connection
+		long maxProcesses = getMaxProcesses();
+		if (maxProcesses > 0 && 4L*CONNECTIONS+1000 > maxProcesses)
+		{
+			System.out.println("platform threads : skipped (process limit is "+maxProcesses+")");
+			return;
+		}
+		if (!checkFileDescriptors())
+			return;
+		runBenchmark(false);
+	}
+	
+	public void testVirtualThreads() throws Exception
+	{
+		if (!VirtualThreads.isSupported())
+		{
+			System.out.println("virtual threads : skipped (not supported by this JVM)");
+			return;
+		}
+		if (!checkFileDescriptors())
+			return;
+		runBenchmark(true);
+	}
+	
+	private boolean checkFileDescriptors()
+	{
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.UnixOperatingSystemMXBean)
+		{
+			long maxFds = ((com.sun.management.UnixOperatingSystemMXBean)os).getMaxFileDescriptorCount();
+			if (2L*CONNECTIONS+500 > maxFds)
+			{
+				System.out.println("skipped (file descriptor limit is "+maxFds+")");
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private long getMaxProcesses()
+	{
+		return readProcValue("/proc/self/limits","Max processes",2);
+	}
+	
+	private long getResidentMemory()
+	{
+		return readProcValue("/proc/self/status","VmRSS:",1)*1024; // kB
+	}
+	
+	private long readProcValue( String path , String prefix , int index )
+	{
+		try
+		{
+			BufferedReader reader = new BufferedReader(new FileReader(path));
+			try
+			{
+				String line;
+				while ((line = reader.readLine()) != null)
+				{
+					if (line.startsWith(prefix))
+					{
+						String value = line.substring(prefix.length()).trim().split("\\s+")[index-1];
+						return "unlimited".equals(value) ? -1 : Long.parseLong(value);
+					}
+				}
+			}
+			finally
+			{
+				reader.close();
+			}
+		}
+		catch (Exception e)
+		{
+			// Not available on this platform
+		}
+		return -1;
+	}
+	
+	private long getUsedHeap()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return runtime.totalMemory()-runtime.freeMemory();
+	}
+	
+	private void runBenchmark( boolean virtualThreads ) throws Exception
+	{
+		Properties props = new Properties();
+		props.setProperty(FFMQCoreSettings.TRANSPORT_TCP_VIRTUAL_THREADS, String.valueOf(virtualThreads));
+		props.setProperty(FFMQCoreSettings.TRANSPORT_TCP_PING_INTERVAL, "0");
+		Settings settings = new Settings(props);
+		
+		long baseHeap = getUsedHeap();
+		long baseRss = getResidentMemory();
+		int baseThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+		
+		ServerSocket serverSocket = new ServerSocket(0,CONNECTIONS,InetAddress.getByName("127.0.0.1"));
+		EchoServer server = new EchoServer(serverSocket,settings);
+		server.start();
+		URI serverURI = new URI("tcp://127.0.0.1:"+serverSocket.getLocalPort());
+		
+		List<TcpPacketTransport> clients = new ArrayList<>();
+		Driver[] drivers = new Driver[DRIVERS];
+		for (int i = 0; i < drivers.length; i++)
+			drivers[i] = new Driver();
+		try
+		{
+			// Open connections
+			long connectStart = System.currentTimeMillis();
+			for (int i = 0; i < CONNECTIONS; i++)
+			{
+				Driver driver = drivers[i%DRIVERS];
+				TcpPacketTransport transport = new TcpPacketTransport("client-"+i,serverURI,settings);
+				transport.setListener(driver);
+				transport.start();
+				clients.add(transport);
+				driver.transports.add(transport);
+			}
+			long connectTime = System.currentTimeMillis() - connectStart;
+			
+			// Wait for the server side to catch up
+			long deadline = System.currentTimeMillis() + 60*1000;
+			while (server.getTransportCount() < CONNECTIONS && System.currentTimeMillis() < deadline)
+				Thread.sleep(10);
+			assertEquals(CONNECTIONS, server.getTransportCount());
+			
+			long heap = getUsedHeap() - baseHeap;
+			long rss = getResidentMemory();
+			int threads = ManagementFactory.getThreadMXBean().getThreadCount() - baseThreads;
+			
+			// Ping-pong on all connections
+			long start = System.currentTimeMillis();
+			for (int i = 0; i < drivers.length; i++)
+				drivers[i].start();
+			for (int i = 0; i < drivers.length; i++)
+				drivers[i].join(120*1000);
+			long totalTime = Math.max(1,System.currentTimeMillis() - start);
+			for (int i = 0; i < drivers.length; i++)
+			{
+				if (drivers[i].failure != null)
+					throw drivers[i].failure;
+				assertEquals(drivers[i].transports.size()*ROUNDS, drivers[i].completed);
+			}
+			
+			int roundTrips = CONNECTIONS*ROUNDS;
+			System.out.println((virtualThreads ? "virtual" : "platform")+" threads, connections="+CONNECTIONS+
+					           " : connect="+connectTime+" ms, "+(roundTrips*1000L/totalTime)+" round-trips/s"+
+					           ", heap="+(heap/(1024*1024))+" MB"+
+					           (baseRss > 0 ? ", rss="+((rss-baseRss)/(1024*1024))+" MB" : "")+
+					           ", platform threads="+threads);
+		}
+		finally
+		{
+			for (int i = 0; i < clients.size(); i++)
+				clients.get(i).close();
+			server.pleaseStop();
+		}
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	private static class EchoServer extends Thread
+	{
+		private ServerSocket serverSocket;
+		private Settings settings;
+		private List<TcpPacketTransport> transports = new ArrayList<>();
+		private volatile boolean stopRequired;
+		
+		/**
+		 * Constructor
+		 */
+		public EchoServer( ServerSocket serverSocket , Settings settings )
+		{
+			super("EchoServer");
+			this.serverSocket = serverSocket;
+			this.settings = settings;
+		}
+		
+		public synchronized int getTransportCount()
+		{
+			return transports.size();
+		}
+		
+		/* (non-Javadoc)
+		 * @see java.lang.Thread#run()
+		 */
+		@Override
+		public void run()
+		{
+			try
+			{
+				int count = 0;
+				while (!stopRequired)
+				{
+					Socket socket = serverSocket.accept();
+					TcpPacketTransport transport = new TcpPacketTransport("server-"+(count++),socket,settings);
+					transport.setListener(new EchoListener(transport));
+					transport.start();
+					synchronized (this)
+					{
+						transports.add(transport);
+					}
+				}
+			}
+			catch (Exception e)
+			{
+				if (!stopRequired)
+					e.printStackTrace();
+			}
+		}
+		
+		public void pleaseStop() throws Exception
+		{
+			stopRequired = true;
+			serverSocket.close();
+			join();
+			for (int i = 0; i < transports.size(); i++)
+				transports.get(i).close();
+		}
+	}
+	
+	private static class EchoListener implements PacketTransportListener
+	{
+		private TcpPacketTransport transport;
+		
+		/**
+		 * Constructor
+		 */
+		public EchoListener( TcpPacketTransport transport )
+		{
+			this.transport = transport;
+		}
+		
+		@Override
+		public boolean packetReceived( AbstractPacket packet )
+		{
+			try
+			{
+				transport.send(packet);
+			}
+			catch (Exception e)
+			{
+				e.printStackTrace();
+			}
+			return true;
+		}
+		
+		@Override
+		public void packetSent( AbstractPacket packet )
+		{
+			// Nothing
+		}
+		
+		@Override
+		public void transportClosed( boolean linkFailed , boolean mayBlock )
+		{
+			// Nothing
+		}
+	}
+	
+	private static class Driver extends Thread implements PacketTransportListener
+	{
+		protected List<TcpPacketTransport> transports = new ArrayList<>();
+		private Semaphore responses = new Semaphore(0);
+		protected volatile int completed;
+		protected volatile Exception failure;
+		
+		/**
+		 * Constructor
+		 */
+		public Driver()
+		{
+			super("Driver");
+		}
+		
+		/* (non-Javadoc)
+		 * @see java.lang.Thread#run()
+		 */
+		@Override
+		public void run()
+		{
+			try
+			{
+				for (int round = 0; round < ROUNDS; round++)
+				{
+					for (int i = 0; i < transports.size(); i++)
+						transports.get(i).send(new PingQuery());
+					if (!responses.tryAcquire(transports.size(), 60, TimeUnit.SECONDS))
+						throw new IllegalStateException("Round-trip timeout");
+					completed += transports.size();
+				}
+			}
+			catch (Exception e)
+			{
+				failure = e;
+			}
+		}
+		
+		@Override
+		public boolean packetReceived( AbstractPacket packet )
+		{
+			responses.release();
+			return true;
+		}
+		
+		@Override
+		public void packetSent( AbstractPacket packet )
+		{
+			// Nothing
+		}
+		
+		@Override
+		public void transportClosed( boolean linkFailed , boolean mayBlock )
+		{
+			// Nothing
+		}
+	}
+}
@@ -0,0 +1,328 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.timewalker.ffmq4.test.transport.tcp.nio;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import net.timewalker.ffmq4.FFMQCoreSettings;
+import net.timewalker.ffmq4.transport.tcp.nio.NIOClientSocketHandler;
+import net.timewalker.ffmq4.transport.tcp.nio.NIOServerSocketHandler;
+import net.timewalker.ffmq4.transport.tcp.nio.NIOTcpMultiplexer;
+import net.timewalker.ffmq4.transport.tcp.nio.NIOTcpReactor;
+import net.timewalker.ffmq4.utils.Settings;
+
+/**
+ * NIOTcpMultiplexerTest
+ * <p>Connection scaling benchmark : a set of idle connections plus a few active
+ * ping-pong clients against an echo server, with a varying number of selector threads.</p>
+ */
+public class NIOTcpMultiplexerTest extends TestCase
+{
+	// Use -Dffmq.test.nio.idleClients=1000,5000,10000 (and a high enough file descriptor limit) for a full size run
+	private static final int[] IDLE_CLIENTS = parseCounts(System.getProperty("ffmq.test.nio.idleClients", "100"));
+	private static final int ACTIVE_CLIENTS = 8;
+	private static final int ROUND_TRIPS = 1000;
+	private static final int PAYLOAD_SIZE = 64;
+	
+	private static int[] parseCounts( String value )
+	{
+		String[] items = value.split(",");
+		int[] counts = new int[items.length];
+		for (int i = 0; i < items.length; i++)
+			counts[i] = Integer.parseInt(items[i].trim());
+		return counts;
+	}
+	
+	public void testConnectionScalingSingleSelector() throws Exception
+	{
+		checkConnectionScaling(1);
+	}
+	
+	public void testConnectionScalingMultipleSelectors() throws Exception
+	{
+		checkConnectionScaling(4);
+	}
+	
+	private void checkConnectionScaling( int selectorThreads ) throws Exception
+	{
+		for (int i = 0; i < IDLE_CLIENTS.length; i++)
+		{
+			int idleClients = IDLE_CLIENTS[i];
+			long maxFds = getMaxFileDescriptors();
+			if (maxFds > 0 && 2L*(idleClients+ACTIVE_CLIENTS)+500 > maxFds)
+			{
+				System.out.println("selectorThreads="+selectorThreads+" idle="+idleClients+" : skipped (file descriptor limit is "+maxFds+")");
+				continue;
+			}
+			runBenchmark(selectorThreads, idleClients);
+		}
+	}
+	
+	private long getMaxFileDescriptors()
+	{
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.UnixOperatingSystemMXBean)
+			return ((com.sun.management.UnixOperatingSystemMXBean)os).getMaxFileDescriptorCount();
+		return -1;
+	}
+	
+	private void runBenchmark( int selectorThreads , int idleClients ) throws Exception
+	{
+		Properties props = new Properties();
+		props.setProperty(FFMQCoreSettings.TRANSPORT_TCP_NIO_SELECTOR_THREADS, String.valueOf(selectorThreads));
+		NIOTcpMultiplexer multiplexer = new NIOTcpMultiplexer(new Settings(props),false);
+		
+		ServerSocketChannel serverChannel = ServerSocketChannel.open();
+		serverChannel.configureBlocking(false);
+		serverChannel.socket().setReuseAddress(true);
+		serverChannel.socket().bind(new InetSocketAddress("127.0.0.1",0),1024);
+		EchoServer server = new EchoServer(serverChannel);
+		multiplexer.registerServerSocketHandler(server);
+		InetSocketAddress address = new InetSocketAddress("127.0.0.1",serverChannel.socket().getLocalPort());
+		
+		List<SocketChannel> idleChannels = new ArrayList<>();
+		try
+		{
+			// Idle connections
+			long connectStart = System.currentTimeMillis();
+			for (int i = 0; i < idleClients; i++)
+				idleChannels.add(SocketChannel.open(address));
+			long connectTime = System.currentTimeMillis() - connectStart;
+			
+			// Active connections
+			List<ActiveClient> activeClients = new ArrayList<>();
+			for (int i = 0; i < ACTIVE_CLIENTS; i++)
+				activeClients.add(new ActiveClient(address));
+			
+			long start = System.currentTimeMillis();
+			for (int i = 0; i < activeClients.size(); i++)
+				activeClients.get(i).start();
+			for (int i = 0; i < activeClients.size(); i++)
+				activeClients.get(i).join(60*1000);
+			long totalTime = Math.max(1,System.currentTimeMillis() - start);
+			
+			for (int i = 0; i < activeClients.size(); i++)
+			{
+				ActiveClient client = activeClients.get(i);
+				if (client.failure != null)
+					throw client.failure;
+				assertEquals(ROUND_TRIPS, client.completed);
+			}
+			
+			// Check connection distribution
+			NIOTcpReactor[] reactors = multiplexer.getReactors();
+			assertEquals(selectorThreads, reactors.length);
+			StringBuilder distribution = new StringBuilder();
+			int totalClients = 0;
+			for (int i = 0; i < reactors.length; i++)
+			{
+				totalClients += reactors[i].getClientCount();
+				if (i > 0)
+					distribution.append('/');
+				distribution.append(reactors[i].getClientCount());
+			}
+			assertTrue(totalClients >= idleClients); // Active clients may already be gone
+			assertEquals(idleClients+ACTIVE_CLIENTS, server.accepted.get());
+			
+			int roundTrips = ACTIVE_CLIENTS*ROUND_TRIPS;
+			System.out.println("selectorThreads="+selectorThreads+" idle="+idleClients+
+					           " : connect="+connectTime+" ms, "+(roundTrips*1000L/totalTime)+" round-trips/s"+
+					           " (avg "+(totalTime*1000L*ACTIVE_CLIENTS/roundTrips)+" us), clients per reactor="+distribution);
+		}
+		finally
+		{
+			for (int i = 0; i < idleChannels.size(); i++)
+				idleChannels.get(i).close();
+			multiplexer.unregisterServerSocketHandler(server);
+			multiplexer.stop();
+		}
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	private static class EchoServer implements NIOServerSocketHandler
+	{
+		private ServerSocketChannel serverChannel;
+		protected AtomicInteger accepted = new AtomicInteger();
+		
+		/**
+		 * Constructor
+		 */
+		public EchoServer( ServerSocketChannel serverChannel )
+		{
+			this.serverChannel = serverChannel;
+		}
+		
+		/* (non-Javadoc)
+		 * @see net.timewalker.ffmq4.transport.tcp.nio.NIOServerSocketHandler#getServerSocketChannel()
+		 */
+		@Override
+		public ServerSocketChannel getServerSocketChannel()
+		{
+			return serverChannel;
+		}
+		
+		/* (non-Javadoc)
+		 * @see net.timewalker.ffmq4.transport.tcp.nio.NIOServerSocketHandler#createClientHandler(net.timewalker.ffmq4.transport.tcp.nio.NIOTcpMultiplexer, java.nio.channels.SocketChannel)
+		 */
+		@Override
+		public NIOClientSocketHandler createClientHandler(NIOTcpMultiplexer serverMultiplexer, SocketChannel socketChannel)
+		{
+			return new EchoHandler("echo-"+accepted.incrementAndGet(),socketChannel);
+		}
+	}
+	
+	private static class EchoHandler implements NIOClientSocketHandler
+	{
+		private String id;
+		private SocketChannel socketChannel;
+		private ByteBuffer inputBuffer = ByteBuffer.allocate(256);
+		private ByteBuffer outputBuffer = ByteBuffer.allocate(256);
+		
+		/**
+		 * Constructor
+		 */
+		public EchoHandler( String id , SocketChannel socketChannel )
+		{
+			this.id = id;
+			this.socketChannel = socketChannel;
+		}
+		
+		@Override
+		public String getId()
+		{
+			return id;
+		}
+		
+		@Override
+		public SocketChannel getSocketChannel()
+		{
+			return socketChannel;
+		}
+		
+		@Override
+		public ByteBuffer getInputBuffer()
+		{
+			return inputBuffer;
+		}
+		
+		@Override
+		public ByteBuffer getOutputBuffer()
+		{
+			return outputBuffer;
+		}
+		
+		@Override
+		public boolean handleIncomingData()
+		{
+			while (inputBuffer.hasRemaining() && outputBuffer.hasRemaining())
+				outputBuffer.put(inputBuffer.get());
+			return true;
+		}
+		
+		@Override
+		public boolean appendOutgoingData()
+		{
+			return true;
+		}
+		
+		@Override
+		public boolean hasWriteInterest()
+		{
+			return false;
+		}
+		
+		@Override
+		public boolean hasReadInterest()
+		{
+			return true;
+		}
+		
+		@Override
+		public void onSocketChannelClosed()
+		{
+			// Nothing
+		}
+	}
+	
+	private static class ActiveClient extends Thread
+	{
+		private InetSocketAddress address;
+		protected volatile int completed;
+		protected volatile Exception failure;
+		
+		/**
+		 * Constructor
+		 */
+		public ActiveClient( InetSocketAddress address )
+		{
+			super("ActiveClient");
+			this.address = address;
+		}
+		
+		/* (non-Javadoc)
+		 * @see java.lang.Thread#run()
+		 */
+		@Override
+		public void run()
+		{
+			try
+			{
+				Socket socket = new Socket(address.getAddress(),address.getPort());
+				socket.setTcpNoDelay(true);
+				OutputStream out = socket.getOutputStream();
+				InputStream in = socket.getInputStream();
+				byte[] payload = new byte[PAYLOAD_SIZE];
+				byte[] response = new byte[PAYLOAD_SIZE];
+				for (int i = 0; i < ROUND_TRIPS; i++)
+				{
+					out.write(payload);
+					out.flush();
+					int received = 0;
+					while (received < PAYLOAD_SIZE)
+					{
+						int len = in.read(response, received, PAYLOAD_SIZE-received);
+						if (len < 0)
+							throw new IllegalStateException("Connection closed by server");
+						received += len;
+					}
+					completed++;
+				}
+				socket.close();
+			}
+			catch (Exception e)
+			{
+				failure = e;
+			}
+		}
+	}
+}
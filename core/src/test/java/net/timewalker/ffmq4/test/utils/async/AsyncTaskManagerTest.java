@@ -0,0 +1,177 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.timewalker.ffmq4.test.utils.async;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import net.timewalker.ffmq4.utils.async.AbstractMergeableAsyncTask;
+import net.timewalker.ffmq4.utils.async.AsyncTask;
+import net.timewalker.ffmq4.utils.async.AsyncTaskExecutorType;
+import net.timewalker.ffmq4.utils.async.AsyncTaskManager;
+
+/**
+ * AsyncTaskManagerTest
+ */
+public class AsyncTaskManagerTest extends TestCase
+{
+	private static final int TASK_COUNT = 200000;
+	
+	public void testThreadPoolExecution() throws Exception
+	{
+		checkExecution(AsyncTaskExecutorType.THREAD_POOL);
+	}
+	
+	public void testForkJoinExecution() throws Exception
+	{
+		checkExecution(AsyncTaskExecutorType.FORK_JOIN);
+	}
+	
+	public void testVirtualThreadsExecution() throws Exception
+	{
+		checkExecution(AsyncTaskExecutorType.VIRTUAL_THREADS);
+	}
+	
+	public void testThreadPoolMerge() throws Exception
+	{
+		checkMerge(AsyncTaskExecutorType.THREAD_POOL);
+	}
+	
+	public void testForkJoinMerge() throws Exception
+	{
+		checkMerge(AsyncTaskExecutorType.FORK_JOIN);
+	}
+	
+	private void checkExecution( int executorType ) throws Exception
+	{
+		AsyncTaskManager manager = new AsyncTaskManager("test",executorType,1,2,4);
+		try
+		{
+			final CountDownLatch done = new CountDownLatch(TASK_COUNT);
+			AsyncTask task = new AsyncTask() {
+				@Override
+				public void execute()
+				{
+					done.countDown();
+				}
+				
+				@Override
+				public boolean isMergeable()
+				{
+					return false;
+				}
+			};
+			
+			long start = System.currentTimeMillis();
+			for (int i = 0; i < TASK_COUNT; i++)
+				manager.execute(task);
+			assertTrue(done.await(30, TimeUnit.SECONDS));
+			long end = System.currentTimeMillis();
+			
+			assertEquals(TASK_COUNT, manager.getExecutedTaskCount());
+			assertEquals(0, manager.getTaskQueueSize());
+			System.out.println(manager.getExecutorType()+" : "+TASK_COUNT+" tasks in "+(end-start)+" ms"+
+					           " (avg latency="+manager.getAverageTaskLatency()+" us, max latency="+manager.getMaxTaskLatency()+" us)");
+		}
+		finally
+		{
+			manager.close();
+		}
+	}
+	
+	private void checkMerge( int executorType ) throws Exception
+	{
+		AsyncTaskManager manager = new AsyncTaskManager("test",executorType,1,1,1);
+		try
+		{
+			final CountDownLatch blocked = new CountDownLatch(1);
+			final CountDownLatch release = new CountDownLatch(1);
+			manager.execute(new AsyncTask() {
+				@Override
+				public void execute()
+				{
+					blocked.countDown();
+					try
+					{
+						release.await();
+					}
+					catch (InterruptedException e)
+					{
+						Thread.currentThread().interrupt();
+					}
+				}
+				
+				@Override
+				public boolean isMergeable()
+				{
+					return false;
+				}
+			});
+			assertTrue(blocked.await(5, TimeUnit.SECONDS));
+			
+			// The only worker is busy, so all occurences should be merged
+			final AtomicInteger executions = new AtomicInteger();
+			final CountDownLatch done = new CountDownLatch(1);
+			AbstractMergeableAsyncTask mergeableTask = new AbstractMergeableAsyncTask() {
+				@Override
+				public void execute()
+				{
+					executions.incrementAndGet();
+					done.countDown();
+				}
+			};
+			for (int i = 0; i < 100; i++)
+				manager.execute(mergeableTask);
+			assertEquals(1, manager.getTaskQueueSize());
+			
+			release.countDown();
+			assertTrue(done.await(5, TimeUnit.SECONDS));
+			
+			// Once dequeued, the task may be queued again
+			final CountDownLatch doneAgain = new CountDownLatch(1);
+			manager.execute(new AsyncTask() {
+				@Override
+				public void execute()
+				{
+					doneAgain.countDown();
+				}
+				
+				@Override
+				public boolean isMergeable()
+				{
+					return false;
+				}
+			});
+			assertTrue(doneAgain.await(5, TimeUnit.SECONDS));
+			assertEquals(1, executions.get());
+			
+			manager.execute(mergeableTask);
+			long timeout = System.currentTimeMillis()+5000;
+			while (executions.get() < 2 && System.currentTimeMillis() < timeout)
+				Thread.sleep(10);
+			assertEquals(2, executions.get());
+		}
+		finally
+		{
+			manager.close();
+		}
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * This file is part of FFMQ.
+ *
+ * FFMQ is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * FFMQ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FFMQ; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.timewalker.ffmq4.test.utils.timer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import net.timewalker.ffmq4.utils.timer.TimerEntry;
+import net.timewalker.ffmq4.utils.timer.TimerHandler;
+import net.timewalker.ffmq4.utils.timer.TimingWheel;
+
+/**
+ * TimingWheelTest
+ */
+public class TimingWheelTest extends TestCase
+{
+	// Allowed clock skew when checking that entries do not expire early
+	private static final long DEADLINE_TOLERANCE = 5;
+	
+	private TimingWheel timingWheel;
+	
+	/* (non-Javadoc)
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		
+		// Use a very short tick so that coarse wheels are cascaded during the test
+		timingWheel = new TimingWheel("test", 1);
+		timingWheel.start();
+	}
+	
+	/* (non-Javadoc)
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	@Override
+	protected void tearDown() throws Exception
+	{
+		timingWheel.pleaseStop();
+		super.tearDown();
+	}
+	
+	public void testDeadlines() throws Exception
+	{
+		Random rand = new Random();
+		TestHandler handler = new TestHandler(900);
+		
+		// Entries cancelled or rescheduled below are given a deadline far enough to not expire before that
+		long now = System.currentTimeMillis();
+		List<TestEntry> entries = new ArrayList<>();
+		for (int n = 0; n < 1000; n++)
+		{
+			TestEntry entry = new TestEntry(handler);
+			timingWheel.schedule(entry, n < 200 ? now+500+rand.nextInt(4500) : now+rand.nextInt(5000));
+			entries.add(entry);
+		}
+		
+		// Cancel some entries, reschedule others
+		for (int n = 0; n < 100; n++)
+			assertTrue(timingWheel.cancel(entries.get(n)));
+		for (int n = 100; n < 200; n++)
+			timingWheel.schedule(entries.get(n), now+rand.nextInt(5000));
+		for (int n = 0; n < 100; n++)
+			assertFalse(timingWheel.cancel(entries.get(n)));
+		
+		assertTrue(handler.await(10000));
+		assertEquals(0, timingWheel.getSize());
+		for (int n = 0; n < entries.size(); n++)
+		{
+			TestEntry entry = entries.get(n);
+			if (n < 100)
+				assertEquals(0, entry.expiredAt);
+			else
+			{
+				assertTrue("Expired too early : "+(entry.getDeadline()-entry.expiredAt), entry.expiredAt >= entry.getDeadline()-DEADLINE_TOLERANCE);
+				assertTrue("Expired too late : "+(entry.expiredAt-entry.getDeadline()), entry.expiredAt < entry.getDeadline()+1000);
+			}
+		}
+	}
+	
+	public void testBatches() throws Exception
+	{
+		TestHandler handler1 = new TestHandler(10);
+		TestHandler handler2 = new TestHandler(10);
+		
+		long deadline = System.currentTimeMillis()+50;
+		for (int n = 0; n < 10; n++)
+		{
+			timingWheel.schedule(new TestEntry(handler1), deadline);
+			timingWheel.schedule(new TestEntry(handler2), deadline);
+		}
+		
+		assertTrue(handler1.await(2000));
+		assertTrue(handler2.await(2000));
+		assertEquals(1, handler1.batches);
+		assertEquals(1, handler2.batches);
+	}
+	
+	public void testLongDeadline() throws Exception
+	{
+		// Beyond the wheels range, must not fire early
+		TestHandler handler = new TestHandler(1);
+		TestEntry entry = new TestEntry(handler);
+		timingWheel.schedule(entry, System.currentTimeMillis()+100L*24*3600*1000);
+		assertFalse(handler.await(200));
+		assertTrue(timingWheel.cancel(entry));
+	}
+	
+	public void testSchedulingBenchmark() throws Exception
+	{
+		int count = 200000;
+		TestHandler handler = new TestHandler(count);
+		TestEntry[] entries = new TestEntry[count];
+		for (int n = 0; n < count; n++)
+			entries[n] = new TestEntry(handler);
+		
+		for (int pass = 0; pass < 2; pass++)
+		{
+			long now = System.currentTimeMillis();
+			long start = System.nanoTime();
+			for (int n = 0; n < count; n++)
+				timingWheel.schedule(entries[n], now+60000+n);
+			for (int n = 0; n < count; n++)
+				timingWheel.cancel(entries[n]);
+			long wheelTime = System.nanoTime()-start;
+			
+			Timer timer = new Timer(true);
+			start = System.nanoTime();
+			TimerTask[] tasks = new TimerTask[count];
+			for (int n = 0; n < count; n++)
+			{
+				tasks[n] = new TimerTask() {
+					@Override
+					public void run()
+					{
+						// Nothing
+					}
+				};
+				timer.schedule(tasks[n], 60000+n);
+			}
+			for (int n = 0; n < count; n++)
+				tasks[n].cancel();
+			timer.purge();
+			long timerTime = System.nanoTime()-start;
+			timer.cancel();
+			
+			if (pass > 0)
+				System.out.println("Schedule/cancel "+count+" entries : java.util.Timer="+(timerTime/1000000)+"ms timing wheel="+(wheelTime/1000000)+"ms");
+		}
+	}
+	
+	//-------------------------------------------------------------------------------
+	
+	private static class TestEntry extends TimerEntry
+	{
+		private TestHandler handler;
+		protected volatile long expiredAt;
+		
+		public TestEntry( TestHandler handler )
+		{
+			this.handler = handler;
+		}
+		
+		/* (non-Javadoc)
+		 * @see net.timewalker.ffmq4.utils.timer.TimerEntry#getHandler()
+		 */
+		@Override
+		public TimerHandler getHandler()
+		{
+			return handler;
+		}
+	}
+	
+	private static class TestHandler implements TimerHandler
+	{
+		private CountDownLatch latch;
+		protected volatile int batches;
+		
+		public TestHandler( int expected )
+		{
+			this.latch = new CountDownLatch(expected);
+		}
+		
+		public boolean await( long timeout ) throws InterruptedException
+		{
+			return latch.await(timeout, TimeUnit.MILLISECONDS);
+		}
+		
+		/* (non-Javadoc)
+		 * @see net.timewalker.ffmq4.utils.timer.TimerHandler#timersExpired(java.util.List)
+		 */
+		@Override
+		public void timersExpired( List<TimerEntry> entries )
+		{
+			long now = System.currentTimeMillis();
+			batches++;
+			for (int n = 0; n < entries.size(); n++)
+			{
+				((TestEntry)entries.get(n)).expiredAt = now;
+				latch.countDown();
+			}
+		}
+	}
+}
@@ -33,6 +33,14 @@ public final class FFMQServerSettings
     public static final String LISTENER_TCP_USE_NIO                = "listener.tcp.useNIO";
     public static final String LISTENER_TCP_CAPACITY               = "listener.tcp.capacity";
     
+    // NIO TCP listener request dispatching
+    public static final String LISTENER_TCP_NIO_DISPATCH_ENABLED              = "listener.tcp.nio.dispatch.enabled";
+    public static final String LISTENER_TCP_NIO_DISPATCH_QUEUE_MAX_SIZE       = "listener.tcp.nio.dispatch.queueMaxSize";
+    public static final String LISTENER_TCP_NIO_DISPATCH_EXECUTOR             = "listener.tcp.nio.dispatch.executor";
+    public static final String LISTENER_TCP_NIO_DISPATCH_THREAD_POOL_MINSIZE  = "listener.tcp.nio.dispatch.threadPool.minSize";
+    public static final String LISTENER_TCP_NIO_DISPATCH_THREAD_POOL_MAXIDLE  = "listener.tcp.nio.dispatch.threadPool.maxIdle";
+    public static final String LISTENER_TCP_NIO_DISPATCH_THREAD_POOL_MAXSIZE  = "listener.tcp.nio.dispatch.threadPool.maxSize";
+    
     // Remote administration
     public static final String REMOTE_ADMIN_ENABLED                = "management.remoteAdmin.enabled";
     
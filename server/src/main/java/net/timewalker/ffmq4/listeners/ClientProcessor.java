@@ -18,9 +18,7 @@
 package net.timewalker.ffmq4.listeners;
 
 
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
 
 import javax.jms.JMSException;
 import javax.jms.Message;
@@ -33,6 +31,7 @@ import net.timewalker.ffmq4.FFMQConstants;
 import net.timewalker.ffmq4.FFMQException;
 import net.timewalker.ffmq4.FFMQServerSettings;
 import net.timewalker.ffmq4.common.message.AbstractMessage;
+import net.timewalker.ffmq4.common.session.DeliveryTagRanges;
 import net.timewalker.ffmq4.listeners.utils.RemoteNotificationProxy;
 import net.timewalker.ffmq4.local.FFMQEngine;
 import net.timewalker.ffmq4.local.connection.LocalConnection;
@@ -68,7 +67,8 @@ import net.timewalker.ffmq4.transport.packet.query.DeleteTemporaryQueueQuery;
 import net.timewalker.ffmq4.transport.packet.query.DeleteTemporaryTopicQuery;
 import net.timewalker.ffmq4.transport.packet.query.GetQuery;
 import net.timewalker.ffmq4.transport.packet.query.OpenConnectionQuery;
-import net.timewalker.ffmq4.transport.packet.query.PrefetchQuery;
+import net.timewalker.ffmq4.transport.packet.query.PrefetchCreditQuery;
+import net.timewalker.ffmq4.transport.packet.query.PutBatchQuery;
 import net.timewalker.ffmq4.transport.packet.query.PutQuery;
 import net.timewalker.ffmq4.transport.packet.query.QueueBrowserFetchElementQuery;
 import net.timewalker.ffmq4.transport.packet.query.QueueBrowserGetEnumerationQuery;
@@ -94,7 +94,8 @@ import net.timewalker.ffmq4.transport.packet.response.ErrorResponse;
 import net.timewalker.ffmq4.transport.packet.response.GetResponse;
 import net.timewalker.ffmq4.transport.packet.response.OpenConnectionResponse;
 import net.timewalker.ffmq4.transport.packet.response.PingResponse;
-import net.timewalker.ffmq4.transport.packet.response.PrefetchResponse;
+import net.timewalker.ffmq4.transport.packet.response.PrefetchCreditResponse;
+import net.timewalker.ffmq4.transport.packet.response.PutBatchResponse;
 import net.timewalker.ffmq4.transport.packet.response.PutResponse;
 import net.timewalker.ffmq4.transport.packet.response.QueueBrowserFetchElementResponse;
 import net.timewalker.ffmq4.transport.packet.response.QueueBrowserGetEnumerationResponse;
@@ -366,6 +367,7 @@ public final class ClientProcessor implements PacketTransportListener, ActiveObj
     	{
     		case PacketType.Q_GET :                 return processGet((GetQuery)query);
     		case PacketType.Q_PUT :                 return processPut((PutQuery)query);
+    		case PacketType.Q_PUT_BATCH :           return processPutBatch((PutBatchQuery)query);
     		case PacketType.Q_COMMIT :              return processCommit((CommitQuery)query);
     		case PacketType.Q_ACKNOWLEDGE :         return processAcknowledge((AcknowledgeQuery)query);
     		case PacketType.Q_ROLLBACK :            return processRollback((RollbackQuery)query);
@@ -389,7 +391,7 @@ public final class ClientProcessor implements PacketTransportListener, ActiveObj
     		case PacketType.Q_STOP_CONNECTION :     return processStopConnection();
     		case PacketType.Q_SET_CLIENT_ID :       return processSetClientID((SetClientIDQuery)query);
     		case PacketType.Q_UNSUBSCRIBE :         return processUnsubscribe((UnsubscribeQuery)query);
-    		case PacketType.Q_PREFETCH :            return processPrefetch((PrefetchQuery)query);
+    		case PacketType.Q_PREFETCH_CREDIT :     return processPrefetchCredit((PrefetchCreditQuery)query);
     		case PacketType.Q_PING :                return processPing();
     		case PacketType.Q_ROLLBACK_MESSAGE :    return processRollbackMessage((RollbackMessageQuery)query);
     		
@@ -476,9 +478,9 @@ public final class ClientProcessor implements PacketTransportListener, ActiveObj
         LocalSession localSession = lookupSession(query);
                 
         // Commit session
-        List<String> deliveredMessageIDs = query.getDeliveredMessageIDs();
-        localSession.commit(deliveredMessageIDs != null && !deliveredMessageIDs.isEmpty(),
-        		            deliveredMessageIDs);
+        DeliveryTagRanges deliveryTags = query.getDeliveryTags();
+        localSession.commit(deliveryTags != null && !deliveryTags.isEmpty(),
+        		            deliveryTags);
         
         return new CommitResponse();
     }
@@ -486,8 +488,8 @@ public final class ClientProcessor implements PacketTransportListener, ActiveObj
     private RollbackResponse processRollback( RollbackQuery query ) throws JMSException
     {
     	LocalSession localSession = lookupSession(query);
-    	List<String> deliveredMessageIDs = query.getDeliveredMessageIDs();
-        localSession.rollback(deliveredMessageIDs != null && !deliveredMessageIDs.isEmpty(), deliveredMessageIDs);
+    	DeliveryTagRanges deliveryTags = query.getDeliveryTags();
+        localSession.rollback(deliveryTags != null && !deliveryTags.isEmpty(), deliveryTags);
         
         return new RollbackResponse();
     }
@@ -502,12 +504,12 @@ public final class ClientProcessor implements PacketTransportListener, ActiveObj
         return response;
     }
     
-    private AbstractResponsePacket processPrefetch( PrefetchQuery query ) throws JMSException
+    private AbstractResponsePacket processPrefetchCredit( PrefetchCreditQuery query ) throws JMSException
     {
         LocalMessageConsumer consumer = lookupConsumer(query);
-        consumer.prefetchMore();
+        consumer.restorePrefetchCapacity(query.getCredits());
 
-        return new PrefetchResponse();
+        return new PrefetchCreditResponse();
     }
     
     private PutResponse processPut( PutQuery query ) throws JMSException
@@ -521,10 +523,20 @@ public final class ClientProcessor implements PacketTransportListener, ActiveObj
         return new PutResponse();
     }
     
+    private PutBatchResponse processPutBatch( PutBatchQuery query ) throws JMSException
+    {
+        LocalSession session = lookupSession(query);
+        
+        // Dispatch to session
+        session.dispatch(query.getMessages());
+     
+        return new PutBatchResponse();
+    }
+    
     private AcknowledgeResponse processAcknowledge( AcknowledgeQuery query ) throws JMSException
     {
         LocalSession session = lookupSession(query);
-        session.acknowledge(query.getDeliveredMessageIDs());
+        session.acknowledge(query.getDeliveryTags());
         
         return new AcknowledgeResponse();
     }
@@ -532,7 +544,7 @@ public final class ClientProcessor implements PacketTransportListener, ActiveObj
     private RecoverResponse processRecover( RecoverQuery query ) throws JMSException
     {
         LocalSession session = lookupSession(query);
-        session.recover(query.getDeliveredMessageIDs());
+        session.recover(query.getDeliveryTags());
         
         return new RecoverResponse();
     }
@@ -578,9 +590,9 @@ public final class ClientProcessor implements PacketTransportListener, ActiveObj
         consumer.close();
         
         // Rollback undelivered prefetched messages
-        List<String> undeliveredMessageIDs = query.getUndeliveredMessageIDs();
-        if (undeliveredMessageIDs != null && !undeliveredMessageIDs.isEmpty())
-        	((LocalSession)consumer.getSession()).rollbackUndelivered(undeliveredMessageIDs);
+        DeliveryTagRanges undeliveredTags = query.getUndeliveredTags();
+        if (undeliveredTags != null && !undeliveredTags.isEmpty())
+        	((LocalSession)consumer.getSession()).rollbackUndelivered(undeliveredTags);
 
         return new CloseConsumerResponse();
     }
@@ -593,9 +605,9 @@ public final class ClientProcessor implements PacketTransportListener, ActiveObj
         if (localSession != null)
         {
             // Rollback undelivered prefetched messages
-            List<String> undeliveredMessageIDs = new ArrayList<>();
-            undeliveredMessageIDs.add(query.getMessageId());
-            localSession.rollbackUndelivered(undeliveredMessageIDs);
+            DeliveryTagRanges undeliveredTags = new DeliveryTagRanges();
+            undeliveredTags.add(query.getDeliveryTag());
+            localSession.rollbackUndelivered(undeliveredTags);
             
             LocalMessageConsumer consumer = (LocalMessageConsumer)localSession.lookupRegisteredConsumer(query.getConsumerId());
             if (consumer != null)
@@ -44,6 +44,7 @@ import net.timewalker.ffmq4.transport.PacketTransportException;
 import net.timewalker.ffmq4.transport.PacketTransportType;
 import net.timewalker.ffmq4.transport.tcp.io.TcpPacketTransport;
 import net.timewalker.ffmq4.utils.Settings;
+import net.timewalker.ffmq4.utils.concurrent.VirtualThreads;
 import net.timewalker.ffmq4.utils.id.UUIDProvider;
 
 import org.apache.commons.logging.Log;
@@ -61,6 +62,7 @@ public final class TcpListener extends AbstractTcpClientListener implements Runn
     private Thread listenerThread;
     private boolean stopRequired = false;
     private boolean usingSSL;
+    private boolean useVirtualThreads;
     
     /**
      * Constructor
@@ -84,6 +86,12 @@ public final class TcpListener extends AbstractTcpClientListener implements Runn
     {
         super(engine,settings,jmxAgent,listenAddr,port);
         this.usingSSL = settings.getBooleanProperty(FFMQCoreSettings.TRANSPORT_TCP_SSL_ENABLED, false);
+        this.useVirtualThreads = settings.getBooleanProperty(FFMQCoreSettings.TRANSPORT_TCP_VIRTUAL_THREADS, false);
+        if (useVirtualThreads && !VirtualThreads.isSupported())
+        {
+        	log.warn("Virtual threads are not supported by this JVM, TCP transport will use platform threads ["+getName()+"]");
+        	useVirtualThreads = false;
+        }
     }
     
     /* (non-Javadoc)
@@ -100,7 +108,7 @@ public final class TcpListener extends AbstractTcpClientListener implements Runn
     	stopRequired = false;
     	
     	initServerSocket();
-    	listenerThread = new Thread(this,"FFMQ-TCP-Server-"+serverSocket.getLocalPort());
+    	listenerThread = VirtualThreads.newThread(this,"FFMQ-TCP-Server-"+serverSocket.getLocalPort(),useVirtualThreads);
     	listenerThread.start();
     	
     	started = true;
@@ -23,6 +23,7 @@ import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 
 import javax.jms.JMSException;
+import javax.management.ObjectName;
 
 import net.timewalker.ffmq4.FFMQException;
 import net.timewalker.ffmq4.FFMQServerSettings;
@@ -36,7 +37,10 @@ import net.timewalker.ffmq4.transport.tcp.nio.NIOClientSocketHandler;
 import net.timewalker.ffmq4.transport.tcp.nio.NIOServerSocketHandler;
 import net.timewalker.ffmq4.transport.tcp.nio.NIOTcpMultiplexer;
 import net.timewalker.ffmq4.transport.tcp.nio.NIOTcpPacketTransport;
+import net.timewalker.ffmq4.transport.tcp.nio.NIOTcpReactor;
 import net.timewalker.ffmq4.utils.Settings;
+import net.timewalker.ffmq4.utils.async.AsyncTaskExecutorType;
+import net.timewalker.ffmq4.utils.async.AsyncTaskManager;
 import net.timewalker.ffmq4.utils.id.UUIDProvider;
 
 import org.apache.commons.logging.Log;
@@ -52,6 +56,8 @@ public final class NIOTcpListener extends AbstractTcpClientListener implements N
 	// Runtime
 	private ServerSocketChannel serverSocketChannel;
 	private NIOTcpMultiplexer multiplexer;
+	private AsyncTaskManager dispatchManager;
+	private int dispatchQueueMaxSize;
 	
 	/**
 	 * Constructor
@@ -105,6 +111,63 @@ public final class NIOTcpListener extends AbstractTcpClientListener implements N
         }
 	}
 		
+	private void initDispatchManager() throws JMSException
+	{
+		if (!settings.getBooleanProperty(FFMQServerSettings.LISTENER_TCP_NIO_DISPATCH_ENABLED, true))
+			return;
+		
+		int executorType = settings.getIntProperty(FFMQServerSettings.LISTENER_TCP_NIO_DISPATCH_EXECUTOR, AsyncTaskExecutorType.THREAD_POOL);
+		if (!AsyncTaskExecutorType.isValid(executorType))
+			throw new FFMQException("Invalid dispatch executor : "+executorType,"INVALID_SETTING");
+		
+		dispatchQueueMaxSize = settings.getIntProperty(FFMQServerSettings.LISTENER_TCP_NIO_DISPATCH_QUEUE_MAX_SIZE, 100);
+		dispatchManager = new AsyncTaskManager("AsyncTaskManager-dispatch-"+getName(),
+											   executorType,
+											   settings.getIntProperty(FFMQServerSettings.LISTENER_TCP_NIO_DISPATCH_THREAD_POOL_MINSIZE, 5),
+											   settings.getIntProperty(FFMQServerSettings.LISTENER_TCP_NIO_DISPATCH_THREAD_POOL_MAXIDLE, 10),
+											   settings.getIntProperty(FFMQServerSettings.LISTENER_TCP_NIO_DISPATCH_THREAD_POOL_MAXSIZE, 50));
+		
+		if (jmxAgent != null)
+		{
+			try
+			{
+				jmxAgent.register(createDispatchManagerName(), dispatchManager);
+			}
+			catch (Exception e)
+			{
+				log.error("Could not register dispatch manager in JMX agent",e);
+			}
+		}
+	}
+	
+	private ObjectName createDispatchManagerName() throws Exception
+	{
+		return new ObjectName(JMXAgent.JMX_DOMAIN+":type=Listeners,listener="+getName()+",children=async-managers,name=dispatch");
+	}
+	
+	private void registerReactors( boolean register )
+	{
+		if (jmxAgent == null)
+			return;
+		
+		NIOTcpReactor[] reactors = multiplexer.getReactors();
+		for (int i = 0; i < reactors.length; i++)
+		{
+			try
+			{
+				ObjectName reactorName = new ObjectName(JMXAgent.JMX_DOMAIN+":type=Listeners,listener="+getName()+",children=reactors,name=reactor-"+(i+1));
+				if (register)
+					jmxAgent.register(reactorName, reactors[i]);
+				else
+					jmxAgent.unregister(reactorName);
+			}
+			catch (Exception e)
+			{
+				log.error("Could not "+(register ? "register" : "unregister")+" reactor in JMX agent",e);
+			}
+		}
+	}
+	
 	/*
 	 * (non-Javadoc)
 	 * @see net.timewalker.ffmq4.listeners.AbstractListener#start()
@@ -118,9 +181,11 @@ public final class NIOTcpListener extends AbstractTcpClientListener implements N
 		log.info(" Starting listener ["+getName()+"]");
 		
 		initServerSocket();
+		initDispatchManager();
 		
 		multiplexer = new NIOTcpMultiplexer(settings,false);
 		multiplexer.registerServerSocketHandler(this);
+		registerReactors(true);
 		
 		started = true;
 	}
@@ -138,6 +203,7 @@ public final class NIOTcpListener extends AbstractTcpClientListener implements N
 		log.info("Stopping listener ["+getName()+"]");
 		
 		// Close the listen socket
+		registerReactors(false);
 		multiplexer.unregisterServerSocketHandler(this);
 		multiplexer.stop();
 		multiplexer = null;
@@ -145,6 +211,24 @@ public final class NIOTcpListener extends AbstractTcpClientListener implements N
 		// Close remaining clients
 		closeRemainingClients();
 		
+		// Stop request dispatching
+		if (dispatchManager != null)
+		{
+			if (jmxAgent != null)
+			{
+				try
+				{
+					jmxAgent.unregister(createDispatchManagerName());
+				}
+				catch (Exception e)
+				{
+					log.error("Could not unregister dispatch manager from JMX agent",e);
+				}
+			}
+			dispatchManager.close();
+			dispatchManager = null;
+		}
+		
 		started = false;
 	}
 
@@ -157,7 +241,7 @@ public final class NIOTcpListener extends AbstractTcpClientListener implements N
 		try
 		{
 		    String clientId = UUIDProvider.getInstance().getShortUUID();
-			NIOTcpPacketTransport transport = new NIOTcpPacketTransport(clientId,multiplexer,socketChannel,settings);
+			NIOTcpPacketTransport transport = new NIOTcpPacketTransport(clientId,multiplexer,socketChannel,settings,dispatchManager,dispatchQueueMaxSize);
 			ClientProcessor clientProcessor = new ClientProcessor(clientId,this,localEngine,transport);
 			registerClient(clientProcessor);
 			clientProcessor.start();
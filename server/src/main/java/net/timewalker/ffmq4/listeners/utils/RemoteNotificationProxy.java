@@ -53,28 +53,26 @@ public final class RemoteNotificationProxy implements NotificationProxy
     }
     
     /* (non-Javadoc)
-     * @see net.timewalker.ffmq4.local.destination.notification.NotificationProxy#sendNotification(net.timewalker.ffmq4.utils.id.IntegerID, net.timewalker.ffmq4.common.message.AbstractMessage)
+     * @see net.timewalker.ffmq4.local.destination.notification.NotificationProxy#addNotification(net.timewalker.ffmq4.utils.id.IntegerID, net.timewalker.ffmq4.common.message.AbstractMessage, long)
      */
     @Override
-	public synchronized void addNotification(IntegerID consumerId, AbstractMessage prefetchedMessage)
+	public synchronized void addNotification(IntegerID consumerId, AbstractMessage prefetchedMessage, long deliveryTag)
     {
-		NotificationPacket notifPacket = new NotificationPacket();
-    	notifPacket.setSessionId(sessionId);
-        notifPacket.setConsumerId(consumerId);
-        notifPacket.setMessage(prefetchedMessage);
-        
-        // Last packet for this consumer should be flagged as 'done'
-        notifPacket.setDonePrefetching(true);
-        // Clear 'donePrefetching' of previous packet of same consumer
+		// Messages pushed to the same consumer are batched in a single packet
     	for(int i=notificationBuffer.size()-1;i>=0;i--)
     	{
     		NotificationPacket previousNotifPacket = notificationBuffer.get(i);
     		if (previousNotifPacket.getConsumerId().equals(consumerId))
     		{
-    			previousNotifPacket.setDonePrefetching(false);
-    			break; // Older packets were already cleared
+    			previousNotifPacket.addMessage(prefetchedMessage,deliveryTag);
+    			return;
     		}
     	}
+		
+		NotificationPacket notifPacket = new NotificationPacket();
+    	notifPacket.setSessionId(sessionId);
+        notifPacket.setConsumerId(consumerId);
+        notifPacket.addMessage(prefetchedMessage,deliveryTag);
         
         notificationBuffer.add(notifPacket);
     }
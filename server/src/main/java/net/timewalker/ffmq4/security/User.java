@@ -30,11 +30,12 @@ import net.timewalker.ffmq4.utils.StringTools;
 /**
  * UserImpl
  */
-public class User implements SecurityContext, Checkable
+public class User implements VersionedSecurityContext, Checkable
 {
     private String name;
     private String password;
-    private List<Privilege> privileges = new ArrayList<>();
+    private volatile List<Privilege> privileges = new ArrayList<>();
+    private volatile int privilegesVersion;
     
     /**
      * Constructor
@@ -83,6 +84,35 @@ public class User implements SecurityContext, Checkable
 	public void addPrivilege( Privilege privilege )
 	{
 		privileges.add(privilege);
+		privilegesVersion++;
+	}
+	
+	/**
+	 * @return the privileges of this context
+	 */
+	public List<Privilege> getPrivileges()
+	{
+		return privileges;
+	}
+	
+	/**
+	 * Replace all privileges of this context at once
+	 * @param privileges the new privileges
+	 */
+	public void setPrivileges( List<Privilege> privileges )
+	{
+		this.privileges = new ArrayList<>(privileges);
+		privilegesVersion++;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see net.timewalker.ffmq4.security.VersionedSecurityContext#getPrivilegesVersion()
+	 */
+	@Override
+	public int getPrivilegesVersion()
+	{
+		return privilegesVersion;
 	}
 	
 	/*
@@ -92,9 +122,10 @@ public class User implements SecurityContext, Checkable
 	@Override
 	public void checkPermission(String resourceName, String action) throws JMSException 
 	{
-		for (int i = 0; i < privileges.size(); i++)
+		List<Privilege> currentPrivileges = privileges;
+		for (int i = 0; i < currentPrivileges.size(); i++)
 		{
-			Privilege privilege = privileges.get(i);
+			Privilege privilege = currentPrivileges.get(i);
 			if (privilege.matches(resourceName, action))
 				return;
 		}
@@ -18,9 +18,14 @@
 package net.timewalker.ffmq4.security;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
 
 import javax.jms.JMSException;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
 import net.timewalker.ffmq4.FFMQException;
 import net.timewalker.ffmq4.FFMQSecurityException;
 import net.timewalker.ffmq4.FFMQServerSettings;
@@ -28,12 +33,19 @@ import net.timewalker.ffmq4.utils.Settings;
 import net.timewalker.ffmq4.utils.xml.XMLDescriptorReader;
 
 /**
- * XMLSecurityConnector
+ * <p>Security connector backed by an XML descriptor file.</p>
+ * <p>The descriptor is reloaded when the file is modified. Users already handed out
+ * to connections are updated in place, so that open connections immediately see
+ * the new privileges.</p>
  */
 public final class XMLSecurityConnector implements SecurityConnector
 {
+	private static final Log log = LogFactory.getLog(XMLSecurityConnector.class);
+	
     public static final String DEFAULT_SECURITY_FILE = "../conf/security.xml";
     
+    private File securityDescriptorFile;
+    private long lastModified;
     private XMLSecurityDescriptor descriptor;
     
     /**
@@ -42,12 +54,74 @@ public final class XMLSecurityConnector implements SecurityConnector
     public XMLSecurityConnector( Settings settings ) throws JMSException
     {
         String securityDescriptorFilePath = settings.getStringProperty(FFMQServerSettings.SECURITY_CONNECTOR_XML_SECURITY, DEFAULT_SECURITY_FILE);
-        File securityDescriptorFile = new File(securityDescriptorFilePath);
+        this.securityDescriptorFile = new File(securityDescriptorFilePath);
         if (!securityDescriptorFile.canRead())
             throw new FFMQException("Cannot access security descriptor file : "+securityDescriptorFile.getAbsolutePath(),"FS_ERROR");
         
-        this.descriptor = (XMLSecurityDescriptor)new XMLDescriptorReader().read(securityDescriptorFile, XMLSecurityDescriptorHandler.class);
-        this.descriptor.check();
+        this.lastModified = securityDescriptorFile.lastModified();
+        this.descriptor = readDescriptor();
+    }
+    
+    private XMLSecurityDescriptor readDescriptor() throws JMSException
+    {
+    	XMLSecurityDescriptor newDescriptor = (XMLSecurityDescriptor)new XMLDescriptorReader().read(securityDescriptorFile, XMLSecurityDescriptorHandler.class);
+    	newDescriptor.check();
+    	return newDescriptor;
+    }
+    
+    /**
+     * Reload the security descriptor file
+     */
+    public synchronized void reload() throws JMSException
+    {
+    	this.lastModified = securityDescriptorFile.lastModified();
+    	XMLSecurityDescriptor newDescriptor = readDescriptor();
+    	
+    	// Update existing users in place
+    	Iterator<String> userNames = descriptor.getUserNames().iterator();
+    	while (userNames.hasNext())
+    	{
+    		String userName = userNames.next();
+    		User user = descriptor.getUser(userName);
+    		User newUser = newDescriptor.getUser(userName);
+    		if (newUser != null)
+    		{
+    			user.setPassword(newUser.getPassword());
+    			user.setPrivileges(newUser.getPrivileges());
+    		}
+    		else
+    		{
+    			// Revoke all privileges of removed users
+    			user.setPrivileges(new ArrayList<Privilege>());
+    			descriptor.removeUser(userName);
+    		}
+    	}
+    	
+    	// Add new users
+    	userNames = newDescriptor.getUserNames().iterator();
+    	while (userNames.hasNext())
+    	{
+    		String userName = userNames.next();
+    		if (descriptor.getUser(userName) == null)
+    			descriptor.addUser(newDescriptor.getUser(userName));
+    	}
+    	
+    	log.info("Reloaded security descriptor : "+securityDescriptorFile.getAbsolutePath());
+    }
+    
+    private synchronized void reloadIfModified()
+    {
+    	if (securityDescriptorFile.lastModified() == lastModified)
+    		return;
+    	
+    	try
+    	{
+    		reload();
+    	}
+    	catch (JMSException e)
+    	{
+    		log.error("Cannot reload security descriptor, keeping previous version",e);
+    	}
     }
 
     /*
@@ -60,6 +134,8 @@ public final class XMLSecurityConnector implements SecurityConnector
 		if (userName == null)
 			throw new FFMQSecurityException("User name not specified","INVALID_SECURITY_DESCRIPTOR");
 		
+		reloadIfModified();
+		
 		// Check user and password
 		User user = descriptor.getUser(userName);
         if (user == null || !user.getPassword().equals(password))
@@ -17,9 +17,11 @@
  */
 package net.timewalker.ffmq4.security;
 
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 
 import javax.jms.JMSException;
 
@@ -42,6 +44,16 @@ public final class XMLSecurityDescriptor extends AbstractXMLBasedDescriptor
         userMap.put(user.getName(), user);
     }
     
+    public void removeUser( String userName )
+    {
+        userMap.remove(userName);
+    }
+    
+    public Set<String> getUserNames()
+    {
+        return new HashSet<>(userMap.keySet());
+    }
+    
     /*
      * (non-Javadoc)
      * @see net.timewalker.ffmq4.utils.Checkable#check()
@@ -16,6 +16,7 @@ import net.timewalker.ffmq4.test.local.selector.MessageSelectionTest;
 import net.timewalker.ffmq4.test.local.session.LocalQueueSessionTest;
 import net.timewalker.ffmq4.test.local.session.LocalSessionTest;
 import net.timewalker.ffmq4.test.remote.ClientSettingsTest;
+import net.timewalker.ffmq4.test.remote.NIODispatchTest;
 import net.timewalker.ffmq4.test.remote.RemoteQueueMultiConnListenerTest;
 import net.timewalker.ffmq4.test.remote.RemoteQueueMultiConnReceiverTest;
 import net.timewalker.ffmq4.test.remote.RemoteQueueSingleConnListenerTest;
@@ -27,6 +28,7 @@ import net.timewalker.ffmq4.test.remote.RemoteTopicSingleConnListenerTest;
 import net.timewalker.ffmq4.test.remote.RemoteTopicSingleConnReceiverTest;
 import net.timewalker.ffmq4.test.remote.session.RemoteQueueSessionTest;
 import net.timewalker.ffmq4.test.remote.session.RemoteSessionTest;
+import net.timewalker.ffmq4.test.security.XMLSecurityConnectorTest;
 
 /**
  * AllTests
@@ -40,6 +42,7 @@ public class AllServerTests extends TestCase
         suite.addTestSuite(MessageSerializerTest.class);
         
         suite.addTestSuite(ClientSettingsTest.class);
+        suite.addTestSuite(XMLSecurityConnectorTest.class);
         suite.addTestSuite(LocalSessionTest.class);
         suite.addTestSuite(LocalQueueSessionTest.class);
         suite.addTestSuite(RemoteSessionTest.class);
@@ -47,6 +50,7 @@ public class AllServerTests extends TestCase
         suite.addTestSuite(MessageSelectionTest.class);
         
         suite.addTestSuite(RemoteToLocalTest.class);
+        suite.addTestSuite(NIODispatchTest.class);
         
         suite.addTestSuite(LocalQueueSingleConnReceiverTest.class);
         suite.addTestSuite(LocalQueueSingleConnListenerTest.class);
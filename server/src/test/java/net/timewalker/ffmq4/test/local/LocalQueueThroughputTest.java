@@ -0,0 +1,112 @@
+package net.timewalker.ffmq4.test.local;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import net.timewalker.ffmq4.test.AbstractQueuerTest;
+
+/**
+ * LocalQueueThroughputTest
+ */
+public class LocalQueueThroughputTest extends AbstractQueuerTest
+{
+	private static final int MESSAGES_PER_PRODUCER = 2000;
+	
+	/* (non-Javadoc)
+	 * @see net.timewalker.ffmq4.test.AbstractQueuerTest#isRemote()
+	 */
+	@Override
+	protected boolean isRemote()
+	{
+		return false;
+	}
+	
+	public void testMultiProducerMultiConsumerScaling() throws Exception
+	{
+		int[] threadCounts = { 1, 2, 4, 8 };
+		for (int i = 0; i < threadCounts.length; i++)
+			runThroughputTest(threadCounts[i]);
+	}
+	
+	private void runThroughputTest( int threadCount ) throws Exception
+	{
+		final int totalMessages = threadCount*MESSAGES_PER_PRODUCER;
+		final AtomicInteger received = new AtomicInteger();
+		final Throwable[] failure = new Throwable[1];
+		
+		Thread[] threads = new Thread[threadCount*2];
+		Connection[] connections = new Connection[threadCount*2];
+		for (int n = 0; n < threadCount; n++)
+		{
+			// Producer
+			connections[n] = createConnection();
+			final Session producerSession = connections[n].createSession(false, Session.AUTO_ACKNOWLEDGE);
+			final MessageProducer producer = producerSession.createProducer(queue1);
+			threads[n] = new Thread("Producer"+(n+1)) {
+				@Override
+				public void run()
+				{
+					try
+					{
+						for (int m = 0; m < MESSAGES_PER_PRODUCER; m++)
+						{
+							// Mix volatile and persistent traffic on the same queue
+							int deliveryMode = (m % 2 == 0) ? DeliveryMode.NON_PERSISTENT : DeliveryMode.PERSISTENT;
+							producer.send(producerSession.createTextMessage("msg"+m), deliveryMode, 4, 0);
+						}
+					}
+					catch (Throwable e)
+					{
+						failure[0] = e;
+					}
+				}
+			};
+			
+			// Consumer
+			connections[threadCount+n] = createConnection();
+			connections[threadCount+n].start();
+			Session consumerSession = connections[threadCount+n].createSession(false, Session.AUTO_ACKNOWLEDGE);
+			final MessageConsumer consumer = consumerSession.createConsumer(queue1);
+			threads[threadCount+n] = new Thread("Consumer"+(n+1)) {
+				@Override
+				public void run()
+				{
+					try
+					{
+						while (received.get() < totalMessages)
+						{
+							if (consumer.receive(100) != null)
+								received.incrementAndGet();
+						}
+					}
+					catch (Throwable e)
+					{
+						failure[0] = e;
+					}
+				}
+			};
+		}
+		
+		long start = System.currentTimeMillis();
+		for (int n = 0; n < threads.length; n++)
+			threads[n].start();
+		for (int n = 0; n < threads.length; n++)
+			threads[n].join(60*1000);
+		long end = System.currentTimeMillis();
+		
+		for (int n = 0; n < connections.length; n++)
+			connections[n].close();
+		
+		if (failure[0] != null)
+			throw new Exception(failure[0]);
+		assertEquals(totalMessages, received.get());
+		
+		long duration = Math.max(end-start, 1);
+		System.out.println(threadCount+" producer(s) / "+threadCount+" consumer(s) : "+totalMessages+" messages in "+duration+" ms ("+(totalMessages*1000L/duration)+" msg/s)");
+	}
+}
@@ -1,7 +1,10 @@
 package net.timewalker.ffmq4.test.local.session;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
 import java.util.Random;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
@@ -30,11 +33,16 @@ import javax.jms.TemporaryQueue;
 import javax.jms.TemporaryTopic;
 import javax.jms.TextMessage;
 
+import net.timewalker.ffmq4.FFMQCoreSettings;
 import net.timewalker.ffmq4.FFMQException;
 import net.timewalker.ffmq4.common.destination.QueueRef;
+import net.timewalker.ffmq4.common.session.AbstractMessageProducer;
+import net.timewalker.ffmq4.local.FFMQEngine;
+import net.timewalker.ffmq4.local.destination.LocalQueue;
 import net.timewalker.ffmq4.storage.data.DataStoreFullException;
 import net.timewalker.ffmq4.test.AbstractCommTest;
 import net.timewalker.ffmq4.test.TestUtils;
+import net.timewalker.ffmq4.utils.Settings;
 import net.timewalker.ffmq4.utils.id.UUIDProvider;
 
 /**
@@ -752,6 +760,80 @@ public class LocalSessionTest extends AbstractCommTest
 			fail(lastConnectionFailure.toString());
 	}
 
+	public void testProactiveExpiration() throws Exception
+	{
+		LocalQueue localQueue = engine.getLocalQueue(queue1.getQueueName());
+		long expiredCount = localQueue.getExpiredCount();
+		
+		// Produce, without any consumer
+		Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+		MessageProducer producer = session.createProducer(queue1);
+		for (int n = 0; n < 3; n++)
+			producer.send(session.createTextMessage("MSG_Expired"+n), TestUtils.DELIVERY_MODE, 3, 200);
+		producer.send(session.createTextMessage("MSG_1"), TestUtils.DELIVERY_MODE, 3, 0);
+		session.commit();
+		session.close();
+		assertEquals(4, localQueue.getSize());
+		assertEquals(3, localQueue.getScheduledExpirationCount());
+		
+		// Expired messages are purged by the engine timing wheel
+		Thread.sleep(1000);
+		assertEquals(1, localQueue.getSize());
+		assertEquals(expiredCount+3, localQueue.getExpiredCount());
+		assertEquals(0, localQueue.getScheduledExpirationCount());
+	}
+	
+	public void testExpirationAfterRestart() throws Exception
+	{
+		storeExpiringMessages();
+		
+		// Messages recovered from the persistent store are purged without any consumer
+		LocalQueue localQueue = restartEngine(false);
+		Thread.sleep(1500);
+		assertEquals(1, localQueue.getSize());
+		assertEquals(1, localQueue.getExpiredCount());
+		assertEquals(0, localQueue.getScheduledExpirationCount());
+	}
+	
+	public void testExpirationAfterLazyRestart() throws Exception
+	{
+		storeExpiringMessages();
+		
+		// Expirations are only scheduled once the lazy store is opened
+		LocalQueue localQueue = restartEngine(true);
+		assertEquals(0, localQueue.getScheduledExpirationCount());
+		localQueue.getSize();
+		Thread.sleep(1500);
+		assertEquals(1, localQueue.getSize());
+		assertEquals(1, localQueue.getExpiredCount());
+		assertEquals(0, localQueue.getScheduledExpirationCount());
+	}
+	
+	private void storeExpiringMessages() throws Exception
+	{
+		Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+		MessageProducer producer = session.createProducer(queue1);
+		producer.send(session.createTextMessage("MSG_Expired"), DeliveryMode.PERSISTENT, 3, 1000);
+		producer.send(session.createTextMessage("MSG_1"), DeliveryMode.PERSISTENT, 3, 0);
+		session.commit();
+		session.close();
+		connection.close();
+	}
+	
+	private LocalQueue restartEngine( boolean lazyStores ) throws Exception
+	{
+		Settings settings = new Settings((Properties)engine.getSetup().getSettings().asProperties().clone());
+		settings.setBooleanProperty(FFMQCoreSettings.DEPLOY_LAZY_STORES, lazyStores);
+		
+		engine.undeploy();
+		engine = new FFMQEngine(TestUtils.LOCAL_ENGINE_NAME, settings, null);
+		engine.deploy();
+		
+		LocalQueue localQueue = engine.getLocalQueue(queue1.getQueueName());
+		queue1 = localQueue;
+		return localQueue;
+	}
+
 	public void testCommit() throws Exception
 	{
 		Session session;
@@ -2537,4 +2619,77 @@ public class LocalSessionTest extends AbstractCommTest
     	
     	session.close();
     }
+    
+    public void testSendBatch() throws Exception
+    {
+    	Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+    	MessageProducer producer = session.createProducer(queue1);
+    	producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+    	
+    	List<Message> batch = new ArrayList<>();
+    	for (int n = 0; n < 10; n++)
+    		batch.add(session.createTextMessage("msg"+n));
+    	((AbstractMessageProducer)producer).sendBatch(batch);
+    	
+    	MessageConsumer consumer = session.createConsumer(queue1);
+    	connection.start();
+    	for (int n = 0; n < 10; n++)
+    	{
+    		TextMessage msg = (TextMessage)consumer.receive(RECV_TIMEOUT);
+    		assertNotNull(msg);
+    		assertEquals("msg"+n, msg.getText());
+    	}
+    	assertNull(consumer.receive(RECV_TIMEOUT));
+    	
+    	session.close();
+    }
+    
+    public void testSendBatchThroughput() throws Exception
+    {
+    	System.out.println("--------- Single vs batched put throughput ("+(isRemote() ? "remote" : "local")+") ---------");
+    	measurePutThroughput(100);
+    	measurePutThroughput(10*1024);
+    }
+    
+    private void measurePutThroughput( int msgSize ) throws Exception
+    {
+    	int msgCount = 1000;
+    	int batchSize = 50;
+    	byte[] payload = new byte[msgSize];
+    	
+    	Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+    	MessageProducer producer = session.createProducer(queue1);
+    	producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+    	
+    	long start = System.nanoTime();
+    	for (int n = 0; n < msgCount; n++)
+    	{
+    		BytesMessage msg = session.createBytesMessage();
+    		msg.writeBytes(payload);
+    		producer.send(msg);
+    	}
+    	long singleTime = System.nanoTime()-start;
+    	assertEquals(msgCount, ((LocalQueue)queue1).getSize());
+    	((LocalQueue)queue1).purge(null);
+    	
+    	start = System.nanoTime();
+    	for (int n = 0; n < msgCount; n += batchSize)
+    	{
+    		List<Message> batch = new ArrayList<>(batchSize);
+    		for (int i = 0; i < batchSize; i++)
+    		{
+	    		BytesMessage msg = session.createBytesMessage();
+	    		msg.writeBytes(payload);
+	    		batch.add(msg);
+    		}
+    		((AbstractMessageProducer)producer).sendBatch(batch);
+    	}
+    	long batchTime = System.nanoTime()-start;
+    	assertEquals(msgCount, ((LocalQueue)queue1).getSize());
+    	((LocalQueue)queue1).purge(null);
+    	
+    	session.close();
+    	
+    	System.out.println(msgSize+" bytes messages : single "+(msgCount*1000000000L/singleTime)+" msg/s, batched ("+batchSize+") "+(msgCount*1000000000L/batchTime)+" msg/s");
+    }
 }
@@ -0,0 +1,333 @@
+package net.timewalker.ffmq4.test.remote;
+
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import junit.framework.TestCase;
+import net.timewalker.ffmq4.FFMQConstants;
+import net.timewalker.ffmq4.FFMQServerSettings;
+import net.timewalker.ffmq4.listeners.tcp.nio.NIOTcpListener;
+import net.timewalker.ffmq4.local.FFMQEngine;
+import net.timewalker.ffmq4.local.destination.LocalQueue;
+import net.timewalker.ffmq4.test.TestUtils;
+import net.timewalker.ffmq4.utils.Settings;
+import net.timewalker.ffmq4.utils.async.AsyncTask;
+import net.timewalker.ffmq4.utils.async.AsyncTaskManager;
+
+/**
+ * NIODispatchTest
+ * <p>Checks that a client stuck in a slow commit does not delay the requests of other clients
+ * connected to the same NIO listener.</p>
+ * <p>Slow disk syncs are simulated by keeping the engine disk I/O workers busy, so that
+ * journal flushes (and thus commits) have to wait.</p>
+ */
+public class NIODispatchTest extends TestCase
+{
+	private static final int DISK_STALL_DELAY = 100; // ms
+	private static final int FAST_CLIENTS = 8;
+	private static final int FAST_ROUND_TRIPS = 200;
+
+	private FFMQEngine engine;
+	private NIOTcpListener listener;
+	private LocalQueue slowQueue;
+	private LocalQueue fastQueue;
+
+	private void startServer( boolean dispatchEnabled ) throws Exception
+	{
+		String ffmqHome = System.getProperty("FFMQ_HOME");
+    	if (ffmqHome == null)
+    	{
+    		ffmqHome = "..";
+    		System.setProperty("FFMQ_HOME",ffmqHome);
+    	}
+    	String ffmqBase = System.getProperty("FFMQ_BASE");
+    	if (ffmqBase == null)
+    	{
+    		ffmqBase = ffmqHome;
+    		System.setProperty("FFMQ_BASE",ffmqBase);
+    	}
+
+		Properties testSettings = new Properties();
+        FileInputStream in = new FileInputStream(ffmqBase+"/conf/ffmq-server.properties");
+        testSettings.load(in);
+        in.close();
+        testSettings.setProperty(FFMQServerSettings.LISTENER_TCP_NIO_DISPATCH_ENABLED, String.valueOf(dispatchEnabled));
+        Settings settings = new Settings(testSettings);
+
+        engine = new FFMQEngine(TestUtils.LOCAL_ENGINE_NAME,settings,null);
+        engine.deploy();
+        slowQueue = engine.getLocalQueue("TEST1");
+        fastQueue = engine.getLocalQueue("TEST2");
+        slowQueue.purge(null);
+        fastQueue.purge(null);
+
+        listener = new NIOTcpListener(engine,
+                                      FFMQConstants.DEFAULT_SERVER_HOST,
+                                      TestUtils.TEST_SERVER_PORT,
+                                      settings);
+        listener.start();
+	}
+
+	private void stopServer() throws Exception
+	{
+		if (listener != null)
+			listener.stop();
+		if (engine != null)
+			engine.undeploy();
+		listener = null;
+		engine = null;
+	}
+
+	public void testSlowCommitterDoesNotStallOtherClients() throws Exception
+	{
+		long[] unaffected = measure(true);
+		System.out.println("Dispatch enabled  : fast clients p99="+unaffected[0]+" ms, max="+unaffected[1]+" ms, avg commit="+unaffected[2]+" ms");
+
+		long[] blocked = measure(false);
+		System.out.println("Dispatch disabled : fast clients p99="+blocked[0]+" ms, max="+blocked[1]+" ms, avg commit="+blocked[2]+" ms");
+
+		// Only meaningful if commits are slow enough to be noticed
+		if (unaffected[2] >= 20)
+			assertTrue("Fast clients were delayed by the slow committer : p99="+unaffected[0]+" ms, avg commit="+unaffected[2]+" ms",
+					   unaffected[0] < unaffected[2]);
+	}
+
+	/**
+	 * @return { fast clients 99th percentile round-trip, fast clients max round-trip, committer average commit time }
+	 */
+	private long[] measure( boolean dispatchEnabled ) throws Exception
+	{
+		startServer(dispatchEnabled);
+		try
+		{
+			DiskStaller staller = new DiskStaller(engine.getDiskIOAsyncTaskManager());
+			staller.start();
+			SlowCommitter committer = new SlowCommitter();
+			committer.start();
+			while (committer.commits == 0 && committer.failure == null)
+				Thread.sleep(10);
+
+			List<FastClient> clients = new ArrayList<>();
+			for (int i = 0; i < FAST_CLIENTS; i++)
+				clients.add(new FastClient());
+			for (int i = 0; i < clients.size(); i++)
+				clients.get(i).start();
+			for (int i = 0; i < clients.size(); i++)
+				clients.get(i).join(60*1000);
+
+			committer.pleaseStop();
+			committer.join(60*1000);
+			staller.pleaseStop();
+			staller.join(60*1000);
+			if (committer.failure != null)
+				throw committer.failure;
+			if (staller.failure != null)
+				throw staller.failure;
+
+			long[] allRoundTrips = new long[FAST_CLIENTS*FAST_ROUND_TRIPS];
+			for (int i = 0; i < clients.size(); i++)
+			{
+				FastClient client = clients.get(i);
+				if (client.failure != null)
+					throw client.failure;
+				System.arraycopy(client.roundTrips, 0, allRoundTrips, i*FAST_ROUND_TRIPS, FAST_ROUND_TRIPS);
+			}
+			Arrays.sort(allRoundTrips);
+
+			return new long[] {
+				allRoundTrips[allRoundTrips.length*99/100],
+				allRoundTrips[allRoundTrips.length-1],
+				committer.totalCommitTime/committer.commits
+			};
+		}
+		finally
+		{
+			stopServer();
+		}
+	}
+
+	//-------------------------------------------------------------------------
+
+	private static class DiskStaller extends Thread
+	{
+		private AsyncTaskManager diskIOManager;
+		protected volatile boolean stopRequired;
+		protected volatile Exception failure;
+
+		/**
+		 * Constructor
+		 */
+		public DiskStaller( AsyncTaskManager diskIOManager )
+		{
+			super("DiskStaller");
+			this.diskIOManager = diskIOManager;
+		}
+
+		public void pleaseStop()
+		{
+			stopRequired = true;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Thread#run()
+		 */
+		@Override
+		public void run()
+		{
+			try
+			{
+				while (!stopRequired)
+				{
+					// Occupy all disk I/O workers for a while
+					int workers = diskIOManager.getThreadPoolMaxSize();
+					final CountDownLatch done = new CountDownLatch(workers);
+					for (int i = 0; i < workers; i++)
+					{
+						diskIOManager.execute(new AsyncTask() {
+							@Override
+							public void execute()
+							{
+								try
+								{
+									Thread.sleep(DISK_STALL_DELAY);
+								}
+								catch (InterruptedException e)
+								{
+									Thread.currentThread().interrupt();
+								}
+								done.countDown();
+							}
+
+							@Override
+							public boolean isMergeable()
+							{
+								return false;
+							}
+						});
+					}
+					done.await();
+				}
+			}
+			catch (Exception e)
+			{
+				failure = e;
+			}
+		}
+	}
+
+	private class SlowCommitter extends Thread
+	{
+		protected volatile boolean stopRequired;
+		protected volatile int commits;
+		protected volatile long totalCommitTime;
+		protected volatile Exception failure;
+
+		/**
+		 * Constructor
+		 */
+		public SlowCommitter()
+		{
+			super("SlowCommitter");
+		}
+
+		public void pleaseStop()
+		{
+			stopRequired = true;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Thread#run()
+		 */
+		@Override
+		public void run()
+		{
+			try
+			{
+				Connection connection = TestUtils.openRemoteConnection();
+				Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+				MessageProducer producer = session.createProducer(slowQueue);
+				producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+				BytesMessage msg = session.createBytesMessage();
+				msg.writeBytes(new byte[1024]);
+
+				while (!stopRequired)
+				{
+					producer.send(msg);
+
+					long start = System.currentTimeMillis();
+					session.commit();
+					totalCommitTime += System.currentTimeMillis() - start;
+					commits++;
+
+					slowQueue.purge(null);
+				}
+				connection.close();
+			}
+			catch (Exception e)
+			{
+				failure = e;
+			}
+		}
+	}
+
+	private class FastClient extends Thread
+	{
+		protected long[] roundTrips = new long[FAST_ROUND_TRIPS];
+		protected volatile Exception failure;
+
+		/**
+		 * Constructor
+		 */
+		public FastClient()
+		{
+			super("FastClient");
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Thread#run()
+		 */
+		@Override
+		public void run()
+		{
+			try
+			{
+				Connection connection = TestUtils.openRemoteConnection();
+				connection.start();
+				Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+				String selector = "client='"+getId()+"'";
+				MessageProducer producer = session.createProducer(fastQueue);
+				producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+				MessageConsumer consumer = session.createConsumer(fastQueue,selector);
+
+				for (int i = 0; i < FAST_ROUND_TRIPS; i++)
+				{
+					Message msg = session.createTextMessage("ping");
+					msg.setStringProperty("client", String.valueOf(getId()));
+
+					long start = System.currentTimeMillis();
+					producer.send(msg);
+					if (consumer.receive(30*1000) == null)
+						throw new IllegalStateException("Round-trip timeout");
+					roundTrips[i] = System.currentTimeMillis() - start;
+				}
+				connection.close();
+			}
+			catch (Exception e)
+			{
+				failure = e;
+			}
+		}
+	}
+}
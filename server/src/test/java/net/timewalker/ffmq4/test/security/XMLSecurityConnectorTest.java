@@ -0,0 +1,189 @@
+package net.timewalker.ffmq4.test.security;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import javax.jms.JMSException;
+
+import junit.framework.TestCase;
+import net.timewalker.ffmq4.FFMQException;
+import net.timewalker.ffmq4.FFMQServerSettings;
+import net.timewalker.ffmq4.common.destination.QueueRef;
+import net.timewalker.ffmq4.local.connection.LocalConnection;
+import net.timewalker.ffmq4.security.Action;
+import net.timewalker.ffmq4.security.SecurityContext;
+import net.timewalker.ffmq4.security.XMLSecurityConnector;
+import net.timewalker.ffmq4.utils.Settings;
+import net.timewalker.ffmq4.utils.StringTools;
+
+/**
+ * XMLSecurityConnectorTest
+ */
+public class XMLSecurityConnectorTest extends TestCase
+{
+	private File securityFile;
+
+	/* (non-Javadoc)
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		securityFile = File.createTempFile("security", ".xml");
+	}
+
+	/* (non-Javadoc)
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	@Override
+	protected void tearDown() throws Exception
+	{
+		securityFile.delete();
+		super.tearDown();
+	}
+
+	/**
+	 * Write a descriptor with a single user having the given privileges (or no user at all if null)
+	 */
+	private void writeSecurityFile( String privileges ) throws Exception
+	{
+		long previousModification = securityFile.lastModified();
+
+		Writer out = new OutputStreamWriter(new FileOutputStream(securityFile), "UTF-8");
+		try
+		{
+			out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n<security><users>\n");
+			if (privileges != null)
+				out.write("<user name=\"test\" password=\"test\">\n"+privileges+"</user>\n");
+			out.write("</users></security>\n");
+		}
+		finally
+		{
+			out.close();
+		}
+
+		// Make sure the modification is visible despite the file system timestamp resolution
+		if (securityFile.lastModified() <= previousModification)
+			securityFile.setLastModified(previousModification+1000);
+	}
+
+	private XMLSecurityConnector createConnector() throws Exception
+	{
+		Settings settings = new Settings();
+		settings.setStringProperty(FFMQServerSettings.SECURITY_CONNECTOR_XML_SECURITY, securityFile.getAbsolutePath());
+		return new XMLSecurityConnector(settings);
+	}
+
+	private static boolean isGranted( LocalConnection connection , String resourceName , String action )
+	{
+		try
+		{
+			connection.checkPermission(resourceName, action);
+			return true;
+		}
+		catch (JMSException e)
+		{
+			return false;
+		}
+	}
+
+	public void testCompiledPatterns() throws Exception
+	{
+		String[] patterns = { "" , "*" , "queue/*" , "queue/A?C" , "*/TEST" , "q*e*/*X" , "queue/EXACT" , "??" };
+		String[] names = { "" , "queue/TEST" , "topic/TEST" , "queue/ABC" , "queue/AC" , "queue/EXACT" , "queue/EXACTX" , "ab" };
+		for (int i = 0 ; i < patterns.length ; i++)
+			for (int j = 0 ; j < names.length ; j++)
+				assertEquals(patterns[i]+" / "+names[j],
+				             StringTools.matches(names[j], patterns[i]),
+				             StringTools.matches(names[j], StringTools.compilePattern(patterns[i])));
+	}
+
+	public void testCachedPermissionsInvalidatedOnReload() throws Exception
+	{
+		writeSecurityFile("<privilege resource=\"queue/TEST*\" actions=\"consume,produce\"/>\n");
+		XMLSecurityConnector connector = createConnector();
+
+		SecurityContext context = connector.getContext("test", "test");
+		LocalConnection connection = new LocalConnection(null, context, null);
+
+		for (int n = 0 ; n < 2 ; n++)
+		{
+			connection.checkPermission(new QueueRef("TEST1"), Action.PRODUCE);
+			assertTrue(isGranted(connection, "queue/TEST1", Action.CONSUME));
+			assertFalse(isGranted(connection, "queue/TEST1", Action.BROWSE));
+			assertFalse(isGranted(connection, "queue/OTHER", Action.PRODUCE));
+		}
+
+		// Change privileges, the open connection must see them
+		writeSecurityFile("<privilege resource=\"queue/OTHER\" actions=\"produce\"/>\n");
+		assertSame(context, connector.getContext("test", "test"));
+		assertFalse(isGranted(connection, "queue/TEST1", Action.PRODUCE));
+		assertTrue(isGranted(connection, "queue/OTHER", Action.PRODUCE));
+
+		// Remove the user
+		writeSecurityFile(null);
+		try
+		{
+			connector.getContext("test", "test");
+			fail("Should have failed");
+		}
+		catch (JMSException e)
+		{
+			// Expected
+		}
+		assertFalse(isGranted(connection, "queue/OTHER", Action.PRODUCE));
+	}
+
+	public void testUnversionedContextNotCached() throws Exception
+	{
+		final boolean[] granted = { true };
+		SecurityContext context = new SecurityContext() {
+			/*
+			 * (non-Javadoc)
+			 * @see net.timewalker.ffmq4.security.SecurityContext#checkPermission(java.lang.String, java.lang.String)
+			 */
+			@Override
+			public void checkPermission( String resourceName , String action ) throws JMSException
+			{
+				if (!granted[0])
+					throw new FFMQException("Access denied","ACCESS_DENIED");
+			}
+		};
+		LocalConnection connection = new LocalConnection(null, context, null);
+
+		assertTrue(isGranted(connection, "queue/TEST", Action.PRODUCE));
+		granted[0] = false;
+		assertFalse(isGranted(connection, "queue/TEST", Action.PRODUCE));
+	}
+
+	public void testPermissionCheckBenchmark() throws Exception
+	{
+		StringBuilder privileges = new StringBuilder();
+		for (int n = 0 ; n < 50 ; n++)
+			privileges.append("<privilege resource=\"queue/APP"+n+"_*\" actions=\"consume,produce\"/>\n");
+		writeSecurityFile(privileges.toString());
+
+		SecurityContext context = createConnector().getContext("test", "test");
+		LocalConnection connection = new LocalConnection(null, context, null);
+		int iterations = 200000;
+
+		for (int pass = 0 ; pass < 2 ; pass++)
+		{
+			long start = System.nanoTime();
+			for (int n = 0 ; n < iterations ; n++)
+				context.checkPermission("queue/APP49_IN", Action.PRODUCE);
+			long contextTime = System.nanoTime()-start;
+
+			start = System.nanoTime();
+			for (int n = 0 ; n < iterations ; n++)
+				connection.checkPermission("queue/APP49_IN", Action.PRODUCE);
+			long cachedTime = System.nanoTime()-start;
+
+			if (pass > 0)
+				System.out.println("Permission check with 50 privileges : uncached="+(contextTime/iterations)+"ns cached="+(cachedTime/iterations)+"ns");
+		}
+	}
+}